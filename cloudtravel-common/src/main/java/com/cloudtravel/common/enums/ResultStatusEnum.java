@@ -8,7 +8,9 @@ public enum  ResultStatusEnum {
     /**  ok */
     OK("00000" , "ok") ,
 
-    NOT_FOUNT_BEAN("00001" , "Not fount bean of ");
+    NOT_FOUNT_BEAN("00001" , "Not fount bean of "),
+
+    CACHE_LOAD_FAILED("00002" , "Cache load failed of ");
 
     private String code;
 
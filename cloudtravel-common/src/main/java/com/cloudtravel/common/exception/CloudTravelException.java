@@ -20,6 +20,7 @@ public class CloudTravelException extends RuntimeException {
 
     public CloudTravelException(String message) {
         super(message);
+        this.message = message;
     }
 
 
@@ -0,0 +1,109 @@
+package com.cloudtravel.common.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 在两个库之间同步行的公共方法: 标识符检查、行的CRC32、先删后插的写入.
+ * 在线迁移租户(TenantMigrationJob)和重新分片(ReshardingJob)共用, 两边的校验结果按同一算法计算
+ */
+public final class RowSyncHelper {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private RowSyncHelper() {
+    }
+
+    /**
+     * 表名、列名会拼接进sql, 只允许字母、数字和下划线
+     * @param identifier
+     * @return
+     */
+    public static boolean isIdentifier(String identifier) {
+        return identifier != null && IDENTIFIER.matcher(identifier).matches();
+    }
+
+    /**
+     * 单行的CRC32
+     */
+    public static long checksum(Object[] row) {
+        CRC32 crc32 = new CRC32();
+        for (Object value : row) {
+            if(value instanceof byte[]) {
+                crc32.update((byte[]) value);
+            }else if(value != null) {
+                crc32.update(value.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            //分隔符, 避免相邻列拼接后相同; null与空串区分
+            crc32.update(value == null ? 0 : 0x1F);
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * 把一个long的8个字节按小端顺序加入CRC32, 用于合并多行的CRC32
+     */
+    public static void update(CRC32 crc32 , long value) {
+        for (int i = 0; i < 8; i++) {
+            crc32.update((int) (value >>> (i * 8)));
+        }
+    }
+
+    public static String insertSql(String table , List<String> columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                .append(String.join(", " , columns)).append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * 在一个事务中批量删除再批量插入, 失败时回滚
+     * @param connection
+     * @param deleteSql 删除语句, 每组参数执行一次
+     * @param deleteParams
+     * @param insertSql 插入语句, 每行执行一次, 列与行的下标对应
+     * @param values
+     * @throws SQLException
+     */
+    public static void deleteAndInsert(Connection connection , String deleteSql , List<Object[]> deleteParams ,
+                                       String insertSql , List<Object[]> values) throws SQLException {
+        if(deleteParams.isEmpty() && values.isEmpty()) {
+            return;
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            if(!deleteParams.isEmpty()) {
+                executeBatch(connection , deleteSql , deleteParams);
+            }
+            if(!values.isEmpty()) {
+                executeBatch(connection , insertSql , values);
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void executeBatch(Connection connection , String sql , List<Object[]> params) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] param : params) {
+                for (int i = 0; i < param.length; i++) {
+                    statement.setObject(i + 1 , param[i]);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.cloudtravel.common.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 一批按主键排序的查询结果, 在线迁移租户和重新分片复制、校验时共用
+ */
+public final class Rows {
+
+    private final List<String> columns;
+
+    /** 列名(不区分大小写) -> 下标 */
+    private final Map<String , Integer> columnIndexes;
+
+    private final List<Object[]> values = new ArrayList<>();
+
+    private final int keyIndex;
+
+    private Rows(List<String> columns , Map<String , Integer> columnIndexes , int keyIndex) {
+        this.columns = Collections.unmodifiableList(columns);
+        this.columnIndexes = columnIndexes;
+        this.keyIndex = keyIndex;
+    }
+
+    /**
+     * 读取结果集的全部行
+     * @param resultSet
+     * @param table 表名, 用于异常信息
+     * @param primaryKey 主键列, 结果中没有时抛出异常
+     * @return
+     * @throws SQLException
+     */
+    public static Rows read(ResultSet resultSet , String table , String primaryKey) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        List<String> columns = new ArrayList<>(metaData.getColumnCount());
+        Map<String , Integer> columnIndexes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String column = metaData.getColumnLabel(i);
+            columns.add(column);
+            columnIndexes.putIfAbsent(column , i - 1);
+        }
+        Integer keyIndex = columnIndexes.get(primaryKey);
+        if(keyIndex == null) {
+            throw new IllegalStateException("Primary key " + primaryKey + " not found in " + table);
+        }
+        Rows rows = new Rows(columns , columnIndexes , keyIndex);
+        while (resultSet.next()) {
+            Object[] row = new Object[columns.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = resultSet.getObject(i + 1);
+            }
+            rows.values.add(row);
+        }
+        return rows;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<Object[]> getValues() {
+        return values;
+    }
+
+    public int getKeyIndex() {
+        return keyIndex;
+    }
+
+    /**
+     * 列的下标, 不区分大小写
+     * @param column
+     * @return 没有该列时为-1
+     */
+    public int indexOf(String column) {
+        return columnIndexes.getOrDefault(column , -1);
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public Object key(Object[] row) {
+        return row[keyIndex];
+    }
+
+    public Object lastKey() {
+        return values.get(values.size() - 1)[keyIndex];
+    }
+
+    public List<Object> keys() {
+        List<Object> keys = new ArrayList<>(values.size());
+        for (Object[] row : values) {
+            keys.add(row[keyIndex]);
+        }
+        return keys;
+    }
+
+    /** 按顺序合并每行的CRC32 */
+    public long checksum() {
+        CRC32 crc32 = new CRC32();
+        for (Object[] row : values) {
+            RowSyncHelper.update(crc32 , RowSyncHelper.checksum(row));
+        }
+        return crc32.getValue();
+    }
+}
@@ -0,0 +1,23 @@
+package com.cloudtravel.common.redis.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * 跨节点的L1失效通知, key为null时清空整个cache
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheInvalidation {
+
+    /** 发送通知的节点, 节点收到自己发出的通知时忽略 */
+    private String origin;
+
+    private String cacheName;
+
+    private String key;
+}
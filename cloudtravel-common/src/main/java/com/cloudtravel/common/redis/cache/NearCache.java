@@ -0,0 +1,180 @@
+package com.cloudtravel.common.redis.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 两级缓存: L1为本地caffeine, L2为redis.
+ * 读取时先查L1, 未命中再查L2并回填L1; 写入/删除时同时修改两级, 并通知其他节点删除各自的L1.
+ * L1以key的字符串形式为键, 值为ValueWrapper, 因此也能缓存null值
+ */
+public class NearCache implements org.springframework.cache.Cache {
+
+    private final String name;
+
+    private final Cache<String , ValueWrapper> local;
+
+    private final org.springframework.cache.Cache remote;
+
+    private final NearCacheManager manager;
+
+    private final NearCacheStats stats = new NearCacheStats();
+
+    NearCache(String name , Cache<String , ValueWrapper> local , org.springframework.cache.Cache remote , NearCacheManager manager) {
+        this.name = name;
+        this.local = local;
+        this.remote = remote;
+        this.manager = manager;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = localKey(key);
+        ValueWrapper wrapper = getLocal(localKey);
+        if(wrapper != null) {
+            return wrapper;
+        }
+        long start = System.nanoTime();
+        wrapper = remote.get(key);
+        stats.l2Nanos.add(System.nanoTime() - start);
+        if(wrapper == null) {
+            stats.l2Misses.increment();
+            return null;
+        }
+        stats.l2Hits.increment();
+        putLocal(localKey , wrapper);
+        return wrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key , Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper == null ? null : wrapper.get();
+        if(value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key , Callable<T> valueLoader) {
+        String localKey = localKey(key);
+        ValueWrapper wrapper = getLocal(localKey);
+        if(wrapper != null) {
+            return (T) wrapper.get();
+        }
+        long start = System.nanoTime();
+        wrapper = remote.get(key);
+        stats.l2Nanos.add(System.nanoTime() - start);
+        if(wrapper != null) {
+            stats.l2Hits.increment();
+            putLocal(localKey , wrapper);
+            return (T) wrapper.get();
+        }
+        stats.l2Misses.increment();
+        T value = remote.get(key , valueLoader);
+        putLocal(localKey , new SimpleValueWrapper(value));
+        return value;
+    }
+
+    @Override
+    public void put(Object key , Object value) {
+        remote.put(key , value);
+        String localKey = localKey(key);
+        putLocal(localKey , new SimpleValueWrapper(value));
+        manager.publish(name , localKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key , Object value) {
+        ValueWrapper existing = remote.putIfAbsent(key , value);
+        String localKey = localKey(key);
+        putLocal(localKey , existing == null ? new SimpleValueWrapper(value) : existing);
+        if(existing == null) {
+            manager.publish(name , localKey);
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        manager.publish(name , localKey);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = remote.evictIfPresent(key);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        manager.publish(name , localKey);
+        return present;
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        clearLocal();
+        manager.publish(name , null);
+    }
+
+    public NearCacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 只删除本节点的L1, 用于处理其他节点的失效通知
+     */
+    void invalidateLocal(String localKey) {
+        if(local != null) {
+            local.invalidate(localKey);
+        }
+    }
+
+    void clearLocal() {
+        if(local != null) {
+            local.invalidateAll();
+        }
+    }
+
+    private ValueWrapper getLocal(String localKey) {
+        if(local == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        ValueWrapper wrapper = local.getIfPresent(localKey);
+        stats.l1Nanos.add(System.nanoTime() - start);
+        if(wrapper == null) {
+            stats.l1Misses.increment();
+        } else {
+            stats.l1Hits.increment();
+        }
+        return wrapper;
+    }
+
+    private void putLocal(String localKey , ValueWrapper wrapper) {
+        if(local != null) {
+            local.put(localKey , wrapper);
+        }
+    }
+
+    private static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+}
@@ -0,0 +1,122 @@
+package com.cloudtravel.common.redis.cache;
+
+import com.cloudtravel.common.redis.config.NearCacheProperties;
+import com.cloudtravel.common.redis.utils.RedisUtils;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 两级缓存管理器: 在RedisCacheManager创建的cache前加一层本地caffeine.
+ * 写入/删除时通过redis pub/sub通知其他节点删除L1, 节点只处理其他节点发出的通知
+ */
+@Slf4j
+public class NearCacheManager implements CacheManager {
+
+    private final RedisCacheManager redisCacheManager;
+
+    private final NearCacheProperties properties;
+
+    private final RedisUtils redisUtils;
+
+    /** 本节点标识, 用于忽略自己发出的失效通知 */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String , NearCache> caches = new ConcurrentHashMap<>();
+
+    public NearCacheManager(RedisCacheManager redisCacheManager , NearCacheProperties properties ,
+                            RedisUtils redisUtils , RedisMessageListenerContainer listenerContainer ,
+                            RedisSerializer<?> messageSerializer) {
+        this.redisCacheManager = redisCacheManager;
+        this.properties = properties;
+        this.redisUtils = redisUtils;
+        listenerContainer.addMessageListener((message , pattern) -> {
+            Object body = messageSerializer.deserialize(message.getBody());
+            if(body instanceof CacheInvalidation) {
+                onInvalidation((CacheInvalidation) body);
+            }
+        } , new ChannelTopic(properties.getInvalidateChannel()));
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        NearCache cache = caches.get(name);
+        if(cache != null) {
+            return cache;
+        }
+        Cache remote = redisCacheManager.getCache(name);
+        if(remote == null) {
+            return null;
+        }
+        return caches.computeIfAbsent(name , n -> createCache(n , remote));
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    /**
+     * 各cache的统计信息
+     * @return cacheName -> 统计
+     */
+    public Map<String , NearCacheStats> getStats() {
+        Map<String , NearCacheStats> stats = new LinkedHashMap<>();
+        caches.forEach((name , cache) -> stats.put(name , cache.getStats()));
+        return stats;
+    }
+
+    void publish(String cacheName , String localKey) {
+        if(!properties.getSpec(cacheName).isLocalEnabled()) {
+            return;
+        }
+        try {
+            redisUtils.convertAndSend(properties.getInvalidateChannel() , new CacheInvalidation(nodeId , cacheName , localKey));
+        } catch (Exception e) {
+            //通知失败时其他节点的L1最迟在localTtl后过期
+            log.error("缓存失效通知发送失败,cacheName={},key={}" , cacheName , localKey , e);
+        }
+    }
+
+    private void onInvalidation(CacheInvalidation invalidation) {
+        if(nodeId.equals(invalidation.getOrigin())) {
+            return;
+        }
+        NearCache cache = caches.get(invalidation.getCacheName());
+        if(cache == null) {
+            return;
+        }
+        cache.getStats().invalidations.increment();
+        if(invalidation.getKey() == null) {
+            cache.clearLocal();
+        } else {
+            cache.invalidateLocal(invalidation.getKey());
+        }
+    }
+
+    private NearCache createCache(String name , Cache remote) {
+        NearCacheProperties.Spec spec = properties.getSpec(name);
+        com.github.benmanes.caffeine.cache.Cache<String , Cache.ValueWrapper> local = null;
+        if(spec.isLocalEnabled()) {
+            local = Caffeine.newBuilder()
+                    .maximumSize(spec.getLocalMaxSize())
+                    .expireAfterWrite(spec.getLocalTtl())
+                    .build();
+        }
+        log.info("两级缓存{}初始化,ttl={},localTtl={},localMaxSize={},localEnabled={}" , name , spec.getTtl() ,
+                spec.getLocalTtl() , spec.getLocalMaxSize() , spec.isLocalEnabled());
+        return new NearCache(name , local , remote , this);
+    }
+}
@@ -0,0 +1,63 @@
+package com.cloudtravel.common.redis.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个两级缓存的统计: 每一级的命中/未命中次数与读取耗时
+ */
+public class NearCacheStats {
+
+    final LongAdder l1Hits = new LongAdder();
+
+    final LongAdder l1Misses = new LongAdder();
+
+    final LongAdder l1Nanos = new LongAdder();
+
+    final LongAdder l2Hits = new LongAdder();
+
+    final LongAdder l2Misses = new LongAdder();
+
+    final LongAdder l2Nanos = new LongAdder();
+
+    final LongAdder invalidations = new LongAdder();
+
+    public long getL1Hits() {
+        return l1Hits.sum();
+    }
+
+    public long getL1Misses() {
+        return l1Misses.sum();
+    }
+
+    public long getL2Hits() {
+        return l2Hits.sum();
+    }
+
+    public long getL2Misses() {
+        return l2Misses.sum();
+    }
+
+    /** 收到的其他节点失效通知次数 */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /** L1平均读取耗时(纳秒) */
+    public long getL1AvgNanos() {
+        long count = getL1Hits() + getL1Misses();
+        return count == 0 ? 0 : l1Nanos.sum() / count;
+    }
+
+    /** L2平均读取耗时(纳秒), 含反序列化 */
+    public long getL2AvgNanos() {
+        long count = getL2Hits() + getL2Misses();
+        return count == 0 ? 0 : l2Nanos.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "l1Hits=" + getL1Hits() + ",l1Misses=" + getL1Misses() + ",l1AvgNanos=" + getL1AvgNanos()
+                + ",l2Hits=" + getL2Hits() + ",l2Misses=" + getL2Misses() + ",l2AvgNanos=" + getL2AvgNanos()
+                + ",invalidations=" + getInvalidations();
+    }
+}
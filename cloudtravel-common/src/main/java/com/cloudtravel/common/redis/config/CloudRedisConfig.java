@@ -1,5 +1,9 @@
 package com.cloudtravel.common.redis.config;
 
+import com.cloudtravel.common.redis.cache.NearCacheManager;
+import com.cloudtravel.common.redis.serializer.KryoRedisSerializer;
+import com.cloudtravel.common.redis.serializer.SerializerType;
+import com.cloudtravel.common.redis.utils.RedisUtils;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
@@ -27,13 +31,16 @@ import org.springframework.data.redis.connection.RedisSentinelConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
 import org.springframework.data.redis.core.*;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.text.SimpleDateFormat;
-import java.time.Duration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -67,13 +74,55 @@ public class CloudRedisConfig extends CachingConfigurerSupport{
 
 
     @Bean
-    public RedisTemplate<String , Object> redisTemplate(RedisConnectionFactory factory) {
+    public RedisTemplate<String , Object> redisTemplate(RedisConnectionFactory factory ,
+                                                        RedisSerializerProperties redisSerializerProperties ,
+                                                        KryoRedisSerializer kryoRedisSerializer) {
         RedisTemplate<String , Object> redisTemplate = new RedisTemplate<>();
         //设置连接工厂,工厂中初始化了redis的连接信息
         redisTemplate.setConnectionFactory(factory);
 
-        //使用Jackson2JsonRedisSerializer来序列化和反序列化redis的value值（默认使用JDK的序列化方式）
-        Jackson2JsonRedisSerializer jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer(Object.class);
+        //value默认使用Jackson2JsonRedisSerializer(RedisTemplate本身默认使用JDK的序列化方式), 可通过cloudtravel.redis.serializer.type切换为kryo
+        RedisSerializer<?> valueSerializer = valueSerializer(redisSerializerProperties.getType() , kryoRedisSerializer);
+
+        //key-value的序列化模式.key采用String类型 , value采用valueSerializer执行序列化
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(valueSerializer);
+
+        //设置hash类型的数据的key/value的序列化模式.这里key采用String类型 ,value采用valueSerializer
+        //不设置的话在针对hash类型的操作时会序列化解析异常
+        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
+        redisTemplate.setHashValueSerializer(valueSerializer);
+        return redisTemplate;
+    }
+
+    /**
+     * kryo二进制序列化, redisTemplate与各cache按配置选用
+     * @param redisSerializerProperties
+     * @return
+     */
+    @Bean
+    public KryoRedisSerializer kryoRedisSerializer(RedisSerializerProperties redisSerializerProperties) {
+        return new KryoRedisSerializer(redisSerializerProperties.getRegistrations() ,
+                redisSerializerProperties.getCompressThreshold());
+    }
+
+    private RedisSerializer<?> valueSerializer(SerializerType type , KryoRedisSerializer kryoRedisSerializer) {
+        switch (type) {
+            case KRYO:
+                return kryoRedisSerializer;
+            case JDK:
+                return RedisSerializer.java();
+            default:
+                return jackson2JsonRedisSerializer();
+        }
+    }
+
+    /**
+     * 带类型信息的jackson序列化, redisTemplate默认使用
+     * @return
+     */
+    public static Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer() {
+        Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer<>(Object.class);
 
         ObjectMapper om = new ObjectMapper();
         //制定要序列化的域[包括file/get()/set()] , 以及修饰符范围:ANY: 包括private/public
@@ -88,16 +137,7 @@ public class CloudRedisConfig extends CachingConfigurerSupport{
         om.setDateFormat(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
         om.configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true);
         jackson2JsonRedisSerializer.setObjectMapper(om);
-
-        //key-value的序列化模式.key采用String类型 , value采用jackson2JsonRedisSerializer执行序列化
-        redisTemplate.setKeySerializer(new StringRedisSerializer());
-        redisTemplate.setValueSerializer(jackson2JsonRedisSerializer);
-
-        //设置hash类型的数据的key/value的序列化模式.这里key采用String类型 ,value采用jackson2JsonRedisSerializer
-        //不设置的话在针对hash类型的操作时会序列化解析异常
-        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
-        redisTemplate.setHashValueSerializer(jackson2JsonRedisSerializer);
-        return redisTemplate;
+        return jackson2JsonRedisSerializer;
     }
 
     @Bean(destroyMethod = "shutdown")
@@ -163,25 +203,57 @@ public class CloudRedisConfig extends CachingConfigurerSupport{
         return redisTemplate.opsForZSet();
     }
 
+    /**
+     * redis消息订阅容器, 各组件按channel注册监听(如布隆过滤器的增量广播)
+     * @param factory
+     * @return
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        return container;
+    }
+
     /*********************************** CacheManager配置 *********************************/
 
 
     /**
-     * 定义缓存管理器,主要是定义序列化和反序列化支持类
+     * 定义缓存管理器,主要是定义序列化和反序列化支持类.
+     * L2为RedisCacheManager(按cacheName配置过期时间), 其前加一层本地caffeine作为L1, 见NearCacheProperties
      * @param factory
      * @return
      */
     @Bean
-    public CacheManager cacheManager(RedisConnectionFactory factory) {
+    public CacheManager cacheManager(RedisConnectionFactory factory , NearCacheProperties nearCacheProperties ,
+                                     RedisUtils redisUtils , RedisMessageListenerContainer redisMessageListenerContainer ,
+                                     RedisTemplate<String , Object> redisTemplate ,
+                                     KryoRedisSerializer kryoRedisSerializer) {
         Jackson2JsonRedisSerializer serializer = new Jackson2JsonRedisSerializer(Object.class);
         RedisSerializationContext.SerializationPair serializationPair = RedisSerializationContext.
                 SerializationPair.fromSerializer(serializer);
         RedisCacheConfiguration redisCacheConfiguration = RedisCacheConfiguration.defaultCacheConfig()
-                .entryTtl(Duration.ofSeconds(30L))
                 .serializeKeysWith(serializationPair);
-        return RedisCacheManager.builder(RedisCacheWriter.nonLockingRedisCacheWriter(factory))
-                .cacheDefaults(redisCacheConfiguration)
+        Map<String , RedisCacheConfiguration> cacheConfigurations = new HashMap<>();
+        nearCacheProperties.getCaches().forEach((name , spec) ->
+                cacheConfigurations.put(name , cacheConfiguration(redisCacheConfiguration , spec , kryoRedisSerializer)));
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(RedisCacheWriter.nonLockingRedisCacheWriter(factory))
+                .cacheDefaults(cacheConfiguration(redisCacheConfiguration , nearCacheProperties.getDefaults() , kryoRedisSerializer))
+                .withInitialCacheConfigurations(cacheConfigurations)
                 .build();
+        redisCacheManager.afterPropertiesSet();
+        return new NearCacheManager(redisCacheManager , nearCacheProperties , redisUtils ,
+                redisMessageListenerContainer , redisTemplate.getValueSerializer());
+    }
+
+    private RedisCacheConfiguration cacheConfiguration(RedisCacheConfiguration base , NearCacheProperties.Spec spec ,
+                                                      KryoRedisSerializer kryoRedisSerializer) {
+        RedisCacheConfiguration configuration = base.entryTtl(spec.getTtl());
+        if(spec.getSerializer() != SerializerType.JDK) {
+            configuration = configuration.serializeValuesWith(RedisSerializationContext.SerializationPair
+                    .fromSerializer(valueSerializer(spec.getSerializer() , kryoRedisSerializer)));
+        }
+        return configuration;
     }
 
     @Override
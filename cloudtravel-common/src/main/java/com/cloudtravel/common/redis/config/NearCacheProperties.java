@@ -0,0 +1,59 @@
+package com.cloudtravel.common.redis.config;
+
+import com.cloudtravel.common.redis.serializer.SerializerType;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 两级缓存配置, 未单独配置的cache使用默认值. 例:
+ * cloudtravel.cache.caches.user.ttl=60s
+ * cloudtravel.cache.caches.user.local-ttl=5s
+ * cloudtravel.cache.caches.user.local-max-size=20000
+ * cloudtravel.cache.caches.user.serializer=KRYO
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.cache")
+public class NearCacheProperties {
+
+    /** 跨节点失效通知的channel */
+    private String invalidateChannel = "cache:invalidate";
+
+    /** 默认配置 */
+    private Spec defaults = new Spec();
+
+    /** 按cacheName单独配置 */
+    private Map<String , Spec> caches = new HashMap<>();
+
+    public Spec getSpec(String cacheName) {
+        Spec spec = caches.get(cacheName);
+        return spec == null ? defaults : spec;
+    }
+
+    @Getter
+    @Setter
+    public static class Spec {
+
+        /** L2(redis)过期时间 */
+        private Duration ttl = Duration.ofSeconds(30L);
+
+        /** L1(本地)过期时间, 不应大于ttl */
+        private Duration localTtl = Duration.ofSeconds(10L);
+
+        /** L1最大条数 */
+        private long localMaxSize = 10000L;
+
+        /** 是否启用L1 */
+        private boolean localEnabled = true;
+
+        /** L2值的序列化方式 */
+        private SerializerType serializer = SerializerType.JDK;
+    }
+}
@@ -0,0 +1,32 @@
+package com.cloudtravel.common.redis.config;
+
+import com.cloudtravel.common.redis.serializer.SerializerType;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * redisTemplate的值序列化配置. 例:
+ * cloudtravel.redis.serializer.type=KRYO
+ * cloudtravel.redis.serializer.registrations=com.cloudtravel.producer.model.BaseUserModel,java.util.Date
+ * cloudtravel.redis.serializer.compress-threshold=1024
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.redis.serializer")
+public class RedisSerializerProperties {
+
+    /** redisTemplate使用的序列化方式 */
+    private SerializerType type = SerializerType.JACKSON;
+
+    /** kryo注册表, 顺序决定类的id, 只能在末尾追加 */
+    private List<Class<?>> registrations = new ArrayList<>();
+
+    /** kryo序列化后超过该字节数时使用lz4压缩, 小于等于0时不压缩 */
+    private int compressThreshold = 1024;
+}
@@ -0,0 +1,367 @@
+package com.cloudtravel.common.redis.counter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分段计数器, 用于热点计数: 每个计数拆分为shards个子key(counter:{key#0} ...), 子key落在不同slot.
+ * 本JVM内的增量先累加到LongAdder, 按固定间隔或累计增量达到阈值时用pipeline批量写入创建计数时随机选定的子key;
+ * 读取时MGET所有子key求和, 再加上本JVM尚未刷新的增量. 其他节点的增量最多延迟一个刷新间隔.
+ * 刷新时用lua脚本写入本计数的累计值, 子key旁的hash(counter:{key#0}:applied)记录每个计数已写入的累计值, 脚本只累加差额,
+ * pipeline部分失败后重试不会重复累加. 超过空闲时间未变化的计数从本地淘汰
+ */
+@Slf4j
+@Component
+public class ShardedCounter implements DisposableBean {
+
+    private static final String KEY_PREFIX = "counter:";
+
+    private static final String APPLIED_SUFFIX = ":applied";
+
+    /** 已写入记录的过期时间, 须大于空闲淘汰时间: 未淘汰的计数每次刷新都会续期 */
+    private static final long APPLIED_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final RedisScript<Long> FLUSH_SCRIPT = script("lua/counter_flush.lua");
+
+    /** 每累加多少次检查一次阈值, 避免每次都对LongAdder求和 */
+    private static final int THRESHOLD_CHECK_MASK = 63;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final int shards;
+
+    private final long flushThreshold;
+
+    private final long idleMillis;
+
+    /** 本JVM的标识, 与计数序号组成已写入记录的field */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Map<String , Counter> counters = new ConcurrentHashMap<>();
+
+    /** 已淘汰的计数, 写入最终值后删除其已写入记录, 只在flush与delete中访问 */
+    private final List<Counter> retired = new ArrayList<>();
+
+    /** 是否已提交了一次因达到阈值触发的刷新, 避免重复提交 */
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r , "sharded-counter-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param factory
+     * @param shards 子key数量
+     * @param flushIntervalMillis 刷新间隔(毫秒)
+     * @param flushThreshold 单个计数未刷新的增量绝对值达到该值时立即刷新
+     * @param idleMillis 计数超过该时间(毫秒)未变化且已全部刷新时从本地淘汰
+     */
+    public ShardedCounter(RedisConnectionFactory factory ,
+                          @Value("${cloudtravel.redis.counter.shards:16}") int shards ,
+                          @Value("${cloudtravel.redis.counter.flush-interval-millis:100}") long flushIntervalMillis ,
+                          @Value("${cloudtravel.redis.counter.flush-threshold:1000}") long flushThreshold ,
+                          @Value("${cloudtravel.redis.counter.idle-millis:600000}") long idleMillis) {
+        if(idleMillis >= APPLIED_TTL_MILLIS) {
+            throw new IllegalArgumentException("计数空闲淘汰时间必须小于" + APPLIED_TTL_MILLIS + "ms");
+        }
+        this.stringRedisTemplate = new StringRedisTemplate(factory);
+        this.shards = shards;
+        this.flushThreshold = flushThreshold;
+        this.idleMillis = idleMillis;
+        loadScript();
+        flushExecutor.scheduleWithFixedDelay(this::flushQuietly , flushIntervalMillis , flushIntervalMillis , TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 递增
+     * @param key 键
+     * @param delta 要增加几(大于0)
+     */
+    public void incr(String key , long delta) {
+        if(delta < 0) {
+            throw new RuntimeException("递增因子必须大于0");
+        }
+        add(key , delta);
+    }
+
+    /**
+     * 递减
+     * @param key 键
+     * @param delta 要减少几(大于0)
+     */
+    public void decr(String key , long delta) {
+        if(delta < 0) {
+            throw new RuntimeException("递减因子必须大于0");
+        }
+        add(key , -delta);
+    }
+
+    /**
+     * 当前值: 所有子key之和加上本JVM未刷新的增量
+     * @param key 键
+     * @return
+     */
+    public long get(String key) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(subKeys(key));
+        long sum = 0;
+        if(values != null) {
+            for (String value : values) {
+                if(value != null) {
+                    sum += Long.parseLong(value);
+                }
+            }
+        }
+        Counter counter = counters.get(key);
+        return counter == null ? sum : sum + counter.pending();
+    }
+
+    /**
+     * 删除计数, 包括所有子key与本JVM未刷新的增量. 与flush互斥, 避免刷新中的计数在删除后写回.
+     * 其他节点的已写入记录保留, 其后续刷新只累加删除后的增量
+     * @param key 键
+     */
+    public synchronized void delete(String key) {
+        List<Counter> removed = new ArrayList<>();
+        Counter counter = counters.remove(key);
+        if(counter != null) {
+            removed.add(counter);
+        }
+        for (Iterator<Counter> iterator = retired.iterator(); iterator.hasNext(); ) {
+            Counter old = iterator.next();
+            if(old.key.equals(key)) {
+                removed.add(old);
+                iterator.remove();
+            }
+        }
+        for (Counter old : removed) {
+            old.retired = true;
+        }
+        stringRedisTemplate.delete(subKeys(key));
+        if(!removed.isEmpty()) {
+            deleteApplied(removed);
+        }
+    }
+
+    /**
+     * 立即把所有未刷新的增量写入redis, 并淘汰空闲的计数
+     */
+    public synchronized void flush() {
+        long now = System.currentTimeMillis();
+        List<Counter> dirty = new ArrayList<>();
+        List<Long> totals = new ArrayList<>();
+        List<Counter> idle = new ArrayList<>();
+        List<Counter> settled = new ArrayList<>();
+        for (Counter counter : retired) {
+            long total = counter.adder.sum();
+            if(total != counter.flushed) {
+                dirty.add(counter);
+                totals.add(total);
+            } else {
+                settled.add(counter);
+            }
+        }
+        for (Counter counter : counters.values()) {
+            long total = counter.adder.sum();
+            if(total != counter.lastTotal) {
+                counter.lastTotal = total;
+                counter.lastChangeMillis = now;
+            }
+            if(total != counter.flushed) {
+                dirty.add(counter);
+                totals.add(total);
+            } else if(now - counter.lastChangeMillis >= idleMillis) {
+                idle.add(counter);
+            }
+        }
+        if(!dirty.isEmpty()) {
+            write(dirty , totals);
+            //写入成功后才推进已刷新的位置, 失败时下次刷新按累计值重写, 已写入的部分不会重复累加
+            for (int i = 0; i < dirty.size(); i++) {
+                dirty.get(i).flushed = totals.get(i);
+            }
+        }
+        //已淘汰的计数在一次刷新中没有变化才删除其已写入记录, 变化的可能读到了撤销前的值, 下次刷新再写一次
+        if(!settled.isEmpty()) {
+            deleteApplied(settled);
+            retired.removeAll(settled);
+        }
+        //先标记再移除: add看到标记时把增量转到新计数上, 被撤销的增量由下次刷新写入最终值
+        for (Counter counter : idle) {
+            counter.retired = true;
+            counters.remove(counter.key , counter);
+            retired.add(counter);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flushExecutor.shutdown();
+        flushQuietly();
+    }
+
+    private void add(String key , long delta) {
+        Counter counter = counters.computeIfAbsent(key , this::newCounter);
+        counter.adder.add(delta);
+        if(counter.retired) {
+            //计数已被淘汰或删除, 撤销后累加到新的计数上
+            counter.adder.add(-delta);
+            add(key , delta);
+            return;
+        }
+        if((ThreadLocalRandom.current().nextInt() & THRESHOLD_CHECK_MASK) == 0
+                && Math.abs(counter.pending()) >= flushThreshold && flushQueued.compareAndSet(false , true)) {
+            try {
+                flushExecutor.execute(() -> {
+                    flushQueued.set(false);
+                    flushQuietly();
+                });
+            } catch (Exception e) {
+                flushQueued.set(false);
+                log.warn("计数刷新提交失败,key={},message={}" , key , e.getMessage());
+            }
+        }
+    }
+
+    private Counter newCounter(String key) {
+        return new Counter(key , nodeId + "#" + generation.incrementAndGet() ,
+                ThreadLocalRandom.current().nextInt(shards) , System.currentTimeMillis());
+    }
+
+    private void write(List<Counter> dirty , List<Long> totals) {
+        String ttl = String.valueOf(APPLIED_TTL_MILLIS);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (int i = 0; i < dirty.size(); i++) {
+                    Counter counter = dirty.get(i);
+                    stringConnection.evalSha(FLUSH_SCRIPT.getSha1() , ReturnType.INTEGER , 2 ,
+                            subKey(counter.key , counter.shard) , appliedKey(counter.key , counter.shard) ,
+                            counter.field , String.valueOf(totals.get(i)) , ttl);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            //redis重启等原因丢失脚本缓存时重新加载, 本次增量保留到下次刷新
+            loadScript();
+            throw e;
+        }
+    }
+
+    private void deleteApplied(List<Counter> removed) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Counter counter : removed) {
+                stringConnection.hDel(appliedKey(counter.key , counter.shard) , counter.field);
+            }
+            return null;
+        });
+    }
+
+    private void loadScript() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.scriptLoad(FLUSH_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            log.warn("计数脚本加载失败,sha1={},message={}" , FLUSH_SCRIPT.getSha1() , e.getMessage());
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("分段计数刷新失败" , e);
+        }
+    }
+
+    private List<String> subKeys(String key) {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(subKey(key , i));
+        }
+        return keys;
+    }
+
+    private static String subKey(String key , int shard) {
+        return KEY_PREFIX + "{" + key + "#" + shard + "}";
+    }
+
+    /**
+     * 与子key在同一slot, lua脚本中一起访问
+     */
+    private static String appliedKey(String key , int shard) {
+        return subKey(key , shard) + APPLIED_SUFFIX;
+    }
+
+    private static RedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    /**
+     * 单个计数的本地状态. adder只增不清零, flushed为已写入redis的累计值, 只在flush中修改,
+     * 避免LongAdder.sumThenReset在并发累加时丢失增量. field与shard在创建时确定, 累计值始终写入同一子key
+     */
+    private static final class Counter {
+
+        private final String key;
+
+        private final String field;
+
+        private final int shard;
+
+        private final LongAdder adder = new LongAdder();
+
+        private volatile long flushed;
+
+        /** 已从counters中移除 */
+        private volatile boolean retired;
+
+        /** 上次刷新时的累计值与其变化时间, 用于空闲淘汰, 只在flush中访问 */
+        private long lastTotal;
+
+        private long lastChangeMillis;
+
+        private Counter(String key , String field , int shard , long createMillis) {
+            this.key = key;
+            this.field = field;
+            this.shard = shard;
+            this.lastChangeMillis = createMillis;
+        }
+
+        private long pending() {
+            return adder.sum() - flushed;
+        }
+    }
+}
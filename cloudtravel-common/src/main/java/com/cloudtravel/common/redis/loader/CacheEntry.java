@@ -0,0 +1,29 @@
+package com.cloudtravel.common.redis.loader;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * CacheLoader写入redis的缓存项, 除值外记录加载耗时与逻辑过期时间, 用于提前刷新的判断
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheEntry implements Serializable {
+
+    private static final long serialVersionUID = 3170925561417726861L;
+
+    /** 缓存值, 允许为null(缓存空值防止穿透) */
+    private Object value;
+
+    /** 加载耗时(毫秒) */
+    private long delta;
+
+    /** 过期时间(毫秒时间戳) */
+    private long expireAt;
+}
@@ -0,0 +1,217 @@
+package com.cloudtravel.common.redis.loader;
+
+import com.cloudtravel.common.builder.CloudTravleExceptionBuilder;
+import com.cloudtravel.common.enums.ResultStatusEnum;
+import com.cloudtravel.common.exception.CloudTravelException;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 缓存加载器: 未命中时由loader加载并写入redis.
+ * 1. 同一JVM内同一key的并发未命中共享一次加载(single-flight), 其余线程等待同一个CompletableFuture;
+ * 2. 可选跨节点加锁(redisson), 拿到锁后先复查redis, 其他节点已加载完成时直接使用;
+ * 3. 提前刷新(XFetch): 命中时按 now - delta * beta * ln(random) >= expireAt 判断是否提前刷新,
+ *    加载越慢、越接近过期越容易触发, 触发后后台刷新, 本次仍返回当前值, 热点key不会集中过期
+ */
+@Slf4j
+@Component
+public class CacheLoader implements DisposableBean {
+
+    /** XFetch的beta, 大于1时更倾向于提前刷新 */
+    private static final double BETA = 1.0D;
+
+    private static final String LOCK_PREFIX = "lock:cache-load:";
+
+    /** 跨节点锁的等待时间与持有时间(秒) */
+    private static final long LOCK_WAIT_SECONDS = 3L;
+
+    private static final long LOCK_LEASE_SECONDS = 10L;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final ConcurrentHashMap<String , CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final ExecutorService refreshExecutor = Executors.newFixedThreadPool(2 , r -> {
+        Thread thread = new Thread(r , "cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheLoader(RedisTemplate<String, Object> redisTemplate , RedissonClient redissonClient) {
+        this.redisTemplate = redisTemplate;
+        this.redissonClient = redissonClient;
+    }
+
+    /**
+     * 获取缓存, 未命中时在本JVM内合并加载
+     * @param key 键
+     * @param ttl 过期时间(秒)
+     * @param loader 加载方法
+     * @return
+     */
+    public <T> T get(String key , long ttl , Supplier<T> loader) {
+        return get(key , ttl , loader , false);
+    }
+
+    /**
+     * 获取缓存
+     * @param key 键
+     * @param ttl 过期时间(秒)
+     * @param loader 加载方法
+     * @param distributed 是否跨节点加锁, 保证集群内同一时间只有一个节点加载
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key , long ttl , Supplier<T> loader , boolean distributed) {
+        CacheEntry entry = read(key);
+        if(entry != null) {
+            if(shouldRefresh(entry)) {
+                refreshAsync(key , ttl , loader , distributed);
+            }
+            return (T) entry.getValue();
+        }
+        return (T) singleFlight(key , ttl , loader , distributed);
+    }
+
+    /**
+     * 删除缓存
+     * @param key
+     */
+    public void evict(String key) {
+        redisTemplate.delete(key);
+    }
+
+    @Override
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private Object singleFlight(String key , long ttl , Supplier<?> loader , boolean distributed) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key , future);
+        if(existing != null) {
+            return join(key , existing);
+        }
+        try {
+            Object value = distributed ? loadWithLock(key , ttl , loader) : load(key , ttl , loader);
+            future.complete(value);
+            return value;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key , future);
+        }
+    }
+
+    private void refreshAsync(String key , long ttl , Supplier<?> loader , boolean distributed) {
+        if(inFlight.containsKey(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    singleFlight(key , ttl , loader , distributed);
+                } catch (Exception e) {
+                    log.error("缓存提前刷新失败,key={}" , key , e);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("缓存提前刷新提交失败,key={},message={}" , key , e.getMessage());
+        }
+    }
+
+    private Object loadWithLock(String key , long ttl , Supplier<?> loader) {
+        RLock lock = redissonClient.getLock(LOCK_PREFIX + key);
+        boolean locked = false;
+        try {
+            locked = lock.tryLock(LOCK_WAIT_SECONDS , LOCK_LEASE_SECONDS , TimeUnit.SECONDS);
+            //拿到锁或等待超时后都先复查, 其他节点可能已经加载完成
+            CacheEntry entry = read(key);
+            if(entry != null && !shouldRefresh(entry)) {
+                return entry.getValue();
+            }
+            if(!locked) {
+                log.warn("缓存加载锁等待超时,本节点直接加载,key={}" , key);
+            }
+            return load(key , ttl , loader);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw loadFailed(key , e);
+        } finally {
+            if(locked && lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Object load(String key , long ttl , Supplier<?> loader) {
+        long start = System.currentTimeMillis();
+        Object value = loader.get();
+        long now = System.currentTimeMillis();
+        CacheEntry entry = new CacheEntry(value , now - start , now + TimeUnit.SECONDS.toMillis(ttl));
+        try {
+            redisTemplate.opsForValue().set(key , entry , ttl , TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.error("缓存写入失败,key={}" , key , e);
+        }
+        return value;
+    }
+
+    private CacheEntry read(String key) {
+        try {
+            Object cached = redisTemplate.opsForValue().get(key);
+            return cached instanceof CacheEntry ? (CacheEntry) cached : null;
+        } catch (Exception e) {
+            log.error("缓存读取失败,key={}" , key , e);
+            return null;
+        }
+    }
+
+    /**
+     * XFetch: -delta * beta * ln(random) 为一个随机的提前量, 加载耗时越长提前量越大
+     */
+    private static boolean shouldRefresh(CacheEntry entry) {
+        double random = ThreadLocalRandom.current().nextDouble();
+        double early = -entry.getDelta() * BETA * Math.log(random);
+        return System.currentTimeMillis() + early >= entry.getExpireAt();
+    }
+
+    private static Object join(String key , CompletableFuture<Object> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw loadFailed(key , e);
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw loadFailed(key , cause);
+        }
+    }
+
+    private static CloudTravelException loadFailed(String key , Throwable cause) {
+        CloudTravelException exception = CloudTravleExceptionBuilder.build(ResultStatusEnum.CACHE_LOAD_FAILED.getCode() ,
+                ResultStatusEnum.CACHE_LOAD_FAILED.getDesc() + key);
+        exception.initCause(cause);
+        return exception;
+    }
+}
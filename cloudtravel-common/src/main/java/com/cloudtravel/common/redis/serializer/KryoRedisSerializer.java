@@ -0,0 +1,150 @@
+package com.cloudtravel.common.redis.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.util.Pool;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于kryo的二进制序列化, 替代带类名文本的jackson序列化.
+ * 注册表中的类按顺序分配id(从REGISTRATION_ID_START开始), 序列化时只写id; 未注册的类写入类名, 仍可正常使用.
+ * 各节点的注册表必须一致, 只能在末尾追加.
+ * 数据格式: 1字节头 + 内容. 头为FORMAT_RAW时内容为kryo字节;
+ * 头为FORMAT_LZ4时内容为4字节原始长度 + lz4压缩后的kryo字节, 仅当kryo字节数超过compressThreshold时压缩
+ */
+public class KryoRedisSerializer implements RedisSerializer<Object> {
+
+    static final byte FORMAT_RAW = 0;
+
+    static final byte FORMAT_LZ4 = 1;
+
+    /** kryo内置类型占用了较小的id */
+    private static final int REGISTRATION_ID_START = 100;
+
+    private static final int BUFFER_SIZE = 256;
+
+    private final List<Class<?>> registrations;
+
+    private final int compressThreshold;
+
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final Pool<Kryo> kryoPool = new Pool<Kryo>(true , false , 64) {
+        @Override
+        protected Kryo create() {
+            return createKryo();
+        }
+    };
+
+    private final Pool<Output> outputPool = new Pool<Output>(true , false , 64) {
+        @Override
+        protected Output create() {
+            return new Output(BUFFER_SIZE , -1);
+        }
+    };
+
+    /**
+     * @param registrations 注册的类, 顺序决定id
+     * @param compressThreshold 超过该字节数时使用lz4压缩, 小于等于0时不压缩
+     */
+    public KryoRedisSerializer(List<Class<?>> registrations , int compressThreshold) {
+        this.registrations = Collections.unmodifiableList(new ArrayList<>(registrations));
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if(value == null) {
+            return new byte[0];
+        }
+        Kryo kryo = kryoPool.obtain();
+        Output output = outputPool.obtain();
+        try {
+            output.reset();
+            kryo.writeClassAndObject(output , value);
+            int length = output.position();
+            byte[] buffer = output.getBuffer();
+            if(compressThreshold > 0 && length > compressThreshold) {
+                int maxLength = compressor.maxCompressedLength(length);
+                byte[] result = new byte[5 + maxLength];
+                result[0] = FORMAT_LZ4;
+                result[1] = (byte) (length >>> 24);
+                result[2] = (byte) (length >>> 16);
+                result[3] = (byte) (length >>> 8);
+                result[4] = (byte) length;
+                int compressedLength = compressor.compress(buffer , 0 , length , result , 5 , maxLength);
+                if(compressedLength < length) {
+                    byte[] compressed = new byte[5 + compressedLength];
+                    System.arraycopy(result , 0 , compressed , 0 , compressed.length);
+                    return compressed;
+                }
+            }
+            byte[] result = new byte[1 + length];
+            result[0] = FORMAT_RAW;
+            System.arraycopy(buffer , 0 , result , 1 , length);
+            return result;
+        } catch (Exception e) {
+            throw new SerializationException("Could not write object: " + value.getClass().getName() , e);
+        } finally {
+            //避免缓冲区被个别超大对象撑大后一直占用
+            if(output.getBuffer().length > BUFFER_SIZE * 64) {
+                output.setBuffer(new byte[BUFFER_SIZE] , -1);
+            }
+            outputPool.free(output);
+            kryoPool.free(kryo);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if(bytes == null || bytes.length == 0) {
+            return null;
+        }
+        Kryo kryo = kryoPool.obtain();
+        try {
+            Input input;
+            if(bytes[0] == FORMAT_LZ4) {
+                int length = (bytes[1] & 0xFF) << 24 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 8 | (bytes[4] & 0xFF);
+                byte[] raw = new byte[length];
+                decompressor.decompress(bytes , 5 , raw , 0 , length);
+                input = new Input(raw);
+            } else if(bytes[0] == FORMAT_RAW) {
+                input = new Input(bytes , 1 , bytes.length - 1);
+            } else {
+                throw new SerializationException("Unknown format: " + bytes[0]);
+            }
+            return kryo.readClassAndObject(input);
+        } catch (SerializationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SerializationException("Could not read object" , e);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    private Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setReferences(false);
+        //没有无参构造器的类直接由objenesis实例化
+        kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        for (int i = 0; i < registrations.size(); i++) {
+            kryo.register(registrations.get(i) , REGISTRATION_ID_START + i);
+        }
+        return kryo;
+    }
+}
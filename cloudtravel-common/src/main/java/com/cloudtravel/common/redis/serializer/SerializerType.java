@@ -0,0 +1,16 @@
+package com.cloudtravel.common.redis.serializer;
+
+/**
+ * redis值的序列化方式
+ */
+public enum SerializerType {
+
+    /** jackson json, 带类型信息 */
+    JACKSON,
+
+    /** jdk序列化 */
+    JDK,
+
+    /** kryo二进制, 可选lz4压缩 */
+    KRYO
+}
@@ -0,0 +1,212 @@
+package com.cloudtravel.common.redis.stock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 基于lua脚本的库存扣减: 检查库存、扣减、累加已售数量在一次EVALSHA中原子完成, 不需要分布式锁.
+ * 库存key为stock:{sku}, 已售key为stock:sold:{sku}, 花括号为hash tag, 集群模式下同一sku的两个key在同一slot.
+ * 热点sku可拆分为多个分片(stock:{sku#0}...), 分片落在不同slot, 扣减时随机选择分片, 不足时依次尝试其他分片.
+ * 脚本在启动时SCRIPT LOAD, 执行时使用EVALSHA, 脚本缓存丢失时由RedisTemplate自动退回EVAL
+ */
+@Slf4j
+@Component
+public class StockService implements InitializingBean {
+
+    /** 库存未初始化 */
+    public static final long NOT_INITIALIZED = -1L;
+
+    /** 库存不足 */
+    public static final long INSUFFICIENT = -2L;
+
+    private static final RedisScript<Long> DEDUCT_SCRIPT = script("lua/stock_deduct.lua");
+
+    private static final RedisScript<Long> DEDUCT_BATCH_SCRIPT = script("lua/stock_deduct_batch.lua");
+
+    /** 库存相关的key均按字符串读写, 与redisTemplate的值序列化方式无关 */
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public StockService(RedisConnectionFactory factory) {
+        this.stringRedisTemplate = new StringRedisTemplate(factory);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        for (RedisScript<Long> script : Arrays.asList(DEDUCT_SCRIPT , DEDUCT_BATCH_SCRIPT)) {
+            try {
+                stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                        connection.scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+            } catch (Exception e) {
+                log.warn("库存脚本预加载失败,执行时将退回EVAL,sha1={},message={}" , script.getSha1() , e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 初始化库存, 同时清零已售数量
+     * @param sku
+     * @param stock
+     */
+    public void initStock(String sku , long stock) {
+        stringRedisTemplate.opsForValue().set(stockKey(sku) , String.valueOf(stock));
+        stringRedisTemplate.opsForValue().set(soldKey(sku) , "0");
+    }
+
+    /**
+     * 扣减库存
+     * @param sku
+     * @param count 扣减数量, 大于0
+     * @return 扣减后的库存; NOT_INITIALIZED: 库存未初始化; INSUFFICIENT: 库存不足
+     */
+    public long deduct(String sku , long count) {
+        checkCount(count);
+        return deductKey(stockKey(sku) , soldKey(sku) , count);
+    }
+
+    /**
+     * 多个sku一起扣减, 任意一个库存未初始化或不足时都不扣减.
+     * 集群模式下要求各sku的key在同一slot
+     * @param items sku -> 扣减数量
+     * @return null: 扣减成功; 否则为第一个库存未初始化或不足的sku
+     */
+    public String deductBatch(Map<String , Long> items) {
+        List<String> skus = new ArrayList<>(items.keySet());
+        List<String> keys = new ArrayList<>(skus.size() * 2);
+        String[] args = new String[skus.size()];
+        for (int i = 0; i < skus.size(); i++) {
+            long count = items.get(skus.get(i));
+            checkCount(count);
+            keys.add(stockKey(skus.get(i)));
+            keys.add(soldKey(skus.get(i)));
+            args[i] = String.valueOf(count);
+        }
+        Long failed = stringRedisTemplate.execute(DEDUCT_BATCH_SCRIPT , keys , (Object[]) args);
+        return failed == null || failed == 0 ? null : skus.get(failed.intValue() - 1);
+    }
+
+    /**
+     * 初始化分片库存, 总库存平均分到各分片, 余数放在前面的分片
+     * @param sku
+     * @param stock 总库存
+     * @param shards 分片数
+     */
+    public void initShardedStock(String sku , long stock , int shards) {
+        for (int i = 0; i < shards; i++) {
+            long shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+            initStock(shardSku(sku , i) , shardStock);
+        }
+    }
+
+    /**
+     * 从分片库存中扣减: 从随机分片开始, 不足时依次尝试下一个分片. 单次扣减数量不能跨分片凑数
+     * @param sku
+     * @param count 扣减数量, 大于0
+     * @param shards 分片数, 与初始化时一致
+     * @return 扣减后所在分片的库存; NOT_INITIALIZED: 库存未初始化; INSUFFICIENT: 所有分片库存都不足
+     */
+    public long deductSharded(String sku , long count , int shards) {
+        checkCount(count);
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        long result = NOT_INITIALIZED;
+        for (int i = 0; i < shards; i++) {
+            String shardSku = shardSku(sku , (start + i) % shards);
+            long remain = deductKey(stockKey(shardSku) , soldKey(shardSku) , count);
+            if(remain >= 0) {
+                return remain;
+            }
+            if(remain == INSUFFICIENT) {
+                result = INSUFFICIENT;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 当前库存, 未初始化时返回NOT_INITIALIZED
+     * @param sku
+     * @return
+     */
+    public long getStock(String sku) {
+        String stock = stringRedisTemplate.opsForValue().get(stockKey(sku));
+        return stock == null ? NOT_INITIALIZED : Long.parseLong(stock);
+    }
+
+    /**
+     * 已售数量
+     * @param sku
+     * @return
+     */
+    public long getSold(String sku) {
+        String sold = stringRedisTemplate.opsForValue().get(soldKey(sku));
+        return sold == null ? 0L : Long.parseLong(sold);
+    }
+
+    /**
+     * 分片库存的总量与已售总量
+     * @param sku
+     * @param shards
+     * @return [库存 , 已售]
+     */
+    public long[] getShardedStock(String sku , int shards) {
+        List<String> keys = new ArrayList<>(shards * 2);
+        for (int i = 0; i < shards; i++) {
+            keys.add(stockKey(shardSku(sku , i)));
+            keys.add(soldKey(shardSku(sku , i)));
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        long[] result = new long[2];
+        for (int i = 0; values != null && i < values.size(); i++) {
+            if(values.get(i) != null) {
+                result[i % 2] += Long.parseLong(values.get(i));
+            }
+        }
+        return result;
+    }
+
+    private long deductKey(String stockKey , String soldKey , long count) {
+        List<String> keys = new ArrayList<>(2);
+        keys.add(stockKey);
+        keys.add(soldKey);
+        Long result = stringRedisTemplate.execute(DEDUCT_SCRIPT , keys , String.valueOf(count));
+        return result == null ? NOT_INITIALIZED : result;
+    }
+
+    private static void checkCount(long count) {
+        if(count <= 0) {
+            throw new IllegalArgumentException("扣减数量必须大于0");
+        }
+    }
+
+    private static String shardSku(String sku , int shard) {
+        return sku + "#" + shard;
+    }
+
+    private static String stockKey(String sku) {
+        return "stock:{" + sku + "}";
+    }
+
+    private static String soldKey(String sku) {
+        return "stock:sold:{" + sku + "}";
+    }
+
+    private static RedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
@@ -1,17 +1,375 @@
 package com.cloudtravel.common.redis.utils;
 
+import com.cloudtravel.common.service.impl.HashServiceImpl;
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnels;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
 
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
+ * 两级布隆过滤器, 用于拦截不存在的id造成的缓存穿透.
+ * 一级为本地guava布隆过滤器, 未命中时直接返回, 不访问redis;
+ * 二级为redis的bitmap(key为bloom:{name}), 所有节点共享, 本地过滤器尚未加载完成时以redis为准.
+ * 增量数据写入redis后通过pub/sub广播, 其他节点收到后写入各自的本地过滤器;
+ * 重建时先写入临时key再RENAME, 读请求不会看到写了一半的bitmap.
+ * 每个节点都重建本地过滤器, redis的bitmap只由抢到重建锁(bloom:{name}:rebuilder)的节点重建;
+ * 重建期间本节点与其他节点(经pub/sub)的增量都记入pending, RENAME前后各补写一次, 替换不会丢失重建期间的增量
  * @description:
  * @author: walker
  * @DATE: 028-2023/4/28
  */
-public class BloomFileterUtils {
+@Slf4j
+@Component
+public class BloomFileterUtils implements DisposableBean {
 
+    private static final String KEY_PREFIX = "bloom:";
 
+    private static final String CHANNEL_PREFIX = "bloom:channel:";
+
+    /** redis的bitmap最大为2^32位 */
+    private static final long MAX_BITS = 1L << 32;
+
+    /** 批量写入时每个pipeline包含的元素数量 */
+    private static final int PIPELINE_BATCH = 1000;
+
+    private static final String REBUILDER_SUFFIX = ":rebuilder";
+
+    /** 重建锁的持有时间, 须大于一次全量重建的耗时 */
+    private static final long REBUILD_LOCK_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /** 重建完成后比较持有者: ARGV[2]大于0时保留锁到该时长后过期, 否则释放 */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) ~= ARGV[1] then return 0 end "
+                    + "if tonumber(ARGV[2]) > 0 then return redis.call('pexpire', KEYS[1], ARGV[2]) end "
+                    + "return redis.call('del', KEYS[1])" , Long.class);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    /** 重建锁按字符串读写, 与redisTemplate的值序列化方式无关 */
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final HashServiceImpl hashService = new HashServiceImpl();
+
+    private final Map<String , Filter> filters = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService rebuildExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r , "bloom-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BloomFileterUtils(RedisTemplate<String, Object> redisTemplate , RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = new StringRedisTemplate(redisTemplate.getRequiredConnectionFactory());
+        this.listenerContainer = listenerContainer;
+    }
+
+    /**
+     * 创建过滤器, 同名过滤器已存在时直接返回
+     * @param name 过滤器名称
+     * @param expectedInsertions 预计元素数量
+     * @param fpp 误判率
+     */
+    public void create(String name , long expectedInsertions , double fpp) {
+        filters.computeIfAbsent(name , n -> {
+            Filter filter = new Filter(n , expectedInsertions , fpp);
+            MessageListener listener = (message , pattern) -> {
+                Object value = redisTemplate.getValueSerializer().deserialize(message.getBody());
+                if(value != null) {
+                    filter.add(value.toString());
+                }
+            };
+            listenerContainer.addMessageListener(listener , new ChannelTopic(CHANNEL_PREFIX + n));
+            log.info("布隆过滤器{}创建完成,numBits={},numHashFunctions={}" , n , filter.numBits , filter.numHashFunctions);
+            return filter;
+        });
+    }
+
+    /**
+     * 判断元素是否可能存在, 返回false时一定不存在
+     * @param name
+     * @param value
+     * @return
+     */
+    public boolean mightContain(String name , String value) {
+        Filter filter = getFilter(name);
+        if(filter.ready) {
+            return filter.local.mightContain(value);
+        }
+        long[] offsets = filter.offsets(value);
+        List<Object> bits = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.getBit(filter.rawKey , offset);
+            }
+            return null;
+        });
+        for (Object bit : bits) {
+            if(!Boolean.TRUE.equals(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 增量添加元素: 写入本地与redis, 并广播给其他节点
+     * @param name
+     * @param value
+     */
+    public void put(String name , String value) {
+        Filter filter = getFilter(name);
+        filter.add(value);
+        try {
+            setBits(filter , filter.rawKey , Collections.singletonList(value));
+            redisTemplate.convertAndSend(filter.channel , value);
+        } catch (Exception e) {
+            log.error("布隆过滤器{}写入redis失败,value={}" , name , value , e);
+        }
+    }
+
+    /**
+     * 全量重建: 用loader加载的数据构建新的本地过滤器, 抢到重建锁时同时重建redis bitmap, 完成后整体替换.
+     * 重建期间新增的元素在替换后补写
+     * @param name
+     * @param loader 全量数据
+     */
+    public void rebuild(String name , Supplier<Collection<String>> loader) {
+        rebuild(name , loader , 0L);
+    }
+
+    /**
+     * 立即在后台重建一次, 之后按周期定时重建. 重建锁保留一个周期, 每个周期集群内只重建一次redis bitmap
+     * @param name
+     * @param loader
+     * @param period 重建周期
+     * @param unit
+     */
+    public void scheduleRebuild(String name , Supplier<Collection<String>> loader , long period , TimeUnit unit) {
+        getFilter(name);
+        long holdMillis = unit.toMillis(period);
+        rebuildExecutor.scheduleWithFixedDelay(() -> rebuild(name , loader , holdMillis) , 0 , period , unit);
+    }
+
+    @Override
+    public void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * @param holdMillis 大于0时重建完成后重建锁保留到该时长后过期, 否则立即释放
+     */
+    private void rebuild(String name , Supplier<Collection<String>> loader , long holdMillis) {
+        Filter filter = getFilter(name);
+        long start = System.currentTimeMillis();
+        filter.startRebuild();
+        String token = UUID.randomUUID().toString();
+        boolean rebuilder = false;
+        long keepMillis = 0L;
+        try {
+            rebuilder = Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(filter.rebuilderKey , token ,
+                    Math.max(holdMillis , REBUILD_LOCK_MILLIS) , TimeUnit.MILLISECONDS));
+            Collection<String> values = loader.get();
+            BloomFilter<CharSequence> local = filter.newLocal();
+            for (String value : values) {
+                local.put(value);
+            }
+            if(rebuilder) {
+                rebuildBitmap(filter , values);
+            }
+            List<String> replay = filter.swap(local);
+            //RENAME前已补写到临时key, 这里补写RENAME前后到达的增量; 未抢到锁的节点不改动bitmap, 增量已由写入方写入
+            if(rebuilder && !replay.isEmpty()) {
+                setBits(filter , filter.rawKey , replay);
+            }
+            long cost = System.currentTimeMillis() - start;
+            keepMillis = holdMillis - cost;
+            log.info("布隆过滤器{}重建完成,size={},rebuilder={},cost={}ms" , name , values.size() , rebuilder , cost);
+        } catch (Exception e) {
+            filter.abortRebuild();
+            log.error("布隆过滤器{}重建失败" , name , e);
+        } finally {
+            //失败时立即释放, 其他节点可以接手
+            if(rebuilder) {
+                releaseRebuilder(filter , token , keepMillis);
+            }
+        }
+    }
+
+    private void rebuildBitmap(Filter filter , Collection<String> values) {
+        //临时key带随机后缀, 重建锁过期后其他节点接手时互不影响
+        String tempKey = filter.key + ":" + UUID.randomUUID();
+        byte[] rawTempKey = StringRedisSerializer.UTF_8.serialize(tempKey);
+        List<String> batch = new ArrayList<>(PIPELINE_BATCH);
+        for (String value : values) {
+            batch.add(value);
+            if(batch.size() == PIPELINE_BATCH) {
+                setBits(filter , rawTempKey , batch);
+                batch.clear();
+            }
+        }
+        //重建期间已到达的增量先写入临时key, RENAME后不会短暂缺失
+        batch.addAll(filter.pendingSnapshot());
+        if(!batch.isEmpty()) {
+            setBits(filter , rawTempKey , batch);
+        }
+        if(values.isEmpty() && batch.isEmpty()) {
+            redisTemplate.delete(filter.key);
+        } else {
+            redisTemplate.rename(tempKey , filter.key);
+        }
+    }
+
+    private void releaseRebuilder(Filter filter , String token , long keepMillis) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT , Collections.singletonList(filter.rebuilderKey) , token ,
+                    String.valueOf(Math.max(keepMillis , 0L)));
+        } catch (Exception e) {
+            log.warn("布隆过滤器重建锁释放失败,key={},message={}" , filter.rebuilderKey , e.getMessage());
+        }
+    }
+
+    private Filter getFilter(String name) {
+        Filter filter = filters.get(name);
+        if(filter == null) {
+            throw new IllegalStateException("bloom filter not created : " + name);
+        }
+        return filter;
+    }
+
+    private void setBits(Filter filter , byte[] rawKey , List<String> values) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String value : values) {
+                setBits(connection , rawKey , filter.offsets(value));
+            }
+            return null;
+        });
+    }
+
+    private static void setBits(RedisConnection connection , byte[] rawKey , long[] offsets) {
+        for (long offset : offsets) {
+            connection.setBit(rawKey , offset , true);
+        }
+    }
+
+    /**
+     * 单个过滤器的状态. redis中的位下标用128位murmur hash做双重散列: offset(i) = (h1 + i * h2) mod numBits
+     */
+    private final class Filter {
+
+        private final String key;
+
+        private final byte[] rawKey;
+
+        private final String channel;
+
+        private final String rebuilderKey;
+
+        private final long expectedInsertions;
+
+        private final double fpp;
+
+        private final long numBits;
+
+        private final int numHashFunctions;
+
+        private volatile BloomFilter<CharSequence> local;
+
+        /** 本地过滤器是否已完成全量加载 */
+        private volatile boolean ready;
+
+        /** 重建期间本节点与其他节点的增量数据, 非重建期间为null. 与local的替换一起由本对象的锁保护 */
+        private List<String> pending;
+
+        private Filter(String name , long expectedInsertions , double fpp) {
+            this.key = KEY_PREFIX + name;
+            this.rawKey = StringRedisSerializer.UTF_8.serialize(key);
+            this.channel = CHANNEL_PREFIX + name;
+            this.rebuilderKey = key + REBUILDER_SUFFIX;
+            this.expectedInsertions = expectedInsertions;
+            this.fpp = fpp;
+            long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.numBits = Math.max(64 , Math.min(bits , MAX_BITS));
+            this.numHashFunctions = Math.max(1 , (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+            this.local = newLocal();
+        }
+
+        /**
+         * 写入本地过滤器, 重建期间同时记入pending. 与swap互斥, 替换前后的增量都不会丢失
+         */
+        private synchronized void add(String value) {
+            local.put(value);
+            if(pending != null) {
+                pending.add(value);
+            }
+        }
+
+        private synchronized void startRebuild() {
+            pending = new ArrayList<>();
+        }
+
+        private synchronized void abortRebuild() {
+            pending = null;
+        }
+
+        private synchronized List<String> pendingSnapshot() {
+            return pending == null ? new ArrayList<>() : new ArrayList<>(pending);
+        }
+
+        /**
+         * 替换本地过滤器并补写重建期间的增量
+         * @return 重建期间的增量
+         */
+        private synchronized List<String> swap(BloomFilter<CharSequence> rebuilt) {
+            List<String> replay = pending == null ? new ArrayList<>() : pending;
+            for (String value : replay) {
+                rebuilt.put(value);
+            }
+            local = rebuilt;
+            ready = true;
+            pending = null;
+            return replay;
+        }
+
+        private BloomFilter<CharSequence> newLocal() {
+            return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8) , expectedInsertions , fpp);
+        }
+
+        private long[] offsets(String value) {
+            long[] hash = new long[2];
+            hashService.hash128(value , hash);
+            long[] offsets = new long[numHashFunctions];
+            long combined = hash[0];
+            for (int i = 0; i < numHashFunctions; i++) {
+                offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+                combined += hash[1];
+            }
+            return offsets;
+        }
+    }
 }
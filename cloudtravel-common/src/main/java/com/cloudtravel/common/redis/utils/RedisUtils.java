@@ -1,13 +1,23 @@
 package com.cloudtravel.common.redis.utils;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.BoundListOperations;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * redisTemplate封装等redis工具类
@@ -16,6 +26,9 @@ import java.util.concurrent.TimeUnit;
 @Component
 public class RedisUtils {
 
+    /** 批量操作时每个pipeline包含的命令数, 避免一次性缓冲过多的命令与响应 */
+    public static final int PIPELINE_BATCH_SIZE = 500;
+
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
@@ -520,6 +533,124 @@ public class RedisUtils {
         }
     }
 
+    //===============================batch=================================
+
+    /**
+     * 批量获取, 每PIPELINE_BATCH_SIZE个key一次MGET
+     * @param keys 键
+     * @return 与keys顺序一致的值, 不存在的key对应null
+     */
+    public List<Object> multiGet(Collection<String> keys){
+        List<Object> values = new ArrayList<>(keys.size());
+        for (List<String> chunk : chunk(keys)) {
+            values.addAll(redisTemplate.opsForValue().multiGet(chunk));
+        }
+        return values;
+    }
+
+    /**
+     * 批量放入并设置时间, 按PIPELINE_BATCH_SIZE分批pipeline执行
+     * @param map 键值
+     * @param time 时间(秒) time小于等于0时为无限期, 直接使用MSET
+     * @return true成功 false失败
+     */
+    public boolean multiSet(Map<String, Object> map, long time){
+        try {
+            if(time <= 0){
+                Map<String, Object> batch = new HashMap<>();
+                for (Map.Entry<String, Object> entry : map.entrySet()) {
+                    batch.put(entry.getKey(), entry.getValue());
+                    if(batch.size() == PIPELINE_BATCH_SIZE){
+                        redisTemplate.opsForValue().multiSet(batch);
+                        batch.clear();
+                    }
+                }
+                if(!batch.isEmpty()){
+                    redisTemplate.opsForValue().multiSet(batch);
+                }
+            }else{
+                pipeline(map.entrySet(), (operations, entry) ->
+                        operations.opsForValue().set(entry.getKey(), entry.getValue(), time, TimeUnit.SECONDS));
+            }
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 批量获取多个hash表的所有键值, 按PIPELINE_BATCH_SIZE分批pipeline执行HGETALL
+     * @param keys 键
+     * @return key -> 对应的键值, 顺序与keys一致, 不存在的key对应空map
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<Object, Object>> hmgetAll(Collection<String> keys){
+        Map<String, Map<Object, Object>> result = new LinkedHashMap<>();
+        for (List<String> chunk : chunk(keys)) {
+            List<Object> values = pipeline(operations -> {
+                for (String key : chunk) {
+                    operations.opsForHash().entries(key);
+                }
+            });
+            for (int i = 0; i < chunk.size(); i++) {
+                result.put(chunk.get(i), (Map<Object, Object>) values.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在一个pipeline中执行多条命令, 命令的返回值在回调中均为null, 执行结果按顺序返回.
+     * 回调中的命令数量由调用方控制, 大批量时使用{@link #pipeline(Collection, BiConsumer)}
+     * @param action 要执行的命令
+     * @return 每条命令的结果
+     */
+    public List<Object> pipeline(Consumer<RedisOperations<String, Object>> action){
+        return redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                action.accept((RedisOperations<String, Object>) operations);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 对每个元素执行命令, 按PIPELINE_BATCH_SIZE个元素分批pipeline执行
+     * @param items 元素
+     * @param command 每个元素对应的命令
+     * @return 所有命令的结果, 顺序与items一致
+     */
+    public <T> List<Object> pipeline(Collection<T> items, BiConsumer<RedisOperations<String, Object>, T> command){
+        List<Object> results = new ArrayList<>(items.size());
+        for (List<T> chunk : chunk(items)) {
+            results.addAll(pipeline(operations -> {
+                for (T item : chunk) {
+                    command.accept(operations, item);
+                }
+            }));
+        }
+        return results;
+    }
+
+    private static <T> List<List<T>> chunk(Collection<T> items){
+        List<List<T>> chunks = new ArrayList<>();
+        List<T> chunk = new ArrayList<>(Math.min(items.size(), PIPELINE_BATCH_SIZE));
+        for (T item : items) {
+            chunk.add(item);
+            if(chunk.size() == PIPELINE_BATCH_SIZE){
+                chunks.add(chunk);
+                chunk = new ArrayList<>(PIPELINE_BATCH_SIZE);
+            }
+        }
+        if(!chunk.isEmpty()){
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
     /**
      * 模糊查询获取key值
      * @param pattern
@@ -11,4 +11,36 @@ public interface IHashService {
      * @return
      */
     Long hash(String key);
+
+    /**
+     * 获取64位hash值, 直接读取字节数组的指定区间, 不产生中间对象
+     * @param data 字节数组
+     * @param offset 起始位置
+     * @param length 参与计算的字节数
+     * @return
+     */
+    long hash64(byte[] data, int offset, int length);
+
+    /**
+     * 获取64位hash值, 按UTF-8编码逐字符读取, 不生成中间字节数组
+     * @param key
+     * @return
+     */
+    long hash64(CharSequence key);
+
+    /**
+     * 获取128位hash值, 结果写入out[0](低64位)和out[1](高64位), 由调用方复用out数组
+     * @param data 字节数组
+     * @param offset 起始位置
+     * @param length 参与计算的字节数
+     * @param out 长度至少为2的结果数组
+     */
+    void hash128(byte[] data, int offset, int length, long[] out);
+
+    /**
+     * 获取128位hash值, 按UTF-8编码逐字符读取, 结果写入out[0]和out[1]
+     * @param key
+     * @param out 长度至少为2的结果数组
+     */
+    void hash128(CharSequence key, long[] out);
 }
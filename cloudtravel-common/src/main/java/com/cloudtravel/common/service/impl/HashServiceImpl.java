@@ -3,48 +3,295 @@ package com.cloudtravel.common.service.impl;
 import com.cloudtravel.common.service.IHashService;
 import org.springframework.stereotype.Service;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 /**
  * MurMurHash算法,性能高,碰撞率低
+ * 64位为MurmurHash64A(保持与历史实现相同的结果, 避免已有的节点环/路由发生漂移), 128位为MurmurHash3_x64_128.
+ * 字符串按UTF-8编码逐字符参与计算, 所有方法均不分配对象
  */
 @Service("MurMurHash")
 public class HashServiceImpl implements IHashService {
 
+    private static final int SEED = 0x1234ABCD;
+
+    private static final long M = 0xc6a4a7935bd1e995L;
+
+    private static final int R = 47;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
     @Override
     public Long hash(String key) {
-        ByteBuffer buf = ByteBuffer.wrap(key.getBytes());
-        int seed = 0x1234ABCD;
-        ByteOrder byteOrder = buf.order();
-        //intel的x86系列用低位编址 . 即低位在前 , 高位在后
-        //Motorola的PowerPC采用big endian方式存储数据. 即高位在前 , 低位在后
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-
-        Long m = 0xc6a4a7935bd1e995L;
-        int r = 47;
-
-        long h = seed ^ (buf.remaining() * m);
-        long k;
-        while (buf.remaining() >= 8){
-            k = buf.getLong();
-            k *= m;
-            k ^= k >>> r;
-            k *= m;
-            h ^= k;
-            h *= m;
-        }
-
-        if(buf.remaining() > 0){
-            ByteBuffer finish = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
-            finish.put(buf).rewind();
-            h ^= finish.getLong();
-            h ^= m;
-        }
-        h ^= h >>> r;
-        h *= m;
-        h ^= h >>> r;
-        buf.order(byteOrder);
+        return hash64(key);
+    }
+
+    @Override
+    public long hash64(byte[] data, int offset, int length) {
+        long h = SEED ^ (length * M);
+        int end = offset + length;
+        int blockEnd = offset + (length & ~7);
+        int i = offset;
+        //intel的x86系列用低位编址 . 即低位在前 , 高位在后, 这里统一按little endian读取
+        for (; i < blockEnd; i += 8) {
+            h = mix64(h, getLongLE(data, i));
+        }
+        if (i < end) {
+            long tail = 0;
+            for (int shift = 0; i < end; i++, shift += 8) {
+                tail |= (data[i] & 0xFFL) << shift;
+            }
+            h = mixTail64(h, tail);
+        }
+        return fmix64A(h);
+    }
+
+    @Override
+    public long hash64(CharSequence key) {
+        int length = key.length();
+        //先按纯ASCII(字符数即字节数)计算, 遇到非ASCII字符再转为UTF-8逐字节计算
+        long h = SEED ^ (length * M);
+        int blockEnd = length & ~7;
+        int i = 0;
+        for (; i < blockEnd; i += 8) {
+            char c0 = key.charAt(i);
+            char c1 = key.charAt(i + 1);
+            char c2 = key.charAt(i + 2);
+            char c3 = key.charAt(i + 3);
+            char c4 = key.charAt(i + 4);
+            char c5 = key.charAt(i + 5);
+            char c6 = key.charAt(i + 6);
+            char c7 = key.charAt(i + 7);
+            if ((c0 | c1 | c2 | c3 | c4 | c5 | c6 | c7) >= 0x80) {
+                return hash64Utf8(key);
+            }
+            long k = c0 | (long) c1 << 8 | (long) c2 << 16 | (long) c3 << 24
+                    | (long) c4 << 32 | (long) c5 << 40 | (long) c6 << 48 | (long) c7 << 56;
+            h = mix64(h, k);
+        }
+        if (i < length) {
+            long tail = 0;
+            for (int shift = 0; i < length; i++, shift += 8) {
+                char c = key.charAt(i);
+                if (c >= 0x80) {
+                    return hash64Utf8(key);
+                }
+                tail |= (long) c << shift;
+            }
+            h = mixTail64(h, tail);
+        }
+        return fmix64A(h);
+    }
+
+    @Override
+    public void hash128(byte[] data, int offset, int length, long[] out) {
+        long h1 = SEED & 0xFFFFFFFFL;
+        long h2 = h1;
+        int end = offset + length;
+        int blockEnd = offset + (length & ~15);
+        int i = offset;
+        for (; i < blockEnd; i += 16) {
+            long k1 = getLongLE(data, i);
+            long k2 = getLongLE(data, i + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        long k1 = 0;
+        long k2 = 0;
+        for (int shift = 0; i < end; i++, shift += 8) {
+            if (shift < 64) {
+                k1 |= (data[i] & 0xFFL) << shift;
+            } else {
+                k2 |= (data[i] & 0xFFL) << (shift - 64);
+            }
+        }
+        finish128(h1, h2, k1, k2, length, out);
+    }
+
+    @Override
+    public void hash128(CharSequence key, long[] out) {
+        int charLength = key.length();
+        int length = 0;
+        long h1 = SEED & 0xFFFFFFFFL;
+        long h2 = h1;
+        long k1 = 0;
+        long k2 = 0;
+        int blockLength = 0;
+        for (int i = 0; i < charLength; i++) {
+            long encoded = utf8Encode(key, i);
+            int count = (int) (encoded >>> 32);
+            if (count == 4) {
+                i++;
+            }
+            length += count;
+            for (int j = 0; j < count; j++) {
+                long b = (encoded >>> (j << 3)) & 0xFFL;
+                if (blockLength < 8) {
+                    k1 |= b << (blockLength << 3);
+                } else {
+                    k2 |= b << ((blockLength - 8) << 3);
+                }
+                if (++blockLength == 16) {
+                    h1 ^= mixK1(k1);
+                    h1 = Long.rotateLeft(h1, 27);
+                    h1 += h2;
+                    h1 = h1 * 5 + 0x52dce729;
+                    h2 ^= mixK2(k2);
+                    h2 = Long.rotateLeft(h2, 31);
+                    h2 += h1;
+                    h2 = h2 * 5 + 0x38495ab5;
+                    k1 = 0;
+                    k2 = 0;
+                    blockLength = 0;
+                }
+            }
+        }
+        finish128(h1, h2, k1, k2, length, out);
+    }
+
+    /**
+     * 含非ASCII字符时, 先求UTF-8字节数, 再逐字节组装block
+     */
+    private static long hash64Utf8(CharSequence key) {
+        int charLength = key.length();
+        int length = 0;
+        for (int i = 0; i < charLength; i++) {
+            int count = (int) (utf8Encode(key, i) >>> 32);
+            if (count == 4) {
+                i++;
+            }
+            length += count;
+        }
+        long h = SEED ^ (length * M);
+        long block = 0;
+        int blockLength = 0;
+        for (int i = 0; i < charLength; i++) {
+            long encoded = utf8Encode(key, i);
+            int count = (int) (encoded >>> 32);
+            if (count == 4) {
+                i++;
+            }
+            for (int j = 0; j < count; j++) {
+                block |= ((encoded >>> (j << 3)) & 0xFFL) << (blockLength << 3);
+                if (++blockLength == 8) {
+                    h = mix64(h, block);
+                    block = 0;
+                    blockLength = 0;
+                }
+            }
+        }
+        if (blockLength > 0) {
+            h = mixTail64(h, block);
+        }
+        return fmix64A(h);
+    }
+
+    private static long mix64(long h, long k) {
+        k *= M;
+        k ^= k >>> R;
+        k *= M;
+        h ^= k;
+        h *= M;
+        return h;
+    }
+
+    /**
+     * 尾部不足8字节的处理沿用历史实现(异或m而非乘m), 以保证hash结果与原有数据一致
+     */
+    private static long mixTail64(long h, long tail) {
+        h ^= tail;
+        h ^= M;
         return h;
     }
+
+    private static long fmix64A(long h) {
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static void finish128(long h1, long h2, long k1, long k2, int length, long[] out) {
+        if ((length & 15) > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if ((length & 15) > 0) {
+            h1 ^= mixK1(k1);
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    private static long getLongLE(byte[] data, int index) {
+        return (data[index] & 0xFFL)
+                | (data[index + 1] & 0xFFL) << 8
+                | (data[index + 2] & 0xFFL) << 16
+                | (data[index + 3] & 0xFFL) << 24
+                | (data[index + 4] & 0xFFL) << 32
+                | (data[index + 5] & 0xFFL) << 40
+                | (data[index + 6] & 0xFFL) << 48
+                | (data[index + 7] & 0xFFL) << 56;
+    }
+
+    /**
+     * 对下标index处的字符做UTF-8编码, 规则与String.getBytes(UTF_8)一致(不成对的代理字符编码为'?').
+     * 低32位为按顺序排列的编码字节(第一个字节在最低位), 高32位为字节数; 字节数为4时表示消费了一对代理字符
+     */
+    private static long utf8Encode(CharSequence key, int index) {
+        char c = key.charAt(index);
+        if (c < 0x80) {
+            return 1L << 32 | c;
+        }
+        if (c < 0x800) {
+            return 2L << 32 | (0xC0 | c >>> 6) | (0x80 | c & 0x3F) << 8;
+        }
+        if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && index + 1 < key.length() && Character.isLowSurrogate(key.charAt(index + 1))) {
+                int cp = Character.toCodePoint(c, key.charAt(index + 1));
+                return 4L << 32 | ((0xF0 | cp >>> 18)
+                        | (0x80 | cp >>> 12 & 0x3F) << 8
+                        | (0x80 | cp >>> 6 & 0x3F) << 16
+                        | (long) (0x80 | cp & 0x3F) << 24);
+            }
+            return 1L << 32 | '?';
+        }
+        return 3L << 32 | (0xE0 | c >>> 12) | (0x80 | c >>> 6 & 0x3F) << 8 | (0x80 | c & 0x3F) << 16;
+    }
 }
@@ -2,53 +2,61 @@ package com.cloudtravel.common.util;
 
 import com.cloudtravel.common.service.IHashService;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.SortedMap;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
  * Created by Administrator on 2021/7/18 0018.
+ * 环形节点使用不可变的有序数组(long[] + T[])保存, 查询时二分查找, 无装箱无锁;
+ * 节点增删时基于当前环复制出新环并整体替换(copy-on-write), 读线程始终看到一个完整的环
  */
 @Slf4j
-public class ConsistentHash<T> {
+public class ConsistentHash<T> implements NodeSelector<T> {
 
     private final IHashService iHashService;
 
     /** 每个机器节点关联的虚拟节点数量 */
     private final int numberOfReplicas;
 
-    /** 环形虚拟节点对应的映射 */
-    private final SortedMap<Long , T> circle = new TreeMap<Long, T>();
+    /** 环形虚拟节点对应的映射, 每次变更整体替换 */
+    private volatile Ring<T> ring = Ring.empty();
 
     public ConsistentHash(IHashService iHashService, int numberOfReplicas , Collection<T> nodes) {
         log.info("环形节点服务初始化,numberOfReplicas={}" , numberOfReplicas);
         this.iHashService = iHashService;
         this.numberOfReplicas = numberOfReplicas;
+        TreeMap<Long , T> circle = new TreeMap<>();
         for (T node : nodes) {
-            addRealNodes(node);
+            putVirtualNodes(circle , node);
         }
+        this.ring = Ring.of(circle);
     }
 
     /**
      * 增加真实机器节点, 并增加真实节点的虚拟映射节点数量为numberOfReplicas
      * @param node
      */
-    public void addRealNodes(T node) {
-        for(int i = 0; i < this.numberOfReplicas; i++) {
-            circle.put(this.iHashService.hash(node.toString() + i) , node);
-        }
+    @Override
+    public synchronized void addRealNodes(T node) {
+        TreeMap<Long , T> circle = ring.toTreeMap();
+        putVirtualNodes(circle , node);
+        this.ring = Ring.of(circle);
     }
 
     /**
      * 移除真实节点 , 并将该真实节点对应的虚拟节点去除,去除节点为numberOfReplicas
      * @param node
      */
-    public void removeRealNode(T node) {
+    @Override
+    public synchronized void removeRealNode(T node) {
+        TreeMap<Long , T> circle = ring.toTreeMap();
         for(int i = 0 ; i < numberOfReplicas; i ++) {
-            circle.remove(this.iHashService.hash(node.toString() + i));
+            circle.remove(this.iHashService.hash64(node.toString() + i));
         }
+        this.ring = Ring.of(circle);
     }
 
     /**
@@ -56,16 +64,95 @@ public class ConsistentHash<T> {
      * @param key
      * @return
      */
+    @Override
     public T get(String key) {
-        if(circle.isEmpty()) {
+        Ring<T> current = this.ring;
+        if(current.isEmpty()) {
             return null;
         }
-        long hash = iHashService.hash(key);
-        //沿着节点圆环找到一个虚拟节点
-        if(!circle.containsKey(hash)) {
-            SortedMap<Long , T> tailMap = circle.tailMap(hash);
-            hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
+        return current.locate(iHashService.hash64(key));
+    }
+
+    /**
+     * 当前环上的虚拟节点数量
+     * @return
+     */
+    public int virtualNodeSize() {
+        return ring.size();
+    }
+
+    private void putVirtualNodes(TreeMap<Long , T> circle , T node) {
+        for(int i = 0; i < this.numberOfReplicas; i++) {
+            circle.put(this.iHashService.hash64(node.toString() + i) , node);
+        }
+    }
+
+    /**
+     * 不可变的环: hashes升序排列, nodes[i]为hashes[i]对应的真实节点
+     */
+    private static final class Ring<T> {
+
+        private static final Ring<?> EMPTY = new Ring<>(new long[0] , new Object[0]);
+
+        private final long[] hashes;
+
+        private final Object[] nodes;
+
+        private Ring(long[] hashes , Object[] nodes) {
+            this.hashes = hashes;
+            this.nodes = nodes;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Ring<T> empty() {
+            return (Ring<T>) EMPTY;
+        }
+
+        static <T> Ring<T> of(TreeMap<Long , T> circle) {
+            if(circle.isEmpty()) {
+                return empty();
+            }
+            long[] hashes = new long[circle.size()];
+            Object[] nodes = new Object[circle.size()];
+            int i = 0;
+            for (Map.Entry<Long, T> entry : circle.entrySet()) {
+                hashes[i] = entry.getKey();
+                nodes[i] = entry.getValue();
+                i ++;
+            }
+            return new Ring<>(hashes , nodes);
+        }
+
+        boolean isEmpty() {
+            return hashes.length == 0;
+        }
+
+        int size() {
+            return hashes.length;
+        }
+
+        /**
+         * 顺时针找到第一个hash值大于等于目标hash的虚拟节点, 越过末尾时回到第一个节点
+         */
+        @SuppressWarnings("unchecked")
+        T locate(long hash) {
+            int index = Arrays.binarySearch(hashes , hash);
+            if(index < 0) {
+                index = -index - 1;
+                if(index == hashes.length) {
+                    index = 0;
+                }
+            }
+            return (T) nodes[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        TreeMap<Long , T> toTreeMap() {
+            TreeMap<Long , T> circle = new TreeMap<>();
+            for (int i = 0; i < hashes.length; i++) {
+                circle.put(hashes[i] , (T) nodes[i]);
+            }
+            return circle;
         }
-        return circle.get(hash);
     }
 }
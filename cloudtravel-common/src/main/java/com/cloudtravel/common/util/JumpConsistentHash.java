@@ -0,0 +1,77 @@
+package com.cloudtravel.common.util;
+
+import com.cloudtravel.common.service.IHashService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Jump Consistent Hash(Lamping & Veach): 不需要虚拟节点, 每个真实节点只占数组中的一个位置, 分布均匀.
+ * 桶号为节点在数组中的下标, 在末尾增加节点时只有约1/n的key迁移到新节点;
+ * 移除中间节点时用末尾节点填补其位置, 迁移的key为被移除节点和原末尾节点上的key.
+ * 节点数组变更时整体替换(copy-on-write)
+ */
+@Slf4j
+public class JumpConsistentHash<T> implements NodeSelector<T> {
+
+    private final IHashService iHashService;
+
+    private volatile Object[] nodes;
+
+    public JumpConsistentHash(IHashService iHashService , Collection<T> nodes) {
+        log.info("跳跃一致性hash初始化,nodes={}" , nodes.size());
+        this.iHashService = iHashService;
+        this.nodes = nodes.toArray();
+    }
+
+    @Override
+    public synchronized void addRealNodes(T node) {
+        Object[] current = this.nodes;
+        Object[] next = Arrays.copyOf(current , current.length + 1);
+        next[current.length] = node;
+        this.nodes = next;
+    }
+
+    @Override
+    public synchronized void removeRealNode(T node) {
+        Object[] current = this.nodes;
+        for (int i = 0; i < current.length; i++) {
+            if(current[i].equals(node)) {
+                Object[] next = Arrays.copyOf(current , current.length - 1);
+                if(i < next.length) {
+                    next[i] = current[current.length - 1];
+                }
+                this.nodes = next;
+                return;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        Object[] current = this.nodes;
+        if(current.length == 0) {
+            return null;
+        }
+        return (T) current[jump(iHashService.hash64(key) , current.length)];
+    }
+
+    /**
+     * 计算key所在的桶号, 结果范围[0 , buckets)
+     * @param key
+     * @param buckets
+     * @return
+     */
+    static int jump(long key , int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
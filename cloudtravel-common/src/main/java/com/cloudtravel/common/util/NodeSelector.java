@@ -0,0 +1,27 @@
+package com.cloudtravel.common.util;
+
+/**
+ * 根据key选择真实节点的路由策略.
+ * 目前有虚拟节点环{@link ConsistentHash}, 跳跃一致性hash{@link JumpConsistentHash}, 加权最高随机权重{@link RendezvousHash}
+ */
+public interface NodeSelector<T> {
+
+    /**
+     * 根据key获取对应的节点, 没有节点时返回null
+     * @param key
+     * @return
+     */
+    T get(String key);
+
+    /**
+     * 增加真实节点
+     * @param node
+     */
+    void addRealNodes(T node);
+
+    /**
+     * 移除真实节点
+     * @param node
+     */
+    void removeRealNode(T node);
+}
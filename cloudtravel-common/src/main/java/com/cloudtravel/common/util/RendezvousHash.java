@@ -0,0 +1,140 @@
+package com.cloudtravel.common.util;
+
+import com.cloudtravel.common.service.IHashService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * 加权最高随机权重(Rendezvous / HRW)hash: 对每个节点计算score = -weight / ln(u), u为key与节点的组合hash映射到(0,1),
+ * 取score最大的节点. 节点增删时只有落在该节点上的key会迁移, 查询为O(n), 适合节点数较少的场景.
+ * 节点hash预先计算, 节点数组变更时整体替换(copy-on-write)
+ */
+@Slf4j
+public class RendezvousHash<T> implements NodeSelector<T> {
+
+    private static final double DEFAULT_WEIGHT = 1.0D;
+
+    private final IHashService iHashService;
+
+    private volatile Members members = Members.EMPTY;
+
+    public RendezvousHash(IHashService iHashService , Collection<T> nodes) {
+        log.info("rendezvous hash初始化,nodes={}" , nodes.size());
+        this.iHashService = iHashService;
+        for (T node : nodes) {
+            addRealNodes(node , DEFAULT_WEIGHT);
+        }
+    }
+
+    @Override
+    public void addRealNodes(T node) {
+        addRealNodes(node , DEFAULT_WEIGHT);
+    }
+
+    /**
+     * 按权重增加真实节点, 节点已存在时更新其权重
+     * @param node
+     * @param weight 大于0
+     */
+    public synchronized void addRealNodes(T node , double weight) {
+        if(!(weight > 0)) {
+            throw new IllegalArgumentException("weight must be positive : " + weight);
+        }
+        Members current = this.members;
+        int index = current.indexOf(node);
+        int size = index < 0 ? current.nodes.length + 1 : current.nodes.length;
+        Object[] nodes = Arrays.copyOf(current.nodes , size);
+        long[] seeds = Arrays.copyOf(current.seeds , size);
+        double[] weights = Arrays.copyOf(current.weights , size);
+        int slot = index < 0 ? size - 1 : index;
+        nodes[slot] = node;
+        seeds[slot] = iHashService.hash64(node.toString());
+        weights[slot] = weight;
+        this.members = new Members(nodes , seeds , weights);
+    }
+
+    @Override
+    public synchronized void removeRealNode(T node) {
+        Members current = this.members;
+        int index = current.indexOf(node);
+        if(index < 0) {
+            return;
+        }
+        int size = current.nodes.length - 1;
+        Object[] nodes = new Object[size];
+        long[] seeds = new long[size];
+        double[] weights = new double[size];
+        System.arraycopy(current.nodes , 0 , nodes , 0 , index);
+        System.arraycopy(current.nodes , index + 1 , nodes , index , size - index);
+        System.arraycopy(current.seeds , 0 , seeds , 0 , index);
+        System.arraycopy(current.seeds , index + 1 , seeds , index , size - index);
+        System.arraycopy(current.weights , 0 , weights , 0 , index);
+        System.arraycopy(current.weights , index + 1 , weights , index , size - index);
+        this.members = new Members(nodes , seeds , weights);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        Members current = this.members;
+        if(current.nodes.length == 0) {
+            return null;
+        }
+        long hash = iHashService.hash64(key);
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < current.seeds.length; i++) {
+            //取高53位映射到(0,1)开区间, 避免ln(0)与ln(1)
+            double u = ((mix(hash ^ current.seeds[i]) >>> 11) + 0.5D) * 0x1.0p-53;
+            double score = -current.weights[i] / Math.log(u);
+            if(score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return (T) current.nodes[best];
+    }
+
+    /**
+     * key与节点hash组合后再做一次雪崩(MurmurHash3的fmix64), 保证不同节点间的分数相互独立
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * 不可变的节点列表, nodes[i]的hash为seeds[i], 权重为weights[i]
+     */
+    private static final class Members {
+
+        private static final Members EMPTY = new Members(new Object[0] , new long[0] , new double[0]);
+
+        private final Object[] nodes;
+
+        private final long[] seeds;
+
+        private final double[] weights;
+
+        private Members(Object[] nodes , long[] seeds , double[] weights) {
+            this.nodes = nodes;
+            this.seeds = seeds;
+            this.weights = weights;
+        }
+
+        int indexOf(Object node) {
+            for (int i = 0; i < nodes.length; i++) {
+                if(nodes[i].equals(node)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
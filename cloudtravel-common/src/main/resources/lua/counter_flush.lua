@@ -0,0 +1,12 @@
+-- 把一个节点计数的累计值写入子key, 按累计值计算差额, 重复执行不会重复累加
+-- KEYS[1] 子key, KEYS[2] 子key的已写入记录(hash, field为节点计数标识); ARGV[1] field, ARGV[2] 累计值, ARGV[3] 已写入记录的过期时间(毫秒)
+-- 返回本次累加的差额
+local applied = tonumber(redis.call('HGET', KEYS[2], ARGV[1]) or '0')
+local total = tonumber(ARGV[2])
+local delta = total - applied
+if delta ~= 0 then
+    redis.call('INCRBY', KEYS[1], delta)
+    redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])
+end
+redis.call('PEXPIRE', KEYS[2], ARGV[3])
+return delta
@@ -0,0 +1,15 @@
+-- 扣减库存并累加已售数量
+-- KEYS[1] 库存key, KEYS[2] 已售key; ARGV[1] 扣减数量
+-- 返回扣减后的库存; -1: 库存未初始化; -2: 库存不足
+local stock = redis.call('GET', KEYS[1])
+if not stock then
+    return -1
+end
+stock = tonumber(stock)
+local count = tonumber(ARGV[1])
+if stock < count then
+    return -2
+end
+redis.call('DECRBY', KEYS[1], count)
+redis.call('INCRBY', KEYS[2], count)
+return stock - count
@@ -0,0 +1,14 @@
+-- 多个sku一起扣减, 全部满足才扣减
+-- KEYS 依次为 库存key1, 已售key1, 库存key2, 已售key2 ...; ARGV 依次为各sku的扣减数量
+-- 返回0: 扣减成功; 大于0: 第一个库存未初始化或不足的sku序号(从1开始)
+for i = 1, #ARGV do
+    local stock = redis.call('GET', KEYS[i * 2 - 1])
+    if not stock or tonumber(stock) < tonumber(ARGV[i]) then
+        return i
+    end
+end
+for i = 1, #ARGV do
+    redis.call('DECRBY', KEYS[i * 2 - 1], ARGV[i])
+    redis.call('INCRBY', KEYS[i * 2], ARGV[i])
+end
+return 0
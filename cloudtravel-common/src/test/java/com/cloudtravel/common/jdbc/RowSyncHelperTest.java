@@ -0,0 +1,31 @@
+package com.cloudtravel.common.jdbc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class RowSyncHelperTest {
+
+    /**
+     * 相邻列拼接后相同、null与空串的行CRC32不同
+     */
+    @Test
+    public void testChecksum() {
+        Assert.assertEquals(RowSyncHelper.checksum(new Object[]{1L , "ab" , null}) , RowSyncHelper.checksum(new Object[]{1L , "ab" , null}));
+        Assert.assertNotEquals(RowSyncHelper.checksum(new Object[]{"a" , "bc"}) , RowSyncHelper.checksum(new Object[]{"ab" , "c"}));
+        Assert.assertNotEquals(RowSyncHelper.checksum(new Object[]{1L , null}) , RowSyncHelper.checksum(new Object[]{1L , ""}));
+        Assert.assertEquals(RowSyncHelper.checksum(new Object[]{new byte[]{1 , 2}}) , RowSyncHelper.checksum(new Object[]{new byte[]{1 , 2}}));
+    }
+
+    @Test
+    public void testSql() {
+        Assert.assertEquals("INSERT INTO t_sp_0 (SP_ID, SP_NAME) VALUES (?, ?)" ,
+                RowSyncHelper.insertSql("t_sp_0" , Arrays.asList("SP_ID" , "SP_NAME")));
+        Assert.assertTrue(RowSyncHelper.isIdentifier("t_sp_v2_0"));
+        Assert.assertFalse(RowSyncHelper.isIdentifier(null));
+        Assert.assertFalse(RowSyncHelper.isIdentifier(" "));
+        Assert.assertFalse(RowSyncHelper.isIdentifier("t_sp; drop table t_sp"));
+        Assert.assertFalse(RowSyncHelper.isIdentifier("1t"));
+    }
+}
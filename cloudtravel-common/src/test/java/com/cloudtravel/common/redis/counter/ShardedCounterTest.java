@@ -0,0 +1,141 @@
+package com.cloudtravel.common.redis.counter;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段计数与单key INCRBY的吞吐量对比, 需要本地127.0.0.1:6379的redis
+ */
+public class ShardedCounterTest {
+
+    private static final int THREADS = 16;
+
+    private static final int INCR_PER_THREAD = 5000;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ShardedCounter shardedCounter;
+
+    @Before
+    public void init() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1" , 6379));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        shardedCounter = new ShardedCounter(connectionFactory , 16 , 100 , 1000 , 600000);
+    }
+
+    @After
+    public void destroy() {
+        shardedCounter.destroy();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testIncrAndGet() throws Exception {
+        shardedCounter.delete("SKU-C-VIEW");
+        stringRedisTemplate.delete("SKU-C-VIEW-SINGLE");
+
+        long shardedCost = run(() -> shardedCounter.incr("SKU-C-VIEW" , 1));
+        shardedCounter.flush();
+        Assert.assertEquals(THREADS * INCR_PER_THREAD , shardedCounter.get("SKU-C-VIEW"));
+
+        shardedCounter.decr("SKU-C-VIEW" , 10);
+        shardedCounter.flush();
+        Assert.assertEquals(THREADS * INCR_PER_THREAD - 10 , shardedCounter.get("SKU-C-VIEW"));
+
+        long singleCost = run(() -> stringRedisTemplate.opsForValue().increment("SKU-C-VIEW-SINGLE" , 1));
+        Assert.assertEquals(String.valueOf(THREADS * INCR_PER_THREAD) , stringRedisTemplate.opsForValue().get("SKU-C-VIEW-SINGLE"));
+
+        System.out.println(THREADS * INCR_PER_THREAD + "次递增(" + THREADS + "线程): 分段计数耗时 " + shardedCost
+                + "ms , 单key INCRBY耗时 " + singleCost + "ms");
+        shardedCounter.delete("SKU-C-VIEW");
+        stringRedisTemplate.delete("SKU-C-VIEW-SINGLE");
+    }
+
+    @Test
+    public void testFlushScriptIsIdempotent() {
+        stringRedisTemplate.delete(Arrays.asList("counter:{SKU-C-RETRY#0}" , "counter:{SKU-C-RETRY#0}:applied"));
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/counter_flush.lua"));
+        script.setResultType(Long.class);
+        //pipeline部分失败后按同一累计值重试, 不会重复累加
+        for (int i = 0; i < 2; i++) {
+            stringRedisTemplate.execute(script , Arrays.asList("counter:{SKU-C-RETRY#0}" , "counter:{SKU-C-RETRY#0}:applied") ,
+                    "node#1" , "30" , "60000");
+        }
+        stringRedisTemplate.execute(script , Arrays.asList("counter:{SKU-C-RETRY#0}" , "counter:{SKU-C-RETRY#0}:applied") ,
+                "node#2" , "5" , "60000");
+        Assert.assertEquals("35" , stringRedisTemplate.opsForValue().get("counter:{SKU-C-RETRY#0}"));
+        stringRedisTemplate.execute(script , Arrays.asList("counter:{SKU-C-RETRY#0}" , "counter:{SKU-C-RETRY#0}:applied") ,
+                "node#1" , "28" , "60000");
+        Assert.assertEquals("33" , stringRedisTemplate.opsForValue().get("counter:{SKU-C-RETRY#0}"));
+        stringRedisTemplate.delete(Arrays.asList("counter:{SKU-C-RETRY#0}" , "counter:{SKU-C-RETRY#0}:applied"));
+    }
+
+    @Test
+    public void testEvictIdleAndDelete() {
+        ShardedCounter evicting = new ShardedCounter(connectionFactory , 4 , 60000 , 1000 , 0);
+        try {
+            evicting.delete("SKU-C-IDLE");
+            evicting.incr("SKU-C-IDLE" , 5);
+            evicting.flush();
+            //空闲时间为0, 已刷新的计数在下一次刷新时淘汰, 淘汰后的增量写入新计数
+            evicting.flush();
+            evicting.incr("SKU-C-IDLE" , 3);
+            evicting.flush();
+            evicting.flush();
+            Assert.assertEquals(8 , evicting.get("SKU-C-IDLE"));
+
+            evicting.incr("SKU-C-IDLE" , 2);
+            evicting.delete("SKU-C-IDLE");
+            evicting.flush();
+            Assert.assertEquals(0 , evicting.get("SKU-C-IDLE"));
+            evicting.incr("SKU-C-IDLE" , 1);
+            evicting.flush();
+            Assert.assertEquals(1 , evicting.get("SKU-C-IDLE"));
+            evicting.delete("SKU-C-IDLE");
+        } finally {
+            evicting.destroy();
+        }
+    }
+
+    private long run(Runnable incr) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch end = new CountDownLatch(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < INCR_PER_THREAD; j++) {
+                        incr.run();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    end.countDown();
+                }
+            });
+        }
+        long begin = System.currentTimeMillis();
+        start.countDown();
+        Assert.assertTrue(end.await(5 , TimeUnit.MINUTES));
+        executor.shutdown();
+        return System.currentTimeMillis() - begin;
+    }
+}
@@ -0,0 +1,112 @@
+package com.cloudtravel.common.redis.loader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发未命中时只加载一次, 需要本地127.0.0.1:6379的redis
+ */
+public class CacheLoaderTest {
+
+    private static final int THREADS = 50;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private RedissonClient redissonClient;
+
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private CacheLoader cacheLoader;
+
+    @Before
+    public void init() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1" , 6379));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(new JdkSerializationRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://127.0.0.1:6379");
+        redissonClient = Redisson.create(config);
+        cacheLoader = new CacheLoader(redisTemplate , redissonClient);
+    }
+
+    @After
+    public void destroy() {
+        cacheLoader.destroy();
+        redissonClient.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        assertLoadOnce("SKU-C-COUNT-LOADER" , false);
+    }
+
+    @Test
+    public void testSingleFlightWithLock() throws Exception {
+        assertLoadOnce("SKU-C-COUNT-LOADER-LOCK" , true);
+    }
+
+    private void assertLoadOnce(String key , boolean distributed) throws Exception {
+        cacheLoader.evict(key);
+        AtomicInteger loadCount = new AtomicInteger();
+        AtomicInteger wrong = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch end = new CountDownLatch(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    Integer value = cacheLoader.get(key , 60 , () -> {
+                        loadCount.incrementAndGet();
+                        sleep(200);
+                        return 100;
+                    } , distributed);
+                    if(value == null || value != 100) {
+                        wrong.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    wrong.incrementAndGet();
+                } finally {
+                    end.countDown();
+                }
+            });
+        }
+        long begin = System.currentTimeMillis();
+        start.countDown();
+        Assert.assertTrue(end.await(10 , TimeUnit.SECONDS));
+        executor.shutdown();
+        System.out.println(THREADS + "个线程并发未命中, 加载次数=" + loadCount.get() + " , 耗时=" + (System.currentTimeMillis() - begin) + "ms");
+        Assert.assertEquals(1 , loadCount.get());
+        Assert.assertEquals(0 , wrong.get());
+        cacheLoader.evict(key);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.cloudtravel.common.redis.stock;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 库存扣减压测: lua脚本扣减、分片扣减与"加锁 + get + decr"方式的吞吐量对比, 并校验不超卖.
+ * 需要本地127.0.0.1:6379的redis
+ */
+public class StockServiceTest {
+
+    private static final int THREADS = 32;
+
+    private static final int REQUESTS_PER_THREAD = 500;
+
+    /** 总库存小于总请求数, 用于校验售罄后不超卖 */
+    private static final long STOCK = 10000L;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private RedissonClient redissonClient;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private StockService stockService;
+
+    @Before
+    public void init() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1" , 6379));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://127.0.0.1:6379");
+        redissonClient = Redisson.create(config);
+        stockService = new StockService(connectionFactory);
+        stockService.afterPropertiesSet();
+    }
+
+    @After
+    public void destroy() {
+        redissonClient.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testDeductBatch() {
+        stockService.initStock("SKU-BATCH-A" , 10);
+        stockService.initStock("SKU-BATCH-B" , 1);
+        Map<String , Long> items = new LinkedHashMap<>();
+        items.put("SKU-BATCH-A" , 2L);
+        items.put("SKU-BATCH-B" , 2L);
+        Assert.assertEquals("SKU-BATCH-B" , stockService.deductBatch(items));
+        Assert.assertEquals(10 , stockService.getStock("SKU-BATCH-A"));
+
+        items.put("SKU-BATCH-B" , 1L);
+        Assert.assertNull(stockService.deductBatch(items));
+        Assert.assertEquals(8 , stockService.getStock("SKU-BATCH-A"));
+        Assert.assertEquals(0 , stockService.getStock("SKU-BATCH-B"));
+        Assert.assertEquals(1 , stockService.getSold("SKU-BATCH-B"));
+        Assert.assertEquals(StockService.NOT_INITIALIZED , stockService.deduct("SKU-BATCH-NONE" , 1));
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        stockService.initStock("SKU-LUA" , STOCK);
+        long luaCost = run(() -> stockService.deduct("SKU-LUA" , 1));
+        Assert.assertEquals(0 , stockService.getStock("SKU-LUA"));
+        Assert.assertEquals(STOCK , stockService.getSold("SKU-LUA"));
+
+        stockService.initShardedStock("SKU-SHARD" , STOCK , 8);
+        long shardCost = run(() -> stockService.deductSharded("SKU-SHARD" , 1 , 8));
+        long[] sharded = stockService.getShardedStock("SKU-SHARD" , 8);
+        Assert.assertEquals(0 , sharded[0]);
+        Assert.assertEquals(STOCK , sharded[1]);
+
+        stringRedisTemplate.opsForValue().set("SKU-LOCK-COUNT" , String.valueOf(STOCK));
+        stringRedisTemplate.opsForValue().set("SKU-LOCK-SOLD" , "0");
+        long lockCost = run(this::deductWithLock);
+        Assert.assertEquals("0" , stringRedisTemplate.opsForValue().get("SKU-LOCK-COUNT"));
+        Assert.assertEquals(String.valueOf(STOCK) , stringRedisTemplate.opsForValue().get("SKU-LOCK-SOLD"));
+
+        int total = THREADS * REQUESTS_PER_THREAD;
+        System.out.println(total + "次扣减请求(" + THREADS + "线程): lua耗时 " + luaCost + "ms(" + total * 1000L / Math.max(1 , luaCost)
+                + "/s) , 分片lua耗时 " + shardCost + "ms(" + total * 1000L / Math.max(1 , shardCost)
+                + "/s) , 加锁耗时 " + lockCost + "ms(" + total * 1000L / Math.max(1 , lockCost) + "/s)");
+    }
+
+    /**
+     * 与RedisTestController.testLock相同的方式: 加锁后get、判断、decr, 多次往返
+     */
+    private long deductWithLock() {
+        RLock lock = redissonClient.getLock("SKU-LOCK");
+        lock.lock();
+        try {
+            long stock = Long.parseLong(stringRedisTemplate.opsForValue().get("SKU-LOCK-COUNT"));
+            if(stock < 1) {
+                return StockService.INSUFFICIENT;
+            }
+            stringRedisTemplate.opsForValue().decrement("SKU-LOCK-COUNT");
+            stringRedisTemplate.opsForValue().increment("SKU-LOCK-SOLD");
+            return stock - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long run(LongSupplier deduct) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch end = new CountDownLatch(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                        deduct.getAsLong();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    end.countDown();
+                }
+            });
+        }
+        long begin = System.currentTimeMillis();
+        start.countDown();
+        Assert.assertTrue(end.await(5 , TimeUnit.MINUTES));
+        executor.shutdown();
+        return System.currentTimeMillis() - begin;
+    }
+}
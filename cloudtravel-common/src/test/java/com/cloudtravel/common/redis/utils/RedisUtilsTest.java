@@ -0,0 +1,114 @@
+package com.cloudtravel.common.redis.utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量接口与逐条调用的耗时对比, 需要本地127.0.0.1:6379的redis
+ */
+public class RedisUtilsTest {
+
+    private static final int KEY_COUNT = 10000;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private RedisUtils redisUtils;
+
+    @Before
+    public void init() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1" , 6379));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        redisTemplate.setHashValueSerializer(new GenericJackson2JsonRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+        redisUtils = new RedisUtils(redisTemplate);
+    }
+
+    @After
+    public void destroy() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testMultiGetAndSet() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            map.put("batch-test-" + i , "value-" + i);
+        }
+        List<String> keys = new ArrayList<>(map.keySet());
+
+        long start = System.currentTimeMillis();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            redisUtils.set(entry.getKey() , entry.getValue() , 60);
+        }
+        long setCost = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        Assert.assertTrue(redisUtils.multiSet(map , 60));
+        long multiSetCost = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (String key : keys) {
+            redisUtils.get(key);
+        }
+        long getCost = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        List<Object> values = redisUtils.multiGet(keys);
+        long multiGetCost = System.currentTimeMillis() - start;
+
+        Assert.assertEquals(KEY_COUNT , values.size());
+        for (int i = 0; i < KEY_COUNT; i++) {
+            Assert.assertEquals("value-" + i , values.get(i));
+        }
+        System.out.println(KEY_COUNT + "个key: 逐条set耗时 " + setCost + "ms , multiSet耗时 " + multiSetCost
+                + "ms ; 逐条get耗时 " + getCost + "ms , multiGet耗时 " + multiGetCost + "ms");
+        redisTemplate.delete(keys);
+    }
+
+    @Test
+    public void testHmgetAll() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = "batch-hash-test-" + i;
+            Map<String, Object> map = new HashMap<>();
+            map.put("id" , i);
+            map.put("name" , "name-" + i);
+            keys.add(key);
+            redisUtils.hmset(key , map , 60);
+        }
+        keys.add("batch-hash-test-none");
+
+        long start = System.currentTimeMillis();
+        for (String key : keys) {
+            redisUtils.hmget(key);
+        }
+        long hmgetCost = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        Map<String, Map<Object, Object>> result = redisUtils.hmgetAll(keys);
+        long hmgetAllCost = System.currentTimeMillis() - start;
+
+        Assert.assertEquals(keys.size() , result.size());
+        Assert.assertEquals("name-7" , result.get("batch-hash-test-7").get("name"));
+        Assert.assertTrue(result.get("batch-hash-test-none").isEmpty());
+        System.out.println(keys.size() + "个hash: 逐条hmget耗时 " + hmgetCost + "ms , hmgetAll耗时 " + hmgetAllCost + "ms");
+        redisTemplate.delete(keys);
+    }
+}
@@ -0,0 +1,137 @@
+package com.cloudtravel.common.service.impl;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class HashServiceImplTest {
+
+    private final HashServiceImpl hashService = new HashServiceImpl();
+
+    /**
+     * 新实现的64位结果需与原ByteBuffer实现一致, 否则已有的一致性hash环会整体漂移
+     */
+    @Test
+    public void testHash64SameAsLegacy() {
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            String key = randomKey(random);
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            long expected = legacyHash(key);
+            Assert.assertEquals(expected , hashService.hash64(key));
+            Assert.assertEquals(expected , hashService.hash64(bytes , 0 , bytes.length));
+            Assert.assertEquals(expected , hashService.hash(key).longValue());
+        }
+    }
+
+    /**
+     * 128位结果与guava的murmur3_128一致
+     */
+    @Test
+    public void testHash128SameAsGuava() {
+        Random random = new Random(11);
+        long[] out = new long[2];
+        for (int i = 0; i < 20000; i++) {
+            String key = randomKey(random);
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            HashCode hashCode = Hashing.murmur3_128(0x1234ABCD).hashBytes(bytes);
+            ByteBuffer expected = ByteBuffer.wrap(hashCode.asBytes()).order(ByteOrder.LITTLE_ENDIAN);
+            hashService.hash128(key , out);
+            Assert.assertEquals(expected.getLong(0) , out[0]);
+            Assert.assertEquals(expected.getLong(8) , out[1]);
+            hashService.hash128(bytes , 0 , bytes.length , out);
+            Assert.assertEquals(expected.getLong(0) , out[0]);
+            Assert.assertEquals(expected.getLong(8) , out[1]);
+        }
+    }
+
+    /**
+     * 与原实现的耗时对比
+     */
+    @Test
+    public void testHashCost() {
+        String[] keys = new String[1024];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "cloudtravel_consumer" + i + "#tenant-" + (i * 31);
+        }
+        int rounds = 2000;
+        long blackHole = 0;
+        for (int warm = 0; warm < 3; warm++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (String key : keys) {
+                    blackHole += legacyHash(key);
+                }
+            }
+            long legacyCost = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (String key : keys) {
+                    blackHole += hashService.hash64(key);
+                }
+            }
+            long hash64Cost = System.nanoTime() - start;
+            int total = rounds * keys.length;
+            System.out.println("第" + warm + "轮: 原实现 " + legacyCost / total + " ns/op , hash64 " + hash64Cost / total + " ns/op");
+        }
+        System.out.println(blackHole);
+    }
+
+    private String randomKey(Random random) {
+        int length = random.nextInt(40);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(5)) {
+                case 0 :
+                    builder.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+                case 1 :
+                    builder.append((char) (0x4E00 + random.nextInt(0x5000)));
+                    break;
+                case 2 :
+                    builder.appendCodePoint(0x1F600 + random.nextInt(0x50));
+                    break;
+                default:
+                    builder.append((char) (0x20 + random.nextInt(0x5F)));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 改造前的实现, 仅用于结果与耗时对比
+     */
+    private long legacyHash(String key) {
+        ByteBuffer buf = ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+        int seed = 0x1234ABCD;
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        Long m = 0xc6a4a7935bd1e995L;
+        int r = 47;
+        long h = seed ^ (buf.remaining() * m);
+        long k;
+        while (buf.remaining() >= 8){
+            k = buf.getLong();
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+        if(buf.remaining() > 0){
+            ByteBuffer finish = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            finish.put(buf).rewind();
+            h ^= finish.getLong();
+            h ^= m;
+        }
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+}
@@ -1,7 +1,10 @@
 package com.cloudtravel.common.util;
 
+import com.cloudtravel.common.service.IHashService;
+import com.cloudtravel.common.service.impl.HashServiceImpl;
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnels;
+import org.junit.Assert;
 import org.junit.Test;
 import org.redisson.Redisson;
 import org.redisson.api.RBloomFilter;
@@ -29,6 +32,45 @@ public class ConsistentHashTest {
         System.out.println("Main end");
     }
 
+    /**
+     * 数组环的查找结果需与TreeMap顺时针查找的结果一致, 增删节点后同样成立
+     */
+    @Test
+    public void testRingLookup() {
+        IHashService hashService = new HashServiceImpl();
+        List<String> nodes = Arrays.asList("node-1" , "node-2" , "node-3");
+        ConsistentHash<String> consistentHash = new ConsistentHash<>(hashService , 160 , nodes);
+        TreeMap<Long , String> circle = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < 160; i++) {
+                circle.put(hashService.hash(node + i) , node);
+            }
+        }
+        assertSameRoute(hashService , circle , consistentHash);
+
+        consistentHash.addRealNodes("node-4");
+        for (int i = 0; i < 160; i++) {
+            circle.put(hashService.hash("node-4" + i) , "node-4");
+        }
+        assertSameRoute(hashService , circle , consistentHash);
+
+        consistentHash.removeRealNode("node-2");
+        for (int i = 0; i < 160; i++) {
+            circle.remove(hashService.hash("node-2" + i));
+        }
+        assertSameRoute(hashService , circle , consistentHash);
+        Assert.assertEquals(circle.size() , consistentHash.virtualNodeSize());
+    }
+
+    private void assertSameRoute(IHashService hashService , TreeMap<Long , String> circle , ConsistentHash<String> consistentHash) {
+        for (int i = 0; i < 10000; i++) {
+            String key = "tenant-" + i;
+            SortedMap<Long , String> tailMap = circle.tailMap(hashService.hash(key));
+            String expected = tailMap.isEmpty() ? circle.firstEntry().getValue() : tailMap.get(tailMap.firstKey());
+            Assert.assertEquals(expected , consistentHash.get(key));
+        }
+    }
+
     @Test
     public void testQueue() {
         Queue<Integer> arr = new LinkedBlockingQueue<>();
@@ -0,0 +1,166 @@
+package com.cloudtravel.common.util;
+
+import com.cloudtravel.common.service.IHashService;
+import com.cloudtravel.common.service.impl.HashServiceImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 三种节点选择策略的对比: 查询耗时、每节点内存、均衡度、增删节点时的key迁移比例
+ */
+public class NodeSelectorTest {
+
+    private static final int KEY_COUNT = 100000;
+
+    private static final int NODE_COUNT = 10;
+
+    private static final int REPLICAS = 160;
+
+    private final IHashService hashService = new HashServiceImpl();
+
+    /**
+     * 增加节点时, 迁移的key只能迁往新节点; 移除节点时, 只有原先落在该节点上的key迁移(jump除外, 末尾节点会填补空位)
+     */
+    @Test
+    public void testMinimalMovement() {
+        List<String> nodes = nodes(NODE_COUNT);
+        String[] keys = keys(20000);
+
+        ConsistentHash<String> ring = new ConsistentHash<>(hashService , REPLICAS , nodes);
+        JumpConsistentHash<String> jump = new JumpConsistentHash<>(hashService , nodes);
+        RendezvousHash<String> rendezvous = new RendezvousHash<>(hashService , nodes);
+        List<NodeSelector<String>> selectors = new ArrayList<>();
+        selectors.add(ring);
+        selectors.add(jump);
+        selectors.add(rendezvous);
+        for (NodeSelector<String> selector : selectors) {
+            String[] before = route(selector , keys);
+            selector.addRealNodes("node-new");
+            String[] after = route(selector , keys);
+            for (int i = 0; i < keys.length; i++) {
+                if(!before[i].equals(after[i])) {
+                    Assert.assertEquals("node-new" , after[i]);
+                }
+            }
+            selector.removeRealNode("node-new");
+            Assert.assertArrayEquals(before , route(selector , keys));
+        }
+
+        String[] before = route(rendezvous , keys);
+        rendezvous.removeRealNode("node-3");
+        String[] after = route(rendezvous , keys);
+        for (int i = 0; i < keys.length; i++) {
+            if(!before[i].equals(after[i])) {
+                Assert.assertEquals("node-3" , before[i]);
+            }
+        }
+    }
+
+    /**
+     * 权重为2的节点分到的key约为其他节点的两倍
+     */
+    @Test
+    public void testRendezvousWeight() {
+        List<String> nodes = nodes(4);
+        RendezvousHash<String> rendezvous = new RendezvousHash<>(hashService , nodes);
+        rendezvous.addRealNodes("node-0" , 2.0D);
+        Map<String , Integer> counts = count(rendezvous , keys(KEY_COUNT));
+        double share = counts.get("node-0") / (double) KEY_COUNT;
+        Assert.assertEquals(0.4D , share , 0.02D);
+    }
+
+    /**
+     * 打印各策略的对比报告, 用于按部署规模选择策略
+     */
+    @Test
+    public void testReport() {
+        List<String> nodes = nodes(NODE_COUNT);
+        String[] keys = keys(KEY_COUNT);
+        report("ring(replicas=" + REPLICAS + ")" , new ConsistentHash<>(hashService , REPLICAS , nodes) , keys ,
+                REPLICAS * (8 + 4));
+        report("ring(replicas=10)" , new ConsistentHash<>(hashService , 10 , nodes) , keys , 10 * (8 + 4));
+        report("jump" , new JumpConsistentHash<>(hashService , nodes) , keys , 4);
+        report("rendezvous" , new RendezvousHash<>(hashService , nodes) , keys , 4 + 8 + 8);
+    }
+
+    /**
+     * @param bytesPerNode 每个真实节点在数组中占用的字节数(按压缩指针估算, 不含节点对象本身)
+     */
+    private void report(String name , NodeSelector<String> selector , String[] keys , int bytesPerNode) {
+        long blackHole = 0;
+        long cost = 0;
+        for (int warm = 0; warm < 5; warm++) {
+            long start = System.nanoTime();
+            for (String key : keys) {
+                blackHole += selector.get(key).length();
+            }
+            cost = System.nanoTime() - start;
+        }
+        Map<String , Integer> counts = count(selector , keys);
+        int max = 0;
+        int min = Integer.MAX_VALUE;
+        for (Integer value : counts.values()) {
+            max = Math.max(max , value);
+            min = Math.min(min , value);
+        }
+        double avg = keys.length / (double) counts.size();
+
+        String[] before = route(selector , keys);
+        selector.addRealNodes("node-new");
+        double addMoved = moved(before , route(selector , keys));
+        selector.removeRealNode("node-new");
+        selector.removeRealNode("node-0");
+        double removeMoved = moved(before , route(selector , keys));
+        selector.addRealNodes("node-0");
+
+        System.out.println(String.format("%-22s %5d ns/lookup , %5d B/node , max/avg=%.3f min/avg=%.3f , add迁移=%.2f%% , remove迁移=%.2f%% (%d)" ,
+                name , cost / keys.length , bytesPerNode , max / avg , min / avg , addMoved * 100 , removeMoved * 100 , blackHole));
+    }
+
+    private Map<String , Integer> count(NodeSelector<String> selector , String[] keys) {
+        Map<String , Integer> counts = new HashMap<>();
+        for (String key : keys) {
+            counts.merge(selector.get(key) , 1 , Integer::sum);
+        }
+        return counts;
+    }
+
+    private String[] route(NodeSelector<String> selector , String[] keys) {
+        String[] result = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = selector.get(keys[i]);
+        }
+        return result;
+    }
+
+    private double moved(String[] before , String[] after) {
+        int moved = 0;
+        for (int i = 0; i < before.length; i++) {
+            if(!before[i].equals(after[i])) {
+                moved ++;
+            }
+        }
+        return moved / (double) before.length;
+    }
+
+    private List<String> nodes(int size) {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            nodes.add("node-" + i);
+        }
+        return nodes;
+    }
+
+    private String[] keys(int size) {
+        String[] keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "tenant-" + i;
+        }
+        return keys;
+    }
+}
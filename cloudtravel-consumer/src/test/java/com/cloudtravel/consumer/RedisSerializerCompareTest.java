@@ -0,0 +1,133 @@
+package com.cloudtravel.consumer;
+
+import com.cloudtravel.common.redis.config.CloudRedisConfig;
+import com.cloudtravel.common.redis.serializer.KryoRedisSerializer;
+import com.cloudtravel.consumer.common.model.BaseSpModel;
+import com.cloudtravel.producer.model.BaseUserModel;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * redis值序列化方式对比: jackson(带类型信息) / kryo / kryo+lz4,
+ * 分别统计单个对象与100个对象的列表的字节数、序列化与反序列化耗时、每次操作分配的内存
+ */
+public class RedisSerializerCompareTest {
+
+    private static final int ROUNDS = 20000;
+
+    private final RedisSerializer<Object> jackson = CloudRedisConfig.jackson2JsonRedisSerializer();
+
+    private final KryoRedisSerializer kryo = new KryoRedisSerializer(
+            Arrays.asList(BaseUserModel.class , BaseSpModel.class , ArrayList.class , Date.class) , 0);
+
+    private final KryoRedisSerializer kryoLz4 = new KryoRedisSerializer(
+            Arrays.asList(BaseUserModel.class , BaseSpModel.class , ArrayList.class , Date.class) , 512);
+
+    @Test
+    public void testRoundTrip() {
+        for (RedisSerializer<Object> serializer : Arrays.asList(kryo , kryoLz4)) {
+            BaseUserModel user = (BaseUserModel) serializer.deserialize(serializer.serialize(userModel(1)));
+            Assert.assertEquals(Long.valueOf(1) , user.getId());
+            Assert.assertEquals("张三1" , user.getUserName());
+            Assert.assertEquals(userModel(1).getGmtCreate() , user.getGmtCreate());
+
+            BaseSpModel sp = (BaseSpModel) serializer.deserialize(serializer.serialize(spModel(2)));
+            Assert.assertEquals(Long.valueOf(2) , sp.getSpId());
+            Assert.assertEquals("服务商2" , sp.getSpName());
+
+            List<?> list = (List<?>) serializer.deserialize(serializer.serialize(userList()));
+            Assert.assertEquals(100 , list.size());
+            Assert.assertEquals("张三99" , ((BaseUserModel) list.get(99)).getUserName());
+        }
+        Assert.assertNull(kryo.deserialize(kryo.serialize(null)));
+    }
+
+    @Test
+    public void testCompare() {
+        Object[][] payloads = {
+                {"BaseUserModel" , userModel(1)} ,
+                {"BaseSpModel" , spModel(1)} ,
+                {"List<BaseUserModel>(100)" , userList()}
+        };
+        for (Object[] payload : payloads) {
+            compare("jackson" , jackson , (String) payload[0] , payload[1]);
+            compare("kryo" , kryo , (String) payload[0] , payload[1]);
+            compare("kryo+lz4" , kryoLz4 , (String) payload[0] , payload[1]);
+        }
+    }
+
+    private void compare(String name , RedisSerializer<Object> serializer , String payloadName , Object payload) {
+        int rounds = payload instanceof List ? ROUNDS / 20 : ROUNDS;
+        byte[] bytes = serializer.serialize(payload);
+        long blackHole = 0;
+        long serNanos = 0;
+        long deserNanos = 0;
+        long serAllocated = 0;
+        long deserAllocated = 0;
+        for (int warm = 0; warm < 3; warm++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                blackHole += serializer.serialize(payload).length;
+            }
+            serNanos = System.nanoTime() - start;
+            serAllocated = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                blackHole += serializer.deserialize(bytes) == null ? 0 : 1;
+            }
+            deserNanos = System.nanoTime() - start;
+            deserAllocated = allocatedBytes() - allocated;
+        }
+        System.out.println(String.format("%-26s %-9s %7d bytes , ser %7d ns/op %7d B/op , deser %7d ns/op %7d B/op (%d)" ,
+                payloadName , name , bytes.length , serNanos / rounds , serAllocated / rounds ,
+                deserNanos / rounds , deserAllocated / rounds , blackHole));
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private BaseUserModel userModel(long id) {
+        Date now = new Date(1683700000000L + id);
+        return new BaseUserModel(id , "BIZ" + id , "TENANT" + (id % 2) , 1 , "张三" + id ,
+                "33010619900101" + (1000 + id) , 1 , now , now , "TEMPLATE-01");
+    }
+
+    private List<BaseUserModel> userList() {
+        List<BaseUserModel> list = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list.add(userModel(i));
+        }
+        return list;
+    }
+
+    private BaseSpModel spModel(long id) {
+        BaseSpModel model = new BaseSpModel();
+        model.setSpId(id);
+        model.setFounderAccountId(10000L + id);
+        model.setSpName("服务商" + id);
+        model.setRegisterDate(1683700000000L);
+        model.setVersion(1L);
+        model.setDelFlg(false);
+        model.setAddAction("register");
+        model.setAddAccountId(10000L + id);
+        model.setAddTermIp("192.168.1.10");
+        model.setAddDt(1683700000000L);
+        model.setUpdAction("register");
+        model.setUpdAccountId(10000L + id);
+        model.setUpdTermIp("192.168.1.10");
+        model.setUpdDt(1683700000000L);
+        return model;
+    }
+}
@@ -0,0 +1,17 @@
+package com.cloudtravel.db.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记租户路由字段: 可用于mapper方法参数或实体字段, 按参数路由(RoutingMode.PARAMETER)时优先于sql中的TENANT_ID.
+ * sql中没有TENANT_ID列的分库表, 也可以通过该注解指定路由参数
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.PARAMETER , ElementType.FIELD})
+public @interface TenantKey {
+}
@@ -0,0 +1,184 @@
+package com.cloudtravel.db.batch;
+
+import com.cloudtravel.db.config.DataSourceContext;
+import com.cloudtravel.db.config.DataSourceEnums;
+import com.cloudtravel.db.migration.TenantDualWriter;
+import com.cloudtravel.db.router.TenantRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 批量写入: 按租户路由到的数据源分组, 各数据源在线程池中并行写入, 每个数据源内按chunkSize分批,
+ * 每批一条多行insert(MULTI_VALUES)或一次executeBatch(JDBC_BATCH), 每批只路由一次.
+ * 在独立的SqlSession中写入, 不加入调用方的事务, 某个数据源失败时其余数据源已写入的数据不会回滚;
+ * 需要事务时在事务内直接调用mapper的insertBatch(所有行须属于同一个数据源).
+ * 迁移中的租户总是逐批执行insertBatch并自动提交: JDBC_BATCH下语句在flushStatements时才执行,
+ * 双写会先于源库写入, 源库失败的行可能已写入目标库
+ */
+@Slf4j
+@Component
+public class BatchWriter implements DisposableBean {
+
+    private static final String INSERT = "insert";
+
+    private static final String INSERT_BATCH = "insertBatch";
+
+    private static final String RECORDS = "records";
+
+    private final BatchWriterProperties properties;
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    private final TenantDualWriter tenantDualWriter;
+
+    private final ExecutorService executor;
+
+    public BatchWriter(BatchWriterProperties properties , SqlSessionFactory sqlSessionFactory , TenantDualWriter tenantDualWriter) {
+        this.properties = properties;
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.tenantDualWriter = tenantDualWriter;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(properties.getPoolSize() , r -> {
+            Thread thread = new Thread(r , "batch-writer-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 批量insert
+     * @param mapperType mapper接口, 需有insert(record)和insertBatch(@Param("records") List)
+     * @param records
+     * @param tenantKey 取一行的租户, 公共表为null
+     * @return 写入的行数
+     */
+    public <T> int insert(Class<?> mapperType , List<T> records , Function<T , ?> tenantKey) {
+        if(records.isEmpty()) {
+            return 0;
+        }
+        String statementPrefix = mapperType.getName() + ".";
+        Set<String> migratingGroups = new HashSet<>();
+        Map<String , List<T>> groups = group(records , tenantKey , migratingGroups);
+        List<String> groupKeys = new ArrayList<>(groups.keySet());
+        List<Future<Integer>> futures = new ArrayList<>(groups.size());
+        for (Map.Entry<String , List<T>> entry : groups.entrySet()) {
+            boolean migrating = migratingGroups.contains(entry.getKey());
+            futures.add(executor.submit(() -> write(statementPrefix , entry.getValue() , migrating)));
+        }
+
+        int inserted = 0;
+        Map<String , String> failedGroups = new LinkedHashMap<>();
+        Throwable failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                inserted += futures.get(i).get();
+            } catch (ExecutionException e) {
+                failedGroups.put(groupKeys.get(i) , String.valueOf(e.getCause()));
+                failure = failure == null ? e.getCause() : failure;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                throw new IllegalStateException("Batch insert interrupted : " + mapperType.getName() , e);
+            }
+        }
+        if(!failedGroups.isEmpty()) {
+            throw new IllegalStateException("Batch insert failed on " + failedGroups + " , " + inserted
+                    + " rows inserted into other data sources : " + mapperType.getName() , failure);
+        }
+        log.debug("Batch insert finished , mapper = {} , rows = {} , dataSources = {}" , mapperType.getName() , inserted , groupKeys);
+        return inserted;
+    }
+
+    /**
+     * 按数据源分组, 迁移中的租户单独一组, 以便其写入按该租户双写
+     * @param migratingGroups 迁移中租户的组
+     */
+    private <T> Map<String , List<T>> group(List<T> records , Function<T , ?> tenantKey , Set<String> migratingGroups) {
+        if(tenantKey == null) {
+            return Collections.singletonMap(DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey() , records);
+        }
+        TenantRouter tenantRouter = DataSourceContext.getTenantRouter();
+        Map<String , List<T>> groups = new LinkedHashMap<>();
+        for (T record : records) {
+            String tenantId = String.valueOf(tenantKey.apply(record));
+            String group = tenantRouter.route(tenantId);
+            if(tenantDualWriter.isMigrating(tenantId)) {
+                group = group + "/" + tenantId;
+                migratingGroups.add(group);
+            }
+            groups.computeIfAbsent(group , k -> new ArrayList<>()).add(record);
+        }
+        return groups;
+    }
+
+    /**
+     * @param migrating 迁移中的租户: 每批insertBatch执行并提交后再双写, 不使用JDBC_BATCH
+     */
+    private int write(String statementPrefix , List<?> rows , boolean migrating) {
+        int chunkSize = Math.max(properties.getChunkSize() , 1);
+        int inserted = 0;
+        try {
+            if(migrating || properties.getMode() == BatchWriterProperties.Mode.MULTI_VALUES) {
+                try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.SIMPLE , migrating)) {
+                    for (int from = 0; from < rows.size(); from += chunkSize) {
+                        Map<String , Object> param = new HashMap<>(2);
+                        param.put(RECORDS , rows.subList(from , Math.min(from + chunkSize , rows.size())));
+                        inserted += sqlSession.insert(statementPrefix + INSERT_BATCH , param);
+                    }
+                    sqlSession.commit();
+                }
+            }else {
+                try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH)) {
+                    for (int i = 0; i < rows.size(); i++) {
+                        sqlSession.insert(statementPrefix + INSERT , rows.get(i));
+                        if((i + 1) % chunkSize == 0 || i == rows.size() - 1) {
+                            inserted += count(sqlSession.flushStatements());
+                        }
+                    }
+                    sqlSession.commit();
+                }
+            }
+        } finally {
+            DataSourceContext.clearDbType();
+        }
+        return inserted;
+    }
+
+    /**
+     * 驱动返回SUCCESS_NO_INFO(-2)时按1行计
+     */
+    private static int count(List<BatchResult> batchResults) {
+        int count = 0;
+        for (BatchResult batchResult : batchResults) {
+            for (int updateCount : batchResult.getUpdateCounts()) {
+                count += updateCount >= 0 ? updateCount : 1;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,34 @@
+package com.cloudtravel.db.batch;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量写入配置
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.db.batch")
+public class BatchWriterProperties {
+
+    /** 写入方式 */
+    private Mode mode = Mode.MULTI_VALUES;
+
+    /** 每条多行insert(或每次executeBatch)的行数 */
+    private int chunkSize = 500;
+
+    /** 同时写入的数据源数 */
+    private int poolSize = 4;
+
+    public enum Mode {
+
+        /** mapper的insertBatch, 一条 INSERT ... VALUES (...),(...) 写入一批 */
+        MULTI_VALUES,
+
+        /** mapper的insert, ExecutorType.BATCH逐行addBatch后一次executeBatch(MySQL需开启rewriteBatchedStatements) */
+        JDBC_BATCH
+    }
+}
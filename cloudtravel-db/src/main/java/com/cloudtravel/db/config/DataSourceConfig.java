@@ -1,6 +1,9 @@
 package com.cloudtravel.db.config;
 
 import com.alibaba.druid.pool.DruidDataSource;
+import com.cloudtravel.db.metrics.RoutingMetrics;
+import com.cloudtravel.db.migration.TenantDualWriter;
+import com.cloudtravel.db.replica.ReplicaRouter;
 import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.mybatis.spring.SqlSessionFactoryBean;
@@ -8,12 +11,18 @@ import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.env.Environment;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import javax.sql.DataSource;
+import org.springframework.util.Assert;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Configuration
@@ -22,33 +31,57 @@ public class DataSourceConfig {
 
     public static final ConcurrentHashMap<Object , Object> dataSourceMap = new ConcurrentHashMap<>();
 
+    private static final String DATA_SOURCE_PREFIX = "datasource";
+
+    private static final String REPLICAS = "replicas";
+
+    private static final Bindable<Map<String , Map<String , String>>> DATA_SOURCE_CONFIGS = Bindable.of(ResolvableType.forClassWithGenerics(
+            Map.class , ResolvableType.forClass(String.class) , ResolvableType.forClassWithGenerics(Map.class , String.class , String.class)));
+
     @Autowired
     private DataSourceConfigBase dataSourceConfigBase;
 
     @Value("${mybatis.mapper-locations}")
     private String MAPPER_LOCATIONS;
 
-    @Bean("cloudtravel_consumer1")
-    @ConfigurationProperties(prefix = "datasource.cloudtravel-consumer1")
-    public DataSource getCloudTravelDb1() throws Exception{
-        DruidDataSource druidDataSource = new DruidDataSource();
-        druidDataSource.setInitialSize(dataSourceConfigBase.getInitialSize());
-        druidDataSource.setMinIdle(dataSourceConfigBase.getMinIdle());
-        druidDataSource.setMaxActive(dataSourceConfigBase.getMaxActive());
-        druidDataSource.setMaxWait(dataSourceConfigBase.getMaxWait());
-        druidDataSource.setTimeBetweenEvictionRunsMillis(dataSourceConfigBase.getTimeBetweenEvictionRunsMillis());
-        druidDataSource.setTestWhileIdle(dataSourceConfigBase.getTestWhileIdle());
-        druidDataSource.setTestOnBorrow(dataSourceConfigBase.getTestOnBorrow());
-        druidDataSource.setTestOnReturn(dataSourceConfigBase.getTestOnReturn());
-        druidDataSource.setPoolPreparedStatements(dataSourceConfigBase.getPoolPreparedStatements());
-        druidDataSource.setMaxPoolPreparedStatementPerConnectionSize(dataSourceConfigBase.getMaxPoolPreparedStatementPerConnectionSize());
-        druidDataSource.setFilters(dataSourceConfigBase.getFilter());
-        return druidDataSource;
+    /** 路由方式: LEGACY / SQL / PARAMETER */
+    @Value("${cloudtravel.db.routing-mode:PARAMETER}")
+    private String routingMode;
+
+    /**
+     * 按配置datasource.{key}.*创建所有数据源, key即路由使用的数据源key, 数量不限;
+     * datasource.{key}.replicas.{name}.*为该数据源的从库, 以key#name注册, 未配置的属性与主库相同
+     * @param environment
+     * @return
+     */
+    @Bean(name = "dynamicDataSource")
+    public DynamicDataSource dataSourceInit(Environment environment) throws Exception {
+        Binder binder = Binder.get(environment);
+        Map<String , Map<String , String>> dataSourceConfigs = binder.bind(DATA_SOURCE_PREFIX , DATA_SOURCE_CONFIGS)
+                .orElseThrow(() -> new IllegalStateException("No data source configured of " + DATA_SOURCE_PREFIX));
+        for (String key : dataSourceConfigs.keySet()) {
+            DruidDataSource druidDataSource = createDruidDataSource();
+            binder.bind(DATA_SOURCE_PREFIX + "." + key , Bindable.ofInstance(druidDataSource));
+            dataSourceMap.put(key , druidDataSource);
+            String replicaPrefix = DATA_SOURCE_PREFIX + "." + key + "." + REPLICAS;
+            for (String name : binder.bind(replicaPrefix , DATA_SOURCE_CONFIGS).orElse(Collections.emptyMap()).keySet()) {
+                DruidDataSource replica = createDruidDataSource();
+                binder.bind(DATA_SOURCE_PREFIX + "." + key , Bindable.ofInstance(replica));
+                binder.bind(replicaPrefix + "." + name , Bindable.ofInstance(replica));
+                dataSourceMap.put(ReplicaRouter.replicaKey(key , name) , replica);
+            }
+        }
+        Assert.state(dataSourceMap.containsKey(DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey()) ,
+                "Public data source not configured : " + DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey());
+        DynamicDataSource dataSource = new DynamicDataSource();
+        //设置当前数据源映射map
+        dataSource.setTargetDataSources(dataSourceMap);
+        //设置默认数据源
+        dataSource.setDefaultTargetDataSource(dataSourceMap.get(DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey()));
+        return dataSource;
     }
 
-    @Bean("cloudtravel_consumer2")
-    @ConfigurationProperties(prefix = "datasource.cloudtravel-consumer2")
-    public DataSource getCloudTravelDb2() throws Exception{
+    private DruidDataSource createDruidDataSource() throws Exception {
         DruidDataSource druidDataSource = new DruidDataSource();
         druidDataSource.setInitialSize(dataSourceConfigBase.getInitialSize());
         druidDataSource.setMinIdle(dataSourceConfigBase.getMinIdle());
@@ -64,19 +97,6 @@ public class DataSourceConfig {
         return druidDataSource;
     }
 
-    @Bean(name = "dynamicDataSource")
-    public DynamicDataSource dataSourceInit(@Qualifier("cloudtravel_consumer1")DataSource dataSource1,
-                                            @Qualifier("cloudtravel_consumer2")DataSource dataSource2) {
-        dataSourceMap.put(DataSourceEnums.CLOUDTRAVEL_CONSUMER1 , dataSource1);
-        dataSourceMap.put(DataSourceEnums.CLOUDTRAVEL_CONSUMER2 , dataSource2);
-        DynamicDataSource dataSource = new DynamicDataSource();
-        //设置当前数据源映射map
-        dataSource.setTargetDataSources(dataSourceMap);
-        //设置默认数据源
-        dataSource.setDefaultTargetDataSource(dataSource1);
-        return dataSource;
-    }
-
     @Bean("dataSourceTransactionManager")
     public DataSourceTransactionManager dataSourceTransactionManager (@Qualifier("dynamicDataSource") DynamicDataSource dataSource) {
         DataSourceTransactionManager dataSourceTransactionManager = new DataSourceTransactionManager(dataSource);
@@ -84,13 +104,25 @@ public class DataSourceConfig {
     }
 
     @Bean("sqlSessionFactory")
-    public SqlSessionFactory sqlSessionFactory(@Qualifier("dynamicDataSource") DynamicDataSource dataSource)throws Exception {
+    public SqlSessionFactory sqlSessionFactory(@Qualifier("dynamicDataSource") DynamicDataSource dataSource ,
+                                               TenantDualWriter tenantDualWriter ,
+                                               DataSourceConnectionMonitor connectionMonitor ,
+                                               ReplicaRouter replicaRouter ,
+                                               RoutingMetrics routingMetrics)throws Exception {
         SqlSessionFactoryBean sqlSessionFactoryBean = new SqlSessionFactoryBean();
         sqlSessionFactoryBean.setDataSource(dataSource);
         sqlSessionFactoryBean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources(MAPPER_LOCATIONS));
-//        sqlSessionFactoryBean.setTransactionFactory(new DynamicDataSourceTransactionFactory());
+        //每条语句按路由结果从对应数据源取连接, 事务内每个数据源一个连接
+        sqlSessionFactoryBean.setTransactionFactory(new DynamicDataSourceTransactionFactory(connectionMonitor));
         //引入数据源路由策略类
-        sqlSessionFactoryBean.setPlugins(new Interceptor[]{new SqlDbRoutingInterceptor()});
+        SqlDbRoutingInterceptor sqlDbRoutingInterceptor = new SqlDbRoutingInterceptor();
+        Properties properties = new Properties();
+        properties.setProperty("routingMode" , routingMode);
+        sqlDbRoutingInterceptor.setProperties(properties);
+        sqlDbRoutingInterceptor.setTenantDualWriter(tenantDualWriter);
+        sqlDbRoutingInterceptor.setReplicaRouter(replicaRouter);
+        sqlDbRoutingInterceptor.setRoutingMetrics(routingMetrics);
+        sqlSessionFactoryBean.setPlugins(new Interceptor[]{sqlDbRoutingInterceptor});
         return sqlSessionFactoryBean.getObject();
     }
 }
@@ -0,0 +1,305 @@
+package com.cloudtravel.db.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DynamicDataSourceTransaction借出连接的统计与泄漏检测:
+ * 按数据源统计从连接池获取/归还/事务内复用的次数和当前借出数, 定时检查借出超过阈值仍未归还的连接并打印获取时的线程(和调用栈);
+ * 连接池本身的使用情况(活跃数、空闲数、物理连接创建/关闭次数)从Druid读取
+ */
+@Component
+public class DataSourceConnectionMonitor implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataSourceConnectionMonitor.class);
+
+    private final DynamicDataSource dynamicDataSource;
+
+    private final long leakThresholdMillis;
+
+    private final long checkIntervalMillis;
+
+    private final boolean captureStackTrace;
+
+    private final Map<String , ConnectionStats> stats = new ConcurrentHashMap<>();
+
+    private final Map<Lease , Boolean> leases = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService checkExecutor;
+
+    /**
+     * @param dynamicDataSource
+     * @param leakThresholdMillis 借出超过该时间未归还视为泄漏
+     * @param checkIntervalMillis 检查间隔, <=0时不定时检查
+     * @param captureStackTrace 是否记录获取连接时的调用栈, 每次获取连接都会生成一次调用栈
+     */
+    public DataSourceConnectionMonitor(@Qualifier("dynamicDataSource") DynamicDataSource dynamicDataSource ,
+                                       @Value("${cloudtravel.db.connection.leak-threshold-millis:30000}") long leakThresholdMillis ,
+                                       @Value("${cloudtravel.db.connection.leak-check-interval-millis:10000}") long checkIntervalMillis ,
+                                       @Value("${cloudtravel.db.connection.leak-stack-trace:false}") boolean captureStackTrace) {
+        this.dynamicDataSource = dynamicDataSource;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.captureStackTrace = captureStackTrace;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if(checkIntervalMillis <= 0) {
+            return;
+        }
+        checkExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r , "connection-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkExecutor.scheduleWithFixedDelay(this::checkLeaks , checkIntervalMillis , checkIntervalMillis , TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if(checkExecutor != null) {
+            checkExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 从连接池获取了一个连接
+     * @param dataSourceKey
+     * @return 归还时传入released
+     */
+    Lease acquired(String dataSourceKey) {
+        ConnectionStats connectionStats = stats(dataSourceKey);
+        connectionStats.acquired.increment();
+        connectionStats.active.incrementAndGet();
+        Lease lease = new Lease(dataSourceKey , captureStackTrace ? new Throwable("Connection acquired here") : null);
+        leases.put(lease , Boolean.TRUE);
+        return lease;
+    }
+
+    /**
+     * 事务内再次使用已获取的连接
+     * @param dataSourceKey
+     */
+    void reused(String dataSourceKey) {
+        stats(dataSourceKey).reused.increment();
+    }
+
+    void released(Lease lease) {
+        if(leases.remove(lease) == null) {
+            return;
+        }
+        ConnectionStats connectionStats = stats(lease.dataSourceKey);
+        connectionStats.released.increment();
+        connectionStats.active.decrementAndGet();
+        connectionStats.holdMillis.add(System.currentTimeMillis() - lease.acquiredAt);
+        if(lease.leaked) {
+            LOGGER.warn("Leaked connection released , dataSource = {} , thread = {} , holdMillis = {}" ,
+                    lease.dataSourceKey , lease.threadName , System.currentTimeMillis() - lease.acquiredAt);
+        }
+    }
+
+    /**
+     * 检查借出超过阈值的连接, 每个连接只报告一次
+     * @return 本次新发现的泄漏数
+     */
+    public int checkLeaks() {
+        long now = System.currentTimeMillis();
+        int leaked = 0;
+        for (Lease lease : leases.keySet()) {
+            if(!lease.leaked && now - lease.acquiredAt >= leakThresholdMillis) {
+                lease.leaked = true;
+                leaked ++;
+                stats(lease.dataSourceKey).leaked.increment();
+                LOGGER.warn("Connection leak suspected , dataSource = {} , thread = {} , holdMillis = {}" ,
+                        lease.dataSourceKey , lease.threadName , now - lease.acquiredAt , lease.stackTrace);
+            }
+        }
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Connection stats : {} , pool usage : {}" , getStats() , getPoolUsage());
+        }
+        return leaked;
+    }
+
+    /**
+     * 按数据源key的借出统计
+     * @return
+     */
+    public Map<String , ConnectionStats> getStats() {
+        return new TreeMap<>(stats);
+    }
+
+    /**
+     * 各数据源连接池的使用情况, 非Druid数据源不统计
+     * @return
+     */
+    public Map<String , PoolUsage> getPoolUsage() {
+        Map<String , PoolUsage> usage = new TreeMap<>();
+        for (Map.Entry<Object , javax.sql.DataSource> entry : dynamicDataSource.getResolvedDataSources().entrySet()) {
+            if(entry.getValue() instanceof DruidDataSource) {
+                usage.put(String.valueOf(entry.getKey()) , new PoolUsage((DruidDataSource) entry.getValue()));
+            }
+        }
+        return usage;
+    }
+
+    private ConnectionStats stats(String dataSourceKey) {
+        return stats.computeIfAbsent(dataSourceKey , key -> new ConnectionStats());
+    }
+
+    /**
+     * 一次借出
+     */
+    static final class Lease {
+
+        private final String dataSourceKey;
+
+        private final String threadName = Thread.currentThread().getName();
+
+        private final long acquiredAt = System.currentTimeMillis();
+
+        private final Throwable stackTrace;
+
+        private volatile boolean leaked;
+
+        private Lease(String dataSourceKey , Throwable stackTrace) {
+            this.dataSourceKey = dataSourceKey;
+            this.stackTrace = stackTrace;
+        }
+    }
+
+    /**
+     * 单个数据源的借出统计
+     */
+    public static class ConnectionStats {
+
+        private final LongAdder acquired = new LongAdder();
+
+        private final LongAdder reused = new LongAdder();
+
+        private final LongAdder released = new LongAdder();
+
+        private final LongAdder leaked = new LongAdder();
+
+        private final LongAdder holdMillis = new LongAdder();
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        /** 从连接池获取的次数 */
+        public long getAcquired() {
+            return acquired.sum();
+        }
+
+        /** 事务内复用已获取连接的次数 */
+        public long getReused() {
+            return reused.sum();
+        }
+
+        public long getReleased() {
+            return released.sum();
+        }
+
+        /** 当前借出未归还的连接数 */
+        public int getActive() {
+            return active.get();
+        }
+
+        public long getLeaked() {
+            return leaked.sum();
+        }
+
+        /** 平均持有时间(毫秒) */
+        public long getAvgHoldMillis() {
+            long count = getReleased();
+            return count == 0 ? 0 : holdMillis.sum() / count;
+        }
+
+        @Override
+        public String toString() {
+            return "acquired=" + getAcquired() + ",reused=" + getReused() + ",released=" + getReleased()
+                    + ",active=" + getActive() + ",leaked=" + getLeaked() + ",avgHoldMillis=" + getAvgHoldMillis();
+        }
+    }
+
+    /**
+     * 连接池使用情况快照
+     */
+    public static class PoolUsage {
+
+        private final int activeCount;
+
+        private final int poolingCount;
+
+        private final int maxActive;
+
+        private final long createCount;
+
+        private final long destroyCount;
+
+        private final long connectCount;
+
+        private final long notEmptyWaitCount;
+
+        PoolUsage(DruidDataSource dataSource) {
+            this.activeCount = dataSource.getActiveCount();
+            this.poolingCount = dataSource.getPoolingCount();
+            this.maxActive = dataSource.getMaxActive();
+            this.createCount = dataSource.getCreateCount();
+            this.destroyCount = dataSource.getDestroyCount();
+            this.connectCount = dataSource.getConnectCount();
+            this.notEmptyWaitCount = dataSource.getNotEmptyWaitCount();
+        }
+
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        public int getPoolingCount() {
+            return poolingCount;
+        }
+
+        public int getMaxActive() {
+            return maxActive;
+        }
+
+        /** 物理连接创建次数, 持续增长说明连接在频繁重建 */
+        public long getCreateCount() {
+            return createCount;
+        }
+
+        public long getDestroyCount() {
+            return destroyCount;
+        }
+
+        /** 从池中获取连接的次数 */
+        public long getConnectCount() {
+            return connectCount;
+        }
+
+        /** 获取连接时等待的次数, 持续增长说明连接池不够用 */
+        public long getNotEmptyWaitCount() {
+            return notEmptyWaitCount;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + activeCount + ",pooling=" + poolingCount + ",maxActive=" + maxActive + ",create=" + createCount
+                    + ",destroy=" + destroyCount + ",connect=" + connectCount + ",notEmptyWait=" + notEmptyWaitCount;
+        }
+    }
+}
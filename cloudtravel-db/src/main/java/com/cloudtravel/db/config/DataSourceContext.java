@@ -1,55 +1,73 @@
 package com.cloudtravel.db.config;
 
-import org.apache.commons.lang3.StringUtils;
+import com.cloudtravel.db.router.TenantRouter;
+import com.cloudtravel.db.router.TenantRoutingTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
+import java.util.Arrays;
+
 /**
  * 数据源上下文对象
  */
 public class DataSourceContext {
 
-    private static final ThreadLocal<DataSourceEnums> currentDataSource = new ThreadLocal<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataSourceContext.class);
+
+    /** 当前线程的数据源key */
+    private static final ThreadLocal<String> currentDataSource = new ThreadLocal<>();
 
-    /** 根据tenantId进行数据源路由策略: (tenantId % 2) +1 */
-    private static final int DB_ROUT_FIX = 2;
+    /** 租户路由, 启动后替换为按配置生成的路由; 替换前与原策略相同: tenantId % 2 */
+    private static volatile TenantRouter tenantRouter = TenantRoutingTable.modulo(Arrays.asList(
+            DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey() , DataSourceEnums.CLOUDTRAVEL_CONSUMER2.getKey()));
 
+    /**
+     * 设置租户路由
+     * @param router
+     */
+    public static void setTenantRouter(TenantRouter router) {
+        Assert.notNull(router , "TenantRouter must not be null");
+        tenantRouter = router;
+    }
+
+    public static TenantRouter getTenantRouter() {
+        return tenantRouter;
+    }
 
     /**
      * 设置当前线程中的数据源
      * @param dataSourceEnum
      */
     public static void setDataSourceType(DataSourceEnums dataSourceEnum) {
-        System.out.println("change dataSource type to " + dataSourceEnum);
-        currentDataSource.set(dataSourceEnum);
+        setDataSourceKey(dataSourceEnum.getKey());
     }
 
     /**
-     * 设置当前线程中的数据源
+     * 根据租户路由设置当前线程中的数据源
      * @param tenantId
      */
     public static void setDataSourceType(String tenantId) {
-        Assert.state(StringUtils.isNotBlank(tenantId) && StringUtils.isNumeric(tenantId) ,
-                "Unsupported tenantId : " + tenantId);
-        int tenantIdInt = Integer.valueOf(tenantId);
-        DataSourceEnums dataSourceEnum = null;
-        switch (tenantIdInt % DB_ROUT_FIX){
-            case 0: dataSourceEnum = DataSourceEnums.CLOUDTRAVEL_CONSUMER1;
-            break;
-            case 1: dataSourceEnum = DataSourceEnums.CLOUDTRAVEL_CONSUMER2;
-            break;
-        }
-        setDataSourceType(dataSourceEnum);
+        setDataSourceKey(tenantRouter.route(tenantId));
+    }
+
+    /**
+     * 设置当前线程中的数据源
+     * @param dataSourceKey 数据源key
+     */
+    public static void setDataSourceKey(String dataSourceKey) {
+        LOGGER.debug("change dataSource to {}" , dataSourceKey);
+        currentDataSource.set(dataSourceKey);
     }
 
     /**
-     * 获取当前线程中设置的db类型
+     * 获取当前线程中设置的数据源key, 未设置时为公共库
      * @return
      */
-    public static DataSourceEnums getCurrentDataSourceType() {
-        DataSourceEnums dataSourceEnum = currentDataSource.get();
-        System.out.println("Current threadlocal db type is " + dataSourceEnum);
-        dataSourceEnum = null != dataSourceEnum ? dataSourceEnum : DataSourceEnums.CLOUDTRAVEL_CONSUMER1;
-        return dataSourceEnum;
+    public static String getCurrentDataSourceKey() {
+        String dataSourceKey = currentDataSource.get();
+        LOGGER.debug("Current threadlocal dataSource is {}" , dataSourceKey);
+        return null != dataSourceKey ? dataSourceKey : DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey();
     }
 
     public static void clearDbType() {
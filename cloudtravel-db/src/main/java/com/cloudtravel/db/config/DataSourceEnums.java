@@ -1,12 +1,23 @@
 package com.cloudtravel.db.config;
 
 /**
- * 数据源类型枚举
+ * 数据源类型枚举, key为配置datasource.{key}.*中的数据源名称.
+ * 租户库的数量由配置决定, 这里只保留固定用途的数据源
  */
 public enum DataSourceEnums {
 
-    /**  */
-    CLOUDTRAVEL_CONSUMER1,
+    /** 公共库, 同时也是第一个租户库 */
+    CLOUDTRAVEL_CONSUMER1("cloudtravel-consumer1"),
 
-    CLOUDTRAVEL_CONSUMER2
+    CLOUDTRAVEL_CONSUMER2("cloudtravel-consumer2");
+
+    private final String key;
+
+    DataSourceEnums(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
 }
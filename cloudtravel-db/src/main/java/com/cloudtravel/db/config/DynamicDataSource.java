@@ -1,12 +1,14 @@
 package com.cloudtravel.db.config;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import java.io.Closeable;
 import java.util.Map;
 
 /**
  * 数据源
  */
-public class DynamicDataSource extends AbstractRoutingDataSource {
+public class DynamicDataSource extends AbstractRoutingDataSource implements DisposableBean {
 
     /**
      * 获取当前数据源
@@ -14,7 +16,7 @@ public class DynamicDataSource extends AbstractRoutingDataSource {
      */
     @Override
     protected Object determineCurrentLookupKey() {
-        return DataSourceContext.getCurrentDataSourceType();
+        return DataSourceContext.getCurrentDataSourceKey();
     }
 
     /**
@@ -32,6 +34,18 @@ public class DynamicDataSource extends AbstractRoutingDataSource {
      */
     @Override
     public void setDefaultTargetDataSource(Object defaultTargetDataSource) {
-        super.setDefaultTargetDataSource(DataSourceConfig.dataSourceMap.get(DataSourceEnums.CLOUDTRAVEL_CONSUMER1));
+        super.setDefaultTargetDataSource(DataSourceConfig.dataSourceMap.get(DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey()));
+    }
+
+    /**
+     * 数据源由配置创建, 不是spring bean, 在这里关闭
+     */
+    @Override
+    public void destroy() throws Exception {
+        for (Object dataSource : DataSourceConfig.dataSourceMap.values()) {
+            if(dataSource instanceof Closeable) {
+                ((Closeable) dataSource).close();
+            }
+        }
     }
 }
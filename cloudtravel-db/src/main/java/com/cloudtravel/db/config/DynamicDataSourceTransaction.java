@@ -1,131 +1,157 @@
 package com.cloudtravel.db.config;
 
+import com.cloudtravel.db.config.DataSourceConnectionMonitor.Lease;
 import org.apache.ibatis.transaction.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.datasource.ConnectionHolder;
-import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
-import org.springframework.util.CollectionUtils;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * 数据源路由事务一致性解决
+ * 数据源路由事务一致性解决: 每次获取连接时按当前数据源key取连接, 每个数据源在一个事务(SqlSession)内只获取一次连接,
+ * 直接从该key对应的连接池获取, 不经过DynamicDataSource.
+ * 存在spring事务时连接关闭自动提交, 随MyBatis提交/回滚一起提交/回滚(非XA, 提交中途失败时已提交的数据源无法回滚);
+ * close时无论提交与否都归还所有连接并恢复连接属性
  */
 public class DynamicDataSourceTransaction implements Transaction{
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DynamicDataSourceTransaction.class);
 
-    /** 当前线程的主数据源 */
-    private DataSource dataSource;
+    /** 路由数据源, 用于查找各key对应的连接池 */
+    private final DynamicDataSource dataSource;
 
-    /** 线程当前的数据库连接 */
-    private Connection mainConnection;
+    private final DataSourceConnectionMonitor monitor;
 
-    /** 线程当前使用的数据源key */
-    private DataSourceEnums mainDataSourceKey;
+    /** 本事务内各数据源的连接, 按获取顺序提交 */
+    private final Map<String , TargetConnection> connections = new LinkedHashMap<>(4);
 
-    /** 线程内的数据库连接 */
-    private static ThreadLocal<ConcurrentHashMap<DataSourceEnums , Connection>> threadConnection = new ThreadLocal<>();
+    /** 创建时是否存在spring事务 */
+    private final boolean transactional;
 
-    private static ConcurrentHashMap<Object , Object> dataSourceMap = DataSourceConfig.dataSourceMap;
+    private final boolean readOnly;
 
-    /** 当前是否开启事务 */
-    private boolean isConnectionTransactional;
+    private final Integer isolationLevel;
 
-    /** 当前线程是否自动提交 */
-    private boolean autoCommit;
-
-    private boolean closeFlag = false;
-
-    public DynamicDataSourceTransaction(DataSource dataSource) {
-        Assert.notNull(dataSource, "No DataSource specified");
-        this.dataSource = dataSource;
-        if(null == threadConnection.get()) {
-            threadConnection.set(new ConcurrentHashMap<DataSourceEnums , Connection>());
-        }
-        mainDataSourceKey = DataSourceContext.getCurrentDataSourceType();
+    public DynamicDataSourceTransaction(DataSource dataSource , DataSourceConnectionMonitor monitor) {
+        Assert.isInstanceOf(DynamicDataSource.class , dataSource , "DynamicDataSourceTransaction requires DynamicDataSource");
+        this.dataSource = (DynamicDataSource) dataSource;
+        this.monitor = monitor;
+        this.transactional = TransactionSynchronizationManager.isActualTransactionActive();
+        this.readOnly = transactional && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        this.isolationLevel = transactional ? TransactionSynchronizationManager.getCurrentTransactionIsolationLevel() : null;
     }
 
     @Override
     public Connection getConnection() throws SQLException {
-        DataSourceEnums dataSourceKeyNow = DataSourceContext.getCurrentDataSourceType();
-        if(dataSourceKeyNow.equals(mainDataSourceKey)) {
-            if (null != mainConnection) {
-                return mainConnection;
-            }else {
-                this.mainConnection = DataSourceUtils.getConnection(this.dataSource);
-                this.autoCommit = this.mainConnection.getAutoCommit();
-                this.isConnectionTransactional = DataSourceUtils.isConnectionTransactional(this.mainConnection , this.dataSource);
-                this.mainDataSourceKey = dataSourceKeyNow;
-                return this.mainConnection;
-            }
-        }else {
-            Connection connection = null;
-            if(null != threadConnection.get() && !threadConnection.get().contains(dataSourceKeyNow)) {
-                connection = DataSourceUtils.getConnection(dataSource);
-                ConcurrentHashMap<DataSourceEnums , Connection> concurrentHashMap = threadConnection.get();
-                concurrentHashMap.put(dataSourceKeyNow , connection);
-                threadConnection.set(concurrentHashMap);
+        String dataSourceKey = DataSourceContext.getCurrentDataSourceKey();
+        TargetConnection target = connections.get(dataSourceKey);
+        if(target != null) {
+            monitor.reused(dataSourceKey);
+            return target.connection;
+        }
+        target = open(dataSourceKey);
+        connections.put(dataSourceKey , target);
+        return target.connection;
+    }
+
+    private TargetConnection open(String dataSourceKey) throws SQLException {
+        Object targetDataSource = dataSource.getResolvedDataSources().get(dataSourceKey);
+        if(!(targetDataSource instanceof DataSource)) {
+            throw new IllegalStateException("Unknown data source [" + dataSourceKey + "] , available : "
+                    + dataSource.getResolvedDataSources().keySet());
+        }
+        Connection connection = ((DataSource) targetDataSource).getConnection();
+        TargetConnection target = new TargetConnection(dataSourceKey , connection , monitor.acquired(dataSourceKey));
+        try {
+            target.autoCommit = connection.getAutoCommit();
+            if(transactional) {
+                if(readOnly) {
+                    connection.setReadOnly(true);
+                }
+                if(isolationLevel != null && isolationLevel != connection.getTransactionIsolation()) {
+                    target.previousIsolationLevel = connection.getTransactionIsolation();
+                    connection.setTransactionIsolation(isolationLevel);
+                }
+                if(target.autoCommit) {
+                    connection.setAutoCommit(false);
+                }
             }
-            return connection;
+        } catch (SQLException | RuntimeException e) {
+            release(target);
+            throw e;
         }
+        LOGGER.debug("Open JDBC CONNECTION : [{}] of [{}] , transactional = {}" , connection , dataSourceKey , transactional);
+        return target;
     }
 
     @Override
     public void commit() throws SQLException {
-        if(null != this.mainConnection && !autoCommit && !this.mainConnection.isClosed()) {
-            LOGGER.info("Commit JDBC CONNECTION : [{}]" , this.mainConnection);
-            this.mainConnection.commit();
-        }
-        if(null != threadConnection.get() && !CollectionUtils.isEmpty(threadConnection.get())) {
-            for (Connection connection : threadConnection.get().values()) {
-                if(!connection.isClosed() && !connection.getAutoCommit()) {
-                    LOGGER.info("Commit JDBC CONNECTION : [{}]" , connection);
-                    connection.commit();
+        Iterator<TargetConnection> iterator = connections.values().iterator();
+        while (iterator.hasNext()) {
+            TargetConnection target = iterator.next();
+            if(target.connection.getAutoCommit()) {
+                continue;
+            }
+            try {
+                LOGGER.debug("Commit JDBC CONNECTION : [{}] of [{}]" , target.connection , target.dataSourceKey);
+                target.connection.commit();
+            } catch (SQLException e) {
+                //后面的数据源不再提交
+                while (iterator.hasNext()) {
+                    rollbackQuietly(iterator.next());
                 }
+                throw e;
             }
         }
-        closeFlag = true;
     }
 
     @Override
     public void rollback() throws SQLException {
-        if(null != this.mainConnection && !autoCommit && !this.mainConnection.isClosed()) {
-            LOGGER.info("Rollback JDBC CONNECTION : [{}]" , this.mainConnection);
-            this.mainConnection.rollback();
-        }
-        if(null != threadConnection && !CollectionUtils.isEmpty(threadConnection.get())) {
-            for (Connection connection : threadConnection.get().values()) {
-                if(!connection.isClosed() && !connection.getAutoCommit()) {
-                    LOGGER.info("Rollback JDBC CONNECTION : [{}]" , connection);
-                    connection.rollback();
+        SQLException exception = null;
+        for (TargetConnection target : connections.values()) {
+            try {
+                if(!target.connection.getAutoCommit()) {
+                    LOGGER.debug("Rollback JDBC CONNECTION : [{}] of [{}]" , target.connection , target.dataSourceKey);
+                    target.connection.rollback();
+                }
+            } catch (SQLException e) {
+                if(exception == null) {
+                    exception = e;
+                }else {
+                    exception.addSuppressed(e);
                 }
             }
         }
-        closeFlag = true;
+        if(exception != null) {
+            throw exception;
+        }
     }
 
     @Override
     public void close() throws SQLException {
-        if(!closeFlag) {
-            return;
-        }
-        if(null != this.mainConnection && !this.mainConnection.isClosed()) {
-            LOGGER.info("Close JDBC CONNECTION : [{}]" , this.mainConnection);
-            DataSourceUtils.releaseConnection(this.mainConnection , dataSource);
-        }
-        if(null != threadConnection && !CollectionUtils.isEmpty(threadConnection.get())) {
-            for (Connection connection : threadConnection.get().values()) {
-                if(!connection.isClosed()) {
-                    connection.close();
+        SQLException exception = null;
+        for (TargetConnection target : connections.values()) {
+            try {
+                release(target);
+            } catch (SQLException e) {
+                if(exception == null) {
+                    exception = e;
+                }else {
+                    exception.addSuppressed(e);
                 }
             }
         }
+        connections.clear();
+        if(exception != null) {
+            throw exception;
+        }
     }
 
     @Override
@@ -133,4 +159,67 @@ public class DynamicDataSourceTransaction implements Transaction{
         ConnectionHolder holder = (ConnectionHolder) TransactionSynchronizationManager.getResource(this.dataSource);
         return holder != null && holder.hasTimeout() ? holder.getTimeToLiveInSeconds() : null;
     }
+
+    /**
+     * 回滚未提交的修改、恢复连接属性后归还连接池, 任一步失败都会关闭连接
+     */
+    private void release(TargetConnection target) throws SQLException {
+        Connection connection = target.connection;
+        try {
+            if(!connection.isClosed()) {
+                if(!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                if(connection.getAutoCommit() != target.autoCommit) {
+                    connection.setAutoCommit(target.autoCommit);
+                }
+                if(readOnly) {
+                    connection.setReadOnly(false);
+                }
+                if(target.previousIsolationLevel != null) {
+                    connection.setTransactionIsolation(target.previousIsolationLevel);
+                }
+            }
+        } finally {
+            try {
+                LOGGER.debug("Close JDBC CONNECTION : [{}] of [{}]" , connection , target.dataSourceKey);
+                connection.close();
+            } finally {
+                monitor.released(target.lease);
+            }
+        }
+    }
+
+    private void rollbackQuietly(TargetConnection target) {
+        try {
+            if(!target.connection.getAutoCommit()) {
+                target.connection.rollback();
+            }
+        } catch (SQLException e) {
+            LOGGER.warn("Rollback JDBC CONNECTION failed : [{}] of [{}]" , target.connection , target.dataSourceKey , e);
+        }
+    }
+
+    /**
+     * 事务内某个数据源的连接
+     */
+    private static final class TargetConnection {
+
+        private final String dataSourceKey;
+
+        private final Connection connection;
+
+        private final Lease lease;
+
+        /** 获取时的自动提交设置, 归还前恢复 */
+        private boolean autoCommit;
+
+        private Integer previousIsolationLevel;
+
+        private TargetConnection(String dataSourceKey , Connection connection , Lease lease) {
+            this.dataSourceKey = dataSourceKey;
+            this.connection = connection;
+            this.lease = lease;
+        }
+    }
 }
@@ -10,8 +10,14 @@ import javax.sql.DataSource;
  */
 public class DynamicDataSourceTransactionFactory extends SpringManagedTransactionFactory {
 
+    private final DataSourceConnectionMonitor monitor;
+
+    public DynamicDataSourceTransactionFactory(DataSourceConnectionMonitor monitor) {
+        this.monitor = monitor;
+    }
+
     @Override
     public Transaction newTransaction(DataSource dataSource, TransactionIsolationLevel level, boolean autoCommit) {
-        return new DynamicDataSourceTransaction(dataSource);
+        return new DynamicDataSourceTransaction(dataSource , monitor);
     }
 }
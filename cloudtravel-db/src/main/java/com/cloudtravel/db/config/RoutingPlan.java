@@ -0,0 +1,83 @@
+package com.cloudtravel.db.config;
+
+import lombok.Getter;
+
+/**
+ * 路由计划: 同一个MappedStatement、同一条带占位符的sql只解析一次, 之后按计划直接取租户参数路由.
+ * tenantParamIndex为TENANT_ID对应的占位符下标(即BoundSql.getParameterMappings()中的下标),
+ * 多行insert时tenantParamIndex为第一行TENANT_ID的占位符下标, 各行的占位符个数都是rowParamCount, 与行数无关;
+ * sql中直接写了租户常量时为tenantLiteral, 都没有时只能按原方式拼接完整sql后解析(legacy)
+ */
+@Getter
+public class RoutingPlan {
+
+    /** 解析失败或无法从占位符/常量中定位租户, 每次都按原方式解析 */
+    static final RoutingPlan LEGACY = new RoutingPlan("" , "" , false , -1 , 0 , null , true);
+
+    private final String tableName;
+
+    private final String sqlType;
+
+    private final boolean publicTable;
+
+    private final int tenantParamIndex;
+
+    /** 多行insert每一行的占位符个数, 不是多行insert时为0 */
+    private final int rowParamCount;
+
+    private final String tenantLiteral;
+
+    private final boolean legacy;
+
+    private RoutingPlan(String tableName , String sqlType , boolean publicTable ,
+                        int tenantParamIndex , int rowParamCount , String tenantLiteral , boolean legacy) {
+        this.tableName = tableName;
+        this.sqlType = sqlType;
+        this.publicTable = publicTable;
+        this.tenantParamIndex = tenantParamIndex;
+        this.rowParamCount = rowParamCount;
+        this.tenantLiteral = tenantLiteral;
+        this.legacy = legacy;
+    }
+
+    static RoutingPlan publicTable(String tableName , String sqlType) {
+        return new RoutingPlan(tableName , sqlType , true , -1 , 0 , null , false);
+    }
+
+    static RoutingPlan tenantParam(String tableName , String sqlType , int tenantParamIndex) {
+        return new RoutingPlan(tableName , sqlType , false , tenantParamIndex , 0 , null , false);
+    }
+
+    static RoutingPlan rowTenantParams(String tableName , String sqlType , int firstRowTenantParamIndex , int rowParamCount) {
+        return new RoutingPlan(tableName , sqlType , false , firstRowTenantParamIndex , rowParamCount , null , false);
+    }
+
+    static RoutingPlan tenantLiteral(String tableName , String sqlType , String tenantLiteral) {
+        return new RoutingPlan(tableName , sqlType , false , -1 , 0 , tenantLiteral , false);
+    }
+
+    /**
+     * 是否为多行insert
+     * @return
+     */
+    boolean isMultiRow() {
+        return rowParamCount > 0;
+    }
+
+    /**
+     * 多行insert第row行(从0开始)TENANT_ID的占位符下标
+     * @param row
+     * @return
+     */
+    int tenantParamIndex(int row) {
+        return tenantParamIndex + row * rowParamCount;
+    }
+
+    @Override
+    public String toString() {
+        return legacy ? "RoutingPlan{legacy}" : "RoutingPlan{tableName=" + tableName + ", sqlType=" + sqlType
+                + ", publicTable=" + publicTable + ", tenantParamIndex=" + tenantParamIndex
+                + (rowParamCount == 0 ? "" : ", rowParamCount=" + rowParamCount)
+                + ", tenantLiteral=" + tenantLiteral + "}";
+    }
+}
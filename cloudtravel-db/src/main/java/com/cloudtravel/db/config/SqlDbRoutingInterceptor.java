@@ -4,21 +4,32 @@ import com.alibaba.druid.DbType;
 import com.alibaba.druid.sql.SQLUtils;
 import com.alibaba.druid.sql.ast.SQLExpr;
 import com.alibaba.druid.sql.ast.SQLStatement;
+import com.alibaba.druid.sql.ast.expr.SQLBinaryOpExpr;
+import com.alibaba.druid.sql.ast.expr.SQLBinaryOperator;
 import com.alibaba.druid.sql.ast.expr.SQLCharExpr;
+import com.alibaba.druid.sql.ast.expr.SQLIdentifierExpr;
 import com.alibaba.druid.sql.ast.expr.SQLIntegerExpr;
+import com.alibaba.druid.sql.ast.expr.SQLPropertyExpr;
+import com.alibaba.druid.sql.ast.expr.SQLVariantRefExpr;
 import com.alibaba.druid.sql.ast.statement.SQLInsertStatement;
 import com.alibaba.druid.sql.ast.statement.SQLReplaceStatement;
+import com.alibaba.druid.sql.dialect.mysql.visitor.MySqlASTVisitorAdapter;
 import com.alibaba.druid.sql.dialect.mysql.visitor.MySqlSchemaStatVisitor;
 import com.alibaba.druid.stat.TableStat;
 import com.alibaba.druid.util.JdbcConstants;
 import com.alibaba.dubbo.common.utils.CollectionUtils;
 import com.cloudtravel.common.exception.CloudTravelException;
+import com.cloudtravel.db.metrics.RoutingMetrics;
+import com.cloudtravel.db.migration.TenantDualWriter;
+import com.cloudtravel.db.replica.ReplicaRouter;
+import com.cloudtravel.db.router.TenantRouter;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.plugin.*;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
@@ -27,9 +38,13 @@ import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.text.DateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * 数据源路由策略
@@ -50,35 +65,391 @@ public class SqlDbRoutingInterceptor implements Interceptor {
 
     private static final List<String> PUBLIC_TABLES = Arrays.asList("B_USER" , "TB");
 
+    private static final String PLAN_KEY_SEPARATOR = "\n";
+
+    /** 多行insert的计划key中代替第一行之后各行的标记, 不是合法的sql, 不会与实际执行的sql相同 */
+    private static final String MORE_ROWS = " , ...";
+
+    /** 路由计划缓存上限 */
+    private static final int MAX_ROUTING_PLANS = 4096;
+
+    private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Map<String , RoutingPlan> routingPlans = new ConcurrentHashMap<>();
+
+    private final Map<String , TenantKeyResolver> tenantKeyResolvers = new ConcurrentHashMap<>();
+
+    private volatile RoutingMode routingMode = RoutingMode.PARAMETER;
+
+    /** 迁移中租户的写操作由其执行, 为空时不支持在线迁移 */
+    private TenantDualWriter tenantDualWriter;
+
+    /** 读写分离, 为空时所有语句走主库 */
+    private ReplicaRouter replicaRouter;
+
+    /** 路由与执行耗时指标, 为空时不记录 */
+    private RoutingMetrics routingMetrics;
+
+    /**
+     * 路由方式
+     */
+    public enum RoutingMode {
+
+        /** 每次把参数拼接进sql后完整解析 */
+        LEGACY,
+
+        /** 按MappedStatement id + sql缓存解析结果, 每次按占位符下标取租户 */
+        SQL,
+
+        /** 按MappedStatement缓存租户参数(@TenantKey或sql中TENANT_ID对应的属性), 每次直接读取参数, 无法确定时退回SQL */
+        PARAMETER
+    }
+
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
-        Long startTime = System.currentTimeMillis();
-        String sql = "";
+        long startTime = System.nanoTime();
         MappedStatement mappedStatement = null;
         Object param = null;
+        BoundSql boundSql;
+        String tenantId;
         try {
             Object[] args = invocation.getArgs();
             mappedStatement = (MappedStatement)invocation.getArgs()[0];
             if(args.length > 1) {
                 param = args[1];
-                LOGGER.info("current sql param is [{}]" , param);
+                LOGGER.debug("current sql param is [{}]" , param);
             }
-            BoundSql boundSql = mappedStatement.getBoundSql(param);
-            String sqlId = mappedStatement.getId();
-            sql = getWholeSql(mappedStatement.getConfiguration() , boundSql);
-            executeDbRouting(sqlId , sql);
+            //6个参数的query已经带了BoundSql, 不必再生成一次
+            boundSql = args.length > 5 ? (BoundSql) args[5] : mappedStatement.getBoundSql(param);
+            tenantId = executeDbRouting(mappedStatement , boundSql);
         }catch (Exception e) {
             throw e;
         }
-        Object result = invocation.proceed();
-        Long endTime = System.currentTimeMillis();
-        LOGGER.info("ExecuteDbRouting use time {} ms" , endTime - startTime);
+        boolean select = mappedStatement.getSqlCommandType() == SqlCommandType.SELECT;
+        String dataSourceKey = DataSourceContext.getCurrentDataSourceKey();
+        String replicaKey = null;
+        if(replicaRouter != null) {
+            if(select) {
+                replicaKey = replicaRouter.acquireRead(dataSourceKey);
+            }else {
+                replicaRouter.markWrite(dataSourceKey);
+            }
+        }
+        String sqlId = mappedStatement.getId();
+        long routedTime = System.nanoTime();
+        if(routingMetrics != null) {
+            routingMetrics.recordRouting(sqlId , routedTime - startTime);
+        }
+        Object result = null;
+        boolean success = false;
+        try {
+            if(replicaKey != null) {
+                DataSourceContext.setDataSourceKey(replicaKey);
+                try {
+                    result = invocation.proceed();
+                } finally {
+                    replicaRouter.release(replicaKey);
+                    DataSourceContext.setDataSourceKey(dataSourceKey);
+                }
+            }else if(tenantDualWriter != null && tenantId != null && !select) {
+                MappedStatement statement = mappedStatement;
+                result = tenantDualWriter.proceed(invocation , mappedStatement , param , tenantId , () -> executeDbRouting(statement , boundSql));
+            }else {
+                result = invocation.proceed();
+            }
+            success = true;
+        } finally {
+            long executeNanos = System.nanoTime() - routedTime;
+            if(routingMetrics != null) {
+                routingMetrics.recordStatement(sqlId , replicaKey != null ? replicaKey : dataSourceKey , executeNanos ,
+                        success ? countRows(result) : -1 , success , boundSql::getSql);
+            }
+            if(LOGGER.isDebugEnabled()) {
+                LOGGER.debug("ExecuteDbRouting , sqlId = {} , routeMicros = {} , executeMicros = {}" , sqlId ,
+                        (routedTime - startTime) / 1000 , executeNanos / 1000);
+            }
+        }
         return result;
     }
 
-    private void executeDbRouting(String sqlId , String sql)throws Exception {
+    /**
+     * 影响或返回的行数, BATCH执行器的update在flush前没有行数, 返回-1
+     */
+    private static int countRows(Object result) {
+        if(result instanceof Integer) {
+            return Math.max((Integer) result , -1);
+        }
+        if(result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return -1;
+    }
+
+    public void setTenantDualWriter(TenantDualWriter tenantDualWriter) {
+        this.tenantDualWriter = tenantDualWriter;
+    }
+
+    public void setReplicaRouter(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
+
+    public void setRoutingMetrics(RoutingMetrics routingMetrics) {
+        this.routingMetrics = routingMetrics;
+    }
+
+    /**
+     * 按当前路由方式设置数据源
+     * @param mappedStatement
+     * @param boundSql
+     * @return 路由使用的租户, 公共表为null
+     */
+    String executeDbRouting(MappedStatement mappedStatement , BoundSql boundSql) throws Exception {
+        switch (routingMode) {
+            case LEGACY:
+                return executeDbRouting(mappedStatement.getId() , getWholeSql(mappedStatement.getConfiguration() , boundSql));
+            case SQL:
+                return executeDbRoutingByPlan(mappedStatement , boundSql);
+            default:
+                return executeDbRoutingByParameter(mappedStatement , boundSql);
+        }
+    }
+
+    private void recordCache(String cache , boolean hit) {
+        if(routingMetrics != null) {
+            routingMetrics.recordCache(cache , hit);
+        }
+    }
+
+    /**
+     * 按参数路由: 每个MappedStatement首次执行时确定租户参数, 之后只读取该参数, 不拼接、不解析sql
+     * @param mappedStatement
+     * @param boundSql
+     */
+    private String executeDbRoutingByParameter(MappedStatement mappedStatement , BoundSql boundSql) throws Exception {
+        String sqlId = mappedStatement.getId();
+        TenantKeyResolver resolver = tenantKeyResolvers.get(sqlId);
+        recordCache("resolver" , resolver != null);
+        if(resolver == null) {
+            resolver = buildTenantKeyResolver(sqlId , boundSql);
+            tenantKeyResolvers.putIfAbsent(sqlId , resolver);
+            LOGGER.info("Create tenant key resolver , sqlId = {} , resolver = {}" , sqlId , resolver);
+        }
+        if(resolver.isUnresolved()) {
+            return executeDbRoutingByPlan(mappedStatement , boundSql);
+        }else if(resolver.isPublicTable()) {
+            DataSourceContext.setDataSourceType(DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+            return null;
+        }
+        Object tenant = resolver.resolve(mappedStatement.getConfiguration() , boundSql.getParameterObject());
+        if(tenant == null) {
+            //解析器按首次执行生成, 动态sql本次执行可能没有绑定租户参数, 按本次的sql重新路由
+            return executeDbRoutingByPlan(mappedStatement , boundSql);
+        }
+        String tenantId = String.valueOf(tenant);
+        DataSourceContext.setDataSourceType(tenantId);
+        return tenantId;
+    }
+
+    /**
+     * 确定租户参数: 公共表不需要租户; 其次是@TenantKey标记的参数; 最后是sql中TENANT_ID对应占位符的属性
+     * @param sqlId
+     * @param boundSql
+     * @return
+     */
+    private TenantKeyResolver buildTenantKeyResolver(String sqlId , BoundSql boundSql) {
+        RoutingPlan plan = buildRoutingPlan(sqlId , boundSql.getSql());
+        if(plan.isPublicTable()) {
+            return TenantKeyResolver.publicTable(plan.getTableName());
+        }
+        String property = TenantKeyResolver.findAnnotatedProperty(sqlId , boundSql.getParameterObject());
+        if(property != null) {
+            return TenantKeyResolver.property(plan.getTableName() , property);
+        }
+        if(plan.isLegacy() || plan.isMultiRow()) {
+            return TenantKeyResolver.UNRESOLVED;
+        }
+        if(plan.getTenantLiteral() != null) {
+            return TenantKeyResolver.literal(plan.getTableName() , plan.getTenantLiteral());
+        }
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        if(plan.getTenantParamIndex() < parameterMappings.size()) {
+            property = parameterMappings.get(plan.getTenantParamIndex()).getProperty();
+            //foreach等生成的附加参数名每次执行都可能不同, 不能按属性名缓存
+            if(!boundSql.hasAdditionalParameter(property)) {
+                return TenantKeyResolver.property(plan.getTableName() , property);
+            }
+        }
+        return TenantKeyResolver.UNRESOLVED;
+    }
+
+    /**
+     * 按路由计划设置数据源, 计划按MappedStatement id + 带占位符的sql缓存, 只在首次遇到时解析sql.
+     * 各行相同的多行insert(foreach生成的insertBatch)不论行数共用一个计划
+     * @param mappedStatement
+     * @param boundSql
+     */
+    private String executeDbRoutingByPlan(MappedStatement mappedStatement , BoundSql boundSql) throws Exception {
+        String sqlId = mappedStatement.getId();
+        PlanKey planKey = PlanKey.of(sqlId , boundSql.getSql() , mappedStatement.getSqlCommandType() == SqlCommandType.INSERT);
+        RoutingPlan plan = routingPlans.get(planKey.key);
+        recordCache("plan" , plan != null);
+        if(plan == null) {
+            plan = buildRoutingPlan(sqlId , boundSql.getSql());
+            //动态sql(如${}拼接)可能产生大量不同的sql, 超过上限后不再缓存
+            if(routingPlans.size() < MAX_ROUTING_PLANS) {
+                routingPlans.putIfAbsent(planKey.key , plan);
+            }
+            LOGGER.info("Create routing plan , sqlId = {} , plan = {}" , sqlId , plan);
+        }
+        int lastTenantParamIndex = plan.isMultiRow() ? plan.tenantParamIndex(planKey.rows - 1) : plan.getTenantParamIndex();
+        if(plan.isLegacy() || lastTenantParamIndex >= boundSql.getParameterMappings().size()) {
+            return executeDbRouting(sqlId , getWholeSql(mappedStatement.getConfiguration() , boundSql));
+        }
+        if(plan.isPublicTable()) {
+            LOGGER.debug("ExecuteDbRouting : table: [{}] is public table , route db to public dataBase" , plan.getTableName());
+            DataSourceContext.setDataSourceType(DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+            return null;
+        }
+        if(plan.isMultiRow()) {
+            List<String> tenantIds = new ArrayList<>(planKey.rows);
+            for (int row = 0; row < planKey.rows; row++) {
+                tenantIds.add(requireTenant(sqlId , getParamValue(mappedStatement.getConfiguration() , boundSql , plan.tenantParamIndex(row))));
+            }
+            return routeRows(sqlId , tenantIds);
+        }
+        String tenantId = plan.getTenantLiteral();
+        if(tenantId == null) {
+            tenantId = requireTenant(sqlId , getParamValue(mappedStatement.getConfiguration() , boundSql , plan.getTenantParamIndex()));
+        }
+        DataSourceContext.setDataSourceType(tenantId);
+        return tenantId;
+    }
+
+    /**
+     * 租户参数的值为null时不能路由, 否则会按"null"路由到某个数据源
+     * @param sqlId
+     * @param tenant
+     * @return
+     */
+    private static String requireTenant(String sqlId , Object tenant) {
+        if(tenant == null) {
+            throw new CloudTravelException("ExecuteDbRouting error : TENANT_ID of " + sqlId + " is null");
+        }
+        return String.valueOf(tenant);
+    }
+
+    /**
+     * 解析带占位符的sql生成路由计划, 租户取值不是占位符或常量时(如函数、子查询、IN)退回原方式
+     * @param sqlId
+     * @param sql
+     * @return
+     */
+    private RoutingPlan buildRoutingPlan(String sqlId , String sql) {
+        List<SQLStatement> sqlStatements;
+        try {
+            sqlStatements = SQLUtils.parseStatements(sql , JdbcConstants.MYSQL);
+        } catch (Exception e) {
+            LOGGER.warn("Build routing plan failed , use legacy routing , sqlId = {} , message = {}" , sqlId , e.getMessage());
+            return RoutingPlan.LEGACY;
+        }
+        if(sqlStatements.size() != 1) {
+            return RoutingPlan.LEGACY;
+        }
+        SQLStatement sqlStatement = sqlStatements.get(0);
+        MySqlSchemaStatVisitor visitor = new MySqlSchemaStatVisitor();
+        sqlStatement.accept(visitor);
+        String tableName = "";
+        String sqlType = "";
+        for (Map.Entry<TableStat.Name, TableStat> nameTableStatEntry : visitor.getTables().entrySet()) {
+            tableName = nameTableStatEntry.getKey().toString().toUpperCase();
+            sqlType = nameTableStatEntry.getValue().toString();
+        }
+        if(PUBLIC_TABLES.contains(tableName)) {
+            return RoutingPlan.publicTable(tableName , sqlType);
+        }
+        SQLExpr tenantExpr = null;
+        if(sqlStatement instanceof SQLInsertStatement || sqlStatement instanceof SQLReplaceStatement) {
+            List<SQLExpr> columns;
+            List<SQLInsertStatement.ValuesClause> valuesList;
+            if(sqlStatement instanceof SQLInsertStatement) {
+                columns = ((SQLInsertStatement) sqlStatement).getColumns();
+                valuesList = ((SQLInsertStatement) sqlStatement).getValuesList();
+            }else {
+                columns = ((SQLReplaceStatement) sqlStatement).getColumns();
+                valuesList = ((SQLReplaceStatement) sqlStatement).getValuesList();
+            }
+            if(valuesList.isEmpty()) {
+                return RoutingPlan.LEGACY;
+            }
+            int tenantColumn = tenantColumnIndex(columns);
+            if(tenantColumn < 0) {
+                return RoutingPlan.LEGACY;
+            }
+            if(valuesList.size() > 1) {
+                //多行insert: 每一行的租户都是占位符、且各行占位符个数相同时按行取值, 否则拼接完整sql后逐行解析
+                int[] indexes = new int[valuesList.size()];
+                for (int row = 0; row < indexes.length; row++) {
+                    List<SQLExpr> values = valuesList.get(row).getValues();
+                    if(tenantColumn >= values.size() || !(values.get(tenantColumn) instanceof SQLVariantRefExpr)) {
+                        return RoutingPlan.LEGACY;
+                    }
+                    indexes[row] = ((SQLVariantRefExpr) values.get(tenantColumn)).getIndex();
+                }
+                int rowParamCount = indexes[1] - indexes[0];
+                for (int row = 1; row < indexes.length; row++) {
+                    if(rowParamCount <= 0 || indexes[row] - indexes[row - 1] != rowParamCount) {
+                        return RoutingPlan.LEGACY;
+                    }
+                }
+                return RoutingPlan.rowTenantParams(tableName , sqlType , indexes[0] , rowParamCount);
+            }
+            List<SQLExpr> values = valuesList.get(0).getValues();
+            if(tenantColumn < values.size()) {
+                tenantExpr = values.get(tenantColumn);
+            }
+        }else {
+            TenantConditionVisitor conditionVisitor = new TenantConditionVisitor();
+            sqlStatement.accept(conditionVisitor);
+            tenantExpr = conditionVisitor.tenantExpr;
+        }
+        if(tenantExpr instanceof SQLVariantRefExpr) {
+            return RoutingPlan.tenantParam(tableName , sqlType , ((SQLVariantRefExpr) tenantExpr).getIndex());
+        }else if(tenantExpr instanceof SQLIntegerExpr) {
+            return RoutingPlan.tenantLiteral(tableName , sqlType , String.valueOf(((SQLIntegerExpr) tenantExpr).getNumber()));
+        }else if(tenantExpr instanceof SQLCharExpr) {
+            return RoutingPlan.tenantLiteral(tableName , sqlType , ((SQLCharExpr) tenantExpr).getText());
+        }
+        return RoutingPlan.LEGACY;
+    }
+
+    /**
+     * 按MyBatis绑定参数的方式取第index个占位符的值
+     * @return
+     */
+    private Object getParamValue(Configuration configuration , BoundSql boundSql , int index) {
+        String propertyName = boundSql.getParameterMappings().get(index).getProperty();
+        Object paramObj = boundSql.getParameterObject();
+        if(boundSql.hasAdditionalParameter(propertyName)) {
+            return boundSql.getAdditionalParameter(propertyName);
+        }else if(paramObj == null) {
+            return null;
+        }else if(configuration.getTypeHandlerRegistry().hasTypeHandler(paramObj.getClass())) {
+            return paramObj;
+        }
+        MetaObject metaObject = configuration.newMetaObject(paramObj);
+        return metaObject.hasGetter(propertyName) ? metaObject.getValue(propertyName) : null;
+    }
+
+    /**
+     * 原路由方式: 把参数拼接进sql后完整解析, 路由计划无法定位租户时使用
+     * @return 最后一条语句的租户, 公共表为null
+     */
+    private String executeDbRouting(String sqlId , String sql)throws Exception {
+        String routedTenantId = null;
         DbType dbType = JdbcConstants.MYSQL;
-        LOGGER.info("ExecuteDbRouting , sqlId = {} , sql = {}" , sqlId , sql);
+        LOGGER.debug("ExecuteDbRouting , sqlId = {} , sql = {}" , sqlId , sql);
         List<SQLStatement> sqlStatements = SQLUtils.parseStatements(sql , dbType);
         for (SQLStatement sqlStatement : sqlStatements) {
             MySqlSchemaStatVisitor visitor = new MySqlSchemaStatVisitor();
@@ -90,43 +461,100 @@ public class SqlDbRoutingInterceptor implements Interceptor {
                 tableName = nameTableStatEntry.getKey().toString().toUpperCase();
                 sqlType = nameTableStatEntry.getValue().toString();
             }
-            LOGGER.info("tableName = {} , sqlType = {}" , tableName , sqlType);
+            LOGGER.debug("tableName = {} , sqlType = {}" , tableName , sqlType);
             if(PUBLIC_TABLES.contains(tableName)) {
-                LOGGER.info("ExecuteDbRouting : table: [{}] is public table , route db to public dataBase" , tableName);
+                LOGGER.debug("ExecuteDbRouting : table: [{}] is public table , route db to public dataBase" , tableName);
                 DataSourceContext.setDataSourceType(DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+                routedTenantId = null;
             }else {
                 //读取公共租户标识
                 String tenantId= "";
                 if (StringUtils.isNotBlank(sqlType) && sqlType.equalsIgnoreCase("insert")) {
-                    List<SQLExpr> sqlExprList = null;
+                    List<SQLExpr> columns;
+                    List<SQLInsertStatement.ValuesClause> valuesList;
                     if(sqlStatement instanceof SQLInsertStatement) {
                         SQLInsertStatement insertStatement = (SQLInsertStatement) sqlStatement;
-                        sqlExprList = insertStatement.getValuesList().get(0).getValues();
+                        columns = insertStatement.getColumns();
+                        valuesList = insertStatement.getValuesList();
                     }else if(sqlStatement instanceof SQLReplaceStatement){
                         SQLReplaceStatement replaceStatement = (SQLReplaceStatement)sqlStatement;
-                        sqlExprList = replaceStatement.getValuesList().get(0).getValues();
+                        columns = replaceStatement.getColumns();
+                        valuesList = replaceStatement.getValuesList();
                     }else {
-                        throw new CloudTravelException("ExecuteDbRouting error : Unsupported SqlType [{}]" , sqlType);
+                        throw new CloudTravelException("ExecuteDbRouting error : Unsupported SqlType [" + sqlType + "] of " + sqlId);
+                    }
+                    int tenantColumn = tenantColumnIndex(columns);
+                    if(tenantColumn < 0 || valuesList.isEmpty()) {
+                        throw new CloudTravelException("ExecuteDbRouting error : insert of " + sqlId + " into [" + tableName
+                                + "] has no TENANT_ID column with values , insert ... select is not supported");
                     }
-                    int i = 0;
-                    for (TableStat.Column column : visitor.getColumns()) {
-                        if(TENANT_ID.equalsIgnoreCase(getColumnName(column)) ) {
-                            SQLIntegerExpr sqlIntegerExpr = (SQLIntegerExpr)sqlExprList.get(i);
-                            tenantId = String.valueOf(sqlIntegerExpr.getValue());
-                            break;
+                    //多行insert的每一行都要路由到同一个数据源
+                    List<String> rowTenantIds = new ArrayList<>(valuesList.size());
+                    for (SQLInsertStatement.ValuesClause valuesClause : valuesList) {
+                        List<SQLExpr> values = valuesClause.getValues();
+                        SQLExpr tenantExpr = tenantColumn < values.size() ? values.get(tenantColumn) : null;
+                        if(tenantExpr instanceof SQLIntegerExpr) {
+                            rowTenantIds.add(String.valueOf(((SQLIntegerExpr) tenantExpr).getNumber()));
+                        }else if(tenantExpr instanceof SQLCharExpr) {
+                            rowTenantIds.add(((SQLCharExpr) tenantExpr).getText());
+                        }else {
+                            throw new CloudTravelException("ExecuteDbRouting error : TENANT_ID of " + sqlId + " must be a non-null constant , but was ["
+                                    + tenantExpr + "]");
                         }
-                        i ++;
                     }
+                    if(rowTenantIds.size() > 1) {
+                        routedTenantId = routeRows(sqlId , rowTenantIds);
+                        continue;
+                    }
+                    tenantId = rowTenantIds.get(0);
                 }else {
                     List<TableStat.Condition> conditions = visitor.getConditions();
                     tenantId = conditions.stream()
                             .filter(k -> TENANT_ID.equalsIgnoreCase(getColumnName(k.getColumn())))
-                            .findFirst().orElseThrow(() -> new CloudTravelException("ExecuteDbRouting error : Unsupported sql operate not find param:{TENANT_ID}"))
+                            .findFirst().orElseThrow(() -> new CloudTravelException("ExecuteDbRouting error : Unsupported sql operate not find param:{TENANT_ID} , use ScatterGatherExecutor for cross-shard queries"))
                             .getValues().get(0).toString();
                 }
                 DataSourceContext.setDataSourceType(tenantId);
+                routedTenantId = tenantId;
+            }
+        }
+        return routedTenantId;
+    }
+
+    /**
+     * 多行insert: 所有行必须路由到同一个数据源, 否则应按数据源分组后写入(见BatchWriter).
+     * 各行租户相同时返回该租户; 不同时返回null, 不参与迁移双写, 因此其中不能有迁移中的租户
+     * @param sqlId
+     * @param tenantIds 每一行的租户
+     * @return
+     */
+    private String routeRows(String sqlId , List<String> tenantIds) {
+        TenantRouter tenantRouter = DataSourceContext.getTenantRouter();
+        String firstTenantId = tenantIds.get(0);
+        String dataSourceKey = tenantRouter.route(firstTenantId);
+        boolean sameTenant = true;
+        for (int i = 1; i < tenantIds.size(); i++) {
+            String tenantId = tenantIds.get(i);
+            if(tenantId.equals(firstTenantId)) {
+                continue;
+            }
+            sameTenant = false;
+            String rowDataSourceKey = tenantRouter.route(tenantId);
+            if(!dataSourceKey.equals(rowDataSourceKey)) {
+                throw new CloudTravelException("ExecuteDbRouting error : rows of " + sqlId + " belong to different data sources ["
+                        + dataSourceKey + " , " + rowDataSourceKey + "] , group rows by data source before insert");
             }
         }
+        if(!sameTenant && tenantDualWriter != null) {
+            for (String tenantId : new HashSet<>(tenantIds)) {
+                if(tenantDualWriter.isMigrating(tenantId)) {
+                    throw new CloudTravelException("ExecuteDbRouting error : tenant " + tenantId + " is migrating , insert its rows of "
+                            + sqlId + " separately");
+                }
+            }
+        }
+        DataSourceContext.setDataSourceKey(dataSourceKey);
+        return sameTenant ? firstTenantId : null;
     }
 
     @Override
@@ -137,6 +565,10 @@ public class SqlDbRoutingInterceptor implements Interceptor {
     @Override
     public void setProperties(Properties properties) {
         Interceptor.super.setProperties(properties);
+        String mode = properties.getProperty("routingMode");
+        if(StringUtils.isNotBlank(mode)) {
+            routingMode = RoutingMode.valueOf(mode.trim().toUpperCase());
+        }
     }
 
 
@@ -147,39 +579,56 @@ public class SqlDbRoutingInterceptor implements Interceptor {
     private String getWholeSql(Configuration configuration , BoundSql boundSql) {
         Object paramObj = boundSql.getParameterObject();
         List<ParameterMapping> parameterMappingList =  boundSql.getParameterMappings();
-        String sql = boundSql.getSql().replaceAll("[\\s]+" , " ");
+        String sql = WHITESPACE.matcher(boundSql.getSql()).replaceAll(" ");
         if(CollectionUtils.isNotEmpty(parameterMappingList) && paramObj != null) {
+            List<String> values = new ArrayList<>(parameterMappingList.size());
             //获取类型注册器
             TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
             if(typeHandlerRegistry.hasTypeHandler(paramObj.getClass())) {
-                sql = sql.replaceFirst("\\?" , Matcher.quoteReplacement(getParamVal(paramObj)));
+                values.add(getParamVal(paramObj));
             }else {
                 //若是个json对象,则挨个取出并在sql中填补上参数值
                 MetaObject metaObject = configuration.newMetaObject(paramObj);
                 for (ParameterMapping parameterMapping : parameterMappingList) {
                     String propertyName = parameterMapping.getProperty();
                     if(metaObject.hasGetter(propertyName)) {
-                        Object obj = metaObject.getValue(propertyName);
-                        sql = sql.replaceFirst("\\?" , Matcher.quoteReplacement(getParamVal(obj)));
+                        values.add(getParamVal(metaObject.getValue(propertyName)));
                     }else if(boundSql.hasAdditionalParameter(propertyName)) {
-                        Object obj = boundSql.getAdditionalParameter(propertyName);
-                        sql = sql.replaceFirst("\\?" , Matcher.quoteReplacement(getParamVal(obj)));
+                        values.add(getParamVal(boundSql.getAdditionalParameter(propertyName)));
                     }else {
-                        sql = sql.replaceFirst("\\?" , "NULL");
+                        values.add("NULL");
                     }
                 }
             }
+            sql = fillPlaceholders(sql , values);
         }
         return sql;
     }
 
+    /**
+     * 依次把占位符替换为参数值, 一次遍历完成, 参数值中的?不会被再次替换
+     */
+    private String fillPlaceholders(String sql , List<String> values) {
+        StringBuilder builder = new StringBuilder(sql.length() + values.size() * 8);
+        int valueIndex = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if(c == '?' && valueIndex < values.size()) {
+                builder.append(values.get(valueIndex++));
+            }else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
     private String getParamVal(Object obj) {
         String value = null;
         if(obj instanceof String) {
             value = "'" + obj.toString() + "'";
         }else if (obj instanceof Date) {
-            DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.DEFAULT , DateFormat.DATE_FIELD , Locale.CHINA);
-            value = "'" + dateFormat.format(obj) + "'";
+            LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(((Date) obj).getTime()) , ZoneId.systemDefault());
+            value = "'" + DATE_TIME_FORMATTER.format(dateTime) + "'";
         }else {
             if(obj != null) {
                 value = obj.toString();
@@ -190,6 +639,28 @@ public class SqlDbRoutingInterceptor implements Interceptor {
         return value;
     }
 
+    /**
+     * @return insert列中TENANT_ID的下标, 没有时为-1
+     */
+    private int tenantColumnIndex(List<SQLExpr> columns) {
+        for (int i = 0; i < columns.size(); i++) {
+            if(TENANT_ID.equalsIgnoreCase(getColumnName(columns.get(i)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String getColumnName(SQLExpr expr) {
+        String columnName = "";
+        if(expr instanceof SQLIdentifierExpr) {
+            columnName = ((SQLIdentifierExpr) expr).getName();
+        }else if(expr instanceof SQLPropertyExpr) {
+            columnName = ((SQLPropertyExpr) expr).getName();
+        }
+        return SQLUtils.normalize(columnName);
+    }
+
     private String getColumnName(TableStat.Column column) {
         String columnName = "";
         if(null != column) {
@@ -208,4 +679,140 @@ public class SqlDbRoutingInterceptor implements Interceptor {
         columnName = columnName.replaceAll(regexp , "");
         return columnName;
     }
+
+    /**
+     * 路由计划的缓存key: MappedStatement id + 带占位符的sql. 多行insert的各行完全相同时只保留第一行,
+     * 不同批次大小的insertBatch共用一个key, 不会每种行数各占一个缓存
+     */
+    static final class PlanKey {
+
+        private final String key;
+
+        /** insert ... values的行数, 其他语句为1 */
+        private final int rows;
+
+        private PlanKey(String key , int rows) {
+            this.key = key;
+            this.rows = rows;
+        }
+
+        static PlanKey of(String sqlId , String sql , boolean insert) {
+            String prefix = sqlId + PLAN_KEY_SEPARATOR;
+            int firstStart = insert ? valuesStart(sql) : -1;
+            int firstEnd = firstStart < 0 ? -1 : groupEnd(sql , firstStart);
+            if(firstEnd < 0) {
+                return new PlanKey(prefix + sql , 1);
+            }
+            int rowLength = firstEnd - firstStart;
+            int rows = 1;
+            int end = firstEnd;
+            boolean sameRows = true;
+            while (true) {
+                int comma = skipWhitespace(sql , end);
+                if(comma >= sql.length() || sql.charAt(comma) != ',') {
+                    break;
+                }
+                int rowStart = skipWhitespace(sql , comma + 1);
+                int rowEnd = rowStart < sql.length() && sql.charAt(rowStart) == '(' ? groupEnd(sql , rowStart) : -1;
+                if(rowEnd < 0) {
+                    break;
+                }
+                sameRows &= rowEnd - rowStart == rowLength && sql.regionMatches(rowStart , sql , firstStart , rowLength);
+                rows ++;
+                end = rowEnd;
+            }
+            if(rows == 1 || !sameRows) {
+                return new PlanKey(prefix + sql , rows);
+            }
+            return new PlanKey(prefix + sql.substring(0 , firstEnd) + MORE_ROWS + sql.substring(end) , rows);
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return VALUES之后第一个(的下标, 没有时为-1
+         */
+        private static int valuesStart(String sql) {
+            for (int i = 0; i < sql.length(); i++) {
+                char c = sql.charAt(i);
+                if(c == '\'' || c == '"' || c == '`') {
+                    i = quoteEnd(sql , i) - 1;
+                }else if((c == 'v' || c == 'V') && sql.regionMatches(true , i , "values" , 0 , 6)
+                        && (i == 0 || !Character.isJavaIdentifierPart(sql.charAt(i - 1)))) {
+                    int start = skipWhitespace(sql , i + 6);
+                    if(start < sql.length() && sql.charAt(start) == '(') {
+                        return start;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return 从start处的(到与之匹配的)之后的下标, 不完整时为-1
+         */
+        private static int groupEnd(String sql , int start) {
+            int depth = 0;
+            for (int i = start; i < sql.length(); i++) {
+                char c = sql.charAt(i);
+                if(c == '\'' || c == '"' || c == '`') {
+                    i = quoteEnd(sql , i) - 1;
+                }else if(c == '(') {
+                    depth ++;
+                }else if(c == ')' && --depth == 0) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return 引号结束之后的下标
+         */
+        private static int quoteEnd(String sql , int start) {
+            char quote = sql.charAt(start);
+            for (int i = start + 1; i < sql.length(); i++) {
+                char c = sql.charAt(i);
+                if(c == '\\' && quote != '`') {
+                    i ++;
+                }else if(c == quote) {
+                    return i + 1;
+                }
+            }
+            return sql.length();
+        }
+
+        private static int skipWhitespace(String sql , int index) {
+            while (index < sql.length() && Character.isWhitespace(sql.charAt(index))) {
+                index ++;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 查找where中第一个 TENANT_ID = ? 或 TENANT_ID = 常量 的条件
+     */
+    private class TenantConditionVisitor extends MySqlASTVisitorAdapter {
+
+        private SQLExpr tenantExpr;
+
+        @Override
+        public boolean visit(SQLBinaryOpExpr x) {
+            if(tenantExpr == null && x.getOperator() == SQLBinaryOperator.Equality) {
+                if(TENANT_ID.equalsIgnoreCase(getColumnName(x.getLeft()))) {
+                    tenantExpr = x.getRight();
+                }else if(TENANT_ID.equalsIgnoreCase(getColumnName(x.getRight()))) {
+                    tenantExpr = x.getLeft();
+                }
+            }
+            return tenantExpr == null;
+        }
+    }
 }
@@ -0,0 +1,158 @@
+package com.cloudtravel.db.config;
+
+import com.cloudtravel.db.annotation.TenantKey;
+import lombok.Getter;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.session.Configuration;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * 按参数路由时, 单个MappedStatement的租户取值方式: 公共表、sql中的租户常量, 或参数对象中的某个属性.
+ * 每个MappedStatement只在首次执行时生成, 之后每次只做一次属性读取, 不拼接、不解析sql
+ */
+@Getter
+public class TenantKeyResolver {
+
+    /** 无法从参数中确定租户, 按sql路由 */
+    static final TenantKeyResolver UNRESOLVED = new TenantKeyResolver("" , false , null , null);
+
+    private final String tableName;
+
+    private final boolean publicTable;
+
+    /** 参数对象中的租户属性, 为空串时参数对象本身就是租户 */
+    private final String property;
+
+    private final String literal;
+
+    private TenantKeyResolver(String tableName , boolean publicTable , String property , String literal) {
+        this.tableName = tableName;
+        this.publicTable = publicTable;
+        this.property = property;
+        this.literal = literal;
+    }
+
+    static TenantKeyResolver publicTable(String tableName) {
+        return new TenantKeyResolver(tableName , true , null , null);
+    }
+
+    static TenantKeyResolver property(String tableName , String property) {
+        return new TenantKeyResolver(tableName , false , property , null);
+    }
+
+    static TenantKeyResolver literal(String tableName , String literal) {
+        return new TenantKeyResolver(tableName , false , null , literal);
+    }
+
+    boolean isUnresolved() {
+        return this == UNRESOLVED;
+    }
+
+    /**
+     * 从参数对象中读取租户
+     * @param configuration
+     * @param paramObj
+     * @return 参数中没有租户或值为null时返回null, 由调用方按sql路由
+     */
+    Object resolve(Configuration configuration , Object paramObj) {
+        if(literal != null) {
+            return literal;
+        }
+        if(paramObj == null || property.isEmpty()
+                || configuration.getTypeHandlerRegistry().hasTypeHandler(paramObj.getClass())) {
+            return paramObj;
+        }
+        if(property.indexOf('.') > 0 || property.indexOf('[') > 0) {
+            MetaObject metaObject = configuration.newMetaObject(paramObj);
+            return metaObject.hasGetter(property) ? metaObject.getValue(property) : null;
+        }
+        if(paramObj instanceof Map) {
+            //ParamMap取不存在的key会抛出BindingException
+            Map<?, ?> paramMap = (Map<?, ?>) paramObj;
+            return paramMap.containsKey(property) ? paramMap.get(property) : null;
+        }
+        Reflector reflector = configuration.getReflectorFactory().findForClass(paramObj.getClass());
+        if(!reflector.hasGetter(property)) {
+            return null;
+        }
+        try {
+            return reflector.getGetInvoker(property).invoke(paramObj , null);
+        } catch (Exception e) {
+            throw new IllegalStateException("Read tenant property [" + property + "] failed of " + paramObj.getClass().getName() , e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isUnresolved() ? "TenantKeyResolver{unresolved}" : "TenantKeyResolver{tableName=" + tableName
+                + ", publicTable=" + publicTable + ", property=" + property + ", literal=" + literal + "}";
+    }
+
+    /**
+     * 查找@TenantKey标记的参数: 先找mapper方法参数, 再找参数对象的字段
+     * @param sqlId MappedStatement id, 即 mapper接口全名.方法名
+     * @param paramObj 参数对象
+     * @return 参数对象中的属性名, 空串表示参数对象本身; 没有标记时返回null
+     */
+    static String findAnnotatedProperty(String sqlId , Object paramObj) {
+        int index = sqlId.lastIndexOf('.');
+        if(index > 0) {
+            try {
+                Class<?> mapperClass = Resources.classForName(sqlId.substring(0 , index));
+                String methodName = sqlId.substring(index + 1);
+                for (Method method : mapperClass.getMethods()) {
+                    if(method.getName().equals(methodName)) {
+                        String property = findAnnotatedParameter(method);
+                        if(property != null) {
+                            return property;
+                        }
+                    }
+                }
+            } catch (ClassNotFoundException e) {
+                //非mapper接口的statement(如selectKey)
+            }
+        }
+        if(paramObj == null || paramObj instanceof Map) {
+            return null;
+        }
+        for (Class<?> clazz = paramObj.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if(field.isAnnotationPresent(TenantKey.class)) {
+                    return field.getName();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String findAnnotatedParameter(Method method) {
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            boolean tenantKey = false;
+            String paramName = null;
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if(annotation instanceof TenantKey) {
+                    tenantKey = true;
+                }else if(annotation instanceof Param) {
+                    paramName = ((Param) annotation).value();
+                }
+            }
+            if(!tenantKey) {
+                continue;
+            }
+            if(paramName != null) {
+                return paramName;
+            }
+            //单个无@Param的参数直接作为参数对象, 多个参数时MyBatis提供param1、param2...
+            return parameterAnnotations.length == 1 ? "" : "param" + (i + 1);
+        }
+        return null;
+    }
+}
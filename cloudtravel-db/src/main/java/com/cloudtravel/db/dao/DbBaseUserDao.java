@@ -1,6 +1,9 @@
 package com.cloudtravel.db.dao;
 
 import com.cloudtravel.db.model.DbBaseUserModel;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 public interface DbBaseUserDao {
     int deleteByPrimaryKey(Long id);
@@ -9,6 +12,8 @@ public interface DbBaseUserDao {
 
     int insertSelective(DbBaseUserModel record);
 
+    int insertBatch(@Param("records") List<DbBaseUserModel> records);
+
     DbBaseUserModel selectByPrimaryKey(Long id);
 
     int updateByPrimaryKeySelective(DbBaseUserModel record);
@@ -1,6 +1,9 @@
 package com.cloudtravel.db.dao;
 
 import com.cloudtravel.db.model.DbSpModel;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 public interface DbSpDao {
     int deleteByPrimaryKey(Long spId);
@@ -9,6 +12,8 @@ public interface DbSpDao {
 
     int insertSelective(DbSpModel record);
 
+    int insertBatch(@Param("records") List<DbSpModel> records);
+
     DbSpModel selectByPrimaryKey(Long spId);
 
     int updateByPrimaryKeySelective(DbSpModel record);
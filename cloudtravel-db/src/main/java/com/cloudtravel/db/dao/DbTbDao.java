@@ -1,6 +1,7 @@
 package com.cloudtravel.db.dao;
 
 import com.cloudtravel.db.model.DbTbModel;
+import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
 
@@ -9,5 +10,7 @@ public interface DbTbDao {
 
     int insertSelective(DbTbModel record);
 
+    int insertBatch(@Param("records") List<DbTbModel> records);
+
     List<DbTbModel> selectAll();
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.cloudtravel.db.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 路由与语句执行指标, 由SqlDbRoutingInterceptor记录:
+ * cloudtravel.db.routing(路由耗时, 按statement), cloudtravel.db.routing.cache(路由缓存命中, 按cache/result),
+ * cloudtravel.db.statement(执行耗时, 按statement/shard), cloudtravel.db.statement.rows(行数), cloudtravel.db.statement.errors(失败次数).
+ * 各指标在首次出现时注册并缓存, 之后每次记录不再查找注册表; 执行耗时达到阈值时在环形缓冲中保留语句的sql
+ */
+@Slf4j
+@Component
+public class RoutingMetrics {
+
+    public static final String ROUTING = "cloudtravel.db.routing";
+
+    public static final String ROUTING_CACHE = "cloudtravel.db.routing.cache";
+
+    public static final String STATEMENT = "cloudtravel.db.statement";
+
+    public static final String STATEMENT_ROWS = "cloudtravel.db.statement.rows";
+
+    public static final String STATEMENT_ERRORS = "cloudtravel.db.statement.errors";
+
+    private static final String UNKNOWN_SHARD = "unknown";
+
+    private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+
+    private final RoutingMetricsProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    /** statement -> 路由耗时 */
+    private final Map<String , Timer> routingTimers = new ConcurrentHashMap<>();
+
+    /** cache -> [未命中 , 命中] */
+    private final Map<String , Counter[]> cacheCounters = new ConcurrentHashMap<>();
+
+    /** statement -> shard -> 执行指标 */
+    private final Map<String , Map<String , StatementMeters>> statementMeters = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<SlowStatement> slowStatements;
+
+    private final AtomicLong slowCount = new AtomicLong();
+
+    public RoutingMetrics(RoutingMetricsProperties properties , MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.slowStatements = new AtomicReferenceArray<>(Math.max(properties.getSlowSampleSize() , 1));
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 记录一次路由(含解析sql、选择从库)的耗时
+     * @param statementId
+     * @param nanos
+     */
+    public void recordRouting(String statementId , long nanos) {
+        if(!properties.isEnabled()) {
+            return;
+        }
+        routingTimers.computeIfAbsent(statementId , id -> Timer.builder(ROUTING)
+                .tag("statement" , id)
+                .register(meterRegistry)).record(nanos , TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次路由缓存查找
+     * @param cache 缓存名
+     * @param hit
+     */
+    public void recordCache(String cache , boolean hit) {
+        if(!properties.isEnabled()) {
+            return;
+        }
+        cacheCounters.computeIfAbsent(cache , name -> new Counter[]{
+                Counter.builder(ROUTING_CACHE).tag("cache" , name).tag("result" , "miss").register(meterRegistry) ,
+                Counter.builder(ROUTING_CACHE).tag("cache" , name).tag("result" , "hit").register(meterRegistry)
+        })[hit ? 1 : 0].increment();
+    }
+
+    /**
+     * 记录一次语句执行
+     * @param statementId
+     * @param shard 执行的数据源key
+     * @param nanos 执行耗时
+     * @param rows 影响或返回的行数, 未知时为-1
+     * @param success
+     * @param sql 只在达到慢语句阈值时获取
+     */
+    public void recordStatement(String statementId , String shard , long nanos , int rows , boolean success , Supplier<String> sql) {
+        if(!properties.isEnabled()) {
+            return;
+        }
+        String shardKey = shard == null ? UNKNOWN_SHARD : shard;
+        StatementMeters meters = statementMeters.computeIfAbsent(statementId , id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(shardKey , key -> new StatementMeters(statementId , key));
+        if(success) {
+            meters.timer.record(nanos , TimeUnit.NANOSECONDS);
+            if(rows >= 0) {
+                meters.rows.record(rows);
+            }
+        }else {
+            meters.errors.increment();
+        }
+        long thresholdMillis = properties.getSlowThresholdMillis();
+        if(thresholdMillis >= 0 && nanos >= TimeUnit.MILLISECONDS.toNanos(thresholdMillis)) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            SlowStatement slowStatement = new SlowStatement(statementId , shardKey , elapsedMillis , rows , success ,
+                    WHITESPACE.matcher(sql.get()).replaceAll(" ").trim() , System.currentTimeMillis());
+            slowStatements.set((int) (slowCount.getAndIncrement() % slowStatements.length()) , slowStatement);
+            log.warn("Slow statement , statement = {} , shard = {} , elapsedMillis = {} , rows = {}" , statementId , shardKey , elapsedMillis , rows);
+        }
+    }
+
+    /**
+     * 最近的慢语句, 新的在前
+     * @return
+     */
+    public List<SlowStatement> getSlowStatements() {
+        List<SlowStatement> result = new ArrayList<>();
+        long count = slowCount.get();
+        int length = slowStatements.length();
+        for (long i = count - 1; i >= 0 && i >= count - length; i--) {
+            SlowStatement slowStatement = slowStatements.get((int) (i % length));
+            if(slowStatement != null) {
+                result.add(slowStatement);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 各语句在各数据源的执行统计, 按总耗时倒序
+     * @return
+     */
+    public List<Map<String , Object>> getStatementStats() {
+        List<Map<String , Object>> result = new ArrayList<>();
+        statementMeters.forEach((statementId , shards) -> shards.forEach((shard , meters) -> {
+            HistogramSnapshot snapshot = meters.timer.takeSnapshot();
+            Map<String , Object> stats = new LinkedHashMap<>();
+            stats.put("statement" , statementId);
+            stats.put("shard" , shard);
+            stats.put("count" , snapshot.count());
+            stats.put("errors" , (long) meters.errors.count());
+            stats.put("totalMillis" , snapshot.total(TimeUnit.MILLISECONDS));
+            stats.put("meanMillis" , snapshot.mean(TimeUnit.MILLISECONDS));
+            stats.put("maxMillis" , snapshot.max(TimeUnit.MILLISECONDS));
+            stats.put("percentileMillis" , percentiles(snapshot , TimeUnit.MILLISECONDS));
+            stats.put("rows" , (long) meters.rows.totalAmount());
+            result.add(stats);
+        }));
+        result.sort(Comparator.comparing((Map<String , Object> stats) -> (Double) stats.get("totalMillis")).reversed());
+        return result;
+    }
+
+    /**
+     * 各语句的路由统计(微秒)
+     * @return
+     */
+    public Map<String , Map<String , Object>> getRoutingStats() {
+        Map<String , Map<String , Object>> result = new TreeMap<>();
+        routingTimers.forEach((statementId , timer) -> {
+            Map<String , Object> stats = new LinkedHashMap<>();
+            stats.put("count" , timer.count());
+            stats.put("meanMicros" , timer.mean(TimeUnit.MICROSECONDS));
+            stats.put("maxMicros" , timer.max(TimeUnit.MICROSECONDS));
+            result.put(statementId , stats);
+        });
+        return result;
+    }
+
+    /**
+     * 各路由缓存的命中与未命中次数
+     * @return
+     */
+    public Map<String , Map<String , Long>> getCacheStats() {
+        Map<String , Map<String , Long>> result = new TreeMap<>();
+        cacheCounters.forEach((cache , counters) -> {
+            Map<String , Long> stats = new LinkedHashMap<>();
+            stats.put("hit" , (long) counters[1].count());
+            stats.put("miss" , (long) counters[0].count());
+            result.put(cache , stats);
+        });
+        return result;
+    }
+
+    private static Map<String , Double> percentiles(HistogramSnapshot snapshot , TimeUnit unit) {
+        Map<String , Double> result = new LinkedHashMap<>();
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            result.put(String.valueOf(percentile.percentile()) , percentile.value(unit));
+        }
+        return result;
+    }
+
+    private final class StatementMeters {
+
+        private final Timer timer;
+
+        private final DistributionSummary rows;
+
+        private final Counter errors;
+
+        private StatementMeters(String statementId , String shard) {
+            Timer.Builder builder = Timer.builder(STATEMENT)
+                    .tag("statement" , statementId)
+                    .tag("shard" , shard)
+                    .publishPercentileHistogram(properties.isPercentileHistogram());
+            if(properties.getPercentiles() != null && properties.getPercentiles().length > 0) {
+                builder.publishPercentiles(properties.getPercentiles());
+            }
+            this.timer = builder.register(meterRegistry);
+            this.rows = DistributionSummary.builder(STATEMENT_ROWS)
+                    .tag("statement" , statementId)
+                    .tag("shard" , shard)
+                    .register(meterRegistry);
+            this.errors = Counter.builder(STATEMENT_ERRORS)
+                    .tag("statement" , statementId)
+                    .tag("shard" , shard)
+                    .register(meterRegistry);
+        }
+    }
+}
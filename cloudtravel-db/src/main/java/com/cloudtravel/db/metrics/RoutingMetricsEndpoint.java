@@ -0,0 +1,34 @@
+package com.cloudtravel.db.metrics;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 路由与语句执行指标端点: /actuator/dbrouting, 需在management.endpoints.web.exposure.include中开放.
+ * 同样的指标也以cloudtravel.db.*注册在MeterRegistry中, 由/actuator/metrics或监控系统采集
+ */
+@Component
+@Endpoint(id = "dbrouting")
+public class RoutingMetricsEndpoint {
+
+    private final RoutingMetrics routingMetrics;
+
+    public RoutingMetricsEndpoint(RoutingMetrics routingMetrics) {
+        this.routingMetrics = routingMetrics;
+    }
+
+    @ReadOperation
+    public Map<String , Object> metrics() {
+        Map<String , Object> result = new LinkedHashMap<>();
+        result.put("enabled" , routingMetrics.isEnabled());
+        result.put("statements" , routingMetrics.getStatementStats());
+        result.put("routing" , routingMetrics.getRoutingStats());
+        result.put("routingCache" , routingMetrics.getCacheStats());
+        result.put("slowStatements" , routingMetrics.getSlowStatements());
+        return result;
+    }
+}
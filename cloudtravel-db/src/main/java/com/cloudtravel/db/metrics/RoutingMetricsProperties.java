@@ -0,0 +1,31 @@
+package com.cloudtravel.db.metrics;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 路由与语句耗时指标配置
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.db.metrics")
+public class RoutingMetricsProperties {
+
+    /** 是否记录指标 */
+    private boolean enabled = true;
+
+    /** 执行耗时达到该值(毫秒)的语句记录sql, <0时不记录 */
+    private long slowThresholdMillis = 500L;
+
+    /** 保留最近的慢语句条数 */
+    private int slowSampleSize = 100;
+
+    /** 语句耗时在本地计算的百分位, 为空时不计算 */
+    private double[] percentiles = {0.5 , 0.95 , 0.99};
+
+    /** 是否发布百分位直方图(供Prometheus等聚合计算) */
+    private boolean percentileHistogram = false;
+}
@@ -0,0 +1,39 @@
+package com.cloudtravel.db.metrics;
+
+import lombok.Getter;
+
+/**
+ * 执行耗时超过阈值的一次语句
+ */
+@Getter
+public class SlowStatement {
+
+    /** MappedStatement id */
+    private final String statementId;
+
+    /** 执行的数据源key */
+    private final String shard;
+
+    private final long elapsedMillis;
+
+    /** 影响或返回的行数, 未知时为-1 */
+    private final int rows;
+
+    private final boolean success;
+
+    /** 带占位符的sql, 不含参数值 */
+    private final String sql;
+
+    /** 执行结束的时间 */
+    private final long timestamp;
+
+    SlowStatement(String statementId , String shard , long elapsedMillis , int rows , boolean success , String sql , long timestamp) {
+        this.statementId = statementId;
+        this.shard = shard;
+        this.elapsedMillis = elapsedMillis;
+        this.rows = rows;
+        this.success = success;
+        this.sql = sql;
+        this.timestamp = timestamp;
+    }
+}
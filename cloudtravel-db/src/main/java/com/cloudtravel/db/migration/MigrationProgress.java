@@ -0,0 +1,143 @@
+package com.cloudtravel.db.migration;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个租户迁移的进度: 所处阶段、复制行数、校验/修复情况以及双写次数
+ */
+public class MigrationProgress {
+
+    /**
+     * 迁移阶段
+     */
+    public enum Phase {
+
+        /** 按主键分页复制存量数据, 写操作只写源库 */
+        COPYING,
+
+        /** 追平阶段: 写操作同时写入源库和目标库 */
+        DUAL_WRITE,
+
+        /** 分块校验并修复不一致的数据 */
+        VERIFYING,
+
+        /** 暂停该租户的写操作并切换路由 */
+        CUTOVER,
+
+        /** 已切换到目标库 */
+        DONE,
+
+        FAILED
+    }
+
+    private final String tenantId;
+
+    private final String source;
+
+    private final String target;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile Phase phase = Phase.COPYING;
+
+    private volatile long endTime;
+
+    private volatile String message;
+
+    final LongAdder copiedRows = new LongAdder();
+
+    final LongAdder verifiedChunks = new LongAdder();
+
+    final LongAdder mismatchedChunks = new LongAdder();
+
+    final LongAdder repairedRows = new LongAdder();
+
+    final LongAdder dualWrites = new LongAdder();
+
+    final LongAdder dualWriteFailures = new LongAdder();
+
+    MigrationProgress(String tenantId , String source , String target) {
+        this.tenantId = tenantId;
+        this.source = source;
+        this.target = target;
+    }
+
+    void phase(Phase phase) {
+        this.phase = phase;
+        if(phase == Phase.DONE || phase == Phase.FAILED) {
+            this.endTime = System.currentTimeMillis();
+        }
+    }
+
+    void fail(String message) {
+        this.message = message;
+        phase(Phase.FAILED);
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /** 失败原因 */
+    public String getMessage() {
+        return message;
+    }
+
+    public long getCopiedRows() {
+        return copiedRows.sum();
+    }
+
+    public long getVerifiedChunks() {
+        return verifiedChunks.sum();
+    }
+
+    public long getMismatchedChunks() {
+        return mismatchedChunks.sum();
+    }
+
+    public long getRepairedRows() {
+        return repairedRows.sum();
+    }
+
+    public long getDualWrites() {
+        return dualWrites.sum();
+    }
+
+    /** 目标库双写失败次数, 失败的数据由校验修复 */
+    public long getDualWriteFailures() {
+        return dualWriteFailures.sum();
+    }
+
+    /** 已用时间(毫秒) */
+    public long getElapsedMillis() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /** 平均复制速度(行/秒) */
+    public long getCopyRowsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : getCopiedRows() * 1000 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "tenantId=" + tenantId + ",source=" + source + ",target=" + target + ",phase=" + phase
+                + ",copiedRows=" + getCopiedRows() + ",copyRowsPerSecond=" + getCopyRowsPerSecond()
+                + ",verifiedChunks=" + getVerifiedChunks() + ",mismatchedChunks=" + getMismatchedChunks()
+                + ",repairedRows=" + getRepairedRows() + ",dualWrites=" + getDualWrites()
+                + ",dualWriteFailures=" + getDualWriteFailures() + ",elapsedMillis=" + getElapsedMillis()
+                + (message == null ? "" : ",message=" + message);
+    }
+}
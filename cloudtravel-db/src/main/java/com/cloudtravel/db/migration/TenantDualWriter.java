@@ -0,0 +1,176 @@
+package com.cloudtravel.db.migration;
+
+import com.cloudtravel.db.config.DynamicDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Invocation;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 迁移中租户的写操作: 由SqlDbRoutingInterceptor在路由后调用.
+ * 写操作持有该租户的读锁(有事务时持有到事务结束), 切换路由时持有写锁, 保证切换前的写入都已提交并参与最后一轮校验;
+ * 追平阶段在源库执行成功(有事务时为提交)后, 按同样的sql和参数写入目标库, 目标库失败时只计数, 由校验修复
+ */
+@Slf4j
+@Component
+public class TenantDualWriter {
+
+    private final DynamicDataSource dynamicDataSource;
+
+    private final Map<String , MigratingTenant> tenants = new ConcurrentHashMap<>();
+
+    public TenantDualWriter(@Qualifier("dynamicDataSource") DynamicDataSource dynamicDataSource) {
+        this.dynamicDataSource = dynamicDataSource;
+    }
+
+    /**
+     * 执行写操作, 租户不在迁移中时直接执行
+     * @param invocation
+     * @param mappedStatement
+     * @param param
+     * @param tenantId 路由得到的租户, 公共表为null
+     * @param reroute 等待切换后重新路由
+     * @return
+     */
+    public Object proceed(Invocation invocation , MappedStatement mappedStatement , Object param , String tenantId ,
+                          Callable<String> reroute) throws Throwable {
+        MigratingTenant tenant = tenantId == null || tenants.isEmpty() ? null : tenants.get(tenantId);
+        if(tenant == null) {
+            return invocation.proceed();
+        }
+        boolean holdUntilCompletion = lock(tenant);
+        try {
+            if(tenant.switched) {
+                //等待期间已切换到目标库, 之前的路由结果作废
+                reroute.call();
+                return invocation.proceed();
+            }
+            Object result = invocation.proceed();
+            if(tenant.dualWrite) {
+                //执行后再生成sql: 自增主键已回填到参数中, 目标库使用相同的主键
+                BoundSql boundSql = mappedStatement.getBoundSql(param);
+                if(TransactionSynchronizationManager.isSynchronizationActive()) {
+                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public void afterCommit() {
+                            replay(tenant , mappedStatement , param , boundSql);
+                        }
+                    });
+                }else {
+                    replay(tenant , mappedStatement , param , boundSql);
+                }
+            }
+            return result;
+        } finally {
+            if(!holdUntilCompletion) {
+                tenant.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 加读锁, 有事务时注册到事务结束再释放: 未提交的写入在切换后才提交会留在源库
+     * @return 是否持有到事务结束
+     */
+    private boolean lock(MigratingTenant tenant) {
+        tenant.lock.readLock().lock();
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                tenant.lock.readLock().unlock();
+            }
+        });
+        return true;
+    }
+
+    private void replay(MigratingTenant tenant , MappedStatement mappedStatement , Object param , BoundSql boundSql) {
+        try (Connection connection = getDataSource(tenant.progress.getTarget()).getConnection();
+             PreparedStatement statement = connection.prepareStatement(boundSql.getSql())) {
+            mappedStatement.getConfiguration().newParameterHandler(mappedStatement , param , boundSql).setParameters(statement);
+            statement.executeUpdate();
+            tenant.progress.dualWrites.increment();
+        } catch (Exception e) {
+            tenant.progress.dualWriteFailures.increment();
+            log.warn("租户迁移双写失败,等待校验修复,tenantId={},sqlId={},message={}" ,
+                    tenant.progress.getTenantId() , mappedStatement.getId() , e.getMessage());
+        }
+    }
+
+    /**
+     * 根据key获取数据源
+     * @param dataSourceKey
+     * @return
+     */
+    DataSource getDataSource(String dataSourceKey) {
+        Object dataSource = dynamicDataSource.getResolvedDataSources().get(dataSourceKey);
+        if(!(dataSource instanceof DataSource)) {
+            throw new IllegalStateException("Unknown data source [" + dataSourceKey + "] , available : "
+                    + dynamicDataSource.getResolvedDataSources().keySet());
+        }
+        return (DataSource) dataSource;
+    }
+
+    /**
+     * 租户是否在迁移中(已开始且未结束)
+     * @param tenantId
+     * @return
+     */
+    public boolean isMigrating(String tenantId) {
+        return !tenants.isEmpty() && tenants.containsKey(tenantId);
+    }
+
+    MigratingTenant register(MigrationProgress progress) {
+        MigratingTenant tenant = new MigratingTenant(progress);
+        if(tenants.putIfAbsent(progress.getTenantId() , tenant) != null) {
+            throw new IllegalStateException("Tenant " + progress.getTenantId() + " is already migrating");
+        }
+        return tenant;
+    }
+
+    MigratingTenant get(String tenantId) {
+        MigratingTenant tenant = tenants.get(tenantId);
+        if(tenant == null) {
+            throw new IllegalStateException("Tenant " + tenantId + " is not migrating");
+        }
+        return tenant;
+    }
+
+    void unregister(String tenantId) {
+        tenants.remove(tenantId);
+    }
+
+    /**
+     * 迁移中的租户
+     */
+    static final class MigratingTenant {
+
+        final MigrationProgress progress;
+
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /** 写操作是否同时写入目标库 */
+        volatile boolean dualWrite;
+
+        /** 路由是否已切换到目标库 */
+        volatile boolean switched;
+
+        MigratingTenant(MigrationProgress progress) {
+            this.progress = progress;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.cloudtravel.db.migration;
+
+import com.cloudtravel.common.jdbc.Rows;
+import com.cloudtravel.common.jdbc.RowSyncHelper;
+import com.cloudtravel.db.migration.MigrationProgress.Phase;
+import com.cloudtravel.db.migration.TenantDualWriter.MigratingTenant;
+import com.cloudtravel.db.migration.TenantMigrationProperties.Table;
+import com.cloudtravel.db.router.DefaultTenantRouter;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线迁移单个租户到另一个数据源:
+ * 1. 复制: 按主键分页(主键 > 上一批最大值)把源库数据写入目标库, 已存在的行先删后插;
+ * 2. 双写: 之后的写操作同时写入目标库(见TenantDualWriter);
+ * 3. 校验: 以源库每batchSize行为一块, 比较两边同一主键区间的行数和CRC32, 不一致时按源库修复;
+ * 4. 切换: 暂停该租户的写操作, 再校验一轮后修改路由表(DefaultTenantRouter.putOverride), 之后的读写都到目标库.
+ * 源库数据保留, 确认后另行清理. 要求主键在各数据源间不重复, 目标库已有其他租户的相同主键时迁移失败.
+ * 双写和路由表只在当前节点生效, 多节点部署时需每个节点都执行切换(或改用外部路由配置文件)
+ */
+@Slf4j
+@Component
+public class TenantMigrationJob {
+
+    private final TenantMigrationProperties properties;
+
+    private final DefaultTenantRouter tenantRouter;
+
+    private final TenantDualWriter dualWriter;
+
+    private final RateLimiter rateLimiter;
+
+    private final Map<String , MigrationProgress> progresses = new ConcurrentHashMap<>();
+
+    public TenantMigrationJob(TenantMigrationProperties properties , DefaultTenantRouter tenantRouter , TenantDualWriter dualWriter) {
+        this.properties = properties;
+        this.tenantRouter = tenantRouter;
+        this.dualWriter = dualWriter;
+        this.rateLimiter = RateLimiter.create(properties.getRowsPerSecond());
+    }
+
+    /**
+     * 完整迁移: 复制、开启双写、校验修复、切换, 任一步失败时停止双写, 路由不变
+     * @param tenantId
+     * @param target 目标数据源key
+     * @return
+     */
+    public MigrationProgress migrate(String tenantId , String target) {
+        MigrationProgress progress = start(tenantId , target);
+        try {
+            copy(tenantId);
+            startDualWrite(tenantId);
+            if(!verify(tenantId)) {
+                throw new IllegalStateException("Tenant " + tenantId + " still inconsistent after " + properties.getVerifyRounds() + " verify rounds");
+            }
+            cutover(tenantId);
+        } catch (RuntimeException e) {
+            abort(tenantId , e.getMessage());
+            throw e;
+        }
+        return progress;
+    }
+
+    /**
+     * 登记迁移, 源数据源为当前路由结果
+     * @param tenantId
+     * @param target
+     * @return
+     */
+    public MigrationProgress start(String tenantId , String target) {
+        checkTables();
+        String source = tenantRouter.route(tenantId);
+        if(source.equals(target)) {
+            throw new IllegalStateException("Tenant " + tenantId + " is already on " + target);
+        }
+        dualWriter.getDataSource(target);
+        MigrationProgress progress = new MigrationProgress(tenantId , source , target);
+        dualWriter.register(progress);
+        progresses.put(tenantId , progress);
+        log.info("租户迁移开始,tenantId={},source={},target={}" , tenantId , source , target);
+        return progress;
+    }
+
+    /**
+     * 按主键分页复制存量数据
+     * @param tenantId
+     */
+    public void copy(String tenantId) {
+        MigratingTenant tenant = dualWriter.get(tenantId);
+        MigrationProgress progress = tenant.progress;
+        progress.phase(Phase.COPYING);
+        DataSource source = dualWriter.getDataSource(progress.getSource());
+        DataSource target = dualWriter.getDataSource(progress.getTarget());
+        for (Table table : properties.getTables()) {
+            Object lastKey = null;
+            while (true) {
+                Rows rows = select(source , table , tenantId , lastKey , null , properties.getBatchSize());
+                if(rows.isEmpty()) {
+                    break;
+                }
+                write(target , table , tenantId , rows , rows.getValues() , rows.keys());
+                progress.copiedRows.add(rows.size());
+                if(rows.size() < properties.getBatchSize()) {
+                    break;
+                }
+                lastKey = rows.lastKey();
+            }
+            log.info("租户表复制完成,table={},{}" , table.getName() , progress);
+        }
+    }
+
+    /**
+     * 开启双写, 之后写入源库的数据同时写入目标库
+     * @param tenantId
+     */
+    public void startDualWrite(String tenantId) {
+        MigratingTenant tenant = dualWriter.get(tenantId);
+        tenant.dualWrite = true;
+        tenant.progress.phase(Phase.DUAL_WRITE);
+        log.info("租户迁移开启双写,tenantId={}" , tenantId);
+    }
+
+    /**
+     * 分块校验并修复, 直到某一轮全部一致
+     * @param tenantId
+     * @return 是否在verifyRounds轮内达到一致
+     */
+    public boolean verify(String tenantId) {
+        MigratingTenant tenant = dualWriter.get(tenantId);
+        tenant.progress.phase(Phase.VERIFYING);
+        try {
+            for (int round = 0; round < properties.getVerifyRounds(); round++) {
+                long mismatched = verifyAndRepair(tenant);
+                log.info("租户迁移校验,round={},mismatchedChunks={},{}" , round , mismatched , tenant.progress);
+                if(mismatched == 0) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            tenant.progress.phase(tenant.dualWrite ? Phase.DUAL_WRITE : Phase.COPYING);
+        }
+    }
+
+    /**
+     * 切换路由: 等待该租户正在执行的写操作结束并暂停新的写操作, 最后校验修复一轮, 修复后必须一致才修改路由表
+     * @param tenantId
+     */
+    public void cutover(String tenantId) {
+        MigratingTenant tenant = dualWriter.get(tenantId);
+        MigrationProgress progress = tenant.progress;
+        if(!tenant.dualWrite) {
+            throw new IllegalStateException("Tenant " + tenantId + " dual write not started");
+        }
+        boolean locked;
+        try {
+            locked = tenant.lock.writeLock().tryLock(properties.getCutoverTimeoutMillis() , TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tenant " + tenantId + " cutover interrupted" , e);
+        }
+        if(!locked) {
+            throw new IllegalStateException("Tenant " + tenantId + " writes not finished in "
+                    + properties.getCutoverTimeoutMillis() + "ms , cutover aborted");
+        }
+        try {
+            progress.phase(Phase.CUTOVER);
+            //写操作已暂停, 源库不再变化
+            if(verifyAndRepair(tenant) > 0 && verifyAndRepair(tenant) > 0) {
+                throw new IllegalStateException("Tenant " + tenantId + " still inconsistent after repair");
+            }
+            tenantRouter.putOverride(tenantId , progress.getTarget());
+            tenant.switched = true;
+            tenant.dualWrite = false;
+            progress.phase(Phase.DONE);
+        } catch (RuntimeException e) {
+            progress.phase(Phase.DUAL_WRITE);
+            throw e;
+        } finally {
+            tenant.lock.writeLock().unlock();
+        }
+        dualWriter.unregister(tenantId);
+        log.info("租户迁移完成,{}" , progress);
+    }
+
+    /**
+     * 放弃迁移, 停止双写, 路由不变, 目标库已写入的数据保留
+     * @param tenantId
+     * @param message
+     */
+    public void abort(String tenantId , String message) {
+        dualWriter.unregister(tenantId);
+        MigrationProgress progress = progresses.get(tenantId);
+        if(progress != null && progress.getPhase() != Phase.DONE) {
+            progress.fail(message);
+            log.warn("租户迁移终止,{}" , progress);
+        }
+    }
+
+    /**
+     * 租户最近一次迁移的进度
+     * @param tenantId
+     * @return
+     */
+    public MigrationProgress getProgress(String tenantId) {
+        return progresses.get(tenantId);
+    }
+
+    public Map<String , MigrationProgress> getProgresses() {
+        return progresses;
+    }
+
+    /**
+     * 校验一轮: 以源库每batchSize行为一块, 最后一块不设上界(包含目标库多出的行)
+     * @return 不一致的块数
+     */
+    private long verifyAndRepair(MigratingTenant tenant) {
+        MigrationProgress progress = tenant.progress;
+        String tenantId = progress.getTenantId();
+        DataSource source = dualWriter.getDataSource(progress.getSource());
+        DataSource target = dualWriter.getDataSource(progress.getTarget());
+        long mismatched = 0;
+        for (Table table : properties.getTables()) {
+            Object lowerKey = null;
+            while (true) {
+                Rows sourceRows = select(source , table , tenantId , lowerKey , null , properties.getBatchSize());
+                Object upperKey = sourceRows.size() < properties.getBatchSize() ? null : sourceRows.lastKey();
+                Rows targetRows = select(target , table , tenantId , lowerKey , upperKey , 0);
+                progress.verifiedChunks.increment();
+                if(sourceRows.size() != targetRows.size() || sourceRows.checksum() != targetRows.checksum()) {
+                    mismatched ++;
+                    progress.mismatchedChunks.increment();
+                    repair(target , table , tenantId , sourceRows , targetRows , progress);
+                }
+                if(upperKey == null) {
+                    break;
+                }
+                lowerKey = upperKey;
+            }
+        }
+        return mismatched;
+    }
+
+    /**
+     * 按行比较后修复: 目标库缺少或不同的行重新写入, 源库已没有的行删除
+     */
+    private void repair(DataSource target , Table table , String tenantId , Rows sourceRows , Rows targetRows , MigrationProgress progress) {
+        Map<String , Long> targetChecksums = new HashMap<>();
+        for (Object[] row : targetRows.getValues()) {
+            targetChecksums.put(String.valueOf(targetRows.key(row)) , RowSyncHelper.checksum(row));
+        }
+        List<Object[]> changed = new ArrayList<>();
+        List<Object> deleteKeys = new ArrayList<>();
+        for (Object[] row : sourceRows.getValues()) {
+            Object key = sourceRows.key(row);
+            Long targetChecksum = targetChecksums.remove(String.valueOf(key));
+            if(targetChecksum == null || targetChecksum != RowSyncHelper.checksum(row)) {
+                changed.add(row);
+                deleteKeys.add(key);
+            }
+        }
+        for (Object[] row : targetRows.getValues()) {
+            if(targetChecksums.containsKey(String.valueOf(targetRows.key(row)))) {
+                deleteKeys.add(targetRows.key(row));
+            }
+        }
+        write(target , table , tenantId , sourceRows , changed , deleteKeys);
+        progress.repairedRows.add(changed.size() + targetChecksums.size());
+        log.info("租户迁移修复,table={},tenantId={},rewrite={},delete={}" , table.getName() , tenantId , changed.size() , targetChecksums.size());
+    }
+
+    /**
+     * 在一个事务中删除该租户的指定主键并插入新行
+     */
+    private void write(DataSource dataSource , Table table , String tenantId , Rows rows , List<Object[]> values , List<Object> deleteKeys) {
+        if(values.isEmpty() && deleteKeys.isEmpty()) {
+            return;
+        }
+        String deleteSql = "DELETE FROM " + table.getName() + " WHERE " + table.getPrimaryKey() + " = ? AND " + table.getTenantColumn() + " = ?";
+        List<Object[]> deleteParams = new ArrayList<>(deleteKeys.size());
+        for (Object key : deleteKeys) {
+            deleteParams.add(new Object[]{key , tenantParam(tenantId)});
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            RowSyncHelper.deleteAndInsert(connection , deleteSql , deleteParams ,
+                    RowSyncHelper.insertSql(table.getName() , rows.getColumns()) , values);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Write " + table.getName() + " failed , tenantId = " + tenantId , e);
+        }
+    }
+
+    /**
+     * 按主键顺序查询该租户 (fromKey , toKey] 区间的行, 并按读取行数限流
+     * @param limit 为0时不限制
+     */
+    private Rows select(DataSource dataSource , Table table , String tenantId , Object fromKey , Object toKey , int limit) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(table.getName())
+                .append(" WHERE ").append(table.getTenantColumn()).append(" = ?");
+        if(fromKey != null) {
+            sql.append(" AND ").append(table.getPrimaryKey()).append(" > ?");
+        }
+        if(toKey != null) {
+            sql.append(" AND ").append(table.getPrimaryKey()).append(" <= ?");
+        }
+        sql.append(" ORDER BY ").append(table.getPrimaryKey());
+        if(limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        Rows rows;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            statement.setObject(index ++ , tenantParam(tenantId));
+            if(fromKey != null) {
+                statement.setObject(index ++ , fromKey);
+            }
+            if(toKey != null) {
+                statement.setObject(index , toKey);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                rows = Rows.read(resultSet , table.getName() , table.getPrimaryKey());
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Select " + table.getName() + " failed , tenantId = " + tenantId , e);
+        }
+        rateLimiter.acquire(Math.max(rows.size() , 1));
+        return rows;
+    }
+
+    private void checkTables() {
+        if(properties.getTables().isEmpty()) {
+            throw new IllegalStateException("No table configured of cloudtravel.db.migration.tables");
+        }
+        //表名、列名会拼接进sql
+        for (Table table : properties.getTables()) {
+            for (String identifier : new String[]{table.getName() , table.getPrimaryKey() , table.getTenantColumn()}) {
+                if(!RowSyncHelper.isIdentifier(identifier)) {
+                    throw new IllegalStateException("Invalid migration table config : " + table.getName() + "." + identifier);
+                }
+            }
+        }
+    }
+
+    private static Object tenantParam(String tenantId) {
+        return StringUtils.isNumeric(tenantId) ? (Object) Long.valueOf(tenantId) : tenantId;
+    }
+}
@@ -0,0 +1,48 @@
+package com.cloudtravel.db.migration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 租户迁移配置
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.db.migration")
+public class TenantMigrationProperties {
+
+    /** 每批复制/校验的行数 */
+    private int batchSize = 500;
+
+    /** 复制、校验、修复合计每秒最多读取的行数, 避免影响线上业务 */
+    private double rowsPerSecond = 2000D;
+
+    /** 校验不一致时最多修复并重新校验的轮数 */
+    private int verifyRounds = 3;
+
+    /** 切换时等待该租户正在执行的写操作(含未提交事务)结束的最长时间(毫秒) */
+    private long cutoverTimeoutMillis = 5000L;
+
+    /** 需要迁移的租户表 */
+    private List<Table> tables = new ArrayList<>();
+
+    /**
+     * 租户表: 按主键分页复制, 按租户列筛选
+     */
+    @Getter
+    @Setter
+    public static class Table {
+
+        private String name;
+
+        private String primaryKey;
+
+        private String tenantColumn = "TENANT_ID";
+    }
+}
@@ -1,8 +1,11 @@
 package com.cloudtravel.db.model;
 
+import com.cloudtravel.db.annotation.TenantKey;
+
 public class DbSpModel {
     private Long spId;
 
+    @TenantKey
     private Long tenantId;
 
     private Long bizId;
@@ -0,0 +1,32 @@
+package com.cloudtravel.db.replica;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 读写分离配置. 从库按 datasource.{主库key}.replicas.{从库名}.* 配置, 未配置的属性与主库相同.
+ * 心跳表需在主库创建并同步到从库: create table t_db_heartbeat (ID INT PRIMARY KEY , TS BIGINT NOT NULL)
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.db.replica")
+public class ReplicaProperties {
+
+    /** 是否把事务外的查询路由到从库 */
+    private boolean enabled = true;
+
+    /** 从库延迟超过该值(毫秒)时不再读取, 恢复后自动加回 */
+    private long maxLagMillis = 1000L;
+
+    /** 心跳间隔(毫秒), 延迟的精度为一个间隔; <=0时不检测, 从库始终不可用 */
+    private long heartbeatIntervalMillis = 500L;
+
+    /** 心跳表 */
+    private String heartbeatTable = "t_db_heartbeat";
+
+    /** 当前线程写入某个主库后, 该时间(毫秒)内对该主库的查询仍走主库, 以读到自己的写入 */
+    private long readYourWritesMillis = 1000L;
+}
@@ -0,0 +1,312 @@
+package com.cloudtravel.db.replica;
+
+import com.cloudtravel.db.config.DynamicDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * 读写分离: 从库以 主库key#从库名 注册在DynamicDataSource中.
+ * 事务外的查询在可用的从库中选择当前执行中查询最少的一个(相同时轮询), 写入和事务内的查询走主库;
+ * 心跳线程定时在主库写入当前时间并从各从库读取, 延迟超过maxLagMillis或读取失败的从库暂停使用;
+ * 线程写入主库后readYourWritesMillis内对该主库的查询仍走主库
+ */
+@Slf4j
+@Component
+public class ReplicaRouter implements InitializingBean, DisposableBean {
+
+    public static final String REPLICA_SEPARATOR = "#";
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z0-9_]+");
+
+    private static final int HEARTBEAT_ID = 1;
+
+    private final ReplicaProperties properties;
+
+    private final DynamicDataSource dynamicDataSource;
+
+    /** 主库key -> 从库 */
+    private final Map<String , Replica[]> shardReplicas = new HashMap<>();
+
+    /** 从库key -> 从库 */
+    private final Map<String , Replica> replicas = new HashMap<>();
+
+    /** 主库key -> 本实例最近写入的心跳时间 */
+    private final Map<String , Long> heartbeats = new HashMap<>();
+
+    /** 当前线程 主库key -> 最近一次写入时间 */
+    private final ThreadLocal<Map<String , Long>> lastWrites = ThreadLocal.withInitial(HashMap::new);
+
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    private ScheduledExecutorService heartbeatExecutor;
+
+    public ReplicaRouter(ReplicaProperties properties , @Qualifier("dynamicDataSource") DynamicDataSource dynamicDataSource) {
+        this.properties = properties;
+        this.dynamicDataSource = dynamicDataSource;
+    }
+
+    /**
+     * 从库的数据源key
+     * @param shard 主库key
+     * @param name 从库名
+     * @return
+     */
+    public static String replicaKey(String shard , String name) {
+        return shard + REPLICA_SEPARATOR + name;
+    }
+
+    public static boolean isReplica(String dataSourceKey) {
+        return dataSourceKey.contains(REPLICA_SEPARATOR);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(IDENTIFIER.matcher(properties.getHeartbeatTable()).matches() ,
+                "Invalid heartbeat table : " + properties.getHeartbeatTable());
+        Map<String , List<Replica>> grouped = new TreeMap<>();
+        for (Object key : dynamicDataSource.getResolvedDataSources().keySet()) {
+            String dataSourceKey = String.valueOf(key);
+            if(isReplica(dataSourceKey)) {
+                String shard = dataSourceKey.substring(0 , dataSourceKey.indexOf(REPLICA_SEPARATOR));
+                Replica replica = new Replica(dataSourceKey);
+                grouped.computeIfAbsent(shard , k -> new ArrayList<>()).add(replica);
+                replicas.put(dataSourceKey , replica);
+            }
+        }
+        grouped.forEach((shard , list) -> shardReplicas.put(shard , list.toArray(new Replica[0])));
+        if(shardReplicas.isEmpty()) {
+            return;
+        }
+        log.info("Replicas registered : {}" , new TreeMap<>(replicas).keySet());
+        if(properties.getHeartbeatIntervalMillis() > 0) {
+            heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r , "replica-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat , 0L , properties.getHeartbeatIntervalMillis() , TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if(heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 为查询选择从库, 选中的从库执行中查询数加一, 查询结束后需调用release
+     * @param shard 路由得到的主库key
+     * @return 从库key, 没有可用从库或应读主库时为null
+     */
+    public String acquireRead(String shard) {
+        Replica[] candidates = shardReplicas.get(shard);
+        if(candidates == null || !properties.isEnabled() || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        Long lastWrite = lastWrites.get().get(shard);
+        if(lastWrite != null && System.currentTimeMillis() - lastWrite < properties.getReadYourWritesMillis()) {
+            return null;
+        }
+        Replica selected = null;
+        int selectedOutstanding = Integer.MAX_VALUE;
+        int start = candidates.length > 1 ? Math.floorMod(rotation.getAndIncrement() , candidates.length) : 0;
+        for (int i = 0; i < candidates.length; i++) {
+            Replica replica = candidates[(start + i) % candidates.length];
+            int outstanding = replica.outstanding.get();
+            if(replica.available && outstanding < selectedOutstanding) {
+                selected = replica;
+                selectedOutstanding = outstanding;
+            }
+        }
+        if(selected == null) {
+            return null;
+        }
+        selected.outstanding.incrementAndGet();
+        return selected.key;
+    }
+
+    /**
+     * 从库查询结束
+     * @param replicaKey acquireRead的返回值
+     */
+    public void release(String replicaKey) {
+        Replica replica = replicas.get(replicaKey);
+        if(replica != null) {
+            replica.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * 当前线程写入了主库
+     * @param shard
+     */
+    public void markWrite(String shard) {
+        if(shardReplicas.containsKey(shard)) {
+            lastWrites.get().put(shard , System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 检测一次从库延迟: 先读取各从库的心跳, 已包含本实例上次写入的心跳时延迟为0, 否则为当前时间减去从库中的心跳时间;
+     * 再向主库写入新的心跳. 启动后第一次只写入, 从库在第二次检测通过后才开始使用
+     */
+    public synchronized void heartbeat() {
+        for (Map.Entry<String , Replica[]> entry : shardReplicas.entrySet()) {
+            String shard = entry.getKey();
+            Long lastHeartbeat = heartbeats.get(shard);
+            if(lastHeartbeat != null) {
+                for (Replica replica : entry.getValue()) {
+                    checkLag(replica , lastHeartbeat);
+                }
+            }
+            try {
+                long now = System.currentTimeMillis();
+                writeHeartbeat(getDataSource(shard) , now);
+                heartbeats.put(shard , now);
+            } catch (SQLException | RuntimeException e) {
+                //保留上次的心跳时间, 主库恢复前从库的延迟按上次心跳计算并持续增长
+                log.warn("Write heartbeat failed , dataSource = {} , message = {}" , shard , e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 各从库最近一次检测的延迟(毫秒), 未检测或读取失败时为-1
+     * @return
+     */
+    public Map<String , Long> getLags() {
+        Map<String , Long> lags = new TreeMap<>();
+        replicas.values().forEach(replica -> lags.put(replica.key , replica.lagMillis));
+        return lags;
+    }
+
+    /**
+     * 各从库执行中的查询数
+     * @return
+     */
+    public Map<String , Integer> getOutstanding() {
+        Map<String , Integer> outstanding = new TreeMap<>();
+        replicas.values().forEach(replica -> outstanding.put(replica.key , replica.outstanding.get()));
+        return outstanding;
+    }
+
+    /**
+     * 主库的所有从库key
+     * @param shard
+     * @return
+     */
+    public List<String> replicas(String shard) {
+        Replica[] candidates = shardReplicas.get(shard);
+        if(candidates == null) {
+            return Collections.emptyList();
+        }
+        List<String> keys = new ArrayList<>(candidates.length);
+        for (Replica replica : candidates) {
+            keys.add(replica.key);
+        }
+        return keys;
+    }
+
+    private void checkLag(Replica replica , long lastHeartbeat) {
+        boolean available;
+        try {
+            long heartbeat = readHeartbeat(getDataSource(replica.key));
+            replica.lagMillis = heartbeat >= lastHeartbeat ? 0L : Math.max(System.currentTimeMillis() - heartbeat , 0L);
+            available = replica.lagMillis <= properties.getMaxLagMillis();
+        } catch (SQLException | RuntimeException e) {
+            replica.lagMillis = -1L;
+            available = false;
+            log.warn("Read heartbeat failed , dataSource = {} , message = {}" , replica.key , e.getMessage());
+        }
+        if(available != replica.available) {
+            replica.available = available;
+            if(available) {
+                log.info("Replica available , dataSource = {} , lagMillis = {}" , replica.key , replica.lagMillis);
+            }else {
+                log.warn("Replica sidelined , dataSource = {} , lagMillis = {} , maxLagMillis = {}" ,
+                        replica.key , replica.lagMillis , properties.getMaxLagMillis());
+            }
+        }
+    }
+
+    private void writeHeartbeat(DataSource dataSource , long now) throws SQLException {
+        String table = properties.getHeartbeatTable();
+        try (Connection connection = dataSource.getConnection()) {
+            int updated;
+            try (PreparedStatement statement = connection.prepareStatement("update " + table + " set TS = ? where ID = ?")) {
+                statement.setLong(1 , now);
+                statement.setInt(2 , HEARTBEAT_ID);
+                updated = statement.executeUpdate();
+            }
+            if(updated == 0) {
+                try (PreparedStatement statement = connection.prepareStatement("insert into " + table + " (ID , TS) values (? , ?)")) {
+                    statement.setInt(1 , HEARTBEAT_ID);
+                    statement.setLong(2 , now);
+                    statement.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private long readHeartbeat(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("select TS from " + properties.getHeartbeatTable() + " where ID = ?")) {
+            statement.setInt(1 , HEARTBEAT_ID);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if(!resultSet.next()) {
+                    throw new SQLException("Heartbeat not replicated yet");
+                }
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private DataSource getDataSource(String dataSourceKey) {
+        DataSource dataSource = dynamicDataSource.getResolvedDataSources().get(dataSourceKey);
+        if(dataSource == null) {
+            throw new IllegalStateException("Unknown data source [" + dataSourceKey + "]");
+        }
+        return dataSource;
+    }
+
+    private static final class Replica {
+
+        private final String key;
+
+        /** 执行中的查询数 */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /** 心跳检测通过前不可用 */
+        private volatile boolean available;
+
+        private volatile long lagMillis = -1L;
+
+        private Replica(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.cloudtravel.db.router;
+
+import com.cloudtravel.db.config.DataSourceContext;
+import com.cloudtravel.db.config.DynamicDataSource;
+import com.cloudtravel.db.replica.ReplicaRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按配置生成路由表的租户路由, 启动后注册到DataSourceContext.
+ * 路由表可通过reload整体替换, 或通过putOverride/removeOverride调整单个租户;
+ * 配置了外部文件时定时检查文件是否修改, 修改后按文件内容重建路由表(文件为完整配置).
+ * 通过putOverride指定的租户(如迁移切换)在重建后保留, 除非新配置中也指定了该租户, 此时以配置为准
+ */
+@Slf4j
+@Component
+public class DefaultTenantRouter implements TenantRouter, InitializingBean, DisposableBean {
+
+    private final TenantRouterProperties properties;
+
+    private final Set<String> dataSourceKeys;
+
+    private volatile TenantRoutingTable table;
+
+    /** 通过putOverride指定的租户 -> 数据源key, 只在synchronized方法中访问 */
+    private final Map<String , String> runtimeOverrides = new HashMap<>();
+
+    private ScheduledExecutorService reloadExecutor;
+
+    private long lastModified;
+
+    public DefaultTenantRouter(TenantRouterProperties properties ,
+                               @Qualifier("dynamicDataSource") DynamicDataSource dynamicDataSource) {
+        this.properties = properties;
+        Set<String> keys = new TreeSet<>();
+        //从库不参与租户路由
+        dynamicDataSource.getResolvedDataSources().keySet().stream().map(String::valueOf)
+                .filter(key -> !ReplicaRouter.isReplica(key)).forEach(keys::add);
+        this.dataSourceKeys = Collections.unmodifiableSet(keys);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        reload(properties);
+        if(StringUtils.isNotBlank(properties.getLocation())) {
+            reloadFromLocation();
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r , "tenant-router-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloadExecutor.scheduleWithFixedDelay(this::reloadFromLocation , properties.getReloadIntervalMillis() ,
+                    properties.getReloadIntervalMillis() , TimeUnit.MILLISECONDS);
+        }
+        DataSourceContext.setTenantRouter(this);
+    }
+
+    @Override
+    public void destroy() {
+        if(reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public String route(String tenantId) {
+        return table.route(tenantId);
+    }
+
+    @Override
+    public List<String> shards() {
+        return table.shards();
+    }
+
+    /**
+     * 按新配置重建路由表, 配置有误时抛出异常并保留原路由表.
+     * 之前通过putOverride指定的租户继续生效, 新配置中显式指定的租户以配置为准
+     * @param routerProperties
+     */
+    public synchronized void reload(TenantRouterProperties routerProperties) {
+        TenantRoutingTable newTable = TenantRoutingTable.build(routerProperties , dataSourceKeys);
+        Iterator<Map.Entry<String , String>> iterator = runtimeOverrides.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String , String> entry = iterator.next();
+            String configured = routerProperties.getOverrides().get(entry.getKey());
+            if(configured != null) {
+                iterator.remove();
+                log.info("租户路由指定被配置覆盖,tenantId={},dataSource={},configured={}" , entry.getKey() , entry.getValue() , configured);
+            }else {
+                newTable = newTable.withOverride(entry.getKey() , entry.getValue());
+            }
+        }
+        this.table = newTable;
+        log.info("租户路由表已加载,strategy={},shards={},overrides={}" , newTable.getStrategy() , newTable.shards() , newTable.getOverrides());
+    }
+
+    /**
+     * 指定租户所在的数据源, 用于迁移热点租户
+     * @param tenantId
+     * @param dataSourceKey
+     */
+    public synchronized void putOverride(String tenantId , String dataSourceKey) {
+        if(!dataSourceKeys.contains(dataSourceKey)) {
+            throw new IllegalStateException("Unknown data source [" + dataSourceKey + "] in tenant router , available : " + dataSourceKeys);
+        }
+        this.table = table.withOverride(tenantId , dataSourceKey);
+        runtimeOverrides.put(tenantId , dataSourceKey);
+        log.info("租户路由指定,tenantId={},dataSource={}" , tenantId , dataSourceKey);
+    }
+
+    /**
+     * 取消指定, 租户恢复按策略路由
+     * @param tenantId
+     */
+    public synchronized void removeOverride(String tenantId) {
+        this.table = table.withOverride(tenantId , null);
+        runtimeOverrides.remove(tenantId);
+        log.info("租户路由取消指定,tenantId={}" , tenantId);
+    }
+
+    public TenantRoutingTable getTable() {
+        return table;
+    }
+
+    private void reloadFromLocation() {
+        try {
+            Resource resource = new DefaultResourceLoader().getResource(properties.getLocation());
+            if(!resource.exists()) {
+                log.warn("租户路由配置文件不存在,location={}" , properties.getLocation());
+                return;
+            }
+            long modified = resource.lastModified();
+            if(modified == lastModified) {
+                return;
+            }
+            //文件有误时只报一次错, 等待下次修改
+            lastModified = modified;
+            Properties fileProperties = PropertiesLoaderUtils.loadProperties(new EncodedResource(resource , StandardCharsets.UTF_8));
+            TenantRouterProperties routerProperties = new Binder(new MapConfigurationPropertySource(fileProperties))
+                    .bind(TenantRouterProperties.PREFIX , Bindable.of(TenantRouterProperties.class))
+                    .orElseGet(TenantRouterProperties::new);
+            reload(routerProperties);
+        } catch (Exception e) {
+            log.error("租户路由配置文件加载失败,保留当前路由表,location={}" , properties.getLocation() , e);
+        }
+    }
+}
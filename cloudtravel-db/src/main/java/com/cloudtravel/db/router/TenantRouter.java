@@ -0,0 +1,22 @@
+package com.cloudtravel.db.router;
+
+import java.util.List;
+
+/**
+ * 租户路由: 根据租户id确定数据源key(即配置datasource.{key}.*中的名称)
+ */
+public interface TenantRouter {
+
+    /**
+     * 租户所在的数据源key
+     * @param tenantId
+     * @return
+     */
+    String route(String tenantId);
+
+    /**
+     * 参与路由的所有数据源key
+     * @return
+     */
+    List<String> shards();
+}
@@ -0,0 +1,70 @@
+package com.cloudtravel.db.router;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 租户路由配置. location配置的外部文件(同样以cloudtravel.db.tenant-router为前缀)变化时, 按文件内容重建路由表
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = TenantRouterProperties.PREFIX)
+public class TenantRouterProperties {
+
+    public static final String PREFIX = "cloudtravel.db.tenant-router";
+
+    /** 路由策略 */
+    private Strategy strategy = Strategy.MODULO;
+
+    /** 参与路由的数据源key, 顺序即取模的下标; 为空时使用所有数据源(按key排序) */
+    private List<String> shards = new ArrayList<>();
+
+    /** RANGE策略的区间 */
+    private List<Range> ranges = new ArrayList<>();
+
+    /** CONSISTENT_HASH策略每个数据源的虚拟节点数 */
+    private int virtualNodes = 160;
+
+    /** 指定租户所在的数据源, 优先于路由策略, 用于迁移热点租户 */
+    private Map<String , String> overrides = new LinkedHashMap<>();
+
+    /** 外部路由配置文件, 如file:/etc/cloudtravel/tenant-router.properties, 为空时不热加载 */
+    private String location;
+
+    /** 检查外部文件是否变化的间隔(毫秒) */
+    private long reloadIntervalMillis = 10000L;
+
+    public enum Strategy {
+
+        /** tenantId % 数据源数量 */
+        MODULO,
+
+        /** 按tenantId所在区间 */
+        RANGE,
+
+        /** 一致性hash, 增加数据源时只有少量租户需要迁移 */
+        CONSISTENT_HASH
+    }
+
+    /**
+     * 租户区间[from , to)
+     */
+    @Getter
+    @Setter
+    public static class Range {
+
+        private long from;
+
+        private long to;
+
+        private String shard;
+    }
+}
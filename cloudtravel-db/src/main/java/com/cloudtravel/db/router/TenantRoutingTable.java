@@ -0,0 +1,201 @@
+package com.cloudtravel.db.router;
+
+import com.cloudtravel.common.service.impl.HashServiceImpl;
+import com.cloudtravel.common.util.ConsistentHash;
+import com.cloudtravel.db.router.TenantRouterProperties.Range;
+import com.cloudtravel.db.router.TenantRouterProperties.Strategy;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预先计算好的租户路由表, 创建后不再修改: 变更时整体重建并替换, 路由时无锁.
+ * 先查指定租户(overrides), 再按策略计算: 取模为数组下标, 区间为有序数组二分查找, 一致性hash为虚拟节点环
+ */
+public final class TenantRoutingTable implements TenantRouter {
+
+    private final Strategy strategy;
+
+    private final String[] shards;
+
+    private final List<String> shardList;
+
+    private final Map<String , String> overrides;
+
+    /** 区间起点(含)升序, 与rangeTo、rangeShards下标对应 */
+    private final long[] rangeFrom;
+
+    private final long[] rangeTo;
+
+    private final String[] rangeShards;
+
+    private final ConsistentHash<String> ring;
+
+    private TenantRoutingTable(Strategy strategy , String[] shards , Map<String , String> overrides ,
+                               long[] rangeFrom , long[] rangeTo , String[] rangeShards , ConsistentHash<String> ring) {
+        this.strategy = strategy;
+        this.shards = shards;
+        this.shardList = Collections.unmodifiableList(Arrays.asList(shards));
+        this.overrides = overrides;
+        this.rangeFrom = rangeFrom;
+        this.rangeTo = rangeTo;
+        this.rangeShards = rangeShards;
+        this.ring = ring;
+    }
+
+    /**
+     * 按取模路由
+     * @param shards 数据源key, 顺序即下标
+     * @return
+     */
+    public static TenantRoutingTable modulo(List<String> shards) {
+        if(shards.isEmpty()) {
+            throw new IllegalStateException("Tenant router has no data source");
+        }
+        return new TenantRoutingTable(Strategy.MODULO , shards.toArray(new String[0]) , Collections.emptyMap() ,
+                new long[0] , new long[0] , new String[0] , null);
+    }
+
+    /**
+     * 按配置生成路由表, 配置中引用的数据源必须存在
+     * @param properties
+     * @param dataSourceKeys 当前所有数据源key
+     * @return
+     */
+    public static TenantRoutingTable build(TenantRouterProperties properties , Collection<String> dataSourceKeys) {
+        List<String> shards = new ArrayList<>(properties.getShards());
+        if(shards.isEmpty()) {
+            shards.addAll(dataSourceKeys);
+            Collections.sort(shards);
+        }
+        if(shards.isEmpty()) {
+            throw new IllegalStateException("Tenant router has no data source");
+        }
+        for (String shard : shards) {
+            checkShard(shard , dataSourceKeys);
+        }
+        Map<String , String> overrides = new HashMap<>();
+        for (Map.Entry<String , String> entry : properties.getOverrides().entrySet()) {
+            checkShard(entry.getValue() , dataSourceKeys);
+            overrides.put(entry.getKey() , entry.getValue());
+        }
+
+        List<Range> ranges = new ArrayList<>(properties.getRanges());
+        ranges.sort(Comparator.comparingLong(Range::getFrom));
+        long[] rangeFrom = new long[ranges.size()];
+        long[] rangeTo = new long[ranges.size()];
+        String[] rangeShards = new String[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            checkShard(range.getShard() , dataSourceKeys);
+            if(range.getFrom() >= range.getTo() || (i > 0 && range.getFrom() < rangeTo[i - 1])) {
+                throw new IllegalStateException("Invalid tenant range [" + range.getFrom() + " , " + range.getTo() + ")");
+            }
+            rangeFrom[i] = range.getFrom();
+            rangeTo[i] = range.getTo();
+            rangeShards[i] = range.getShard();
+        }
+        if(properties.getStrategy() == Strategy.RANGE && ranges.isEmpty()) {
+            throw new IllegalStateException("Tenant router strategy RANGE has no range");
+        }
+
+        ConsistentHash<String> ring = null;
+        if(properties.getStrategy() == Strategy.CONSISTENT_HASH) {
+            ring = new ConsistentHash<>(new HashServiceImpl() , properties.getVirtualNodes() , shards);
+        }
+        return new TenantRoutingTable(properties.getStrategy() , shards.toArray(new String[0]) ,
+                Collections.unmodifiableMap(overrides) , rangeFrom , rangeTo , rangeShards , ring);
+    }
+
+    @Override
+    public String route(String tenantId) {
+        if(!overrides.isEmpty()) {
+            String shard = overrides.get(tenantId);
+            if(shard != null) {
+                return shard;
+            }
+        }
+        switch (strategy) {
+            case RANGE:
+                return rangeShard(parseTenantId(tenantId) , tenantId);
+            case CONSISTENT_HASH:
+                checkTenantId(tenantId);
+                return ring.get(tenantId);
+            default:
+                return shards[(int) Math.floorMod(parseTenantId(tenantId) , (long) shards.length)];
+        }
+    }
+
+    @Override
+    public List<String> shards() {
+        return shardList;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public Map<String , String> getOverrides() {
+        return overrides;
+    }
+
+    /**
+     * 复制出一个修改了指定租户的新路由表, 其余部分共用
+     * @param tenantId
+     * @param shard 为null时取消指定
+     * @return
+     */
+    public TenantRoutingTable withOverride(String tenantId , String shard) {
+        Map<String , String> copy = new HashMap<>(overrides);
+        if(shard == null) {
+            copy.remove(tenantId);
+        }else {
+            copy.put(tenantId , shard);
+        }
+        return new TenantRoutingTable(strategy , shards , Collections.unmodifiableMap(copy) , rangeFrom , rangeTo , rangeShards , ring);
+    }
+
+    private String rangeShard(long tenantId , String tenant) {
+        int low = 0;
+        int high = rangeFrom.length - 1;
+        //最后一个起点<=tenantId的区间
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if(rangeFrom[mid] <= tenantId) {
+                low = mid + 1;
+            }else {
+                high = mid - 1;
+            }
+        }
+        if(high < 0 || tenantId >= rangeTo[high]) {
+            throw new IllegalStateException("No tenant range configured for tenantId : " + tenant);
+        }
+        return rangeShards[high];
+    }
+
+    private static long parseTenantId(String tenantId) {
+        if(!StringUtils.isNumeric(tenantId)) {
+            throw new IllegalStateException("Unsupported tenantId : " + tenantId);
+        }
+        return Long.parseLong(tenantId);
+    }
+
+    private static void checkTenantId(String tenantId) {
+        if(StringUtils.isBlank(tenantId) || "null".equals(tenantId)) {
+            throw new IllegalStateException("Unsupported tenantId : " + tenantId);
+        }
+    }
+
+    private static void checkShard(String shard , Collection<String> dataSourceKeys) {
+        if(!dataSourceKeys.contains(shard)) {
+            throw new IllegalStateException("Unknown data source [" + shard + "] in tenant router , available : " + dataSourceKeys);
+        }
+    }
+}
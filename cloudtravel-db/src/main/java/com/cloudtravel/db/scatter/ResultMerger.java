@@ -0,0 +1,243 @@
+package com.cloudtravel.db.scatter;
+
+import com.cloudtravel.db.scatter.ScatterPlan.Aggregate;
+import com.cloudtravel.db.scatter.ScatterPlan.OrderKey;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 归并各分片的结果:
+ * 有聚合/分组时按分组键合并部分聚合值(COUNT/SUM相加, MIN/MAX取极值), 再整体排序分页;
+ * 否则各分片结果已按ORDER BY有序, 用小顶堆做k路归并, 跳过offset、取够rowCount行即停止, 不排序全部数据
+ */
+final class ResultMerger {
+
+    private ResultMerger() {
+    }
+
+    /**
+     * @param plan
+     * @param columns 列名
+     * @param shardRows 各分片的结果, 顺序与分片顺序一致
+     * @return
+     */
+    static List<Object[]> merge(ScatterPlan plan , List<String> columns , List<List<Object[]>> shardRows) {
+        Comparator<Object[]> comparator = comparator(plan.orderBy , columns);
+        if(plan.grouped) {
+            List<Object[]> rows = aggregate(plan , shardRows);
+            if(comparator != null) {
+                rows.sort(comparator);
+            }
+            return page(rows.iterator() , plan.offset , plan.rowCount , false);
+        }
+        Iterator<Object[]> iterator = comparator == null ? concat(shardRows) : new MergeIterator(shardRows , comparator);
+        return page(iterator , plan.offset , plan.rowCount , plan.distinct);
+    }
+
+    private static List<Object[]> page(Iterator<Object[]> iterator , long offset , long rowCount , boolean distinct) {
+        List<Object[]> rows = new ArrayList<>();
+        Set<List<Object>> seen = distinct ? new HashSet<>() : null;
+        long skipped = 0;
+        while (iterator.hasNext() && (rowCount < 0 || rows.size() < rowCount)) {
+            Object[] row = iterator.next();
+            if(seen != null && !seen.add(Arrays.asList(row))) {
+                continue;
+            }
+            if(skipped < offset) {
+                skipped ++;
+                continue;
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Iterator<Object[]> concat(List<List<Object[]>> shardRows) {
+        List<Object[]> rows = new ArrayList<>();
+        shardRows.forEach(rows::addAll);
+        return rows.iterator();
+    }
+
+    private static List<Object[]> aggregate(ScatterPlan plan , List<List<Object[]>> shardRows) {
+        Map<List<Object> , Object[]> groups = new LinkedHashMap<>();
+        for (List<Object[]> rows : shardRows) {
+            for (Object[] row : rows) {
+                Object[] groupKey = new Object[plan.groupBy.length];
+                for (int i = 0; i < groupKey.length; i++) {
+                    groupKey[i] = normalize(row[plan.groupBy[i]]);
+                }
+                List<Object> key = Arrays.asList(groupKey);
+                Object[] merged = groups.get(key);
+                if(merged == null) {
+                    groups.put(key , row.clone());
+                    continue;
+                }
+                for (int i = 0; i < plan.aggregates.length; i++) {
+                    if(plan.aggregates[i] != null) {
+                        merged[i] = combine(plan.aggregates[i] , merged[i] , row[i]);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static Object combine(Aggregate aggregate , Object merged , Object value) {
+        if(value == null) {
+            return merged;
+        }
+        if(merged == null) {
+            return value;
+        }
+        switch (aggregate) {
+            case COUNT:
+            case SUM:
+                return add((Number) merged , (Number) value);
+            case MIN:
+                return compareValues(merged , value) <= 0 ? merged : value;
+            default:
+                return compareValues(merged , value) >= 0 ? merged : value;
+        }
+    }
+
+    private static Number add(Number a , Number b) {
+        if(isIntegral(a) && isIntegral(b)) {
+            return a.longValue() + b.longValue();
+        }
+        if(a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+            return a.doubleValue() + b.doubleValue();
+        }
+        return toBigDecimal(a).add(toBigDecimal(b));
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if(number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if(number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        return new BigDecimal(number.toString());
+    }
+
+    /**
+     * 分组键中的数字统一为BigDecimal(去掉末尾的0), 不同分片返回的数字类型可能不同
+     */
+    private static Object normalize(Object value) {
+        if(value instanceof Number && !(value instanceof Double || value instanceof Float)) {
+            return toBigDecimal((Number) value).stripTrailingZeros();
+        }
+        return value;
+    }
+
+    private static Comparator<Object[]> comparator(List<OrderKey> orderBy , List<String> columns) {
+        if(orderBy.isEmpty()) {
+            return null;
+        }
+        Comparator<Object[]> comparator = null;
+        for (OrderKey orderKey : orderBy) {
+            int index = orderKey.index >= 0 ? orderKey.index : columnIndex(columns , orderKey.name);
+            Comparator<Object[]> keyComparator = (a , b) -> compareValues(a[index] , b[index]);
+            if(!orderKey.asc) {
+                keyComparator = keyComparator.reversed();
+            }
+            comparator = comparator == null ? keyComparator : comparator.thenComparing(keyComparator);
+        }
+        return comparator;
+    }
+
+    private static int columnIndex(List<String> columns , String name) {
+        for (int i = 0; i < columns.size(); i++) {
+            if(columns.get(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("ORDER BY column " + name + " not found in result columns " + columns);
+    }
+
+    /**
+     * 与MySQL一致: NULL最小, 字符串默认排序规则不区分大小写
+     */
+    @SuppressWarnings({"unchecked" , "rawtypes"})
+    static int compareValues(Object a , Object b) {
+        if(a == b) {
+            return 0;
+        }
+        if(a == null) {
+            return -1;
+        }
+        if(b == null) {
+            return 1;
+        }
+        if(a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+            return toBigDecimal((Number) a).compareTo(toBigDecimal((Number) b));
+        }
+        if(a instanceof String && b instanceof String) {
+            int result = String.CASE_INSENSITIVE_ORDER.compare((String) a , (String) b);
+            return result != 0 ? result : ((String) a).compareTo((String) b);
+        }
+        if(a instanceof Comparable && a.getClass().isInstance(b)) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return String.valueOf(a).compareTo(String.valueOf(b));
+    }
+
+    /**
+     * k路归并: 堆中为每个分片当前的第一行, 相同时分片下标小的在前
+     */
+    private static final class MergeIterator implements Iterator<Object[]> {
+
+        private final List<List<Object[]>> shardRows;
+
+        /** 每个元素为 {分片下标 , 行下标} */
+        private final PriorityQueue<int[]> heap;
+
+        MergeIterator(List<List<Object[]>> shardRows , Comparator<Object[]> comparator) {
+            this.shardRows = shardRows;
+            this.heap = new PriorityQueue<>(Math.max(shardRows.size() , 1) , (a , b) -> {
+                int result = comparator.compare(row(a) , row(b));
+                return result != 0 ? result : Integer.compare(a[0] , b[0]);
+            });
+            for (int i = 0; i < shardRows.size(); i++) {
+                if(!shardRows.get(i).isEmpty()) {
+                    heap.add(new int[]{i , 0});
+                }
+            }
+        }
+
+        private Object[] row(int[] cursor) {
+            return shardRows.get(cursor[0]).get(cursor[1]);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Object[] next() {
+            int[] cursor = heap.poll();
+            Object[] row = row(cursor);
+            if(cursor[1] + 1 < shardRows.get(cursor[0]).size()) {
+                cursor[1] ++;
+                heap.add(cursor);
+            }
+            return row;
+        }
+    }
+}
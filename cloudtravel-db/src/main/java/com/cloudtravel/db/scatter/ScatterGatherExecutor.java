@@ -0,0 +1,324 @@
+package com.cloudtravel.db.scatter;
+
+import com.cloudtravel.db.config.DataSourceContext;
+import com.cloudtravel.db.config.DynamicDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 跨分片查询: 没有租户条件的管理/报表查询在租户路由的所有分片上并行执行, 再按ORDER BY、聚合、分页归并(见ScatterPlan、ResultMerger).
+ * 直接从各分片的连接池取连接执行, 不经过SqlDbRoutingInterceptor; 并发数受poolSize限制,
+ * 运行在支持虚拟线程的JDK上时每个分片一个虚拟线程. 单个分片超时会取消其查询, 允许部分结果时返回其余分片的数据.
+ * 平台线程池队列满时拒绝该分片并按失败分片处理, 不在调用线程中执行(调用线程执行不受超时限制)
+ */
+@Slf4j
+@Component
+public class ScatterGatherExecutor implements DisposableBean {
+
+    private final ScatterGatherProperties properties;
+
+    private final DynamicDataSource dynamicDataSource;
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    private final ExecutorService executor;
+
+    /** 虚拟线程不限数量, 用信号量限制同时查询的分片数 */
+    private final Semaphore permits;
+
+    public ScatterGatherExecutor(ScatterGatherProperties properties ,
+                                 @Qualifier("dynamicDataSource") DynamicDataSource dynamicDataSource ,
+                                 SqlSessionFactory sqlSessionFactory) {
+        this.properties = properties;
+        this.dynamicDataSource = dynamicDataSource;
+        this.sqlSessionFactory = sqlSessionFactory;
+        ExecutorService virtualExecutor = properties.isVirtualThreads() ? newVirtualThreadExecutor() : null;
+        if(virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.permits = new Semaphore(properties.getPoolSize());
+        }else {
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(properties.getPoolSize() , properties.getPoolSize() , 60L , TimeUnit.SECONDS ,
+                    new ArrayBlockingQueue<>(properties.getQueueCapacity()) , r -> {
+                        Thread thread = new Thread(r , "scatter-gather-" + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    } , new ThreadPoolExecutor.AbortPolicy());
+            this.permits = null;
+        }
+        log.info("Scatter gather executor created , virtualThreads = {} , poolSize = {}" , virtualExecutor != null , properties.getPoolSize());
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在所有分片上执行mapper中的查询语句
+     * @param statementId mapper接口全名.方法名
+     * @param param 与调用mapper方法时相同的参数对象
+     * @return
+     */
+    public ScatterResult query(String statementId , Object param) {
+        Configuration configuration = sqlSessionFactory.getConfiguration();
+        MappedStatement mappedStatement = configuration.getMappedStatement(statementId);
+        BoundSql boundSql = mappedStatement.getBoundSql(param);
+        List<Object> args = new ArrayList<>(boundSql.getParameterMappings().size());
+        for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+            if(parameterMapping.getMode() != ParameterMode.OUT) {
+                args.add(getParamValue(configuration , boundSql , parameterMapping.getProperty()));
+            }
+        }
+        return query(boundSql.getSql() , args);
+    }
+
+    /**
+     * 在所有分片上执行查询
+     * @param sql 带?占位符的select
+     * @param args 按占位符顺序的参数
+     * @return
+     */
+    public ScatterResult query(String sql , List<Object> args) {
+        return query(sql , args , DataSourceContext.getTenantRouter().shards());
+    }
+
+    /**
+     * 在指定分片上执行查询
+     * @param sql
+     * @param args
+     * @param shards 数据源key
+     * @return
+     */
+    public ScatterResult query(String sql , List<Object> args , List<String> shards) {
+        long startTime = System.currentTimeMillis();
+        ScatterPlan plan = ScatterPlan.parse(sql , args);
+        List<ShardQuery> queries = new ArrayList<>(shards.size());
+        List<Future<ShardQuery>> futures = new ArrayList<>(shards.size());
+        Map<String , String> failedShards = new LinkedHashMap<>();
+        Exception failure = null;
+        for (String shard : shards) {
+            ShardQuery query = new ShardQuery(shard , getDataSource(shard) , plan);
+            queries.add(query);
+            Callable<ShardQuery> task = permits == null ? query : () -> {
+                permits.acquire();
+                try {
+                    return query.call();
+                } finally {
+                    permits.release();
+                }
+            };
+            try {
+                futures.add(executor.submit(task));
+            } catch (RejectedExecutionException e) {
+                futures.add(null);
+                failedShards.put(shard , "rejected , scatter pool is full");
+                failure = failure == null ? e : failure;
+            }
+        }
+        if(!failedShards.isEmpty() && (!properties.isAllowPartialResult() || failedShards.size() == shards.size())) {
+            //结果不可用, 不再等待已提交的分片
+            queries.forEach(ShardQuery::cancel);
+            futures.stream().filter(future -> future != null).forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Scatter query failed on shards " + failedShards + " : " + sql , failure);
+        }
+
+        long deadline = startTime + properties.getTimeoutMillis();
+        for (int i = 0; i < futures.size(); i++) {
+            ShardQuery query = queries.get(i);
+            if(futures.get(i) == null) {
+                continue;
+            }
+            try {
+                futures.get(i).get(Math.max(deadline - System.currentTimeMillis() , 0L) , TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                query.cancel();
+                futures.get(i).cancel(true);
+                failedShards.put(query.shard , "timeout after " + properties.getTimeoutMillis() + "ms");
+                failure = failure == null ? e : failure;
+            } catch (ExecutionException e) {
+                failedShards.put(query.shard , String.valueOf(e.getCause()));
+                failure = failure == null ? e : failure;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queries.forEach(ShardQuery::cancel);
+                throw new IllegalStateException("Scatter query interrupted : " + sql , e);
+            }
+        }
+        if(!failedShards.isEmpty()) {
+            if(!properties.isAllowPartialResult() || failedShards.size() == shards.size()) {
+                queries.forEach(ShardQuery::cancel);
+                throw new IllegalStateException("Scatter query failed on shards " + failedShards + " : " + sql ,
+                        failure instanceof ExecutionException ? failure.getCause() : failure);
+            }
+            log.warn("Scatter query returns partial result , failedShards = {} , sql = {}" , failedShards , sql);
+        }
+
+        List<String> columns = Collections.emptyList();
+        List<List<Object[]>> shardRows = new ArrayList<>(queries.size());
+        for (ShardQuery query : queries) {
+            if(!failedShards.containsKey(query.shard)) {
+                if(columns.isEmpty()) {
+                    columns = query.columns;
+                }
+                shardRows.add(query.rows);
+            }
+        }
+        List<Object[]> rows = ResultMerger.merge(plan , columns , shardRows);
+        List<Map<String , Object>> result = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Map<String , Object> map = new LinkedHashMap<>(columns.size() * 2);
+            for (int i = 0; i < columns.size(); i++) {
+                map.put(columns.get(i) , row[i]);
+            }
+            result.add(map);
+        }
+        ScatterResult scatterResult = new ScatterResult(result , shards , failedShards , System.currentTimeMillis() - startTime);
+        log.debug("Scatter query finished , {} , sql = {}" , scatterResult , plan.shardSql);
+        return scatterResult;
+    }
+
+    private DataSource getDataSource(String shard) {
+        Object dataSource = dynamicDataSource.getResolvedDataSources().get(shard);
+        if(!(dataSource instanceof DataSource)) {
+            throw new IllegalStateException("Unknown data source [" + shard + "] , available : "
+                    + dynamicDataSource.getResolvedDataSources().keySet());
+        }
+        return (DataSource) dataSource;
+    }
+
+    /**
+     * 与SqlDbRoutingInterceptor相同, 按MyBatis绑定参数的方式取值
+     */
+    private static Object getParamValue(Configuration configuration , BoundSql boundSql , String propertyName) {
+        Object paramObj = boundSql.getParameterObject();
+        if(boundSql.hasAdditionalParameter(propertyName)) {
+            return boundSql.getAdditionalParameter(propertyName);
+        }else if(paramObj == null) {
+            return null;
+        }else if(configuration.getTypeHandlerRegistry().hasTypeHandler(paramObj.getClass())) {
+            return paramObj;
+        }
+        MetaObject metaObject = configuration.newMetaObject(paramObj);
+        return metaObject.hasGetter(propertyName) ? metaObject.getValue(propertyName) : null;
+    }
+
+    /**
+     * JDK 21及以上使用虚拟线程, 编译目标为Java 8, 通过反射创建
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 单个分片的查询, 读取全部结果(已下推LIMIT)后归还连接
+     */
+    private static final class ShardQuery implements Callable<ShardQuery> {
+
+        private final String shard;
+
+        private final DataSource dataSource;
+
+        private final ScatterPlan plan;
+
+        private volatile PreparedStatement statement;
+
+        private volatile boolean canceled;
+
+        private List<String> columns;
+
+        private List<Object[]> rows;
+
+        private ShardQuery(String shard , DataSource dataSource , ScatterPlan plan) {
+            this.shard = shard;
+            this.dataSource = dataSource;
+            this.plan = plan;
+        }
+
+        @Override
+        public ShardQuery call() throws SQLException {
+            if(canceled) {
+                throw new SQLException("Scatter query canceled before execution on " + shard);
+            }
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(plan.shardSql)) {
+                statement = preparedStatement;
+                for (int i = 0; i < plan.shardArgs.size(); i++) {
+                    preparedStatement.setObject(i + 1 , plan.shardArgs.get(i));
+                }
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    String[] labels = new String[metaData.getColumnCount()];
+                    for (int i = 0; i < labels.length; i++) {
+                        labels[i] = metaData.getColumnLabel(i + 1);
+                    }
+                    List<Object[]> values = new ArrayList<>();
+                    while (resultSet.next()) {
+                        Object[] row = new Object[labels.length];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = resultSet.getObject(i + 1);
+                        }
+                        values.add(row);
+                    }
+                    columns = Arrays.asList(labels);
+                    rows = values;
+                }
+            } finally {
+                statement = null;
+            }
+            return this;
+        }
+
+        private void cancel() {
+            canceled = true;
+            PreparedStatement current = statement;
+            if(current != null) {
+                try {
+                    current.cancel();
+                } catch (SQLException e) {
+                    log.warn("Cancel scatter query failed on {} : {}" , shard , e.getMessage());
+                }
+            }
+        }
+    }
+}
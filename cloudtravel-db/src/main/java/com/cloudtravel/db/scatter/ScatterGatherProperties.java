@@ -0,0 +1,31 @@
+package com.cloudtravel.db.scatter;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 跨分片查询配置
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.db.scatter")
+public class ScatterGatherProperties {
+
+    /** 同时执行的分片查询数上限, 也是平台线程池大小 */
+    private int poolSize = 8;
+
+    /** 平台线程池的等待队列长度, 队列满时拒绝的分片按失败处理 */
+    private int queueCapacity = 256;
+
+    /** 运行在支持虚拟线程的JDK上时使用虚拟线程(并发数仍受poolSize限制) */
+    private boolean virtualThreads = true;
+
+    /** 单个分片的超时时间(毫秒), 所有分片并行执行, 从提交开始计时 */
+    private long timeoutMillis = 3000L;
+
+    /** 部分分片失败或超时时是否返回其余分片的结果, 否则抛出异常 */
+    private boolean allowPartialResult = false;
+}
@@ -0,0 +1,255 @@
+package com.cloudtravel.db.scatter;
+
+import com.alibaba.druid.sql.SQLUtils;
+import com.alibaba.druid.sql.ast.SQLExpr;
+import com.alibaba.druid.sql.ast.SQLLimit;
+import com.alibaba.druid.sql.ast.SQLOrderBy;
+import com.alibaba.druid.sql.ast.SQLOrderingSpecification;
+import com.alibaba.druid.sql.ast.SQLStatement;
+import com.alibaba.druid.sql.ast.expr.SQLAggregateExpr;
+import com.alibaba.druid.sql.ast.expr.SQLAggregateOption;
+import com.alibaba.druid.sql.ast.expr.SQLAllColumnExpr;
+import com.alibaba.druid.sql.ast.expr.SQLIdentifierExpr;
+import com.alibaba.druid.sql.ast.expr.SQLIntegerExpr;
+import com.alibaba.druid.sql.ast.expr.SQLPropertyExpr;
+import com.alibaba.druid.sql.ast.expr.SQLVariantRefExpr;
+import com.alibaba.druid.sql.ast.statement.SQLSelectGroupByClause;
+import com.alibaba.druid.sql.ast.statement.SQLSelectItem;
+import com.alibaba.druid.sql.ast.statement.SQLSelectOrderByItem;
+import com.alibaba.druid.sql.ast.statement.SQLSelectQueryBlock;
+import com.alibaba.druid.sql.ast.statement.SQLSelectStatement;
+import com.alibaba.druid.util.JdbcConstants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 跨分片查询计划: 解析sql得到归并方式(排序、聚合、分组、去重、分页), 并生成各分片执行的sql.
+ * 没有分组和聚合时LIMIT下推为 LIMIT offset + rowCount, 由归并时跳过offset;
+ * 有聚合或分组时分片返回全部分组, 归并后再排序分页. 不支持的写法(UNION、HAVING、AVG、COUNT(DISTINCT))直接报错
+ */
+final class ScatterPlan {
+
+    enum Aggregate {
+        COUNT, SUM, MIN, MAX
+    }
+
+    /**
+     * 排序列: 能对应到select列时按下标, select * 时按列名
+     */
+    static final class OrderKey {
+
+        final int index;
+
+        final String name;
+
+        final boolean asc;
+
+        OrderKey(int index , String name , boolean asc) {
+            this.index = index;
+            this.name = name;
+            this.asc = asc;
+        }
+    }
+
+    /** 各分片执行的sql及参数 */
+    final String shardSql;
+
+    final List<Object> shardArgs;
+
+    final List<OrderKey> orderBy;
+
+    /** 每个select列的聚合方式, 非聚合列为null; 有 * 时为空 */
+    final Aggregate[] aggregates;
+
+    /** 分组列下标 */
+    final int[] groupBy;
+
+    /** 有聚合或分组, 需要按分组合并各分片的结果 */
+    final boolean grouped;
+
+    final boolean distinct;
+
+    final long offset;
+
+    /** 为-1时不限制行数 */
+    final long rowCount;
+
+    private ScatterPlan(String shardSql , List<Object> shardArgs , List<OrderKey> orderBy , Aggregate[] aggregates ,
+                        int[] groupBy , boolean distinct , long offset , long rowCount) {
+        this.shardSql = shardSql;
+        this.shardArgs = shardArgs;
+        this.orderBy = orderBy;
+        this.aggregates = aggregates;
+        this.groupBy = groupBy;
+        this.grouped = isGrouped(aggregates , groupBy);
+        this.distinct = distinct;
+        this.offset = offset;
+        this.rowCount = rowCount;
+    }
+
+    private static boolean isGrouped(Aggregate[] aggregates , int[] groupBy) {
+        if(groupBy.length > 0) {
+            return true;
+        }
+        for (Aggregate aggregate : aggregates) {
+            if(aggregate != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析查询
+     * @param sql 带?占位符的sql
+     * @param args 按占位符顺序的参数
+     * @return
+     */
+    static ScatterPlan parse(String sql , List<Object> args) {
+        List<SQLStatement> statements = SQLUtils.parseStatements(sql , JdbcConstants.MYSQL);
+        if(statements.size() != 1 || !(statements.get(0) instanceof SQLSelectStatement)) {
+            throw new IllegalStateException("Scatter query only supports a single SELECT : " + sql);
+        }
+        SQLSelectStatement statement = (SQLSelectStatement) statements.get(0);
+        SQLSelectQueryBlock queryBlock = statement.getSelect().getQueryBlock();
+        if(queryBlock == null) {
+            throw new IllegalStateException("Scatter query does not support UNION : " + sql);
+        }
+        List<SQLSelectItem> selectItems = queryBlock.getSelectList();
+        boolean allColumns = false;
+        for (SQLSelectItem selectItem : selectItems) {
+            SQLExpr expr = selectItem.getExpr();
+            if(expr instanceof SQLAllColumnExpr || (expr instanceof SQLPropertyExpr && "*".equals(((SQLPropertyExpr) expr).getName()))) {
+                allColumns = true;
+            }
+        }
+
+        Aggregate[] aggregates = new Aggregate[allColumns ? 0 : selectItems.size()];
+        for (int i = 0; i < aggregates.length; i++) {
+            aggregates[i] = aggregate(selectItems.get(i).getExpr() , sql);
+        }
+
+        int[] groupBy = new int[0];
+        SQLSelectGroupByClause groupByClause = queryBlock.getGroupBy();
+        if(groupByClause != null) {
+            if(groupByClause.getHaving() != null) {
+                throw new IllegalStateException("Scatter query does not support HAVING : " + sql);
+            }
+            groupBy = new int[groupByClause.getItems().size()];
+            for (int i = 0; i < groupBy.length; i++) {
+                groupBy[i] = allColumns ? -1 : indexOf(selectItems , groupByClause.getItems().get(i));
+                if(groupBy[i] < 0) {
+                    throw new IllegalStateException("GROUP BY column must be selected in scatter query : " + groupByClause.getItems().get(i));
+                }
+            }
+        }
+
+        List<OrderKey> orderBy = new ArrayList<>();
+        SQLOrderBy orderByClause = queryBlock.getOrderBy();
+        if(orderByClause != null) {
+            for (SQLSelectOrderByItem item : orderByClause.getItems()) {
+                boolean asc = item.getType() != SQLOrderingSpecification.DESC;
+                int index = indexOf(selectItems , item.getExpr());
+                if(index >= 0) {
+                    orderBy.add(new OrderKey(index , null , asc));
+                }else if(allColumns && simpleName(item.getExpr()) != null) {
+                    orderBy.add(new OrderKey(-1 , simpleName(item.getExpr()) , asc));
+                }else {
+                    throw new IllegalStateException("ORDER BY column must be selected in scatter query : " + item.getExpr());
+                }
+            }
+        }
+
+        List<Object> shardArgs = new ArrayList<>(args);
+        long offset = 0;
+        long rowCount = -1;
+        SQLLimit limit = queryBlock.getLimit();
+        if(limit != null) {
+            //LIMIT在sql最后, 其占位符也是最后的参数, 从后往前移除
+            List<Integer> limitArgs = new ArrayList<>();
+            rowCount = limitValue(limit.getRowCount() , args , limitArgs , sql);
+            if(limit.getOffset() != null) {
+                offset = limitValue(limit.getOffset() , args , limitArgs , sql);
+            }
+            limitArgs.sort(Collections.reverseOrder());
+            for (int index : limitArgs) {
+                shardArgs.remove(index);
+            }
+            queryBlock.setLimit(null);
+        }
+        if(rowCount >= 0 && !isGrouped(aggregates , groupBy)) {
+            queryBlock.setLimit(new SQLLimit(new SQLIntegerExpr(offset + rowCount)));
+        }
+        return new ScatterPlan(SQLUtils.toSQLString(statement , JdbcConstants.MYSQL) , shardArgs , orderBy , aggregates ,
+                groupBy , queryBlock.isDistinct() , offset , rowCount);
+    }
+
+    private static Aggregate aggregate(SQLExpr expr , String sql) {
+        if(!(expr instanceof SQLAggregateExpr)) {
+            return null;
+        }
+        SQLAggregateExpr aggregateExpr = (SQLAggregateExpr) expr;
+        if(aggregateExpr.getOption() == SQLAggregateOption.DISTINCT) {
+            throw new IllegalStateException("Scatter query does not support " + expr + " , partial results cannot be merged : " + sql);
+        }
+        try {
+            return Aggregate.valueOf(aggregateExpr.getMethodName().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Scatter query does not support " + expr + " , use SUM and COUNT instead of AVG : " + sql);
+        }
+    }
+
+    private static long limitValue(SQLExpr expr , List<Object> args , List<Integer> limitArgs , String sql) {
+        if(expr instanceof SQLIntegerExpr) {
+            return ((SQLIntegerExpr) expr).getNumber().longValue();
+        }
+        if(expr instanceof SQLVariantRefExpr) {
+            int index = ((SQLVariantRefExpr) expr).getIndex();
+            if(index >= 0 && index < args.size() && args.get(index) instanceof Number) {
+                limitArgs.add(index);
+                return ((Number) args.get(index)).longValue();
+            }
+        }
+        throw new IllegalStateException("Unsupported LIMIT in scatter query : " + sql);
+    }
+
+    /**
+     * 排序/分组表达式对应的select列: 按位置(ORDER BY 2)、别名、相同表达式或相同列名
+     */
+    private static int indexOf(List<SQLSelectItem> selectItems , SQLExpr expr) {
+        if(expr instanceof SQLIntegerExpr) {
+            int position = ((SQLIntegerExpr) expr).getNumber().intValue();
+            return position >= 1 && position <= selectItems.size() ? position - 1 : -1;
+        }
+        String name = simpleName(expr);
+        String text = SQLUtils.normalize(expr.toString());
+        for (int i = 0; i < selectItems.size(); i++) {
+            SQLSelectItem selectItem = selectItems.get(i);
+            if(selectItem.getAlias() != null && name != null && SQLUtils.normalize(selectItem.getAlias()).equalsIgnoreCase(name)) {
+                return i;
+            }
+            if(SQLUtils.normalize(selectItem.getExpr().toString()).equalsIgnoreCase(text)) {
+                return i;
+            }
+        }
+        for (int i = 0; i < selectItems.size(); i++) {
+            String selectName = simpleName(selectItems.get(i).getExpr());
+            if(selectItems.get(i).getAlias() == null && name != null && name.equalsIgnoreCase(selectName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String simpleName(SQLExpr expr) {
+        if(expr instanceof SQLIdentifierExpr) {
+            return SQLUtils.normalize(((SQLIdentifierExpr) expr).getName());
+        }
+        if(expr instanceof SQLPropertyExpr) {
+            return SQLUtils.normalize(((SQLPropertyExpr) expr).getName());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,54 @@
+package com.cloudtravel.db.scatter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 跨分片查询结果, 行为 列名 -> 值, 列名与列顺序取自第一个成功的分片
+ */
+public class ScatterResult {
+
+    private final List<Map<String , Object>> rows;
+
+    private final List<String> shards;
+
+    private final Map<String , String> failedShards;
+
+    private final long elapsedMillis;
+
+    ScatterResult(List<Map<String , Object>> rows , List<String> shards , Map<String , String> failedShards , long elapsedMillis) {
+        this.rows = Collections.unmodifiableList(rows);
+        this.shards = Collections.unmodifiableList(shards);
+        this.failedShards = Collections.unmodifiableMap(failedShards);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public List<Map<String , Object>> getRows() {
+        return rows;
+    }
+
+    /** 参与查询的所有分片 */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /** 失败或超时的分片及原因, 只在允许部分结果时非空 */
+    public Map<String , String> getFailedShards() {
+        return failedShards;
+    }
+
+    /** 是否只包含部分分片的数据 */
+    public boolean isPartial() {
+        return !failedShards.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "rows=" + rows.size() + ",shards=" + shards + ",failedShards=" + failedShards + ",elapsedMillis=" + elapsedMillis;
+    }
+}
@@ -0,0 +1,97 @@
+package com.cloudtravel.db;
+
+import com.cloudtravel.db.config.DataSourceConfig;
+import com.cloudtravel.db.config.DataSourceContext;
+import com.cloudtravel.db.config.DataSourceEnums;
+import com.cloudtravel.db.config.DynamicDataSource;
+import com.cloudtravel.db.router.TenantRoutingTable;
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 测试用的MySQL模式H2内存库: 按数据源key创建并注册到DataSourceConfig.dataSourceMap, 再由此创建DynamicDataSource.
+ * close时删除各库的所有对象、取消注册, 并恢复DataSourceContext的默认租户路由
+ */
+public final class H2DataSources implements AutoCloseable {
+
+    public static final String CONSUMER1 = DataSourceEnums.CLOUDTRAVEL_CONSUMER1.getKey();
+
+    public static final String CONSUMER2 = DataSourceEnums.CLOUDTRAVEL_CONSUMER2.getKey();
+
+    /** 库名前缀, 各测试类使用不同的库 */
+    private final String prefix;
+
+    private final Map<String , DataSource> dataSources = new LinkedHashMap<>();
+
+    public H2DataSources(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * 创建库并注册到DataSourceConfig.dataSourceMap
+     * @param key 数据源key
+     * @param ddls 建库后依次执行的语句
+     * @return
+     * @throws SQLException
+     */
+    public DataSource create(String key , String... ddls) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + prefix + key.replace('-' , '_').replace('#' , '_') + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        for (String ddl : ddls) {
+            execute(dataSource , ddl);
+        }
+        dataSources.put(key , dataSource);
+        DataSourceConfig.dataSourceMap.put(key , dataSource);
+        return dataSource;
+    }
+
+    public DataSource get(String key) {
+        return dataSources.get(key);
+    }
+
+    /**
+     * 按已注册的数据源创建DynamicDataSource
+     */
+    public DynamicDataSource dynamicDataSource() {
+        DynamicDataSource dynamicDataSource = new DynamicDataSource();
+        dynamicDataSource.setTargetDataSources(null);
+        dynamicDataSource.afterPropertiesSet();
+        return dynamicDataSource;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (Map.Entry<String , DataSource> entry : dataSources.entrySet()) {
+            execute(entry.getValue() , "drop all objects");
+            DataSourceConfig.dataSourceMap.remove(entry.getKey());
+        }
+        dataSources.clear();
+        DataSourceContext.setTenantRouter(TenantRoutingTable.modulo(Arrays.asList(CONSUMER1 , CONSUMER2)));
+        DataSourceContext.clearDbType();
+    }
+
+    public static void execute(DataSource dataSource , String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * 执行查询, 返回第一行第一列
+     */
+    public static long count(DataSource dataSource , String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
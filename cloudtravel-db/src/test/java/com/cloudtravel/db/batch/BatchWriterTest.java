@@ -0,0 +1,204 @@
+package com.cloudtravel.db.batch;
+
+import com.cloudtravel.common.exception.CloudTravelException;
+import com.cloudtravel.db.H2DataSources;
+import com.cloudtravel.db.config.DataSourceConnectionMonitor;
+import com.cloudtravel.db.config.DataSourceContext;
+import com.cloudtravel.db.config.DynamicDataSource;
+import com.cloudtravel.db.config.DynamicDataSourceTransactionFactory;
+import com.cloudtravel.db.config.SqlDbRoutingInterceptor;
+import com.cloudtravel.db.dao.DbSpDao;
+import com.cloudtravel.db.migration.TenantDualWriter;
+import com.cloudtravel.db.migration.TenantMigrationJob;
+import com.cloudtravel.db.migration.TenantMigrationProperties;
+import com.cloudtravel.db.model.DbSpModel;
+import com.cloudtravel.db.router.DefaultTenantRouter;
+import com.cloudtravel.db.router.TenantRouterProperties;
+import com.cloudtravel.db.router.TenantRoutingTable;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.cloudtravel.db.H2DataSources.CONSUMER1;
+import static com.cloudtravel.db.H2DataSources.CONSUMER2;
+import static com.cloudtravel.db.H2DataSources.count;
+import static com.cloudtravel.db.H2DataSources.execute;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 两个MySQL模式的H2内存库, 按租户取模分布: 偶数租户在consumer1, 奇数租户在consumer2
+ */
+class BatchWriterTest {
+
+    private static final String CREATE_TABLE = "create table t_sp_0 (SP_ID BIGINT PRIMARY KEY , TENANT_ID BIGINT NOT NULL , BIZ_ID BIGINT , "
+            + "SP_NAME VARCHAR(64) , REGISTER_DATE BIGINT , VERSION BIGINT , DEL_FLG BIT , ADD_ACTION VARCHAR(64) , "
+            + "ADD_ACCOUNT_ID BIGINT , ADD_TERM_IP VARCHAR(64) , ADD_DT BIGINT , UPD_ACTION VARCHAR(64) , "
+            + "UPD_ACCOUNT_ID BIGINT , UPD_TERM_IP VARCHAR(64) , UPD_DT BIGINT)";
+
+    private final H2DataSources h2 = new H2DataSources("batch_");
+
+    private DataSource consumer1;
+
+    private DataSource consumer2;
+
+    private DynamicDataSource dynamicDataSource;
+
+    private TenantDualWriter dualWriter;
+
+    private SqlSessionFactory sqlSessionFactory;
+
+    private BatchWriterProperties properties;
+
+    private BatchWriter batchWriter;
+
+    @BeforeEach
+    void init() throws Exception {
+        consumer1 = h2.create(CONSUMER1 , CREATE_TABLE);
+        consumer2 = h2.create(CONSUMER2 , CREATE_TABLE);
+        dynamicDataSource = h2.dynamicDataSource();
+        DataSourceContext.setTenantRouter(TenantRoutingTable.modulo(Arrays.asList(CONSUMER1 , CONSUMER2)));
+
+        DataSourceConnectionMonitor monitor = new DataSourceConnectionMonitor(dynamicDataSource , 30000L , 0L , false);
+        Configuration configuration = new Configuration(new Environment("test" ,
+                new DynamicDataSourceTransactionFactory(monitor) , dynamicDataSource));
+        try (InputStream mapper = Resources.getResourceAsStream("mapper/DbSpDao.xml")) {
+            new XMLMapperBuilder(mapper , configuration , "mapper/DbSpDao.xml" , configuration.getSqlFragments()).parse();
+        }
+        dualWriter = new TenantDualWriter(dynamicDataSource);
+        SqlDbRoutingInterceptor interceptor = new SqlDbRoutingInterceptor();
+        interceptor.setTenantDualWriter(dualWriter);
+        configuration.addInterceptor(interceptor);
+        sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+
+        properties = new BatchWriterProperties();
+        properties.setChunkSize(4);
+        properties.setPoolSize(2);
+        batchWriter = new BatchWriter(properties , sqlSessionFactory , dualWriter);
+    }
+
+    @AfterEach
+    void destroy() throws SQLException {
+        batchWriter.destroy();
+        h2.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(BatchWriterProperties.Mode.class)
+    void testInsert(BatchWriterProperties.Mode mode) throws SQLException {
+        properties.setMode(mode);
+        List<DbSpModel> records = new ArrayList<>();
+        for (long spId = 1; spId <= 25; spId++) {
+            records.add(newModel(spId , spId % 5 + 1));
+        }
+        assertEquals(25 , batchWriter.insert(DbSpDao.class , records , DbSpModel::getTenantId));
+        //租户2、4在consumer1, 租户1、3、5在consumer2
+        assertEquals(10 , count(consumer1 , "select count(*) from t_sp_0 where mod(TENANT_ID , 2) = 0"));
+        assertEquals(0 , count(consumer1 , "select count(*) from t_sp_0 where mod(TENANT_ID , 2) = 1"));
+        assertEquals(15 , count(consumer2 , "select count(*) from t_sp_0 where mod(TENANT_ID , 2) = 1"));
+        assertEquals(0 , count(consumer2 , "select count(*) from t_sp_0 where mod(TENANT_ID , 2) = 0"));
+        assertEquals(0 , batchWriter.insert(DbSpDao.class , new ArrayList<DbSpModel>() , DbSpModel::getTenantId));
+    }
+
+    @Test
+    void testShardFailure() throws SQLException {
+        execute(consumer2 , "insert into t_sp_0 (SP_ID , TENANT_ID) values (3 , 1)");
+        List<DbSpModel> records = Arrays.asList(newModel(2L , 2L) , newModel(3L , 1L) , newModel(4L , 4L));
+        IllegalStateException e = assertThrows(IllegalStateException.class ,
+                () -> batchWriter.insert(DbSpDao.class , records , DbSpModel::getTenantId));
+        assertTrue(e.getMessage().contains(CONSUMER2));
+        //consumer1不受影响
+        assertEquals(2 , count(consumer1 , "select count(*) from t_sp_0"));
+    }
+
+    @Test
+    void testMigratingTenantSkipsJdbcBatch() throws SQLException {
+        properties.setMode(BatchWriterProperties.Mode.JDBC_BATCH);
+        TenantRouterProperties routerProperties = new TenantRouterProperties();
+        routerProperties.getShards().addAll(Arrays.asList(CONSUMER1 , CONSUMER2));
+        DefaultTenantRouter tenantRouter = new DefaultTenantRouter(routerProperties , dynamicDataSource);
+        tenantRouter.afterPropertiesSet();
+        TenantMigrationProperties migrationProperties = new TenantMigrationProperties();
+        migrationProperties.setRowsPerSecond(1000000D);
+        TenantMigrationProperties.Table table = new TenantMigrationProperties.Table();
+        table.setName("t_sp_0");
+        table.setPrimaryKey("SP_ID");
+        migrationProperties.getTables().add(table);
+        TenantMigrationJob job = new TenantMigrationJob(migrationProperties , tenantRouter , dualWriter);
+        //租户1从consumer2迁往consumer1
+        job.start("1" , CONSUMER1);
+        job.copy("1");
+        job.startDualWrite("1");
+
+        execute(consumer2 , "insert into t_sp_0 (SP_ID , TENANT_ID) values (7 , 1)");
+        List<DbSpModel> records = new ArrayList<>();
+        for (long spId = 1; spId <= 7; spId++) {
+            records.add(newModel(spId , 1L));
+        }
+        assertThrows(IllegalStateException.class , () -> batchWriter.insert(DbSpDao.class , records , DbSpModel::getTenantId));
+        //第一批在源库提交后双写; 第二批在源库整体失败, 不会写入目标库
+        assertEquals(5 , count(consumer2 , "select count(*) from t_sp_0"));
+        assertEquals(4 , count(consumer1 , "select count(*) from t_sp_0"));
+        assertEquals(1 , job.getProgress("1").getDualWrites());
+    }
+
+    @Test
+    void testMapperInsertBatch() throws SQLException {
+        try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+            DbSpDao dao = sqlSession.getMapper(DbSpDao.class);
+            //租户1、3都在consumer2, 一条语句写入
+            assertEquals(2 , dao.insertBatch(Arrays.asList(newModel(1L , 1L) , newModel(2L , 3L))));
+            assertEquals(2 , count(consumer2 , "select count(*) from t_sp_0"));
+            //跨数据源的多行insert无法路由
+            assertThrows(CloudTravelException.class , () -> unwrap(() -> dao.insertBatch(Arrays.asList(newModel(3L , 1L) , newModel(4L , 2L)))));
+            sqlSession.commit();
+        }
+        assertEquals(0 , count(consumer1 , "select count(*) from t_sp_0"));
+    }
+
+    /**
+     * mybatis把拦截器中的异常包装为PersistenceException
+     */
+    private static void unwrap(Runnable runnable) throws Throwable {
+        try {
+            runnable.run();
+        } catch (RuntimeException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null && !(cause instanceof CloudTravelException)) {
+                cause = cause.getCause();
+            }
+            throw cause;
+        }
+    }
+
+    private static DbSpModel newModel(Long spId , Long tenantId) {
+        DbSpModel model = new DbSpModel();
+        model.setSpId(spId);
+        model.setTenantId(tenantId);
+        model.setBizId(100L);
+        model.setSpName("sp" + spId);
+        model.setRegisterDate(20211201L);
+        model.setVersion(1L);
+        model.setDelFlg(false);
+        model.setAddAction("test");
+        model.setAddDt(System.currentTimeMillis());
+        return model;
+    }
+}
@@ -0,0 +1,148 @@
+package com.cloudtravel.db.config;
+
+import com.cloudtravel.db.H2DataSources;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static com.cloudtravel.db.H2DataSources.CONSUMER1;
+import static com.cloudtravel.db.H2DataSources.CONSUMER2;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多数据源事务: 每个数据源只取一次连接、提交/回滚覆盖所有数据源、close归还所有连接, 以及泄漏检测
+ */
+class DynamicDataSourceTransactionTest {
+
+    private static final String CREATE_TABLE = "create table t_test (ID BIGINT PRIMARY KEY)";
+
+    private final H2DataSources h2 = new H2DataSources("tx_");
+
+    private DataSource consumer1;
+
+    private DataSource consumer2;
+
+    private DynamicDataSource dynamicDataSource;
+
+    private DataSourceConnectionMonitor monitor;
+
+    @BeforeEach
+    void init() throws SQLException {
+        consumer1 = h2.create(CONSUMER1 , CREATE_TABLE);
+        consumer2 = h2.create(CONSUMER2 , CREATE_TABLE);
+        dynamicDataSource = h2.dynamicDataSource();
+        monitor = new DataSourceConnectionMonitor(dynamicDataSource , 50L , 0L , true);
+    }
+
+    @AfterEach
+    void destroy() throws SQLException {
+        h2.close();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+    }
+
+    @Test
+    void testConnectionPerDataSource() throws SQLException {
+        DynamicDataSourceTransaction transaction = new DynamicDataSourceTransaction(dynamicDataSource , monitor);
+        DataSourceContext.setDataSourceKey(CONSUMER1);
+        Connection connection1 = transaction.getConnection();
+        assertSame(connection1 , transaction.getConnection());
+        DataSourceContext.setDataSourceKey(CONSUMER2);
+        Connection connection2 = transaction.getConnection();
+        assertNotSame(connection1 , connection2);
+        assertSame(connection2 , transaction.getConnection());
+        DataSourceContext.setDataSourceKey(CONSUMER1);
+        assertSame(connection1 , transaction.getConnection());
+        //没有spring事务时自动提交
+        assertTrue(connection1.getAutoCommit());
+
+        transaction.commit();
+        transaction.close();
+        assertTrue(connection1.isClosed());
+        assertTrue(connection2.isClosed());
+        assertEquals(1 , monitor.getStats().get(CONSUMER1).getAcquired());
+        assertEquals(2 , monitor.getStats().get(CONSUMER1).getReused());
+        assertEquals(0 , monitor.getStats().get(CONSUMER1).getActive());
+        assertEquals(1 , monitor.getStats().get(CONSUMER2).getReleased());
+
+        DataSourceContext.setDataSourceKey("unknown");
+        assertThrows(IllegalStateException.class , () -> new DynamicDataSourceTransaction(dynamicDataSource , monitor).getConnection());
+    }
+
+    @Test
+    void testCommitAndRollback() throws SQLException {
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        DynamicDataSourceTransaction transaction = writeBoth(1);
+        transaction.commit();
+        transaction.close();
+        assertEquals(1 , count(consumer1));
+        assertEquals(1 , count(consumer2));
+
+        transaction = writeBoth(2);
+        transaction.rollback();
+        transaction.close();
+        assertEquals(1 , count(consumer1));
+        assertEquals(1 , count(consumer2));
+
+        //未提交也未回滚就关闭时回滚
+        transaction = writeBoth(3);
+        transaction.close();
+        assertEquals(1 , count(consumer1));
+        assertEquals(1 , count(consumer2));
+        assertEquals(0 , monitor.getStats().get(CONSUMER1).getActive());
+        assertEquals(0 , monitor.getStats().get(CONSUMER2).getActive());
+    }
+
+    @Test
+    void testLeakDetection() throws Exception {
+        DynamicDataSourceTransaction transaction = new DynamicDataSourceTransaction(dynamicDataSource , monitor);
+        DataSourceContext.setDataSourceKey(CONSUMER2);
+        transaction.getConnection();
+        assertEquals(0 , monitor.checkLeaks());
+        Thread.sleep(100L);
+        assertEquals(1 , monitor.checkLeaks());
+        //只报告一次
+        assertEquals(0 , monitor.checkLeaks());
+        assertEquals(1 , monitor.getStats().get(CONSUMER2).getActive());
+
+        transaction.close();
+        assertEquals(0 , monitor.getStats().get(CONSUMER2).getActive());
+        assertEquals(1 , monitor.getStats().get(CONSUMER2).getLeaked());
+        assertTrue(monitor.getPoolUsage().isEmpty());
+    }
+
+    private DynamicDataSourceTransaction writeBoth(int id) throws SQLException {
+        DynamicDataSourceTransaction transaction = new DynamicDataSourceTransaction(dynamicDataSource , monitor);
+        for (String dataSourceKey : new String[]{CONSUMER1 , CONSUMER2}) {
+            DataSourceContext.setDataSourceKey(dataSourceKey);
+            Connection connection = transaction.getConnection();
+            assertFalse(connection.getAutoCommit());
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("insert into t_test values (" + id + ")");
+            }
+        }
+        return transaction;
+    }
+
+    private static int count(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select count(*) from t_test")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
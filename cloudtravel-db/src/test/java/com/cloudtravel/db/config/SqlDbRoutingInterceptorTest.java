@@ -0,0 +1,283 @@
+package com.cloudtravel.db.config;
+
+import com.cloudtravel.common.exception.CloudTravelException;
+import com.cloudtravel.db.annotation.TenantKey;
+import com.cloudtravel.db.config.SqlDbRoutingInterceptor.RoutingMode;
+import com.cloudtravel.db.model.DbSpModel;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 各路由方式的路由结果(占位符、常量、公共表、IN条件、@TenantKey、多行insert、缺少租户), 以及单条语句的路由开销对比
+ */
+class SqlDbRoutingInterceptorTest {
+
+    private static final String NAMESPACE = RoutingMapper.class.getName();
+
+    private static final String MAPPER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n"
+            + "<mapper namespace=\"" + NAMESPACE + "\">\n"
+            + "  <select id=\"selectByTenant\" resultType=\"map\">\n"
+            + "    select SP_ID from t_sp_0 where SP_ID = #{spId} and TENANT_ID = #{tenantId}\n"
+            + "  </select>\n"
+            + "  <select id=\"selectBySimpleParam\" parameterType=\"java.lang.Long\" resultType=\"map\">\n"
+            + "    select SP_ID from t_sp_0 where t_sp_0.TENANT_ID = #{tenantId}\n"
+            + "  </select>\n"
+            + "  <select id=\"selectByLiteral\" resultType=\"map\">\n"
+            + "    select SP_ID from t_sp_0 where TENANT_ID = 5 and SP_ID = #{spId}\n"
+            + "  </select>\n"
+            + "  <select id=\"selectByIn\" resultType=\"map\">\n"
+            + "    select SP_ID from t_sp_0 where TENANT_ID in (#{tenantId})\n"
+            + "  </select>\n"
+            + "  <select id=\"selectPublic\" resultType=\"map\">\n"
+            + "    select id from b_user where id = #{id}\n"
+            + "  </select>\n"
+            + "  <select id=\"selectByAnnotatedParam\" resultType=\"map\">\n"
+            + "    select SP_ID from t_sp_0 where SP_ID = #{spId}\n"
+            + "  </select>\n"
+            + "  <select id=\"selectByOptionalTenant\" resultType=\"map\">\n"
+            + "    select SP_ID from t_sp_0 <where> <if test=\"tenantId != null\">TENANT_ID = #{tenantId}</if> and SP_ID = #{spId} </where>\n"
+            + "  </select>\n"
+            + "  <insert id=\"insert\" parameterType=\"com.cloudtravel.db.model.DbSpModel\">\n"
+            + "    insert into t_sp_0 (SP_ID, TENANT_ID, BIZ_ID, SP_NAME, REGISTER_DATE, VERSION, ADD_ACTION, ADD_DT)\n"
+            + "    values (#{spId}, #{tenantId}, #{bizId}, #{spName}, #{registerDate}, #{version}, #{addAction}, #{addDt})\n"
+            + "  </insert>\n"
+            + "  <insert id=\"insertBatch\">\n"
+            + "    insert into t_sp_0 (SP_ID, TENANT_ID, SP_NAME) values\n"
+            + "    <foreach collection=\"records\" item=\"item\" separator=\",\">(#{item.spId}, #{item.tenantId}, #{item.spName})</foreach>\n"
+            + "  </insert>\n"
+            + "  <insert id=\"insertWithoutTenant\">\n"
+            + "    insert into t_sp_0 (SP_ID, SP_NAME) values (#{spId}, #{spName})\n"
+            + "  </insert>\n"
+            + "</mapper>";
+
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 200000;
+
+    private Configuration configuration;
+
+    private SqlDbRoutingInterceptor interceptor;
+
+    @BeforeEach
+    void init() {
+        configuration = new Configuration();
+        new XMLMapperBuilder(new ByteArrayInputStream(MAPPER.getBytes(StandardCharsets.UTF_8)) ,
+                configuration , "RoutingMapper.xml" , configuration.getSqlFragments()).parse();
+        interceptor = new SqlDbRoutingInterceptor();
+    }
+
+    @AfterEach
+    void destroy() {
+        DataSourceContext.clearDbType();
+    }
+
+    @ParameterizedTest
+    @EnumSource(RoutingMode.class)
+    void testRoute(RoutingMode routingMode) throws Exception {
+        setRoutingMode(routingMode);
+        Map<String , Object> param = new HashMap<>();
+        param.put("spId" , 1L);
+        param.put("tenantId" , 3L);
+        //第二次走缓存
+        for (int i = 0; i < 2; i++) {
+            assertRoute("selectByTenant" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+            param.put("tenantId" , 4L);
+            assertRoute("selectByTenant" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+            param.put("tenantId" , 3L);
+        }
+        assertRoute("selectBySimpleParam" , 7L , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        assertRoute("selectByLiteral" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        assertRoute("selectByIn" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        assertRoute("selectPublic" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+
+        DbSpModel model = newModel(9L);
+        assertRoute("insert" , model , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        model.setTenantId(10L);
+        assertRoute("insert" , model , DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+    }
+
+    @Test
+    void testRouteByTenantKey() throws Exception {
+        Map<String , Object> param = new HashMap<>();
+        param.put("tenant" , 5L);
+        param.put("spId" , 1L);
+        param.put("param1" , 5L);
+        param.put("param2" , 1L);
+        assertRoute("selectByAnnotatedParam" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        param.put("tenant" , 6L);
+        assertRoute("selectByAnnotatedParam" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+
+        //sql中没有TENANT_ID, 只能按参数路由
+        setRoutingMode(RoutingMode.SQL);
+        assertThrows(Exception.class , () -> assertRoute("selectByAnnotatedParam" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER1));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = RoutingMode.class , names = {"SQL" , "PARAMETER"})
+    void testRouteWithoutTenant(RoutingMode routingMode) throws Exception {
+        setRoutingMode(routingMode);
+        Map<String , Object> param = new HashMap<>();
+        param.put("spId" , 1L);
+        param.put("tenantId" , 3L);
+        assertRoute("selectByOptionalTenant" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        //同一语句本次没有生成TENANT_ID条件, 不能按缓存的租户参数路由到"null"
+        param.put("tenantId" , null);
+        assertThrows(CloudTravelException.class , () -> assertRoute("selectByOptionalTenant" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER2));
+        //有TENANT_ID条件但参数值为null
+        assertThrows(CloudTravelException.class , () -> assertRoute("selectByTenant" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER2));
+        param.put("tenantId" , 4L);
+        assertRoute("selectByOptionalTenant" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+    }
+
+    @ParameterizedTest
+    @EnumSource(RoutingMode.class)
+    void testRouteInsertBatch(RoutingMode routingMode) throws Exception {
+        setRoutingMode(routingMode);
+        assertRoute("insertBatch" , batch(3L , 5L) , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        assertRoute("insertBatch" , batch(4L , 6L , 8L , 10L , 12L) , DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+        assertRoute("insertBatch" , batch(7L) , DataSourceEnums.CLOUDTRAVEL_CONSUMER2);
+        assertThrows(CloudTravelException.class , () -> assertRoute("insertBatch" , batch(4L , 7L , 8L) , DataSourceEnums.CLOUDTRAVEL_CONSUMER1));
+    }
+
+    @Test
+    void testPlanKeyOfInsertBatch() {
+        String sqlId = NAMESPACE + ".insertBatch";
+        MappedStatement mappedStatement = configuration.getMappedStatement(sqlId);
+        SqlDbRoutingInterceptor.PlanKey two = SqlDbRoutingInterceptor.PlanKey.of(sqlId , mappedStatement.getBoundSql(batch(1L , 2L)).getSql() , true);
+        SqlDbRoutingInterceptor.PlanKey five = SqlDbRoutingInterceptor.PlanKey.of(sqlId , mappedStatement.getBoundSql(batch(1L , 2L , 3L , 4L , 5L)).getSql() , true);
+        SqlDbRoutingInterceptor.PlanKey one = SqlDbRoutingInterceptor.PlanKey.of(sqlId , mappedStatement.getBoundSql(batch(1L)).getSql() , true);
+        //不同行数共用一个计划, 与单行insert不同
+        assertEquals(2 , two.getRows());
+        assertEquals(5 , five.getRows());
+        assertEquals(1 , one.getRows());
+        assertEquals(two.getKey() , five.getKey());
+        assertNotEquals(one.getKey() , two.getKey());
+        //各行不同的多行insert不归一化
+        String sql = "insert into t_sp_0 (SP_ID, TENANT_ID) values (?, ?), (?, 3) on duplicate key update SP_NAME = 'a),(b'";
+        SqlDbRoutingInterceptor.PlanKey mixed = SqlDbRoutingInterceptor.PlanKey.of(sqlId , sql , true);
+        assertEquals(2 , mixed.getRows());
+        assertTrue(mixed.getKey().endsWith(sql));
+    }
+
+    @ParameterizedTest
+    @EnumSource(RoutingMode.class)
+    void testRouteInsertWithoutTenant(RoutingMode routingMode) {
+        setRoutingMode(routingMode);
+        Map<String , Object> param = new HashMap<>();
+        param.put("spId" , 1L);
+        param.put("spName" , "sp");
+        CloudTravelException e = assertThrows(CloudTravelException.class ,
+                () -> assertRoute("insertWithoutTenant" , param , DataSourceEnums.CLOUDTRAVEL_CONSUMER1));
+        assertTrue(e.getMessage().contains("TENANT_ID") , e.getMessage());
+    }
+
+    /**
+     * 单条语句的路由开销(不含执行sql), 每种方式先预热再计时, 并统计当前线程的内存分配
+     */
+    @Test
+    void testOverhead() throws Exception {
+        DbSpModel model = newModel(9L);
+        Map<String , Object> param = new HashMap<>();
+        param.put("spId" , 1L);
+        param.put("tenantId" , 3L);
+        StringBuilder report = new StringBuilder();
+        for (RoutingMode routingMode : RoutingMode.values()) {
+            interceptor = new SqlDbRoutingInterceptor();
+            setRoutingMode(routingMode);
+            report.append(routingMode).append(": insert ").append(measure("insert" , model))
+                    .append(" , select ").append(measure("selectByTenant" , param)).append('\n');
+        }
+        System.out.print(report);
+    }
+
+    private String measure(String statementId , Object param) throws Exception {
+        MappedStatement mappedStatement = configuration.getMappedStatement(NAMESPACE + "." + statementId);
+        BoundSql boundSql = mappedStatement.getBoundSql(param);
+        for (int i = 0; i < WARMUP; i++) {
+            interceptor.executeDbRouting(mappedStatement , boundSql);
+        }
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            interceptor.executeDbRouting(mappedStatement , boundSql);
+        }
+        long cost = System.nanoTime() - begin;
+        long bytes = allocatedBytes() - allocated;
+        return cost / ITERATIONS + "ns/op" + (allocated < 0 ? "" : "(" + bytes / ITERATIONS + "B/op)");
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    private void setRoutingMode(RoutingMode routingMode) {
+        Properties properties = new Properties();
+        properties.setProperty("routingMode" , routingMode.name());
+        interceptor.setProperties(properties);
+    }
+
+    private void assertRoute(String statementId , Object param , DataSourceEnums expected) throws Exception {
+        //先设置为另一个数据源, 确认确实发生了路由
+        DataSourceContext.setDataSourceType(expected == DataSourceEnums.CLOUDTRAVEL_CONSUMER1
+                ? DataSourceEnums.CLOUDTRAVEL_CONSUMER2 : DataSourceEnums.CLOUDTRAVEL_CONSUMER1);
+        MappedStatement mappedStatement = configuration.getMappedStatement(NAMESPACE + "." + statementId);
+        interceptor.executeDbRouting(mappedStatement , mappedStatement.getBoundSql(param));
+        assertEquals(expected.getKey() , DataSourceContext.getCurrentDataSourceKey());
+    }
+
+    private static Map<String , Object> batch(Long... tenantIds) {
+        List<DbSpModel> records = new ArrayList<>();
+        for (Long tenantId : tenantIds) {
+            records.add(newModel(tenantId));
+        }
+        Map<String , Object> param = new HashMap<>();
+        param.put("records" , records);
+        return param;
+    }
+
+    private static DbSpModel newModel(Long tenantId) {
+        DbSpModel model = new DbSpModel();
+        model.setSpId(1L);
+        model.setTenantId(tenantId);
+        model.setBizId(100L);
+        model.setSpName("sp");
+        model.setRegisterDate(20211201L);
+        model.setVersion(1L);
+        model.setAddAction("test");
+        model.setAddDt(System.currentTimeMillis());
+        return model;
+    }
+
+    interface RoutingMapper {
+
+        List<Map<String , Object>> selectByAnnotatedParam(@TenantKey @Param("tenant") Long tenant , @Param("spId") Long spId);
+    }
+}
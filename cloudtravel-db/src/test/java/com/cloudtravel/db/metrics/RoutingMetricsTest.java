@@ -0,0 +1,135 @@
+package com.cloudtravel.db.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按statement/shard记录的耗时、行数、失败次数, 路由缓存命中, 以及慢语句的环形缓冲
+ */
+class RoutingMetricsTest {
+
+    private static final String SELECT = "com.cloudtravel.db.dao.DbSpDao.selectByPrimaryKey";
+
+    private static final String INSERT = "com.cloudtravel.db.dao.DbSpDao.insert";
+
+    private static final String CONSUMER1 = "cloudtravel-consumer1";
+
+    private static final String CONSUMER2 = "cloudtravel-consumer2";
+
+    /** 未达到阈值时不应获取sql */
+    private static final Supplier<String> NO_SQL = () -> {
+        throw new AssertionError("sql should not be captured");
+    };
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private RoutingMetricsProperties properties;
+
+    private RoutingMetrics routingMetrics;
+
+    @BeforeEach
+    void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new RoutingMetricsProperties();
+        properties.setSlowThresholdMillis(100L);
+        properties.setSlowSampleSize(2);
+        routingMetrics = new RoutingMetrics(properties , meterRegistry);
+    }
+
+    @Test
+    void testStatementStats() {
+        routingMetrics.recordStatement(SELECT , CONSUMER1 , millis(2) , 1 , true , NO_SQL);
+        routingMetrics.recordStatement(SELECT , CONSUMER1 , millis(4) , 0 , true , NO_SQL);
+        routingMetrics.recordStatement(SELECT , CONSUMER2 , millis(1) , 1 , true , NO_SQL);
+        routingMetrics.recordStatement(INSERT , CONSUMER2 , millis(50) , 20 , true , NO_SQL);
+        routingMetrics.recordStatement(INSERT , CONSUMER2 , millis(3) , -1 , false , NO_SQL);
+        routingMetrics.recordStatement(INSERT , null , millis(1) , -1 , false , NO_SQL);
+
+        assertEquals(2L , meterRegistry.get(RoutingMetrics.STATEMENT).tag("statement" , SELECT).tag("shard" , CONSUMER1).timer().count());
+        assertEquals(1L , meterRegistry.get(RoutingMetrics.STATEMENT).tag("statement" , SELECT).tag("shard" , CONSUMER2).timer().count());
+        assertEquals(1D , meterRegistry.get(RoutingMetrics.STATEMENT_ERRORS).tag("shard" , "unknown").counter().count());
+
+        //按总耗时倒序, 失败的执行只计入errors
+        List<Map<String , Object>> stats = routingMetrics.getStatementStats();
+        assertEquals(4 , stats.size());
+        Map<String , Object> insert = stats.get(0);
+        assertEquals(INSERT , insert.get("statement"));
+        assertEquals(CONSUMER2 , insert.get("shard"));
+        assertEquals(1L , insert.get("count"));
+        assertEquals(1L , insert.get("errors"));
+        assertEquals(20L , insert.get("rows"));
+        assertEquals(50D , (Double) insert.get("maxMillis") , 0.001D);
+        Map<String , Object> select = stats.get(1);
+        assertEquals(SELECT , select.get("statement"));
+        assertEquals(CONSUMER1 , select.get("shard"));
+        assertEquals(6D , (Double) select.get("totalMillis") , 0.001D);
+        assertEquals(3D , (Double) select.get("meanMillis") , 0.001D);
+        assertEquals(1L , select.get("rows"));
+        assertEquals(3 , ((Map<?, ?>) select.get("percentileMillis")).size());
+    }
+
+    @Test
+    void testRoutingAndCache() {
+        routingMetrics.recordRouting(SELECT , TimeUnit.MICROSECONDS.toNanos(30));
+        routingMetrics.recordRouting(SELECT , TimeUnit.MICROSECONDS.toNanos(10));
+        routingMetrics.recordCache("plan" , false);
+        routingMetrics.recordCache("plan" , true);
+        routingMetrics.recordCache("plan" , true);
+        routingMetrics.recordCache("resolver" , true);
+
+        Map<String , Object> routing = routingMetrics.getRoutingStats().get(SELECT);
+        assertEquals(2L , routing.get("count"));
+        assertEquals(20D , (Double) routing.get("meanMicros") , 0.001D);
+        assertEquals(2L , routingMetrics.getCacheStats().get("plan").get("hit"));
+        assertEquals(1L , routingMetrics.getCacheStats().get("plan").get("miss"));
+        assertEquals(0L , routingMetrics.getCacheStats().get("resolver").get("miss"));
+        assertEquals(2D , meterRegistry.get(RoutingMetrics.ROUTING_CACHE).tag("cache" , "plan").tag("result" , "hit").counter().count());
+    }
+
+    @Test
+    void testSlowStatements() {
+        routingMetrics.recordStatement(SELECT , CONSUMER1 , millis(99) , 1 , true , NO_SQL);
+        assertTrue(routingMetrics.getSlowStatements().isEmpty());
+
+        routingMetrics.recordStatement(SELECT , CONSUMER1 , millis(100) , 1 , true , () -> "select *\n    from t_sp_0  where SP_ID = ?");
+        routingMetrics.recordStatement(INSERT , CONSUMER2 , millis(300) , -1 , false , () -> "insert into t_sp_0 values (?)");
+        List<SlowStatement> slowStatements = routingMetrics.getSlowStatements();
+        assertEquals(2 , slowStatements.size());
+        assertEquals(INSERT , slowStatements.get(0).getStatementId());
+        assertFalse(slowStatements.get(0).isSuccess());
+        assertEquals(300L , slowStatements.get(0).getElapsedMillis());
+        assertEquals("select * from t_sp_0 where SP_ID = ?" , slowStatements.get(1).getSql());
+
+        //只保留最近slowSampleSize条
+        routingMetrics.recordStatement(SELECT , CONSUMER2 , millis(200) , 3 , true , () -> "select 1");
+        slowStatements = routingMetrics.getSlowStatements();
+        assertEquals(2 , slowStatements.size());
+        assertEquals(CONSUMER2 , slowStatements.get(0).getShard());
+        assertEquals(3 , slowStatements.get(0).getRows());
+        assertEquals(INSERT , slowStatements.get(1).getStatementId());
+    }
+
+    @Test
+    void testDisabled() {
+        properties.setEnabled(false);
+        routingMetrics.recordRouting(SELECT , millis(1));
+        routingMetrics.recordCache("plan" , true);
+        routingMetrics.recordStatement(SELECT , CONSUMER1 , millis(1000) , 1 , true , NO_SQL);
+        assertTrue(meterRegistry.getMeters().isEmpty());
+        assertTrue(routingMetrics.getSlowStatements().isEmpty());
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,254 @@
+package com.cloudtravel.db.migration;
+
+import com.cloudtravel.db.H2DataSources;
+import com.cloudtravel.db.config.DynamicDataSource;
+import com.cloudtravel.db.config.SqlDbRoutingInterceptor;
+import com.cloudtravel.db.migration.MigrationProgress.Phase;
+import com.cloudtravel.db.router.DefaultTenantRouter;
+import com.cloudtravel.db.router.TenantRouterProperties;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudtravel.db.H2DataSources.CONSUMER1;
+import static com.cloudtravel.db.H2DataSources.CONSUMER2;
+import static com.cloudtravel.db.H2DataSources.execute;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 两个MySQL模式的H2内存库之间迁移租户: 复制、双写、校验修复、切换以及切换时等待未提交的事务
+ */
+class TenantMigrationJobTest {
+
+    private static final String CREATE_TABLE = "create table t_sp_0 (SP_ID BIGINT PRIMARY KEY , TENANT_ID BIGINT NOT NULL , SP_NAME VARCHAR(64) , VERSION BIGINT)";
+
+    private static final String NAMESPACE = "com.cloudtravel.db.migration.MigrationMapper";
+
+    private static final String MAPPER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n"
+            + "<mapper namespace=\"" + NAMESPACE + "\">\n"
+            + "  <insert id=\"insert\">\n"
+            + "    insert into t_sp_0 (SP_ID, TENANT_ID, SP_NAME, VERSION) values (#{spId}, #{tenantId}, #{spName}, 1)\n"
+            + "  </insert>\n"
+            + "  <update id=\"update\">\n"
+            + "    update t_sp_0 set SP_NAME = #{spName}, VERSION = VERSION + 1 where SP_ID = #{spId} and TENANT_ID = #{tenantId}\n"
+            + "  </update>\n"
+            + "  <delete id=\"delete\">\n"
+            + "    delete from t_sp_0 where SP_ID = #{spId} and TENANT_ID = #{tenantId}\n"
+            + "  </delete>\n"
+            + "</mapper>";
+
+    private final H2DataSources h2 = new H2DataSources("migration_");
+
+    private DataSource consumer1;
+
+    private DataSource consumer2;
+
+    private DefaultTenantRouter tenantRouter;
+
+    private TenantMigrationJob job;
+
+    private SqlSessionFactory sqlSessionFactory;
+
+    @BeforeEach
+    void init() throws Exception {
+        consumer1 = h2.create(CONSUMER1 , CREATE_TABLE);
+        consumer2 = h2.create(CONSUMER2 , CREATE_TABLE);
+        DynamicDataSource dynamicDataSource = h2.dynamicDataSource();
+
+        TenantRouterProperties routerProperties = new TenantRouterProperties();
+        routerProperties.getShards().addAll(Arrays.asList(CONSUMER1 , CONSUMER2));
+        tenantRouter = new DefaultTenantRouter(routerProperties , dynamicDataSource);
+        tenantRouter.afterPropertiesSet();
+
+        TenantMigrationProperties properties = new TenantMigrationProperties();
+        properties.setBatchSize(7);
+        properties.setRowsPerSecond(1000000D);
+        properties.setCutoverTimeoutMillis(200L);
+        TenantMigrationProperties.Table table = new TenantMigrationProperties.Table();
+        table.setName("t_sp_0");
+        table.setPrimaryKey("SP_ID");
+        properties.getTables().add(table);
+        TenantDualWriter dualWriter = new TenantDualWriter(dynamicDataSource);
+        job = new TenantMigrationJob(properties , tenantRouter , dualWriter);
+
+        Configuration configuration = new Configuration(new Environment("test" , new JdbcTransactionFactory() , dynamicDataSource));
+        new XMLMapperBuilder(new ByteArrayInputStream(MAPPER.getBytes(StandardCharsets.UTF_8)) ,
+                configuration , "MigrationMapper.xml" , configuration.getSqlFragments()).parse();
+        SqlDbRoutingInterceptor interceptor = new SqlDbRoutingInterceptor();
+        interceptor.setTenantDualWriter(dualWriter);
+        configuration.addInterceptor(interceptor);
+        sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+
+        //租户7按取模在consumer2, consumer1中有一条之前残留的数据
+        for (long spId = 1; spId <= 20; spId++) {
+            execute(consumer2 , "insert into t_sp_0 values (" + spId + " , 7 , 'sp" + spId + "' , 1)");
+        }
+        execute(consumer2 , "insert into t_sp_0 values (101 , 9 , 'other' , 1)");
+        execute(consumer1 , "insert into t_sp_0 values (201 , 8 , 'other' , 1)");
+        execute(consumer1 , "insert into t_sp_0 values (50 , 7 , 'stale' , 1)");
+    }
+
+    @AfterEach
+    void destroy() throws Exception {
+        h2.close();
+    }
+
+    @Test
+    void testMigrate() throws Exception {
+        assertEquals(CONSUMER2 , tenantRouter.route("7"));
+        MigrationProgress progress = job.start("7" , CONSUMER1);
+        job.copy("7");
+        assertEquals(20 , progress.getCopiedRows());
+
+        //开启双写前的修改只在源库, 由校验修复
+        write("update" , 3L , "changed");
+        job.startDualWrite("7");
+        write("insert" , 21L , "sp21");
+        write("update" , 5L , "changed");
+        write("delete" , 6L , null);
+        assertEquals(3 , progress.getDualWrites());
+        assertEquals(0 , progress.getDualWriteFailures());
+
+        assertTrue(job.verify("7"));
+        assertTrue(progress.getMismatchedChunks() > 0);
+        assertEquals(2 , progress.getRepairedRows());
+        assertEquals(rows(consumer2 , 7) , rows(consumer1 , 7));
+
+        job.cutover("7");
+        assertEquals(Phase.DONE , progress.getPhase());
+        assertEquals(CONSUMER1 , tenantRouter.route("7"));
+        assertEquals(CONSUMER2 , tenantRouter.route("9"));
+
+        //切换后只写目标库
+        write("insert" , 22L , "sp22");
+        assertEquals(21 , rows(consumer1 , 7).size());
+        assertEquals(20 , rows(consumer2 , 7).size());
+        assertEquals(Arrays.asList("201,other,1") , rows(consumer1 , 8));
+        assertTrue(rows(consumer1 , 9).isEmpty());
+        assertEquals(progress , job.getProgress("7"));
+    }
+
+    @Test
+    void testCutoverSurvivesReload() throws Exception {
+        job.migrate("7" , CONSUMER1);
+        assertEquals(CONSUMER1 , tenantRouter.route("7"));
+
+        //重新加载配置(如外部文件修改)后, 已迁移的租户仍路由到目标库
+        TenantRouterProperties reloaded = new TenantRouterProperties();
+        reloaded.getShards().addAll(Arrays.asList(CONSUMER1 , CONSUMER2));
+        tenantRouter.reload(reloaded);
+        assertEquals(CONSUMER1 , tenantRouter.route("7"));
+        assertEquals(CONSUMER2 , tenantRouter.route("9"));
+        write("insert" , 22L , "sp22");
+        assertEquals("sp22" , name(consumer1 , 22L));
+        assertEquals(20 , rows(consumer2 , 7).size());
+
+        //新配置显式指定该租户时以配置为准, 之后不再保留切换结果
+        reloaded.getOverrides().put("7" , CONSUMER2);
+        tenantRouter.reload(reloaded);
+        assertEquals(CONSUMER2 , tenantRouter.route("7"));
+        reloaded.getOverrides().clear();
+        tenantRouter.reload(reloaded);
+        assertEquals(CONSUMER2 , tenantRouter.route("7"));
+    }
+
+    @Test
+    void testCutoverWaitsForTransaction() throws Exception {
+        job.start("7" , CONSUMER1);
+        job.copy("7");
+        job.startDualWrite("7");
+        assertTrue(job.verify("7"));
+
+        //事务中的写操作提交后才双写, 提交前不能切换
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            write("update" , 1L , "in transaction");
+            assertEquals("sp1" , name(consumer1 , 1L));
+            ExecutionException e = assertThrows(ExecutionException.class ,
+                    () -> CompletableFuture.runAsync(() -> job.cutover("7")).get(5 , TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals(CONSUMER2 , tenantRouter.route("7"));
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals("in transaction" , name(consumer1 , 1L));
+
+        job.cutover("7");
+        assertEquals(CONSUMER1 , tenantRouter.route("7"));
+        assertEquals(rows(consumer2 , 7) , rows(consumer1 , 7));
+    }
+
+    @Test
+    void testStartAndAbort() {
+        assertThrows(IllegalStateException.class , () -> job.start("7" , CONSUMER2));
+        assertThrows(IllegalStateException.class , () -> job.start("7" , "unknown"));
+        job.start("7" , CONSUMER1);
+        assertThrows(IllegalStateException.class , () -> job.start("7" , CONSUMER1));
+        assertThrows(IllegalStateException.class , () -> job.cutover("7"));
+
+        job.abort("7" , "canceled");
+        assertEquals(Phase.FAILED , job.getProgress("7").getPhase());
+        assertEquals(CONSUMER2 , tenantRouter.route("7"));
+        assertThrows(IllegalStateException.class , () -> job.copy("7"));
+    }
+
+    private void write(String statement , Long spId , String spName) {
+        Map<String , Object> param = new HashMap<>();
+        param.put("spId" , spId);
+        param.put("tenantId" , 7L);
+        param.put("spName" , spName);
+        //与SqlSessionTemplate无事务时相同, 每条语句一个SqlSession
+        try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+            sqlSession.update(NAMESPACE + "." + statement , param);
+        }
+    }
+
+    private static List<String> rows(DataSource dataSource , long tenantId) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select SP_ID , SP_NAME , VERSION from t_sp_0 where TENANT_ID = " + tenantId + " order by SP_ID")) {
+            while (resultSet.next()) {
+                rows.add(resultSet.getLong(1) + "," + resultSet.getString(2) + "," + resultSet.getLong(3));
+            }
+        }
+        return rows;
+    }
+
+    private static String name(DataSource dataSource , long spId) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select SP_NAME from t_sp_0 where SP_ID = " + spId)) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.cloudtravel.db.replica;
+
+import com.cloudtravel.db.H2DataSources;
+import com.cloudtravel.db.config.DynamicDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * consumer1有两个从库, consumer2没有从库; 内存库之间没有复制, 由测试把主库的心跳复制到从库
+ */
+class ReplicaRouterTest {
+
+    private static final String PRIMARY = H2DataSources.CONSUMER1;
+
+    private static final String OTHER = H2DataSources.CONSUMER2;
+
+    private static final String REPLICA1 = ReplicaRouter.replicaKey(PRIMARY , "r1");
+
+    private static final String REPLICA2 = ReplicaRouter.replicaKey(PRIMARY , "r2");
+
+    private static final List<String> KEYS = Arrays.asList(PRIMARY , OTHER , REPLICA1 , REPLICA2);
+
+    private final H2DataSources h2 = new H2DataSources("replica_");
+
+    private ReplicaProperties properties;
+
+    private ReplicaRouter router;
+
+    @BeforeEach
+    void init() throws Exception {
+        for (String key : KEYS) {
+            h2.create(key , "create table t_db_heartbeat (ID INT PRIMARY KEY , TS BIGINT NOT NULL)");
+        }
+        DynamicDataSource dynamicDataSource = h2.dynamicDataSource();
+        properties = new ReplicaProperties();
+        properties.setHeartbeatIntervalMillis(0L);
+        properties.setMaxLagMillis(1000L);
+        properties.setReadYourWritesMillis(100L);
+        router = new ReplicaRouter(properties , dynamicDataSource);
+        router.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void destroy() throws Exception {
+        router.destroy();
+        h2.close();
+    }
+
+    @Test
+    void testLeastOutstanding() throws Exception {
+        assertEquals(Arrays.asList(REPLICA1 , REPLICA2) , router.replicas(PRIMARY));
+        //心跳检测通过前从库不可用
+        assertNull(router.acquireRead(PRIMARY));
+        replicateHeartbeat(REPLICA1 , REPLICA2);
+        assertNull(router.acquireRead(OTHER));
+
+        String first = router.acquireRead(PRIMARY);
+        String second = router.acquireRead(PRIMARY);
+        assertEquals(new HashSet<>(Arrays.asList(REPLICA1 , REPLICA2)) , new HashSet<>(Arrays.asList(first , second)));
+        //first结束后只有second在执行, 之后的查询都选first
+        router.release(first);
+        assertEquals(first , router.acquireRead(PRIMARY));
+        assertEquals(Integer.valueOf(1) , router.getOutstanding().get(REPLICA1));
+        assertEquals(Integer.valueOf(1) , router.getOutstanding().get(REPLICA2));
+        router.release(first);
+        router.release(second);
+    }
+
+    @Test
+    void testLagSidelined() throws Exception {
+        replicateHeartbeat(REPLICA1 , REPLICA2);
+        assertEquals(Long.valueOf(0L) , router.getLags().get(REPLICA2));
+
+        //REPLICA2停止复制: 延迟未超过阈值前仍可用, 超过后不再读取
+        execute(REPLICA2 , "update t_db_heartbeat set TS = TS - 500");
+        replicateHeartbeat(REPLICA1);
+        assertTrue(router.getLags().get(REPLICA2) >= 500L);
+        assertEquals(new HashSet<>(Arrays.asList(REPLICA1 , REPLICA2)) , new HashSet<>(Arrays.asList(acquireAndRelease() , acquireAndRelease())));
+        execute(REPLICA2 , "update t_db_heartbeat set TS = TS - 5000");
+        replicateHeartbeat(REPLICA1);
+        assertTrue(router.getLags().get(REPLICA2) >= 5000L);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(REPLICA1 , acquireAndRelease());
+        }
+
+        //恢复复制后重新加回
+        replicateHeartbeat(REPLICA1 , REPLICA2);
+        assertEquals(Long.valueOf(0L) , router.getLags().get(REPLICA2));
+        assertEquals(new HashSet<>(Arrays.asList(REPLICA1 , REPLICA2)) , new HashSet<>(Arrays.asList(acquireAndRelease() , acquireAndRelease())));
+
+        //两个从库都读取失败时走主库
+        execute(REPLICA1 , "drop table t_db_heartbeat");
+        execute(REPLICA2 , "drop table t_db_heartbeat");
+        router.heartbeat();
+        assertEquals(Long.valueOf(-1L) , router.getLags().get(REPLICA1));
+        assertNull(router.acquireRead(PRIMARY));
+    }
+
+    @Test
+    void testPrimaryReads() throws Exception {
+        replicateHeartbeat(REPLICA1 , REPLICA2);
+
+        router.markWrite(PRIMARY);
+        assertNull(router.acquireRead(PRIMARY));
+        Thread.sleep(150L);
+        assertEquals(PRIMARY , acquireAndRelease().split(ReplicaRouter.REPLICA_SEPARATOR)[0]);
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertNull(router.acquireRead(PRIMARY));
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        properties.setEnabled(false);
+        assertNull(router.acquireRead(PRIMARY));
+    }
+
+    /**
+     * 执行两次心跳检测, 第一次写入的心跳由测试复制到指定从库
+     */
+    private void replicateHeartbeat(String... replicas) throws Exception {
+        router.heartbeat();
+        long heartbeat = queryHeartbeat(PRIMARY);
+        for (String replica : replicas) {
+            execute(replica , "delete from t_db_heartbeat");
+            execute(replica , "insert into t_db_heartbeat values (1 , " + heartbeat + ")");
+        }
+        router.heartbeat();
+    }
+
+    private String acquireAndRelease() {
+        String replica = router.acquireRead(PRIMARY);
+        router.release(replica);
+        return replica;
+    }
+
+    private long queryHeartbeat(String key) throws SQLException {
+        return H2DataSources.count(h2.get(key) , "select TS from t_db_heartbeat where ID = 1");
+    }
+
+    private void execute(String key , String sql) throws SQLException {
+        H2DataSources.execute(h2.get(key) , sql);
+    }
+}
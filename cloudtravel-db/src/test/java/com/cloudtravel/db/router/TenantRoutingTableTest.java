@@ -0,0 +1,102 @@
+package com.cloudtravel.db.router;
+
+import com.cloudtravel.db.router.TenantRouterProperties.Range;
+import com.cloudtravel.db.router.TenantRouterProperties.Strategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 租户路由表: 取模、区间、一致性hash、指定租户以及配置校验
+ */
+class TenantRoutingTableTest {
+
+    private static final List<String> DATA_SOURCES = Arrays.asList("ds0" , "ds1" , "ds2");
+
+    @Test
+    void testModulo() {
+        TenantRouterProperties properties = new TenantRouterProperties();
+        TenantRoutingTable table = TenantRoutingTable.build(properties , DATA_SOURCES);
+        assertEquals(DATA_SOURCES , table.shards());
+        assertEquals("ds0" , table.route("3"));
+        assertEquals("ds1" , table.route("4"));
+        assertEquals("ds2" , table.route("5"));
+        assertThrows(IllegalStateException.class , () -> table.route("abc"));
+        assertThrows(IllegalStateException.class , () -> table.route(null));
+    }
+
+    @Test
+    void testRange() {
+        TenantRouterProperties properties = new TenantRouterProperties();
+        properties.setStrategy(Strategy.RANGE);
+        properties.getRanges().add(range(1000 , 2000 , "ds1"));
+        properties.getRanges().add(range(0 , 1000 , "ds0"));
+        TenantRoutingTable table = TenantRoutingTable.build(properties , DATA_SOURCES);
+        assertEquals("ds0" , table.route("0"));
+        assertEquals("ds0" , table.route("999"));
+        assertEquals("ds1" , table.route("1000"));
+        assertEquals("ds1" , table.route("1999"));
+        assertThrows(IllegalStateException.class , () -> table.route("2000"));
+
+        properties.getRanges().add(range(1500 , 3000 , "ds2"));
+        assertThrows(IllegalStateException.class , () -> TenantRoutingTable.build(properties , DATA_SOURCES));
+    }
+
+    @Test
+    void testConsistentHash() {
+        TenantRouterProperties properties = new TenantRouterProperties();
+        properties.setStrategy(Strategy.CONSISTENT_HASH);
+        TenantRoutingTable table = TenantRoutingTable.build(properties , DATA_SOURCES);
+        Map<String , Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30000; i++) {
+            counts.merge(table.route(String.valueOf(i)) , 1 , Integer::sum);
+        }
+        assertEquals(3 , counts.size());
+        counts.values().forEach(count -> assertTrue(count > 7000 , "分布不均: " + counts));
+
+        //增加一个数据源, 只有约1/4的租户需要迁移
+        properties.getShards().addAll(Arrays.asList("ds0" , "ds1" , "ds2" , "ds3"));
+        TenantRoutingTable expanded = TenantRoutingTable.build(properties , Arrays.asList("ds0" , "ds1" , "ds2" , "ds3"));
+        int moved = 0;
+        for (int i = 0; i < 30000; i++) {
+            String tenantId = String.valueOf(i);
+            if(!table.route(tenantId).equals(expanded.route(tenantId))) {
+                moved ++;
+            }
+        }
+        assertTrue(moved < 30000 * 0.35 , "迁移租户过多: " + moved);
+    }
+
+    @Test
+    void testOverride() {
+        TenantRouterProperties properties = new TenantRouterProperties();
+        properties.getShards().addAll(Arrays.asList("ds0" , "ds1"));
+        properties.getOverrides().put("10" , "ds2");
+        TenantRoutingTable table = TenantRoutingTable.build(properties , DATA_SOURCES);
+        assertEquals("ds2" , table.route("10"));
+        assertEquals("ds0" , table.route("12"));
+
+        TenantRoutingTable moved = table.withOverride("12" , "ds1");
+        assertEquals("ds1" , moved.route("12"));
+        assertEquals("ds0" , table.route("12"));
+        assertEquals("ds0" , moved.withOverride("12" , null).route("12"));
+
+        properties.getOverrides().put("11" , "unknown");
+        assertThrows(IllegalStateException.class , () -> TenantRoutingTable.build(properties , DATA_SOURCES));
+    }
+
+    private static Range range(long from , long to , String shard) {
+        Range range = new Range();
+        range.setFrom(from);
+        range.setTo(to);
+        range.setShard(shard);
+        return range;
+    }
+}
@@ -0,0 +1,221 @@
+package com.cloudtravel.db.scatter;
+
+import com.cloudtravel.db.H2DataSources;
+import com.cloudtravel.db.config.DataSourceConfig;
+import com.cloudtravel.db.config.DataSourceContext;
+import com.cloudtravel.db.config.DynamicDataSource;
+import com.cloudtravel.db.router.TenantRoutingTable;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.cloudtravel.db.H2DataSources.CONSUMER1;
+import static com.cloudtravel.db.H2DataSources.CONSUMER2;
+import static com.cloudtravel.db.H2DataSources.execute;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 三个MySQL模式的H2内存库, SP_ID为1~30, 按 SP_ID % 3 分布在各分片, TENANT_ID = SP_ID % 5
+ */
+class ScatterGatherExecutorTest {
+
+    private static final String CONSUMER3 = "cloudtravel-consumer3";
+
+    private static final List<String> SHARDS = Arrays.asList(CONSUMER1 , CONSUMER2 , CONSUMER3);
+
+    private static final String NAMESPACE = "com.cloudtravel.db.scatter.ScatterMapper";
+
+    private static final String MAPPER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n"
+            + "<mapper namespace=\"" + NAMESPACE + "\">\n"
+            + "  <select id=\"listAfter\" resultType=\"map\">\n"
+            + "    select SP_ID, SP_NAME from t_sp_0 where SP_ID &gt; #{minId} order by SP_NAME limit #{limit}\n"
+            + "  </select>\n"
+            + "</mapper>";
+
+    private static final String CREATE_TABLE = "create table t_sp_0 (SP_ID BIGINT PRIMARY KEY , TENANT_ID BIGINT NOT NULL , SP_NAME VARCHAR(64))";
+
+    private final H2DataSources h2 = new H2DataSources("scatter_");
+
+    private final List<DataSource> dataSources = new ArrayList<>();
+
+    private ScatterGatherProperties properties;
+
+    private ScatterGatherExecutor executor;
+
+    @BeforeEach
+    void init() throws Exception {
+        for (int i = 0; i < SHARDS.size(); i++) {
+            DataSource dataSource = h2.create(SHARDS.get(i) , CREATE_TABLE);
+            for (long spId = i == 0 ? 3 : i; spId <= 30; spId += 3) {
+                execute(dataSource , "insert into t_sp_0 values (" + spId + " , " + spId % 5 + " , 'sp" + spId + "')");
+            }
+            dataSources.add(dataSource);
+        }
+        DataSourceContext.setTenantRouter(TenantRoutingTable.modulo(SHARDS));
+        properties = new ScatterGatherProperties();
+        properties.setPoolSize(2);
+        executor = createExecutor();
+    }
+
+    @AfterEach
+    void destroy() throws Exception {
+        executor.destroy();
+        h2.close();
+    }
+
+    @Test
+    void testOrderByLimit() {
+        ScatterResult result = executor.query("select SP_ID, SP_NAME from t_sp_0 order by SP_ID desc limit 3, 5" , Collections.emptyList());
+        assertEquals(Arrays.asList(27L , 26L , 25L , 24L , 23L) , column(result , "SP_ID"));
+        assertEquals(SHARDS , result.getShards());
+        assertFalse(result.isPartial());
+
+        result = executor.query("select * from t_sp_0 where SP_ID > ? order by SP_NAME limit ?" , Arrays.asList(10 , 4));
+        assertEquals(Arrays.asList("sp11" , "sp12" , "sp13" , "sp14") , column(result , "SP_NAME"));
+
+        result = executor.query("select distinct TENANT_ID from t_sp_0 order by TENANT_ID desc" , Collections.emptyList());
+        assertEquals(Arrays.asList(4L , 3L , 2L , 1L , 0L) , column(result , "TENANT_ID"));
+    }
+
+    @Test
+    void testAggregate() {
+        ScatterResult result = executor.query("select count(*) as CNT, sum(SP_ID) as TOTAL, min(SP_NAME) as MIN_NAME, max(SP_ID) as MAX_ID from t_sp_0" ,
+                Collections.emptyList());
+        assertEquals(1 , result.getRows().size());
+        Map<String , Object> row = result.getRows().get(0);
+        assertEquals(30L , ((Number) row.get("CNT")).longValue());
+        assertEquals(465L , ((Number) row.get("TOTAL")).longValue());
+        assertEquals("sp1" , row.get("MIN_NAME"));
+        assertEquals(30L , ((Number) row.get("MAX_ID")).longValue());
+
+        result = executor.query("select TENANT_ID, count(*) as CNT, sum(SP_ID) as TOTAL from t_sp_0 where SP_ID <= ? "
+                + "group by TENANT_ID order by TOTAL desc limit 1, 2" , Collections.singletonList(20));
+        //SP_ID <= 20 时每个租户4条, TOTAL: 租户0为50, 租户1~4为30+4*TENANT_ID
+        assertEquals(Arrays.asList(4L , 3L) , column(result , "TENANT_ID"));
+        assertEquals(46L , ((Number) result.getRows().get(0).get("TOTAL")).longValue());
+        assertEquals(4L , ((Number) result.getRows().get(0).get("CNT")).longValue());
+
+        assertThrows(IllegalStateException.class , () -> executor.query("select avg(SP_ID) from t_sp_0" , Collections.emptyList()));
+        assertThrows(IllegalStateException.class , () -> executor.query("select count(distinct TENANT_ID) from t_sp_0" , Collections.emptyList()));
+        assertThrows(IllegalStateException.class , () -> executor.query("delete from t_sp_0" , Collections.emptyList()));
+    }
+
+    @Test
+    void testMapperStatement() {
+        Map<String , Object> param = new HashMap<>();
+        param.put("minId" , 20);
+        param.put("limit" , 3);
+        ScatterResult result = executor.query(NAMESPACE + ".listAfter" , param);
+        assertEquals(Arrays.asList(21L , 22L , 23L) , column(result , "SP_ID"));
+    }
+
+    @Test
+    void testFailedShard() throws Exception {
+        execute(dataSources.get(2) , "drop table t_sp_0");
+        String sql = "select SP_ID from t_sp_0 order by SP_ID";
+        assertThrows(IllegalStateException.class , () -> executor.query(sql , Collections.emptyList()));
+
+        properties.setAllowPartialResult(true);
+        ScatterResult result = executor.query(sql , Collections.emptyList());
+        assertTrue(result.isPartial());
+        assertEquals(Collections.singleton(CONSUMER3) , result.getFailedShards().keySet());
+        assertEquals(20 , result.getRows().size());
+
+        //所有分片都失败时即使允许部分结果也抛出异常
+        assertThrows(IllegalStateException.class , () -> executor.query(sql , Collections.emptyList() , Collections.singletonList(CONSUMER3)));
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        DataSourceConfig.dataSourceMap.put(CONSUMER3 , slow(dataSources.get(2) , 2000L));
+        executor.destroy();
+        executor = createExecutor();
+        properties.setTimeoutMillis(200L);
+        properties.setAllowPartialResult(true);
+
+        long startTime = System.currentTimeMillis();
+        ScatterResult result = executor.query("select SP_ID from t_sp_0 order by SP_ID limit 5" , Collections.emptyList());
+        assertTrue(System.currentTimeMillis() - startTime < 1500L);
+        assertEquals(Collections.singleton(CONSUMER3) , result.getFailedShards().keySet());
+        assertEquals(Arrays.asList(1L , 2L , 4L , 5L , 7L) , column(result , "SP_ID"));
+    }
+
+    @Test
+    void testRejectedShard() throws Exception {
+        //平台线程池: 1个线程、队列长度1, consumer1占用线程, consumer2排队, consumer3被拒绝
+        DataSourceConfig.dataSourceMap.put(CONSUMER1 , slow(dataSources.get(0) , 300L));
+        executor.destroy();
+        properties.setVirtualThreads(false);
+        properties.setPoolSize(1);
+        properties.setQueueCapacity(1);
+        executor = createExecutor();
+        properties.setAllowPartialResult(true);
+        String sql = "select SP_ID from t_sp_0 order by SP_ID limit 5";
+        ScatterResult result = executor.query(sql , Collections.emptyList());
+        assertEquals(Collections.singleton(CONSUMER3) , result.getFailedShards().keySet());
+        assertEquals(Arrays.asList(1L , 2L , 4L , 5L , 7L) , column(result , "SP_ID"));
+
+        //不允许部分结果时提交后立即失败, 不等待已提交的分片
+        properties.setAllowPartialResult(false);
+        long startTime = System.currentTimeMillis();
+        IllegalStateException e = assertThrows(IllegalStateException.class , () -> executor.query(sql , Collections.emptyList()));
+        assertTrue(System.currentTimeMillis() - startTime < 300L);
+        assertTrue(e.getMessage().contains(CONSUMER3));
+    }
+
+    /**
+     * getConnection前等待指定时间的数据源
+     */
+    private DataSource slow(DataSource target , long sleepMillis) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader() , new Class<?>[]{DataSource.class} , (proxy , method , args) -> {
+            if("getConnection".equals(method.getName())) {
+                Thread.sleep(sleepMillis);
+            }
+            try {
+                return method.invoke(target , args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private ScatterGatherExecutor createExecutor() throws Exception {
+        DynamicDataSource dynamicDataSource = h2.dynamicDataSource();
+        Configuration configuration = new Configuration(new Environment("test" , new JdbcTransactionFactory() , dynamicDataSource));
+        new XMLMapperBuilder(new ByteArrayInputStream(MAPPER.getBytes(StandardCharsets.UTF_8)) ,
+                configuration , "ScatterMapper.xml" , configuration.getSqlFragments()).parse();
+        SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+        return new ScatterGatherExecutor(properties , dynamicDataSource , sqlSessionFactory);
+    }
+
+    private static List<Object> column(ScatterResult result , String column) {
+        List<Object> values = new ArrayList<>();
+        for (Map<String , Object> row : result.getRows()) {
+            Object value = row.get(column);
+            values.add(value instanceof Number ? (Object) ((Number) value).longValue() : value);
+        }
+        return values;
+    }
+}
@@ -8,6 +8,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 /**
@@ -27,4 +28,9 @@ public class BaseUserController {
     public String insert(@RequestBody BaseUserModel userModel) {
         return baseUserService.insertUser(userModel);
     }
-}
\ No newline at end of file
+
+    @RequestMapping(value = "get" , method = RequestMethod.GET)
+    public BaseUserModel get(@RequestParam("id") Long id) {
+        return baseUserService.getUser(id);
+    }
+}
@@ -1,5 +1,6 @@
 package com.cloudtravel.producer.controller;
 
+import com.cloudtravel.common.redis.stock.StockService;
 import com.cloudtravel.common.redis.utils.RedisUtils;
 import org.apache.commons.math3.util.MathUtils;
 import org.redisson.api.RList;
@@ -27,6 +28,9 @@ public class RedisTestController {
     @Autowired
     RedissonClient redissonClient;
 
+    @Autowired
+    StockService stockService;
+
     private static volatile Integer TOTAL_SAILED = 0;
 
 
@@ -37,6 +41,7 @@ public class RedisTestController {
         System.out.println("设置成功");
         RList<String> list = redissonClient.getList("");
         list.add("");
+        stockService.initStock("SKU-C" , 100);
     }
 
     @GetMapping("/redisTest/get")
@@ -78,4 +83,24 @@ public class RedisTestController {
         System.out.println(msg);
         return msg;
     }
+
+    /**
+     * 基于lua脚本的库存扣减, 与testLock对比: 无锁, 一次往返完成检查、扣减与已售累加
+     * @return
+     */
+    @GetMapping("/redisTest/deduct")
+    public String deduct() {
+        int count = (int)(Math.random() * 10 + 1);
+        long remain = stockService.deduct("SKU-C" , count);
+        String msg = "本次欲购买商品数量=" + count;
+        if(remain == StockService.NOT_INITIALIZED) {
+            msg += ",当前商品库存未初始化";
+        } else if(remain == StockService.INSUFFICIENT) {
+            msg += ",当前商品库存不足,无法完成下单!";
+        } else {
+            msg += ",库存扣减成功!剩余库存=" + remain;
+        }
+        msg += ",截止目前,共售出商品数=" + stockService.getSold("SKU-C");
+        return msg;
+    }
 }
@@ -6,4 +6,11 @@ import com.cloudtravel.producer.model.BaseUserModel;
 public interface IBaseUserService {
 
     public String insertUser(BaseUserModel userModel);
+
+    /**
+     * 按id查询用户, 不存在时返回null
+     * @param userId
+     * @return
+     */
+    public BaseUserModel getUser(Long userId);
 }
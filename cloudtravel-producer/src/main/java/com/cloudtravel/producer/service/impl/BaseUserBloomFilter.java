@@ -0,0 +1,61 @@
+package com.cloudtravel.producer.service.impl;
+
+import com.cloudtravel.common.redis.utils.BloomFileterUtils;
+import com.cloudtravel.producer.dao.IBaseUserDao;
+import com.cloudtravel.producer.model.BaseUserModel;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户id布隆过滤器: 启动后从库中全量加载, 之后定时重建; 新增用户时增量写入.
+ * BaseUserServiceImpl.getUser查询用户缓存前先判断id是否存在, 拦截不存在的id
+ */
+@Component
+public class BaseUserBloomFilter implements InitializingBean {
+
+    public static final String FILTER_NAME = "baseUser";
+
+    @Autowired
+    private BloomFileterUtils bloomFileterUtils;
+
+    @Autowired
+    private IBaseUserDao baseUserDao;
+
+    @Value("${bloom.base-user.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${bloom.base-user.fpp:0.01}")
+    private double fpp;
+
+    @Value("${bloom.base-user.rebuild-minutes:60}")
+    private long rebuildMinutes;
+
+    @Override
+    public void afterPropertiesSet() {
+        bloomFileterUtils.create(FILTER_NAME , expectedInsertions , fpp);
+        bloomFileterUtils.scheduleRebuild(FILTER_NAME , this::loadAllIds , rebuildMinutes , TimeUnit.MINUTES);
+    }
+
+    public boolean mightContain(Long userId) {
+        return userId != null && bloomFileterUtils.mightContain(FILTER_NAME , userId.toString());
+    }
+
+    public void put(Long userId) {
+        bloomFileterUtils.put(FILTER_NAME , userId.toString());
+    }
+
+    private List<String> loadAllIds() {
+        List<BaseUserModel> users = baseUserDao.selectAll();
+        List<String> ids = new ArrayList<>(users.size());
+        for (BaseUserModel user : users) {
+            ids.add(user.getId().toString());
+        }
+        return ids;
+    }
+}
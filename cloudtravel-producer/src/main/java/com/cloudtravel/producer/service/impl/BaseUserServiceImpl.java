@@ -1,22 +1,48 @@
 package com.cloudtravel.producer.service.impl;
 
+import com.cloudtravel.common.redis.loader.CacheLoader;
 import com.cloudtravel.producer.service.IBaseUserService;
 import com.cloudtravel.producer.model.BaseUserModel;
 import com.cloudtravel.producer.dao.IBaseUserDao;
 import io.seata.spring.annotation.GlobalTransactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class BaseUserServiceImpl implements IBaseUserService {
 
+    private static final String USER_CACHE_PREFIX = "user:";
+
     @Autowired
     IBaseUserDao IBaseUserModelMapper;
 
+    @Autowired
+    BaseUserBloomFilter baseUserBloomFilter;
+
+    @Autowired
+    CacheLoader cacheLoader;
+
+    @Value("${cache.base-user.ttl-seconds:600}")
+    long userCacheSeconds;
+
     @Override
     @GlobalTransactional(name = "sp-user-seata-group" , rollbackFor = Exception.class)
     public String insertUser(BaseUserModel userModel) {
         IBaseUserModelMapper.insertSelective(userModel);
+        baseUserBloomFilter.put(userModel.getId());
         return userModel.getId().toString();
     }
+
+    /**
+     * 布隆过滤器判定不存在的id直接返回, 不读缓存也不查库, 拦截缓存穿透
+     */
+    @Override
+    public BaseUserModel getUser(Long userId) {
+        if(!baseUserBloomFilter.mightContain(userId)) {
+            return null;
+        }
+        return cacheLoader.get(USER_CACHE_PREFIX + userId , userCacheSeconds ,
+                () -> IBaseUserModelMapper.selectByPrimaryKey(userId));
+    }
 }
@@ -1,7 +1,11 @@
 package com.cloudtravel.shardingsphere.controller;
 
 import com.cloudtravel.shardingsphere.dao.BSpModelMapper;
+import com.cloudtravel.shardingsphere.keygen.SnowflakeIdGenerator;
 import com.cloudtravel.shardingsphere.model.BSpModel;
+import com.cloudtravel.shardingsphere.model.SpPage;
+import com.cloudtravel.shardingsphere.model.SpPageOrder;
+import com.cloudtravel.shardingsphere.service.ISpPageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Controller;
@@ -23,15 +27,35 @@ public class BaseSpController {
     @Autowired
     BaseUserController userController;
 
+    @Autowired
+    SnowflakeIdGenerator snowflakeIdGenerator;
+
+    @Autowired
+    ISpPageService spPageService;
+
     @GetMapping("addSp")
     @Transactional
     public String addSp(@RequestParam("tenantId") Long tenantId,
                       @RequestParam("bizId")Long bizId) {
         BSpModel model = new BSpModel();
+        // SP_ID携带BIZ_ID的基因, 只凭SP_ID即可路由到物理表
+        model.setSpId(snowflakeIdGenerator.nextId(bizId));
         model.setBizId(bizId);
         model.setTenantId(tenantId);
         model.setSpName("测试分库分表");
         spModelMapper.insertSelective(model);
         return model.getSpId() +"===="+ userController.addUser(tenantId - 1);
     }
+
+    /**
+     * 跨分片分页, 如 sp/page?tenantId=1&order=REGISTER_DATE_DESC&size=20, 下一页再带上返回的nextToken
+     */
+    @GetMapping("page")
+    public SpPage page(@RequestParam(value = "tenantId" , required = false) Long tenantId ,
+                       @RequestParam(value = "bizId" , required = false) Long bizId ,
+                       @RequestParam(value = "order" , defaultValue = "SP_ID_ASC") SpPageOrder order ,
+                       @RequestParam(value = "size" , defaultValue = "20") int size ,
+                       @RequestParam(value = "token" , required = false) String token) {
+        return spPageService.page(tenantId , bizId , order , size , token);
+    }
 }
@@ -0,0 +1,37 @@
+package com.cloudtravel.shardingsphere.controller;
+
+import com.cloudtravel.shardingsphere.reshard.ReshardingJob;
+import com.cloudtravel.shardingsphere.reshard.ReshardingProgress;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Arrays;
+
+@RequestMapping("reshard")
+@Controller
+@ResponseBody
+public class ReshardingController {
+
+    @Autowired
+    ReshardingJob reshardingJob;
+
+    /**
+     * 后台执行重新分片, 如 reshard/start?dataSources=cloudtravel_consumer1,cloudtravel_consumer2,cloudtravel_consumer3&tableCount=4
+     */
+    @GetMapping("start")
+    public String start(@RequestParam(value = "logicTable" , defaultValue = "t_sp") String logicTable ,
+                        @RequestParam("dataSources") String dataSources ,
+                        @RequestParam("tableCount") Integer tableCount) {
+        return reshardingJob.submit(logicTable , Arrays.asList(dataSources.trim().split("\\s*,\\s*")) , tableCount).toString();
+    }
+
+    @GetMapping("progress")
+    public String progress(@RequestParam(value = "logicTable" , defaultValue = "t_sp") String logicTable) {
+        ReshardingProgress progress = reshardingJob.getProgress(logicTable);
+        return progress == null ? "none" : progress.toString();
+    }
+}
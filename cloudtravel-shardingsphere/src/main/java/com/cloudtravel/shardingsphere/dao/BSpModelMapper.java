@@ -1,6 +1,7 @@
 package com.cloudtravel.shardingsphere.dao;
 
 import com.cloudtravel.shardingsphere.model.BSpModel;
+import com.cloudtravel.shardingsphere.model.SpPageQuery;
 import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
@@ -20,4 +21,11 @@ public interface BSpModelMapper {
 
     List<BSpModel> select(@Param("tenantId")Long tenantId ,
                           @Param("bizId")Long bizId);
+
+    /**
+     * 键集分页的一页, 经ShardingSphere执行时由其归并各分片; 跨分片分页使用ISpPageService, 每个物理表只读一页
+     * @param query
+     * @return
+     */
+    List<BSpModel> selectPage(SpPageQuery query);
 }
\ No newline at end of file
@@ -1,10 +1,14 @@
 package com.cloudtravel.shardingsphere.db;
 
-import com.alibaba.druid.pool.DruidDataSource;
+import com.cloudtravel.shardingsphere.keygen.SnowflakeIdGenerator;
+import com.cloudtravel.shardingsphere.keygen.SnowflakeShardingKeyGenerator;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.shardingsphere.api.config.sharding.KeyGeneratorConfiguration;
 import org.apache.shardingsphere.api.config.sharding.ShardingRuleConfiguration;
 import org.apache.shardingsphere.api.config.sharding.TableRuleConfiguration;
 import org.apache.shardingsphere.api.config.sharding.strategy.ComplexShardingStrategyConfiguration;
+import org.apache.shardingsphere.api.config.sharding.strategy.HintShardingStrategyConfiguration;
+import org.apache.shardingsphere.api.config.sharding.strategy.ShardingStrategyConfiguration;
 import org.apache.shardingsphere.api.config.sharding.strategy.StandardShardingStrategyConfiguration;
 import org.apache.shardingsphere.shardingjdbc.api.ShardingDataSourceFactory;
 import org.mybatis.spring.SqlSessionFactoryBean;
@@ -12,11 +16,11 @@ import org.mybatis.spring.SqlSessionTemplate;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.core.annotation.Order;
-import org.springframework.core.env.Environment;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
@@ -24,7 +28,8 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 import javax.sql.DataSource;
 import java.sql.SQLException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -34,6 +39,9 @@ import java.util.Properties;
 @EnableTransactionManagement
 public class DataSourceConfig {
 
+    /** b_user由ShardingSphere生成的主键列 */
+    static final String USER_KEY_COLUMN = "id";
+
     @Autowired
     private TableShardingAlgorithm tableShardingAlgorithmCom;
 
@@ -44,36 +52,55 @@ public class DataSourceConfig {
     DataSourceConfigBase dataSourceConfigBase;
 
     @Autowired
-    Environment environment;
+    PhysicalDataSources physicalDataSources;
+
+    @Autowired
+    RoutingTableHolder routingTableHolder;
+
+    @Autowired
+    SnowflakeIdGenerator snowflakeIdGenerator;
 
     /**
-     * 设置数据源
+     * 设置数据源, 分表的路由表换版本时重建
      * @return
      * @throws SQLException
      */
     @Primary
     @Bean(name = "shardingDataSource")
-    DataSource getShardingDataSource() throws SQLException {
+    ReshardableDataSource getShardingDataSource() throws SQLException {
+        SnowflakeShardingKeyGenerator.setIdGenerator(snowflakeIdGenerator);
+        return new ReshardableDataSource(this::createShardingDataSource , routingTableHolder);
+    }
+
+    /**
+     * 按各分表逻辑表的路由表创建ShardingSphere数据源
+     * @param routingTables
+     * @param hintRouting 是否按ShardingHints分库
+     * @return
+     * @throws SQLException
+     */
+    DataSource createShardingDataSource(Map<String , RoutingTable> routingTables , boolean hintRouting) throws SQLException {
         ShardingRuleConfiguration shardingRuleConfig = new ShardingRuleConfiguration();
 
         // 设置默认的分库策略
-        shardingRuleConfig.setDefaultDatabaseShardingStrategyConfig(
-                new StandardShardingStrategyConfiguration(
-                        dataSourceConfigBase.getDatabaseShardingColumnDefault(),
-                        databaseShardingAlgorithm
-                )
-        );
+        shardingRuleConfig.setDefaultDatabaseShardingStrategyConfig(getDatabaseShardingStrategy(hintRouting));
         //  配置表规则
         shardingRuleConfig.getTableRuleConfigs().
                 addAll(Arrays.asList(
-                        getBUserRuleConfiguration() ,
-                        getTSpRuleConfiguration()
+                        getBUserRuleConfiguration(hintRouting) ,
+                        getTSpRuleConfiguration(routingTables.get("t_sp") , hintRouting)
                         )
                 );
+        // 绑定表: 组内按下标对应的物理表join, 不做笛卡尔积
+        for (List<String> group : routingTableHolder.checkBindingTableGroups(routingTables)) {
+            shardingRuleConfig.getBindingTableGroups().add(String.join("," , group));
+        }
+        // 广播表: 写入全部库, 单独查询时任选一个库, 与分片表join时在分片所在的库执行
+        shardingRuleConfig.getBroadcastTables().addAll(dataSourceConfigBase.getBroadcastTables());
         // 设置默认数据库
         shardingRuleConfig.setDefaultDataSourceName(dataSourceConfigBase.getDatasourceName1());
 
-        return ShardingDataSourceFactory.createDataSource(createDataSourceMap(), shardingRuleConfig, new Properties());
+        return ShardingDataSourceFactory.createDataSource(physicalDataSources.getDataSources(), shardingRuleConfig, new Properties());
     }
 
 
@@ -98,6 +125,19 @@ public class DataSourceConfig {
         return new SqlSessionTemplate(sqlSessionFactory);
     }
 
+    /**
+     * 预热各物理库连接上的PreparedStatement缓存, dubbo服务实现bean通过depends-on在其之后创建
+     * @param sqlSessionFactory
+     * @param enabled
+     * @return
+     */
+    @Bean
+    public ShardingWarmUp shardingWarmUp(@Qualifier("sqlSessionFactory") SqlSessionFactory sqlSessionFactory ,
+                                         @Value("${cloudtravel.sharding.warm-up.enabled:true}") boolean enabled) {
+        return new ShardingWarmUp(sqlSessionFactory , physicalDataSources , routingTableHolder , dataSourceConfigBase ,
+                Collections.singletonMap("b_user" , USER_KEY_COLUMN) , enabled);
+    }
+
     /**
      * 需要手动配置事务管理器
      * @param shardingDataSource
@@ -108,71 +148,53 @@ public class DataSourceConfig {
         return new DataSourceTransactionManager(shardingDataSource);
     }
 
+    /**
+     * 分库策略: 按sql中的分库字段, 或按ShardingHints指定的值
+     * @param hintRouting
+     * @return
+     */
+    private ShardingStrategyConfiguration getDatabaseShardingStrategy(boolean hintRouting) {
+        if(hintRouting) {
+            return new HintShardingStrategyConfiguration(databaseShardingAlgorithm);
+        }
+        return new StandardShardingStrategyConfiguration(
+                dataSourceConfigBase.getDatabaseShardingColumnDefault(),
+                databaseShardingAlgorithm,
+                databaseShardingAlgorithm
+        );
+    }
+
     /**
      * 具体表进行分库分表的规则配置
+     * @param hintRouting
      * @return
      */
-    private TableRuleConfiguration getBUserRuleConfiguration() {
+    private TableRuleConfiguration getBUserRuleConfiguration(boolean hintRouting) {
         TableRuleConfiguration orderTableRuleConfig=new TableRuleConfiguration("b_user",
                 dataSourceConfigBase.getUserActualDataNodes());
-        orderTableRuleConfig.setDatabaseShardingStrategyConfig(
-                new StandardShardingStrategyConfiguration(
-                        dataSourceConfigBase.getDatabaseShardingColumnDefault(),
-                        databaseShardingAlgorithm
-                )
-        );
+        orderTableRuleConfig.setDatabaseShardingStrategyConfig(getDatabaseShardingStrategy(hintRouting));
+        // insert未指定id时由ShardingSphere生成
+        orderTableRuleConfig.setKeyGeneratorConfig(new KeyGeneratorConfiguration(SnowflakeShardingKeyGenerator.TYPE , USER_KEY_COLUMN));
         return orderTableRuleConfig;
     }
 
     /**
-     * 具体表进行分库分表的规则配置
+     * 具体表进行分库分表的规则配置, 路由节点为当前版本路由表的全部物理表
+     * @param routingTable
+     * @param hintRouting
      * @return
      */
-    private TableRuleConfiguration getTSpRuleConfiguration() {
+    private TableRuleConfiguration getTSpRuleConfiguration(RoutingTable routingTable , boolean hintRouting) {
         TableRuleConfiguration orderTableRuleConfig=new TableRuleConfiguration("t_sp",
-                dataSourceConfigBase.getSpActualDataNodes());
-        orderTableRuleConfig.setDatabaseShardingStrategyConfig(
-                new StandardShardingStrategyConfiguration(
-                        dataSourceConfigBase.getDatabaseShardingColumnDefault(),
-                        databaseShardingAlgorithm
-                )
-        );
+                routingTable.getActualDataNodes());
+        orderTableRuleConfig.setDatabaseShardingStrategyConfig(getDatabaseShardingStrategy(hintRouting));
         orderTableRuleConfig.setTableShardingStrategyConfig(
                 new ComplexShardingStrategyConfiguration(
-                        dataSourceConfigBase.getTableSpShardingColumn(),
+                        dataSourceConfigBase.getTableSpShardingColumn() + "," + dataSourceConfigBase.getTableSpKeyColumn(),
                         tableShardingAlgorithmCom
                 )
         );
         return orderTableRuleConfig;
     }
 
-
-    public DataSource druidDataSource1() {
-        DruidDataSource dataSource = new DruidDataSource();
-        dataSource.setUrl(environment.getProperty("datasource.cloudtravel-consumer1.url"));
-        dataSource.setUsername(environment.getProperty("datasource.cloudtravel-consumer1.username"));
-        dataSource.setPassword(environment.getProperty("datasource.cloudtravel-consumer1.password"));
-        dataSource.setDriverClassName(environment.getProperty("datasource.cloudtravel-consumer1.driver-class-name"));
-        return dataSource;
-    }
-
-    public DataSource druidDataSource2() {
-        DruidDataSource dataSource = new DruidDataSource();
-        dataSource.setUrl(environment.getProperty("datasource.cloudtravel-consumer2.url"));
-        dataSource.setUsername(environment.getProperty("datasource.cloudtravel-consumer2.username"));
-        dataSource.setPassword(environment.getProperty("datasource.cloudtravel-consumer2.password"));
-        dataSource.setDriverClassName(environment.getProperty("datasource.cloudtravel-consumer2.driver-class-name"));
-        return dataSource;
-    }
-
-    /**
-     * 多库的连接配置
-     * @return
-     */
-    private Map<String, DataSource> createDataSourceMap() {
-        Map<String, DataSource> result = new HashMap<>();
-        result.put(dataSourceConfigBase.getDatasourceName1(),druidDataSource1());
-        result.put(dataSourceConfigBase.getDatasourceName2(), druidDataSource2());
-        return result;
-    }
 }
@@ -4,6 +4,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @Order(10)
 public class DataSourceConfigBase {
@@ -14,6 +17,22 @@ public class DataSourceConfigBase {
     @Value("${SHARDING.datasource2.name}")
     private String datasourceName2;
 
+    /** 参与分库的全部数据源, 按 分库字段 % 数据源个数 的下标路由, 未配置时为datasource1、datasource2 */
+    @Value("${sharding.datasource.names:${sharding.datasource1.name},${SHARDING.datasource2.name}}")
+    private String datasourceNames;
+
+    /** 只用于重新分片的数据源, 不参与b_user的分库取模, 由t_sp的路由表引用 */
+    @Value("${sharding.datasource.extra-names:}")
+    private String extraDatasourceNames;
+
+    /** 绑定表组, 组之间用;分隔, 组内的表用,分隔. 同一组的表按同一分库字段分到相同的数据源 */
+    @Value("${sharding.binding-tables:}")
+    private String bindingTables;
+
+    /** 广播表, 每个库一份完整数据, 与分片表join时在分片所在的库执行 */
+    @Value("${sharding.broadcast-tables:}")
+    private String broadcastTables;
+
     @Value("${mybatis.mapper-locations}")
     private String mapperLocations;
 
@@ -29,12 +48,17 @@ public class DataSourceConfigBase {
     @Value("${table.user.actual-data-nodes}")
     private String userActualDataNodes;
 
-    @Value("${table.sp.actual-data-nodes}")
-    private String spActualDataNodes;
-
     @Value("${table.sp.sharding.column}")
     private String tableSpShardingColumn;
 
+    /** 分布式主键列, 低6位为分表字段的基因, 没有分表字段时按主键路由 */
+    @Value("${table.sp.key.column:SP_ID}")
+    private String tableSpKeyColumn;
+
+    /** 分表个数, 物理表为 逻辑表_0 ~ 逻辑表_(n-1) */
+    @Value("${table.sp.sharding.count:2}")
+    private int tableSpShardingCount;
+
     public String getDatasourceName1() {
         return datasourceName1;
     }
@@ -43,6 +67,42 @@ public class DataSourceConfigBase {
         return datasourceName2;
     }
 
+    public List<String> getDatasourceNames() {
+        return split(datasourceNames , new ArrayList<>());
+    }
+
+    /**
+     * 需要创建连接池的全部数据源: 参与分库的数据源和重新分片用的数据源
+     * @return
+     */
+    public List<String> getPhysicalDatasourceNames() {
+        List<String> names = getDatasourceNames();
+        for (String name : split(extraDatasourceNames , new ArrayList<>())) {
+            if(!names.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return 各绑定表组的逻辑表(小写), 忽略少于两个表的组
+     */
+    public List<List<String>> getBindingTableGroups() {
+        List<List<String>> groups = new ArrayList<>();
+        for (String group : bindingTables.split(";")) {
+            List<String> tables = split(group.toLowerCase() , new ArrayList<>());
+            if(tables.size() > 1) {
+                groups.add(tables);
+            }
+        }
+        return groups;
+    }
+
+    public List<String> getBroadcastTables() {
+        return split(broadcastTables.toLowerCase() , new ArrayList<>());
+    }
+
     public String getMapperLocations() {
         return mapperLocations;
     }
@@ -63,11 +123,24 @@ public class DataSourceConfigBase {
         return userActualDataNodes;
     }
 
-    public String getSpActualDataNodes() {
-        return spActualDataNodes;
-    }
-
     public String getTableSpShardingColumn() {
         return tableSpShardingColumn;
     }
+
+    public String getTableSpKeyColumn() {
+        return tableSpKeyColumn;
+    }
+
+    public int getTableSpShardingCount() {
+        return tableSpShardingCount;
+    }
+
+    private static List<String> split(String value , List<String> names) {
+        for (String name : value.split(",")) {
+            if(!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
 }
@@ -1,33 +1,62 @@
 package com.cloudtravel.shardingsphere.db;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.shardingsphere.api.sharding.hint.HintShardingAlgorithm;
+import org.apache.shardingsphere.api.sharding.hint.HintShardingValue;
 import org.apache.shardingsphere.api.sharding.standard.PreciseShardingAlgorithm;
 import org.apache.shardingsphere.api.sharding.standard.PreciseShardingValue;
+import org.apache.shardingsphere.api.sharding.standard.RangeShardingAlgorithm;
+import org.apache.shardingsphere.api.sharding.standard.RangeShardingValue;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
 import java.util.Collection;
+import java.util.List;
 
 /**
- * 分库逻辑
+ * 分库逻辑: 分库字段 % 数据源个数 为数据源下标, 数据源名在启动时生成.
+ * 等值和IN按每个值路由, BETWEEN等范围条件只路由到范围内的值所在的数据源.
+ * 分表的逻辑表按其当前版本路由表中的数据源, 其他表按sharding.datasource.names.
+ * 在ShardingHints中时按指定的分库字段值路由, 不看sql中的条件
  */
 @Service
-public class DatabaseShardingAlgorithm implements PreciseShardingAlgorithm {
+public class DatabaseShardingAlgorithm implements PreciseShardingAlgorithm<Comparable<?>>, RangeShardingAlgorithm<Comparable<?>>,
+        HintShardingAlgorithm<Comparable<?>>, InitializingBean {
 
     @Autowired
     private DataSourceConfigBase dataSourceConfigBase;
 
+    @Autowired
+    private RoutingTableHolder routingTableHolder;
+
+    private String[] dataSourceNames;
+
     @Override
-    public String doSharding(Collection collection, PreciseShardingValue preciseShardingValue) {
-        String dataSource = null;
-        String tableName = preciseShardingValue.getLogicTableName();
-        Integer value = StringUtils.isNotEmpty(preciseShardingValue.getValue().toString()) ?
-                Integer.parseInt(preciseShardingValue.getValue().toString()) : 0;
-        if (value % 2 == 0) {
-            dataSource = dataSourceConfigBase.getDatasourceName1();
-        } else {
-            dataSource = dataSourceConfigBase.getDatasourceName2();
-        }
-        System.out.println(tableName + "走分库,tenantId = " + value + "进入" + dataSource);
-        return dataSource;
+    public void afterPropertiesSet() {
+        List<String> names = dataSourceConfigBase.getDatasourceNames();
+        Assert.state(!names.isEmpty() , "No sharding data source configured");
+        dataSourceNames = names.toArray(new String[0]);
+    }
+
+    @Override
+    public String doSharding(Collection<String> availableTargetNames , PreciseShardingValue<Comparable<?>> shardingValue) {
+        String[] names = dataSourceNames(shardingValue.getLogicTableName());
+        return names[ShardingValues.index(shardingValue.getValue() , names.length)];
+    }
+
+    @Override
+    public Collection<String> doSharding(Collection<String> availableTargetNames , RangeShardingValue<Comparable<?>> shardingValue) {
+        return ShardingValues.targets(shardingValue.getValueRange() , dataSourceNames(shardingValue.getLogicTableName()));
+    }
+
+    @Override
+    public Collection<String> doSharding(Collection<String> availableTargetNames , HintShardingValue<Comparable<?>> shardingValue) {
+        return ShardingValues.targets(shardingValue.getValues() , dataSourceNames(shardingValue.getLogicTableName()));
+    }
+
+    private String[] dataSourceNames(String logicTable) {
+        RoutingTable routingTable = routingTableHolder.find(logicTable);
+        return routingTable == null ? dataSourceNames : routingTable.dataSourceArray();
     }
 }
@@ -0,0 +1,49 @@
+package com.cloudtravel.shardingsphere.db;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 物理库连接池配置: 公共配置为datasource.pool.*, 单个数据源可用datasource.{名称中_换为-}.pool.*覆盖
+ */
+@Getter
+@Setter
+public class DruidPoolProperties {
+
+    /** 启动时创建的连接数, 小于0时与minIdle相同 */
+    private int initialSize = -1;
+
+    /** 最小空闲连接数, 空闲检测时保持不少于该值 */
+    private int minIdle = 5;
+
+    private int maxActive = 20;
+
+    /** 获取连接的最长等待时间(ms) */
+    private long maxWait = 3000L;
+
+    /** 空闲检测间隔(ms) */
+    private long timeBetweenEvictionRunsMillis = 60000L;
+
+    /** 连接空闲超过该时间(ms)且多于minIdle时关闭 */
+    private long minEvictableIdleTimeMillis = 300000L;
+
+    /** 空闲超过检测间隔的minIdle内连接执行validationQuery保活 */
+    private boolean keepAlive = true;
+
+    private String validationQuery = "SELECT 1";
+
+    private boolean testWhileIdle = true;
+
+    private boolean testOnBorrow = false;
+
+    private boolean testOnReturn = false;
+
+    /** 是否缓存PreparedStatement, 缓存在物理连接上 */
+    private boolean poolPreparedStatements = true;
+
+    /** 每个连接缓存的PreparedStatement个数, 应不少于各mapper语句在该库的物理sql个数 */
+    private int maxPoolPreparedStatementPerConnectionSize = 50;
+
+    /** 逗号分隔的Druid filter, 如stat,slf4j */
+    private String filters;
+}
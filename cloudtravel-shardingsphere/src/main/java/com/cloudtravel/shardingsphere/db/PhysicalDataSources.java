@@ -0,0 +1,129 @@
+package com.cloudtravel.shardingsphere.db;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 各物理库的连接池, ShardingSphere数据源、路由表存储和重新分片共用, 路由切换重建ShardingSphere数据源时不关闭.
+ * 连接池在创建时初始化, 启动后第一批请求不用等待建立连接
+ */
+@Slf4j
+@Component
+public class PhysicalDataSources implements DisposableBean {
+
+    private final Map<String , DataSource> dataSources;
+
+    /** 默认数据源, 保存路由表等不分片的数据 */
+    private final String defaultName;
+
+    @Autowired
+    public PhysicalDataSources(Environment environment , DataSourceConfigBase dataSourceConfigBase) throws SQLException {
+        Map<String , DataSource> result = new LinkedHashMap<>();
+        try {
+            for (String name : dataSourceConfigBase.getPhysicalDatasourceNames()) {
+                DruidDataSource dataSource = druidDataSource(environment , name);
+                result.put(name , dataSource);
+                dataSource.init();
+                log.info("数据源连接池已初始化,name={},initialSize={},minIdle={},maxActive={}" ,
+                        name , dataSource.getInitialSize() , dataSource.getMinIdle() , dataSource.getMaxActive());
+            }
+        } catch (SQLException | RuntimeException e) {
+            close(result);
+            throw e;
+        }
+        this.dataSources = Collections.unmodifiableMap(result);
+        this.defaultName = dataSourceConfigBase.getDatasourceName1();
+    }
+
+    public PhysicalDataSources(Map<String , DataSource> dataSources , String defaultName) {
+        this.dataSources = Collections.unmodifiableMap(new LinkedHashMap<>(dataSources));
+        this.defaultName = defaultName;
+    }
+
+    /**
+     * @param name
+     * @return 数据源, 未配置时抛出异常
+     */
+    public DataSource get(String name) {
+        DataSource dataSource = dataSources.get(name);
+        if(dataSource == null) {
+            throw new IllegalStateException("Data source " + name + " is not configured");
+        }
+        return dataSource;
+    }
+
+    public DataSource getDefault() {
+        return get(defaultName);
+    }
+
+    public Map<String , DataSource> getDataSources() {
+        return dataSources;
+    }
+
+    @Override
+    public void destroy() {
+        close(dataSources);
+    }
+
+    private static void close(Map<String , DataSource> dataSources) {
+        for (Map.Entry<String , DataSource> entry : dataSources.entrySet()) {
+            if(entry.getValue() instanceof DruidDataSource) {
+                ((DruidDataSource) entry.getValue()).close();
+                log.info("数据源连接池已关闭,name={}" , entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 数据源cloudtravel_consumer1的连接配置为datasource.cloudtravel-consumer1.*,
+     * 连接池配置为datasource.pool.*, 被datasource.cloudtravel-consumer1.pool.*覆盖
+     * @param name 数据源名
+     * @return 未初始化的连接池
+     */
+    static DruidDataSource druidDataSource(Environment environment , String name) {
+        String prefix = "datasource." + name.replace('_' , '-') + ".";
+        DruidDataSource dataSource = new DruidDataSource();
+        dataSource.setName(name);
+        dataSource.setUrl(environment.getRequiredProperty(prefix + "url"));
+        dataSource.setUsername(environment.getProperty(prefix + "username"));
+        dataSource.setPassword(environment.getProperty(prefix + "password"));
+        dataSource.setDriverClassName(environment.getProperty(prefix + "driver-class-name"));
+
+        Binder binder = Binder.get(environment);
+        DruidPoolProperties pool = binder.bind("datasource.pool" , DruidPoolProperties.class).orElseGet(DruidPoolProperties::new);
+        binder.bind(prefix + "pool" , Bindable.ofInstance(pool));
+        dataSource.setInitialSize(pool.getInitialSize() < 0 ? pool.getMinIdle() : pool.getInitialSize());
+        dataSource.setMinIdle(pool.getMinIdle());
+        dataSource.setMaxActive(pool.getMaxActive());
+        dataSource.setMaxWait(pool.getMaxWait());
+        dataSource.setTimeBetweenEvictionRunsMillis(pool.getTimeBetweenEvictionRunsMillis());
+        dataSource.setMinEvictableIdleTimeMillis(pool.getMinEvictableIdleTimeMillis());
+        dataSource.setKeepAlive(pool.isKeepAlive());
+        dataSource.setValidationQuery(pool.getValidationQuery());
+        dataSource.setTestWhileIdle(pool.isTestWhileIdle());
+        dataSource.setTestOnBorrow(pool.isTestOnBorrow());
+        dataSource.setTestOnReturn(pool.isTestOnReturn());
+        dataSource.setPoolPreparedStatements(pool.isPoolPreparedStatements());
+        dataSource.setMaxPoolPreparedStatementPerConnectionSize(pool.getMaxPoolPreparedStatementPerConnectionSize());
+        if(pool.getFilters() != null && !pool.getFilters().trim().isEmpty()) {
+            try {
+                dataSource.setFilters(pool.getFilters());
+            } catch (SQLException e) {
+                throw new IllegalStateException("Invalid druid filters of " + name + " : " + pool.getFilters() , e);
+            }
+        }
+        return dataSource;
+    }
+}
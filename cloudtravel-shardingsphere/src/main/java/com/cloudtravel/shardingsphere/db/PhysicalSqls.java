@@ -0,0 +1,62 @@
+package com.cloudtravel.shardingsphere.db;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 单表语句的逻辑sql改写为物理sql, 与ShardingSphere的改写结果一致, 用于绕过ShardingSphere直接在物理库上执行或预编译
+ */
+public final class PhysicalSqls {
+
+    private static final Pattern VALUES = Pattern.compile("(?i)\\bvalues\\s*\\(");
+
+    private static final Pattern IDENTIFIER_PREFIX = Pattern.compile("(^|\\W)");
+
+    private PhysicalSqls() {
+    }
+
+    /**
+     * 替换逻辑表; insert时ShardingSphere重新生成values部分为(?, ?, ...), 未指定生成主键列时在列和值的最后追加
+     * @param generatedKeyColumn 不由ShardingSphere生成主键时为null
+     */
+    public static String rewrite(String sql , SqlCommandType commandType , String logicTable , String actualTable , String generatedKeyColumn) {
+        Matcher table = identifierPattern(logicTable).matcher(sql);
+        String physicalSql = table.replaceAll("$1" + Matcher.quoteReplacement(actualTable));
+        if(commandType != SqlCommandType.INSERT) {
+            return physicalSql;
+        }
+        Matcher values = VALUES.matcher(physicalSql);
+        int valuesEnd = physicalSql.lastIndexOf(')');
+        if(!values.find() || valuesEnd < values.end()) {
+            return physicalSql;
+        }
+        int valuesStart = values.end() - 1;
+        int parameters = 0;
+        for (int i = valuesStart; i < valuesEnd; i++) {
+            if(physicalSql.charAt(i) == '?') {
+                parameters ++;
+            }
+        }
+        StringBuilder result = new StringBuilder(physicalSql.substring(0 , valuesStart));
+        if(generatedKeyColumn != null) {
+            int columnsStart = result.indexOf("(");
+            int columnsEnd = result.indexOf(")" , columnsStart);
+            if(columnsStart >= 0 && columnsEnd > columnsStart
+                    && !identifierPattern(generatedKeyColumn).matcher(result.substring(columnsStart , columnsEnd)).find()) {
+                result.insert(columnsEnd , ", " + generatedKeyColumn);
+                parameters ++;
+            }
+        }
+        result.append('(');
+        for (int i = 0; i < parameters; i++) {
+            result.append(i == 0 ? "?" : ", ?");
+        }
+        return result.append(')').append(physicalSql.substring(valuesEnd + 1)).toString();
+    }
+
+    static Pattern identifierPattern(String name) {
+        return Pattern.compile(IDENTIFIER_PREFIX.pattern() + Pattern.quote(name) + "(?!\\w)" , Pattern.CASE_INSENSITIVE);
+    }
+}
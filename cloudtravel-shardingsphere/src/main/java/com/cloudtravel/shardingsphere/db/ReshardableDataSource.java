@@ -0,0 +1,201 @@
+package com.cloudtravel.shardingsphere.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 可切换路由版本的ShardingSphere数据源: actual-data-nodes在创建ShardingSphere数据源时确定, 路由表换版本时按新版本重建.
+ * 切换时先暂停借出新连接并等待已借出的连接(含事务中的连接)全部归还, 再替换路由表和数据源, 切换期间获取连接的线程等待.
+ * 旧的ShardingSphere数据源不关闭, 关闭会同时关闭共用的物理库连接池.
+ * 另有一个按ShardingHints分库的ShardingSphere数据源, 线程在hint中时从它获取连接, 与前者一起重建.
+ * 注意: 持有连接的线程在暂停期间再获取连接(如REQUIRES_NEW)会等到切换超时, 此时放弃切换
+ */
+@Slf4j
+public class ReshardableDataSource extends AbstractDataSource {
+
+    /**
+     * 按各逻辑表的路由表创建ShardingSphere数据源
+     */
+    @FunctionalInterface
+    public interface Factory {
+
+        /**
+         * @param routingTables
+         * @param hintRouting 是否按ShardingHints分库
+         * @return
+         * @throws SQLException
+         */
+        DataSource create(Map<String , RoutingTable> routingTables , boolean hintRouting) throws SQLException;
+    }
+
+    private final Factory factory;
+
+    private final RoutingTableHolder routingTableHolder;
+
+    private final ReentrantLock switchLock = new ReentrantLock();
+
+    private final Object pauseMonitor = new Object();
+
+    /** 已借出未归还的连接数 */
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    private volatile boolean paused;
+
+    private volatile DataSource delegate;
+
+    private volatile DataSource hintDelegate;
+
+    public ReshardableDataSource(Factory factory , RoutingTableHolder routingTableHolder) throws SQLException {
+        this.factory = factory;
+        this.routingTableHolder = routingTableHolder;
+        this.delegate = factory.create(routingTableHolder.getRoutingTables() , false);
+        this.hintDelegate = factory.create(routingTableHolder.getRoutingTables() , true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return wrap(current().getConnection());
+        } catch (SQLException | RuntimeException e) {
+            activeConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username , String password) throws SQLException {
+        acquire();
+        try {
+            return wrap(current().getConnection(username , password));
+        } catch (SQLException | RuntimeException e) {
+            activeConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 切换到更高版本的路由表
+     * @param routingTable 新版本
+     * @param pauseTimeoutMillis 等待已借出的连接归还的最长时间, 超时放弃切换
+     * @param beforeSwitch 暂停期间、替换前执行(追平增量、保存版本等), 抛出异常时放弃切换
+     * @return 当前版本不低于新版本时为false
+     */
+    public boolean switchTo(RoutingTable routingTable , long pauseTimeoutMillis , Runnable beforeSwitch) {
+        switchLock.lock();
+        try {
+            RoutingTable current = routingTableHolder.get(routingTable.getLogicTable());
+            if(current.getVersion() >= routingTable.getVersion()) {
+                return false;
+            }
+            Map<String , RoutingTable> routingTables = new HashMap<>(routingTableHolder.getRoutingTables());
+            routingTables.put(routingTable.getLogicTable() , routingTable);
+            DataSource next;
+            DataSource nextHint;
+            try {
+                next = factory.create(routingTables , false);
+                nextHint = factory.create(routingTables , true);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Create data source of " + routingTable + " failed" , e);
+            }
+            long pauseStart = System.nanoTime();
+            paused = true;
+            try {
+                awaitIdle(pauseTimeoutMillis);
+                if(beforeSwitch != null) {
+                    beforeSwitch.run();
+                }
+                routingTableHolder.replace(routingTable);
+                delegate = next;
+                hintDelegate = nextHint;
+            } finally {
+                paused = false;
+                synchronized (pauseMonitor) {
+                    pauseMonitor.notifyAll();
+                }
+            }
+            log.info("分表路由已切换,{} -> {},pauseMillis={}" , current , routingTable ,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pauseStart));
+            return true;
+        } finally {
+            switchLock.unlock();
+        }
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    private DataSource current() {
+        return ShardingHints.isActive() ? hintDelegate : delegate;
+    }
+
+    /**
+     * 先计数再检查暂停标志, 与switchTo中先置标志再检查计数配合, 切换开始后不会再借出旧数据源的连接
+     */
+    private void acquire() throws SQLException {
+        while (true) {
+            activeConnections.incrementAndGet();
+            if(!paused) {
+                return;
+            }
+            activeConnections.decrementAndGet();
+            synchronized (pauseMonitor) {
+                while (paused) {
+                    try {
+                        pauseMonitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while routing table switching" , e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void awaitIdle(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (activeConnections.get() > 0) {
+            if(System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException(activeConnections.get() + " connections not returned in " + timeoutMillis + "ms , switch aborted");
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1L));
+        }
+    }
+
+    /**
+     * 连接关闭时归还计数, 重复关闭只计一次
+     */
+    private Connection wrap(Connection connection) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader() , new Class<?>[]{Connection.class} ,
+                (proxy , method , args) -> {
+                    if("close".equals(method.getName()) && method.getParameterCount() == 0 && closed.compareAndSet(false , true)) {
+                        try {
+                            connection.close();
+                        } finally {
+                            activeConnections.decrementAndGet();
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection , args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+}
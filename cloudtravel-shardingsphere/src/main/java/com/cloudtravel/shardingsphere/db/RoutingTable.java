@@ -0,0 +1,121 @@
+package com.cloudtravel.shardingsphere.db;
+
+import com.cloudtravel.shardingsphere.keygen.SnowflakeIdGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分片表某一版本的路由: 分库字段 % 数据源个数 为数据源下标, 分表字段 % 分表个数 为物理表下标.
+ * 创建后不再修改, 重新分片时生成新版本整体替换. 第1版物理表为 逻辑表_下标,
+ * 之后的版本为 逻辑表_v版本_下标, 新旧版本的物理表不重名, 迁移期间旧表数据保持不变
+ */
+public final class RoutingTable {
+
+    private final String logicTable;
+
+    private final int version;
+
+    private final String[] dataSourceNames;
+
+    private final String[] tables;
+
+    private final List<String> dataSourceList;
+
+    private final List<String> tableList;
+
+    public RoutingTable(String logicTable , int version , List<String> dataSourceNames , int tableCount) {
+        if(version < 1 || dataSourceNames.isEmpty() || tableCount < 1) {
+            throw new IllegalArgumentException("Invalid routing table of " + logicTable + " : version=" + version
+                    + ",dataSources=" + dataSourceNames + ",tableCount=" + tableCount);
+        }
+        this.logicTable = logicTable.toLowerCase();
+        this.version = version;
+        this.dataSourceNames = dataSourceNames.toArray(new String[0]);
+        this.tables = new String[tableCount];
+        for (int i = 0; i < tableCount; i++) {
+            tables[i] = version == 1 ? this.logicTable + "_" + i : this.logicTable + "_v" + version + "_" + i;
+        }
+        this.dataSourceList = Collections.unmodifiableList(Arrays.asList(this.dataSourceNames));
+        this.tableList = Collections.unmodifiableList(Arrays.asList(tables));
+    }
+
+    /**
+     * 下一版本
+     * @param dataSourceNames
+     * @param tableCount
+     * @return
+     */
+    public RoutingTable next(List<String> dataSourceNames , int tableCount) {
+        return new RoutingTable(logicTable , version + 1 , dataSourceNames , tableCount);
+    }
+
+    /**
+     * @param value 分库字段的值
+     * @return 数据源名
+     */
+    public String dataSource(Object value) {
+        return dataSourceNames[ShardingValues.index(value , dataSourceNames.length)];
+    }
+
+    /**
+     * @param value 分表字段的值
+     * @return 物理表名
+     */
+    public String table(Object value) {
+        return tables[ShardingValues.index(value , tables.length)];
+    }
+
+    /**
+     * 分表个数整除64时, 分布式主键中的分片基因与分表字段落在同一物理表
+     * @return
+     */
+    public boolean isKeyRoutable() {
+        return (SnowflakeIdGenerator.GENE_MASK + 1) % tables.length == 0;
+    }
+
+    /**
+     * ShardingSphere的actual-data-nodes: 数据源.物理表, 逗号分隔
+     * @return
+     */
+    public String getActualDataNodes() {
+        List<String> nodes = new ArrayList<>(dataSourceNames.length * tables.length);
+        for (String dataSource : dataSourceNames) {
+            for (String table : tables) {
+                nodes.add(dataSource + "." + table);
+            }
+        }
+        return String.join("," , nodes);
+    }
+
+    public String getLogicTable() {
+        return logicTable;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public List<String> getDataSourceNames() {
+        return dataSourceList;
+    }
+
+    public List<String> getTables() {
+        return tableList;
+    }
+
+    String[] dataSourceArray() {
+        return dataSourceNames;
+    }
+
+    String[] tableArray() {
+        return tables;
+    }
+
+    @Override
+    public String toString() {
+        return logicTable + "@v" + version + dataSourceList + "x" + tables.length;
+    }
+}
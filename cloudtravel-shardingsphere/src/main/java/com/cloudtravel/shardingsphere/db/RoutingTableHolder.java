@@ -0,0 +1,127 @@
+package com.cloudtravel.shardingsphere.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各分表逻辑表当前生效的路由表: 启动时取t_sharding_routing中的最新版本, 没有时按配置生成第1版.
+ * 分片算法每次路由时读取, 替换只在ReshardableDataSource暂停新连接期间进行
+ */
+@Slf4j
+@Component
+public class RoutingTableHolder implements InitializingBean {
+
+    private final DataSourceConfigBase dataSourceConfigBase;
+
+    private final RoutingTableStore routingTableStore;
+
+    /** 逻辑表(小写) -> 路由表 */
+    private final Map<String , RoutingTable> routingTables = new ConcurrentHashMap<>();
+
+    public RoutingTableHolder(DataSourceConfigBase dataSourceConfigBase , RoutingTableStore routingTableStore) {
+        this.dataSourceConfigBase = dataSourceConfigBase;
+        this.routingTableStore = routingTableStore;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        for (String table : dataSourceConfigBase.getShardingTableNames().split(",")) {
+            if(table.trim().isEmpty()) {
+                continue;
+            }
+            String logicTable = table.trim().toLowerCase();
+            RoutingTable routingTable = routingTableStore.load(logicTable);
+            if(routingTable == null) {
+                routingTable = new RoutingTable(logicTable , 1 , dataSourceConfigBase.getDatasourceNames() ,
+                        dataSourceConfigBase.getTableSpShardingCount());
+            }
+            routingTables.put(logicTable , routingTable);
+            log.info("分表路由,{}" , routingTable);
+        }
+    }
+
+    /**
+     * @param logicTable 逻辑表, 忽略大小写
+     * @return 不是分表的逻辑表时为null
+     */
+    public RoutingTable find(String logicTable) {
+        RoutingTable routingTable = routingTables.get(logicTable);
+        return routingTable != null ? routingTable : routingTables.get(logicTable.toLowerCase());
+    }
+
+    /**
+     * @param logicTable
+     * @return 路由表, 不是分表的逻辑表时抛出异常
+     */
+    public RoutingTable get(String logicTable) {
+        RoutingTable routingTable = find(logicTable);
+        if(routingTable == null) {
+            throw new IllegalStateException("Logic table " + logicTable + " is not sharded");
+        }
+        return routingTable;
+    }
+
+    public Map<String , RoutingTable> getRoutingTables() {
+        return Collections.unmodifiableMap(routingTables);
+    }
+
+    /**
+     * 检查绑定表组: 同一组的表分库数据源必须一致, 同一分库字段值的行在同一个库, 组内join不跨库;
+     * 每个库的分表个数也一致时物理表可以按下标一一对应, 才能注册为ShardingSphere的绑定表
+     * @param routingTables 各分表逻辑表的路由表, 重新分片时为切换后的版本
+     * @return 可以注册为ShardingSphere绑定表的组
+     */
+    public List<List<String>> checkBindingTableGroups(Map<String , RoutingTable> routingTables) {
+        List<List<String>> result = new ArrayList<>();
+        for (List<String> group : dataSourceConfigBase.getBindingTableGroups()) {
+            String first = group.get(0);
+            boolean sameTableCount = true;
+            for (String table : group) {
+                if(!dataSourceNames(routingTables , table).equals(dataSourceNames(routingTables , first))) {
+                    throw new IllegalStateException("Binding tables " + group + " must be sharded to the same data sources , "
+                            + table + " : " + dataSourceNames(routingTables , table) + " , " + first + " : " + dataSourceNames(routingTables , first));
+                }
+                sameTableCount &= tableCount(routingTables , table) == tableCount(routingTables , first);
+            }
+            if(sameTableCount) {
+                result.add(group);
+            } else {
+                log.info("绑定表{}的分表个数不同, 只保证同库, 不注册为ShardingSphere绑定表" , group);
+            }
+        }
+        return result;
+    }
+
+    private List<String> dataSourceNames(Map<String , RoutingTable> routingTables , String logicTable) {
+        RoutingTable routingTable = routingTables.get(logicTable);
+        return routingTable == null ? dataSourceConfigBase.getDatasourceNames() : routingTable.getDataSourceNames();
+    }
+
+    /**
+     * 只分库的表每个库一张
+     */
+    private static int tableCount(Map<String , RoutingTable> routingTables , String logicTable) {
+        RoutingTable routingTable = routingTables.get(logicTable);
+        return routingTable == null ? 1 : routingTable.getTables().size();
+    }
+
+    /**
+     * 替换为更高版本
+     * @param routingTable
+     * @return 当前版本不低于该版本时为false
+     */
+    boolean replace(RoutingTable routingTable) {
+        RoutingTable current = get(routingTable.getLogicTable());
+        if(current.getVersion() >= routingTable.getVersion()) {
+            return false;
+        }
+        return routingTables.replace(routingTable.getLogicTable() , current , routingTable);
+    }
+}
@@ -0,0 +1,67 @@
+package com.cloudtravel.shardingsphere.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * 路由表版本保存在默认数据源的t_sharding_routing中, 每个逻辑表以最大版本为准.
+ * (逻辑表, 版本)为主键, 两个节点同时切换到同一版本时只有一个成功
+ */
+@Slf4j
+@Component
+public class RoutingTableStore {
+
+    static final String TABLE = "t_sharding_routing";
+
+    private final PhysicalDataSources physicalDataSources;
+
+    public RoutingTableStore(PhysicalDataSources physicalDataSources) {
+        this.physicalDataSources = physicalDataSources;
+    }
+
+    /**
+     * @param logicTable
+     * @return 最新版本, 没有记录或表不存在时为null
+     */
+    public RoutingTable load(String logicTable) {
+        String sql = "SELECT VERSION, DATA_SOURCES, TABLE_COUNT FROM " + TABLE + " WHERE LOGIC_TABLE = ? ORDER BY VERSION DESC LIMIT 1";
+        try (Connection connection = physicalDataSources.getDefault().getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1 , logicTable.toLowerCase());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if(!resultSet.next()) {
+                    return null;
+                }
+                return new RoutingTable(logicTable , resultSet.getInt(1) ,
+                        Arrays.asList(resultSet.getString(2).split(",")) , resultSet.getInt(3));
+            }
+        } catch (SQLException e) {
+            log.warn("路由表读取失败,使用配置的路由,logicTable={},message={}" , logicTable , e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 保存新版本, 版本已存在时抛出异常
+     * @param routingTable
+     */
+    public void save(RoutingTable routingTable) {
+        String sql = "INSERT INTO " + TABLE + " (LOGIC_TABLE, VERSION, DATA_SOURCES, TABLE_COUNT) VALUES (?, ?, ?, ?)";
+        try (Connection connection = physicalDataSources.getDefault().getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1 , routingTable.getLogicTable());
+            statement.setInt(2 , routingTable.getVersion());
+            statement.setString(3 , String.join("," , routingTable.getDataSourceNames()));
+            statement.setInt(4 , routingTable.getTables().size());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Save routing table " + routingTable + " failed" , e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.cloudtravel.shardingsphere.db;
+
+import org.apache.shardingsphere.api.hint.HintManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 已知目标库时直接路由, 不依赖sql中的分库条件(如按主键查询、join时条件只在一张表上):
+ * <pre>
+ * try (ShardingHints.Hint hint = shardingHints.database(tenantId)) {
+ *     mapper.selectXxx(...);
+ * }
+ * </pre>
+ * 期间获取的连接来自按hint分库的ShardingSphere数据源, 全部分库表都按该值路由, 分表仍按sql中的条件.
+ * 需在事务开始前打开, 事务中已绑定的连接不受影响
+ */
+@Component
+public class ShardingHints {
+
+    private static final ThreadLocal<Hint> CURRENT = new ThreadLocal<>();
+
+    private final DataSourceConfigBase dataSourceConfigBase;
+
+    public ShardingHints(DataSourceConfigBase dataSourceConfigBase) {
+        this.dataSourceConfigBase = dataSourceConfigBase;
+    }
+
+    /**
+     * 当前线程之后的sql路由到 分库字段值 所在的库
+     * @param databaseValue 分库字段的值
+     * @return 关闭时恢复按sql条件路由
+     */
+    public Hint database(Comparable<?> databaseValue) {
+        if(CURRENT.get() != null) {
+            throw new IllegalStateException("Sharding hint already opened in current thread");
+        }
+        if(TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Sharding hint must be opened before transaction begins");
+        }
+        HintManager hintManager = HintManager.getInstance();
+        for (String table : split(dataSourceConfigBase.getShardingDatabaseTableNames())) {
+            hintManager.addDatabaseShardingValue(table , databaseValue);
+        }
+        Hint hint = new Hint(hintManager);
+        CURRENT.set(hint);
+        return hint;
+    }
+
+    /**
+     * @return 当前线程是否在hint中
+     */
+    static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    private static List<String> split(String tables) {
+        List<String> result = new ArrayList<>();
+        for (String table : tables.split(",")) {
+            if(!table.trim().isEmpty()) {
+                //ShardingSphere的逻辑表名为小写
+                result.add(table.trim().toLowerCase());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 一次hint, 只能在打开的线程中关闭
+     */
+    public static final class Hint implements AutoCloseable {
+
+        private final HintManager hintManager;
+
+        private Hint(HintManager hintManager) {
+            this.hintManager = hintManager;
+        }
+
+        @Override
+        public void close() {
+            if(CURRENT.get() == this) {
+                CURRENT.remove();
+                hintManager.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.cloudtravel.shardingsphere.db;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分片值计算: 按 值 % 分片数 取下标, 数值类型直接取long, 只有字符串类型的列才解析
+ */
+final class ShardingValues {
+
+    private ShardingValues() {
+    }
+
+    /**
+     * 分片值对应的下标
+     * @param value 分片值, Number或数字字符串, 空字符串按0处理
+     * @param count 分片数
+     * @return
+     */
+    static int index(Object value , int count) {
+        return Math.floorMod(toLong(value) , count);
+    }
+
+    /**
+     * 多个分片值(IN)命中的分片, 按下标顺序
+     * @param values
+     * @param targets 预先生成的各分片名
+     * @return
+     */
+    static List<String> targets(Collection<?> values , String[] targets) {
+        if(values.size() == 1) {
+            List<String> result = new ArrayList<>(1);
+            result.add(targets[index(values.iterator().next() , targets.length)]);
+            return result;
+        }
+        boolean[] hit = new boolean[targets.length];
+        for (Object value : values) {
+            hit[index(value , targets.length)] = true;
+        }
+        return collect(hit , targets);
+    }
+
+    /**
+     * 范围条件(BETWEEN、>、<)命中的分片: 数值类型有上下界且跨度小于分片数时只取落在范围内的分片, 否则为全部分片.
+     * 字符串类型的列按字典序比较('10'在'1'和'3'之间), 不能按数值裁剪
+     * @param range
+     * @param targets 预先生成的各分片名
+     * @return
+     */
+    static List<String> targets(Range<?> range , String[] targets) {
+        if(!range.hasLowerBound() || !range.hasUpperBound()
+                || !(range.lowerEndpoint() instanceof Number) || !(range.upperEndpoint() instanceof Number)) {
+            return collect(null , targets);
+        }
+        long lower = toLong(range.lowerEndpoint()) + (range.lowerBoundType() == BoundType.OPEN ? 1 : 0);
+        long upper = toLong(range.upperEndpoint()) - (range.upperBoundType() == BoundType.OPEN ? 1 : 0);
+        if(upper < lower) {
+            //范围为空, 任取一个分片, 查询结果为空
+            List<String> result = new ArrayList<>(1);
+            result.add(targets[0]);
+            return result;
+        }
+        //差值为负时溢出, 跨度必然超过分片数
+        if(upper - lower < 0 || upper - lower >= targets.length - 1) {
+            return collect(null , targets);
+        }
+        boolean[] hit = new boolean[targets.length];
+        for (long value = lower; value <= upper; value++) {
+            hit[Math.floorMod(value , targets.length)] = true;
+        }
+        return collect(hit , targets);
+    }
+
+    /**
+     * 按列名(忽略大小写)取分片条件, sql中的列名大小写与配置不一定一致
+     * @param columnValues
+     * @param column
+     * @return
+     */
+    static <V> V find(Map<String , V> columnValues , String column) {
+        if(columnValues == null || columnValues.isEmpty()) {
+            return null;
+        }
+        V values = columnValues.get(column);
+        if(values != null) {
+            return values;
+        }
+        for (Map.Entry<String , V> entry : columnValues.entrySet()) {
+            if(entry.getKey().equalsIgnoreCase(column)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static long toLong(Object value) {
+        if(value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        String text = String.valueOf(value).trim();
+        return text.isEmpty() ? 0L : Long.parseLong(text);
+    }
+
+    private static List<String> collect(boolean[] hit , String[] targets) {
+        List<String> result = new ArrayList<>(targets.length);
+        for (int i = 0; i < targets.length; i++) {
+            if(hit == null || hit[i]) {
+                result.add(targets[i]);
+            }
+        }
+        return result;
+    }
+}
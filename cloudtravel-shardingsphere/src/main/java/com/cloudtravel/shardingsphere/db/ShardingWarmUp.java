@@ -0,0 +1,296 @@
+package com.cloudtravel.shardingsphere.db;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 启动预热: 对全部mapper的每条语句, 在其路由到的每个物理库的minIdle个连接上预编译改写后的物理sql,
+ * 放入Druid的PreparedStatement缓存; 再经ShardingSphere执行一遍查询语句, 预热sql解析和路由.
+ * 写语句只预编译不执行. 动态sql只预热除主键外全部属性有值的形式, 预热之后新建的连接不在预热范围内.
+ * dubbo服务的实现bean依赖本bean(depends-on), 预热完成后才暴露服务
+ */
+@Slf4j
+public class ShardingWarmUp implements InitializingBean {
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    private final PhysicalDataSources physicalDataSources;
+
+    private final RoutingTableHolder routingTableHolder;
+
+    private final DataSourceConfigBase dataSourceConfigBase;
+
+    /** 逻辑表(小写) -> ShardingSphere生成的主键列 */
+    private final Map<String , String> generatedKeyColumns;
+
+    private final boolean enabled;
+
+    public ShardingWarmUp(SqlSessionFactory sqlSessionFactory , PhysicalDataSources physicalDataSources ,
+                          RoutingTableHolder routingTableHolder , DataSourceConfigBase dataSourceConfigBase ,
+                          Map<String , String> generatedKeyColumns , boolean enabled) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.physicalDataSources = physicalDataSources;
+        this.routingTableHolder = routingTableHolder;
+        this.dataSourceConfigBase = dataSourceConfigBase;
+        this.generatedKeyColumns = generatedKeyColumns;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if(!enabled) {
+            log.info("sharding预热未开启");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int prepared = warmUp();
+        log.info("sharding预热完成,preparedStatements={},cost={}ms" , prepared , System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return 预编译的语句数(物理sql x 连接)
+     */
+    int warmUp() {
+        Configuration configuration = sqlSessionFactory.getConfiguration();
+        Map<String , Set<PhysicalStatement>> statements = new LinkedHashMap<>();
+        List<MappedStatement> queries = new ArrayList<>();
+        for (MappedStatement statement : mappedStatements(configuration)) {
+            Object parameter = sampleParameter(configuration , statement);
+            String sql;
+            try {
+                sql = statement.getBoundSql(parameter).getSql();
+            } catch (RuntimeException e) {
+                log.warn("sharding预热跳过语句,id={},msg={}" , statement.getId() , e.getMessage());
+                continue;
+            }
+            boolean returnGeneratedKeys = statement.getKeyGenerator() instanceof Jdbc3KeyGenerator;
+            for (Map.Entry<String , List<String>> entry : physicalSqls(sql , statement.getSqlCommandType()).entrySet()) {
+                Set<PhysicalStatement> physicalStatements = statements.computeIfAbsent(entry.getKey() , key -> new LinkedHashSet<>());
+                for (String physicalSql : entry.getValue()) {
+                    physicalStatements.add(new PhysicalStatement(physicalSql , returnGeneratedKeys));
+                }
+            }
+            if(statement.getSqlCommandType() == SqlCommandType.SELECT) {
+                queries.add(statement);
+            }
+        }
+
+        int prepared = 0;
+        for (Map.Entry<String , Set<PhysicalStatement>> entry : statements.entrySet()) {
+            prepared += prepare(entry.getKey() , entry.getValue());
+        }
+        try (SqlSession session = sqlSessionFactory.openSession()) {
+            for (MappedStatement query : queries) {
+                try {
+                    session.selectList(query.getId() , sampleParameter(configuration , query));
+                } catch (RuntimeException e) {
+                    log.warn("sharding预热查询失败,id={},msg={}" , query.getId() , e.getMessage());
+                }
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * 在数据源的minIdle个连接上预编译, 同时持有这些连接, 保证是不同的物理连接
+     */
+    private int prepare(String dataSourceName , Set<PhysicalStatement> statements) {
+        DataSource dataSource = physicalDataSources.get(dataSourceName);
+        int connectionCount = 1;
+        if(dataSource instanceof DruidDataSource) {
+            DruidDataSource druidDataSource = (DruidDataSource) dataSource;
+            connectionCount = Math.max(1 , Math.min(druidDataSource.getMinIdle() , druidDataSource.getMaxActive()));
+        }
+        List<Connection> connections = new ArrayList<>(connectionCount);
+        int prepared = 0;
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                connections.add(dataSource.getConnection());
+            }
+            for (Connection connection : connections) {
+                for (PhysicalStatement statement : statements) {
+                    try (PreparedStatement ignored = statement.prepare(connection)) {
+                        prepared ++;
+                    } catch (SQLException e) {
+                        log.warn("sharding预热预编译失败,dataSource={},sql={},msg={}" , dataSourceName , statement.sql , e.getMessage());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("sharding预热获取连接失败,dataSource={},msg={}" , dataSourceName , e.getMessage());
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.warn("sharding预热归还连接失败,dataSource={}" , dataSourceName , e);
+                }
+            }
+        }
+        log.info("sharding预热,dataSource={},connections={},statements={}" , dataSourceName , connections.size() , statements.size());
+        return prepared;
+    }
+
+    /**
+     * 按ShardingSphere的改写规则生成各物理库上执行的sql: 分表逻辑表换成路由表的每个物理表, 只分库的表在每个分库数据源执行,
+     * 其余表在默认库执行. 涉及多个分片表的语句(join)不预热
+     * @param sql mybatis生成的逻辑sql
+     * @param commandType
+     * @return 数据源名 -> 物理sql
+     */
+    Map<String , List<String>> physicalSqls(String sql , SqlCommandType commandType) {
+        Map<String , List<String>> result = new LinkedHashMap<>();
+        List<String> shardingTables = new ArrayList<>();
+        for (String table : dataSourceConfigBase.getShardingDatabaseTableNames().split(",")) {
+            if(!table.trim().isEmpty() && PhysicalSqls.identifierPattern(table.trim().toLowerCase()).matcher(sql).find()) {
+                shardingTables.add(table.trim().toLowerCase());
+            }
+        }
+        if(shardingTables.size() > 1) {
+            return result;
+        }
+        if(shardingTables.isEmpty()) {
+            result.put(dataSourceConfigBase.getDatasourceName1() , Collections.singletonList(sql));
+            return result;
+        }
+        String logicTable = shardingTables.get(0);
+        RoutingTable routingTable = routingTableHolder.find(logicTable);
+        List<String> dataSourceNames = routingTable != null ? routingTable.getDataSourceNames() : dataSourceConfigBase.getDatasourceNames();
+        List<String> tables = routingTable != null ? routingTable.getTables() : Collections.singletonList(logicTable);
+        List<String> physicalSqls = new ArrayList<>(tables.size());
+        for (String table : tables) {
+            physicalSqls.add(PhysicalSqls.rewrite(sql , commandType , logicTable , table , generatedKeyColumns.get(logicTable)));
+        }
+        for (String dataSourceName : dataSourceNames) {
+            result.put(dataSourceName , physicalSqls);
+        }
+        return result;
+    }
+
+    /**
+     * 已注册mapper接口中的语句, 不含自动生成的selectKey
+     */
+    private static List<MappedStatement> mappedStatements(Configuration configuration) {
+        List<MappedStatement> result = new ArrayList<>();
+        for (Class<?> mapper : configuration.getMapperRegistry().getMappers()) {
+            for (String name : configuration.getMappedStatementNames()) {
+                if(name.startsWith(mapper.getName() + ".") && name.indexOf('!') < 0) {
+                    result.add(configuration.getMappedStatement(name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 简单类型的参数取默认值; 实体参数除主键外的属性都取默认值, 主键由数据库或ShardingSphere生成
+     */
+    private static Object sampleParameter(Configuration configuration , MappedStatement statement) {
+        Class<?> type = statement.getParameterMap().getType();
+        if(type == null || Map.class.isAssignableFrom(type)) {
+            return null;
+        }
+        Object value = sampleValue(type);
+        if(value != null || configuration.getTypeHandlerRegistry().hasTypeHandler(type)) {
+            return value;
+        }
+        Object parameter = configuration.getObjectFactory().create(type);
+        MetaObject metaObject = configuration.newMetaObject(parameter);
+        List<String> keyProperties = statement.getKeyProperties() == null
+                ? Collections.emptyList() : Arrays.asList(statement.getKeyProperties());
+        for (String property : metaObject.getSetterNames()) {
+            Object propertyValue = sampleValue(metaObject.getSetterType(property));
+            if(propertyValue != null && !keyProperties.contains(property)) {
+                metaObject.setValue(property , propertyValue);
+            }
+        }
+        return parameter;
+    }
+
+    private static Object sampleValue(Class<?> type) {
+        if(type == Long.class || type == long.class) {
+            return 0L;
+        }
+        if(type == Integer.class || type == int.class) {
+            return 0;
+        }
+        if(type == Short.class || type == short.class) {
+            return (short) 0;
+        }
+        if(type == Boolean.class || type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if(type == String.class) {
+            return "";
+        }
+        if(type == BigDecimal.class) {
+            return BigDecimal.ZERO;
+        }
+        if(type == Date.class) {
+            return new Date(0L);
+        }
+        return null;
+    }
+
+    /**
+     * 物理sql和预编译方式, 与ShardingSphere创建物理PreparedStatement的方式一致, Druid按二者缓存
+     */
+    private static final class PhysicalStatement {
+
+        private final String sql;
+
+        private final boolean returnGeneratedKeys;
+
+        private PhysicalStatement(String sql , boolean returnGeneratedKeys) {
+            this.sql = sql;
+            this.returnGeneratedKeys = returnGeneratedKeys;
+        }
+
+        private PreparedStatement prepare(Connection connection) throws SQLException {
+            return returnGeneratedKeys ? connection.prepareStatement(sql , Statement.RETURN_GENERATED_KEYS)
+                    : connection.prepareStatement(sql , ResultSet.TYPE_FORWARD_ONLY , ResultSet.CONCUR_READ_ONLY , ResultSet.HOLD_CURSORS_OVER_COMMIT);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof PhysicalStatement)) {
+                return false;
+            }
+            PhysicalStatement that = (PhysicalStatement) o;
+            return returnGeneratedKeys == that.returnGeneratedKeys && sql.equals(that.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + (returnGeneratedKeys ? 1 : 0);
+        }
+    }
+}
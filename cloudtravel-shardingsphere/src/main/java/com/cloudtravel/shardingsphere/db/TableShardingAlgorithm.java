@@ -1,31 +1,63 @@
 package com.cloudtravel.shardingsphere.db;
 
+import com.cloudtravel.shardingsphere.keygen.SnowflakeIdGenerator;
+import com.google.common.collect.Range;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.shardingsphere.api.sharding.complex.ComplexKeysShardingAlgorithm;
 import org.apache.shardingsphere.api.sharding.complex.ComplexKeysShardingValue;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import java.util.ArrayList;
+
 import java.util.Collection;
-import java.util.List;
 
 /**
- *分表逻辑
+ *分表逻辑: 分表字段 % 分表个数 为物理表下标, 物理表名取自逻辑表当前版本的路由表.
+ * 等值和IN按每个值路由, BETWEEN等范围条件只路由到范围内的值所在的表.
+ * 没有分表字段时按主键中的分片基因(分表字段的低6位)路由, 要求分表个数能整除64; 都没有时为全部表
  */
+@Slf4j
 @Service
-public class TableShardingAlgorithm implements ComplexKeysShardingAlgorithm {
+public class TableShardingAlgorithm implements ComplexKeysShardingAlgorithm<Comparable<?>>, InitializingBean {
+
+    @Autowired
+    private DataSourceConfigBase dataSourceConfigBase;
+
+    @Autowired
+    private RoutingTableHolder routingTableHolder;
+
+    private String shardingColumn;
 
-    @Value("${SHARDING-TABLE-NAMES}")
-    private String SHARDING_TABLE_NAMES;
+    private String keyColumn;
+
+    @Override
+    public void afterPropertiesSet() {
+        shardingColumn = dataSourceConfigBase.getTableSpShardingColumn();
+        keyColumn = dataSourceConfigBase.getTableSpKeyColumn();
+        for (RoutingTable routingTable : routingTableHolder.getRoutingTables().values()) {
+            if(!routingTable.isKeyRoutable()) {
+                log.warn("{}的分表个数不能整除{}, 不按{}路由" , routingTable , SnowflakeIdGenerator.GENE_MASK + 1 , keyColumn);
+            }
+        }
+    }
 
     @Override
-    public Collection<String> doSharding(Collection collection, ComplexKeysShardingValue complexKeysShardingValue) {
-        List<String> tables = new ArrayList<>();
-        Long bizId = (Long) ((List) complexKeysShardingValue.getColumnNameAndShardingValuesMap().get("biz_id")).get(0);
-        String tableName = complexKeysShardingValue.getLogicTableName();
-        String physicsTable = tableName  + "_";
-        physicsTable += String.valueOf(bizId % 2);
-        tables.add(physicsTable);
-        System.out.println(tableName + "走分表,bizId = " + bizId + "路由到表" + physicsTable);
-        return tables;
+    public Collection<String> doSharding(Collection<String> availableTargetNames , ComplexKeysShardingValue<Comparable<?>> shardingValue) {
+        RoutingTable routingTable = routingTableHolder.get(shardingValue.getLogicTableName());
+        String[] tables = routingTable.tableArray();
+        Collection<Comparable<?>> values = ShardingValues.find(shardingValue.getColumnNameAndShardingValuesMap() , shardingColumn);
+        if(values != null && !values.isEmpty()) {
+            return ShardingValues.targets(values , tables);
+        }
+        Range<Comparable<?>> range = ShardingValues.find(shardingValue.getColumnNameAndRangeValuesMap() , shardingColumn);
+        if(range != null) {
+            return ShardingValues.targets(range , tables);
+        }
+        Collection<Comparable<?>> keys = routingTable.isKeyRoutable() ? ShardingValues.find(shardingValue.getColumnNameAndShardingValuesMap() , keyColumn) : null;
+        if(keys != null && !keys.isEmpty()) {
+            //分表个数整除64时 主键 % 分表个数 == 基因 % 分表个数
+            return ShardingValues.targets(keys , tables);
+        }
+        return availableTargetNames;
     }
 }
@@ -0,0 +1,19 @@
+package com.cloudtravel.shardingsphere.keygen;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class KeyGeneratorConfig {
+
+    /**
+     * 本节点唯一的id序列, 业务代码和ShardingSphere的主键生成共用
+     * @param workerIdLease
+     * @param properties
+     * @return
+     */
+    @Bean
+    public SnowflakeIdGenerator snowflakeIdGenerator(WorkerIdLease workerIdLease , KeyGeneratorProperties properties) {
+        return new SnowflakeIdGenerator(workerIdLease.getWorkerId() , properties.getMaxBackwardMillis() , workerIdLease::isHeld);
+    }
+}
@@ -0,0 +1,28 @@
+package com.cloudtravel.shardingsphere.keygen;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分布式id配置
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.keygen")
+public class KeyGeneratorProperties {
+
+    /** 固定的workerId(0~31), 小于0时通过redis租约分配 */
+    private int workerId = -1;
+
+    /** 租约key前缀, 完整key为 前缀 + workerId */
+    private String leaseKeyPrefix = "cloudtravel:keygen:shardingsphere:worker:";
+
+    /** 租约有效期, 每1/3有效期续约一次 */
+    private long leaseTtlMillis = 30000L;
+
+    /** 允许的时钟回拨, 超过时拒绝生成id */
+    private long maxBackwardMillis = 10L;
+}
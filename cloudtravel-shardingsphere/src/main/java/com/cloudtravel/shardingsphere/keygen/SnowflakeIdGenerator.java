@@ -0,0 +1,120 @@
+package com.cloudtravel.shardingsphere.keygen;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 雪花id: 0 | 41位毫秒时间戳(自EPOCH起) | 5位workerId | 11位序列号 | 6位分片基因.
+ * 分片基因为分片键的低6位, 分表个数为2的幂且不超过64时 id % 分表数 == 分片键 % 分表数, 只凭id即可路由到物理表.
+ * 每个worker每毫秒2048个id; 时间戳和序列号保存在同一个AtomicLong中CAS递增, 不加锁.
+ * 时钟回拨不超过maxBackwardMillis时沿用上次的时间戳继续分配, 序列号用完后等待时钟追上, 超过时抛出异常
+ */
+public class SnowflakeIdGenerator {
+
+    /** 2021-12-01 00:00:00 UTC */
+    public static final long EPOCH = 1638316800000L;
+
+    public static final int GENE_BITS = 6;
+
+    public static final int SEQUENCE_BITS = 11;
+
+    public static final int WORKER_BITS = 5;
+
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+
+    public static final long GENE_MASK = (1L << GENE_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final int WORKER_SHIFT = GENE_BITS + SEQUENCE_BITS;
+
+    private static final int TIMESTAMP_SHIFT = WORKER_SHIFT + WORKER_BITS;
+
+    private final long workerId;
+
+    private final long maxBackwardMillis;
+
+    /** worker租约是否有效, 失效后其他节点可能已使用同一workerId */
+    private final BooleanSupplier workerValid;
+
+    private final LongSupplier clock;
+
+    /** 上次分配的 时间戳 << SEQUENCE_BITS | 序列号 */
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdGenerator(int workerId , long maxBackwardMillis , BooleanSupplier workerValid) {
+        this(workerId , maxBackwardMillis , workerValid , System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(int workerId , long maxBackwardMillis , BooleanSupplier workerValid , LongSupplier clock) {
+        if(workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("Worker id must be between 0 and " + MAX_WORKER_ID + " : " + workerId);
+        }
+        this.workerId = workerId;
+        this.maxBackwardMillis = maxBackwardMillis;
+        this.workerValid = workerValid;
+        this.clock = clock;
+    }
+
+    /**
+     * 不需要按id路由的表, 基因为0
+     * @return
+     */
+    public long nextId() {
+        return nextId(0L);
+    }
+
+    /**
+     * @param shardKey 分片键, 取低6位作为基因
+     * @return
+     */
+    public long nextId(long shardKey) {
+        if(!workerValid.getAsBoolean()) {
+            throw new IllegalStateException("Worker id " + workerId + " is not leased");
+        }
+        while (true) {
+            long current = state.get();
+            long lastTimestamp = current >>> SEQUENCE_BITS;
+            long now = clock.getAsLong() - EPOCH;
+            long next;
+            if(now > lastTimestamp) {
+                next = now << SEQUENCE_BITS;
+            } else if(lastTimestamp - now > maxBackwardMillis) {
+                throw new IllegalStateException("Clock moved backwards " + (lastTimestamp - now) + "ms , worker id : " + workerId);
+            } else if((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = current + 1;
+            } else {
+                //本毫秒序列号用完, 等待下一毫秒
+                Thread.yield();
+                continue;
+            }
+            if(state.compareAndSet(current , next)) {
+                return (next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT
+                        | workerId << WORKER_SHIFT
+                        | (next & SEQUENCE_MASK) << GENE_BITS
+                        | shardKey & GENE_MASK;
+            }
+        }
+    }
+
+    public static long gene(long id) {
+        return id & GENE_MASK;
+    }
+
+    public static int workerId(long id) {
+        return (int) ((id >>> WORKER_SHIFT) & MAX_WORKER_ID);
+    }
+
+    /**
+     * @param id
+     * @return id生成时的毫秒时间戳
+     */
+    public static long timestamp(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    public int getWorkerId() {
+        return (int) workerId;
+    }
+}
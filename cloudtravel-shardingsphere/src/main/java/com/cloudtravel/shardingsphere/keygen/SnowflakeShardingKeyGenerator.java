@@ -0,0 +1,47 @@
+package com.cloudtravel.shardingsphere.keygen;
+
+import org.apache.shardingsphere.spi.keygen.ShardingKeyGenerator;
+
+import java.util.Properties;
+
+/**
+ * ShardingSphere主键生成SPI, type为CLOUDTRAVEL_SNOWFLAKE, 由ShardingSphere按SPI实例化,
+ * 实际生成委托给spring中租约workerId的SnowflakeIdGenerator, 保证同一节点只有一个序列.
+ * SPI取不到待插入的行, 生成的id基因为0, 需要按id路由的表(t_sp)由业务代码调用nextId(分片键)赋值
+ */
+public class SnowflakeShardingKeyGenerator implements ShardingKeyGenerator {
+
+    public static final String TYPE = "CLOUDTRAVEL_SNOWFLAKE";
+
+    private static volatile SnowflakeIdGenerator idGenerator;
+
+    private Properties properties = new Properties();
+
+    public static void setIdGenerator(SnowflakeIdGenerator generator) {
+        idGenerator = generator;
+    }
+
+    @Override
+    public Comparable<?> generateKey() {
+        SnowflakeIdGenerator generator = idGenerator;
+        if(generator == null) {
+            throw new IllegalStateException("SnowflakeIdGenerator is not initialized");
+        }
+        return generator.nextId();
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public Properties getProperties() {
+        return properties;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+        this.properties = properties;
+    }
+}
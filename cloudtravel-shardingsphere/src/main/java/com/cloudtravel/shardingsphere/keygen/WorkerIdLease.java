@@ -0,0 +1,143 @@
+package com.cloudtravel.shardingsphere.keygen;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * workerId租约: 启动时从随机位置开始对 前缀+workerId 执行SET NX PX, 成功的即为本节点的workerId.
+ * 每1/3有效期续约一次, 续约和释放都先比较持有者. 续约失败(key已过期或被其他节点持有)后租约不再有效,
+ * 本节点停止生成id, 需重启重新申请; redis不可用时租约在有效期结束后失效
+ */
+@Slf4j
+@Component
+public class WorkerIdLease implements InitializingBean, DisposableBean {
+
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end" , Long.class);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end" , Long.class);
+
+    private final KeyGeneratorProperties properties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /** 租约持有者标识 */
+    private final String owner;
+
+    private int workerId = -1;
+
+    private boolean fixed;
+
+    private volatile long expiresAt;
+
+    private volatile boolean lost;
+
+    private ScheduledExecutorService renewExecutor;
+
+    public WorkerIdLease(KeyGeneratorProperties properties , RedisConnectionFactory factory) {
+        this.properties = properties;
+        this.stringRedisTemplate = new StringRedisTemplate(factory);
+        this.owner = hostName() + "-" + UUID.randomUUID();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if(properties.getWorkerId() >= 0) {
+            fixed = true;
+            workerId = properties.getWorkerId();
+            log.info("使用配置的workerId={}" , workerId);
+            return;
+        }
+        long ttl = properties.getLeaseTtlMillis();
+        int start = ThreadLocalRandom.current().nextInt(SnowflakeIdGenerator.MAX_WORKER_ID + 1);
+        for (int i = 0; i <= SnowflakeIdGenerator.MAX_WORKER_ID && workerId < 0; i++) {
+            int candidate = (start + i) % (SnowflakeIdGenerator.MAX_WORKER_ID + 1);
+            long acquireAt = System.currentTimeMillis();
+            if(Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(key(candidate) , owner , ttl , TimeUnit.MILLISECONDS))) {
+                workerId = candidate;
+                expiresAt = acquireAt + ttl;
+            }
+        }
+        if(workerId < 0) {
+            throw new IllegalStateException("No free worker id under " + properties.getLeaseKeyPrefix());
+        }
+        log.info("workerId租约申请成功,workerId={},owner={}" , workerId , owner);
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable , "keygen-lease-renew");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(ttl / 3 , 1L);
+        renewExecutor.scheduleAtFixedRate(this::renew , period , period , TimeUnit.MILLISECONDS);
+    }
+
+    void renew() {
+        if(lost) {
+            return;
+        }
+        long renewAt = System.currentTimeMillis();
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT , Collections.singletonList(key(workerId)) ,
+                    owner , String.valueOf(properties.getLeaseTtlMillis()));
+            if(renewed != null && renewed == 1L) {
+                expiresAt = renewAt + properties.getLeaseTtlMillis();
+            } else {
+                lost = true;
+                log.error("workerId租约已失效,停止生成id,workerId={},owner={}" , workerId , owner);
+            }
+        } catch (Exception e) {
+            log.warn("workerId租约续约失败,workerId={},剩余{}ms,message={}" , workerId , expiresAt - renewAt , e.getMessage());
+        }
+    }
+
+    /**
+     * @return 租约是否仍有效
+     */
+    public boolean isHeld() {
+        return fixed || (!lost && System.currentTimeMillis() < expiresAt);
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    @Override
+    public void destroy() {
+        if(renewExecutor == null) {
+            return;
+        }
+        renewExecutor.shutdownNow();
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT , Collections.singletonList(key(workerId)) , owner);
+        } catch (Exception e) {
+            log.warn("workerId租约释放失败,workerId={},message={}" , workerId , e.getMessage());
+        }
+    }
+
+    private String key(int workerId) {
+        return properties.getLeaseKeyPrefix() + workerId;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.cloudtravel.shardingsphere.model;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * t_sp跨分片分页的一页
+ */
+@Getter
+public class SpPage {
+
+    private final List<BSpModel> rows;
+
+    /** 下一页的续传token, 没有下一页时为null */
+    private final String nextToken;
+
+    public SpPage(List<BSpModel> rows , String nextToken) {
+        this.rows = rows;
+        this.nextToken = nextToken;
+    }
+}
@@ -0,0 +1,64 @@
+package com.cloudtravel.shardingsphere.model;
+
+import java.util.Comparator;
+
+/**
+ * t_sp分页的排序, 最后都按SP_ID排序保证顺序唯一; 排序列为NULL时与MySQL一致, 升序在最前、降序在最后
+ */
+public enum SpPageOrder {
+
+    SP_ID_ASC(null , true),
+
+    SP_ID_DESC(null , false),
+
+    REGISTER_DATE_ASC("REGISTER_DATE" , true),
+
+    REGISTER_DATE_DESC("REGISTER_DATE" , false);
+
+    /** SP_ID之前的排序列, 只按SP_ID排序时为null */
+    private final String sortColumn;
+
+    private final boolean asc;
+
+    private final Comparator<BSpModel> comparator;
+
+    SpPageOrder(String sortColumn , boolean asc) {
+        this.sortColumn = sortColumn;
+        this.asc = asc;
+        Comparator<BSpModel> byId = Comparator.comparing(BSpModel::getSpId);
+        Comparator<BSpModel> comparator = sortColumn == null ? byId
+                : Comparator.comparing(this::sortValue , Comparator.nullsFirst(Comparator.<Long>naturalOrder())).thenComparing(byId);
+        this.comparator = asc ? comparator : comparator.reversed();
+    }
+
+    public String getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isAsc() {
+        return asc;
+    }
+
+    /**
+     * @return ORDER BY子句
+     */
+    public String getOrderBy() {
+        String direction = asc ? "ASC" : "DESC";
+        return sortColumn == null ? "SP_ID " + direction : sortColumn + " " + direction + ", SP_ID " + direction;
+    }
+
+    /**
+     * @param model
+     * @return 排序列的值, 只按SP_ID排序时为null
+     */
+    public Long sortValue(BSpModel model) {
+        return sortColumn == null ? null : model.getRegisterDate();
+    }
+
+    /**
+     * @return 与ORDER BY一致的比较器
+     */
+    public Comparator<BSpModel> comparator() {
+        return comparator;
+    }
+}
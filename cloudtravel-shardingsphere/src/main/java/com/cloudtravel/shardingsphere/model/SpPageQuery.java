@@ -0,0 +1,28 @@
+package com.cloudtravel.shardingsphere.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * BSpModelMapper.selectPage的参数: 从上一页最后一行(afterSortValue, afterId)之后取limit行
+ */
+@Getter
+@Setter
+public class SpPageQuery {
+
+    /** 为null时不限租户 */
+    private Long tenantId;
+
+    /** 为null时不限业务 */
+    private Long bizId;
+
+    private SpPageOrder order = SpPageOrder.SP_ID_ASC;
+
+    /** 上一页最后一行排序列的值, 只按SP_ID排序时不使用 */
+    private Long afterSortValue;
+
+    /** 上一页最后一行的SP_ID, 第一页为null */
+    private Long afterId;
+
+    private int limit;
+}
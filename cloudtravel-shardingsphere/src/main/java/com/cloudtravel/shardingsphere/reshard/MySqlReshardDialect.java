@@ -0,0 +1,84 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+@Component
+public class MySqlReshardDialect implements ReshardDialect {
+
+    @Override
+    public String createTableSql(Connection source , String sourceTable , String targetTable) throws SQLException {
+        try (Statement statement = source.createStatement();
+             ResultSet resultSet = statement.executeQuery("SHOW CREATE TABLE `" + sourceTable + "`")) {
+            if(!resultSet.next()) {
+                throw new SQLException("Table " + sourceTable + " not found");
+            }
+            return resultSet.getString(2)
+                    .replaceFirst("(?i)^CREATE TABLE `" + sourceTable + "`" , Matcher.quoteReplacement("CREATE TABLE IF NOT EXISTS `" + targetTable + "`"))
+                    .replaceAll(" AUTO_INCREMENT=\\d+" , "");
+        }
+    }
+
+    @Override
+    public String createChangeLogSql(String changeLogTable) {
+        return "CREATE TABLE IF NOT EXISTS `" + changeLogTable + "` ("
+                + "`ID` bigint(20) NOT NULL AUTO_INCREMENT, "
+                + "`TABLE_NAME` varchar(64) NOT NULL, "
+                + "`PK_VALUE` bigint(20) NOT NULL, "
+                + "`DB_KEY` varchar(64) DEFAULT NULL, "
+                + "`TABLE_KEY` varchar(64) DEFAULT NULL, "
+                + "`GMT_CREATE` timestamp NULL DEFAULT CURRENT_TIMESTAMP, "
+                + "PRIMARY KEY (`ID`)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+    }
+
+    @Override
+    public List<String> createTriggerSqls(String table , String changeLogTable , String primaryKey , String databaseColumn , String tableColumn) {
+        String insert = "INSERT INTO `" + changeLogTable + "` (TABLE_NAME, PK_VALUE, DB_KEY, TABLE_KEY) VALUES ('" + table + "', ";
+        String newRow = insert + "NEW." + primaryKey + ", NEW." + databaseColumn + ", NEW." + tableColumn + ")";
+        String oldRow = insert + "OLD." + primaryKey + ", OLD." + databaseColumn + ", OLD." + tableColumn + ")";
+        return Arrays.asList(
+                "CREATE TRIGGER `" + table + "_rs_ai` AFTER INSERT ON `" + table + "` FOR EACH ROW " + newRow ,
+                "CREATE TRIGGER `" + table + "_rs_au` AFTER UPDATE ON `" + table + "` FOR EACH ROW BEGIN "
+                        + oldRow + "; "
+                        + "IF NOT (NEW." + primaryKey + " <=> OLD." + primaryKey + " AND NEW." + databaseColumn + " <=> OLD." + databaseColumn
+                        + " AND NEW." + tableColumn + " <=> OLD." + tableColumn + ") THEN " + newRow + "; END IF; END" ,
+                "CREATE TRIGGER `" + table + "_rs_ad` AFTER DELETE ON `" + table + "` FOR EACH ROW " + oldRow);
+    }
+
+    @Override
+    public List<String> dropTriggerSqls(String table) {
+        return Arrays.asList(
+                "DROP TRIGGER IF EXISTS `" + table + "_rs_ai`" ,
+                "DROP TRIGGER IF EXISTS `" + table + "_rs_au`" ,
+                "DROP TRIGGER IF EXISTS `" + table + "_rs_ad`");
+    }
+
+    /**
+     * BEFORE触发器中SIGNAL使写入失败. 建触发器需要表的元数据锁, 会等待已访问该表的事务结束, 等待时间由lock_wait_timeout限制
+     */
+    @Override
+    public List<String> createFenceSqls(String table , long lockWaitSeconds) {
+        String signal = " FOR EACH ROW SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = '" + table + " has been resharded, routing version is outdated'";
+        return Arrays.asList(
+                "SET SESSION lock_wait_timeout = " + Math.max(lockWaitSeconds , 1L) ,
+                "CREATE TRIGGER `" + table + "_rs_bi` BEFORE INSERT ON `" + table + "`" + signal ,
+                "CREATE TRIGGER `" + table + "_rs_bu` BEFORE UPDATE ON `" + table + "`" + signal ,
+                "CREATE TRIGGER `" + table + "_rs_bd` BEFORE DELETE ON `" + table + "`" + signal ,
+                "SET SESSION lock_wait_timeout = DEFAULT");
+    }
+
+    @Override
+    public List<String> dropFenceSqls(String table) {
+        return Arrays.asList(
+                "DROP TRIGGER IF EXISTS `" + table + "_rs_bi`" ,
+                "DROP TRIGGER IF EXISTS `" + table + "_rs_bu`" ,
+                "DROP TRIGGER IF EXISTS `" + table + "_rs_bd`");
+    }
+}
@@ -0,0 +1,47 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 重新分片用到的与数据库相关的DDL
+ */
+public interface ReshardDialect {
+
+    /**
+     * 按旧物理表的结构建新物理表, 在新表所在的库执行, 表已存在时不处理
+     * @param source 旧表所在库的连接
+     * @param sourceTable
+     * @param targetTable
+     * @return
+     * @throws SQLException
+     */
+    String createTableSql(Connection source , String sourceTable , String targetTable) throws SQLException;
+
+    /**
+     * 变更表: ID自增, TABLE_NAME, PK_VALUE, DB_KEY(分库字段), TABLE_KEY(分表字段)
+     * @param changeLogTable
+     * @return
+     */
+    String createChangeLogSql(String changeLogTable);
+
+    /**
+     * 旧物理表的insert/update/delete触发器, 把变更行的主键和分片字段写入变更表, update同时记录修改前后的值
+     * @return
+     */
+    List<String> createTriggerSqls(String table , String changeLogTable , String primaryKey , String databaseColumn , String tableColumn);
+
+    List<String> dropTriggerSqls(String table);
+
+    /**
+     * 切换时给旧物理表加的写入拦截: 之后旧表的insert/update/delete都失败, 路由版本落后的节点无法再写旧表.
+     * 须等待旧表上未结束的事务, 返回后旧表不会再有新提交的变更
+     * @param table
+     * @param lockWaitSeconds 等待未结束事务的最长时间(秒)
+     * @return
+     */
+    List<String> createFenceSqls(String table , long lockWaitSeconds);
+
+    List<String> dropFenceSqls(String table);
+}
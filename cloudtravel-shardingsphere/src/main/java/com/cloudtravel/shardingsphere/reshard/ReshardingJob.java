@@ -0,0 +1,786 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import com.cloudtravel.common.jdbc.RowSyncHelper;
+import com.cloudtravel.common.jdbc.Rows;
+import com.cloudtravel.shardingsphere.db.DataSourceConfigBase;
+import com.cloudtravel.shardingsphere.db.PhysicalDataSources;
+import com.cloudtravel.shardingsphere.db.ReshardableDataSource;
+import com.cloudtravel.shardingsphere.db.RoutingTable;
+import com.cloudtravel.shardingsphere.db.RoutingTableHolder;
+import com.cloudtravel.shardingsphere.db.RoutingTableStore;
+import com.cloudtravel.shardingsphere.reshard.ReshardingProgress.Phase;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * 在线重新分片(如t_sp从2库x2表扩到3库x4表):
+ * 1. 准备: 生成下一版本路由表, 在新库建新版本的物理表(逻辑表_v版本_下标), 在旧库建变更表并给旧物理表加触发器;
+ * 2. 复制: 各旧物理表并行按主键分页(主键 > 上一批最大值)读取, 按新路由写入新表, 已存在的行先删后插;
+ * 3. 追平: 按ID顺序回放变更表, 按主键重新读取旧表的当前行写入新表, 旧表已没有的行从新表删除;
+ * 4. 校验: 以旧表每batchSize行为一块比较新旧两边的CRC32, 不一致时按旧表修复, 新旧总行数不同时再反向检查新表多出的行;
+ * 5. 切换: 暂停借出连接并等待已借出的连接归还, 给旧表加写入拦截(等待旧表上的事务结束), 回放剩余变更,
+ *    保存新版本到t_sharding_routing, 替换路由表并重建ShardingSphere数据源;
+ * 6. 收尾: 删除变更触发器. 其他节点在refreshMillis内切换, 切换前写旧表会失败, 新表只接收新路由的写入, 切换后不再回放.
+ * 旧表数据和写入拦截保留, 确认后另行清理. 切换前任一步失败时删除触发器和写入拦截, 路由不变
+ */
+@Slf4j
+@Component
+public class ReshardingJob implements DisposableBean {
+
+    /** 每个旧库最多记录的变更表ID空洞数, 记不下时不再推进回放位置 */
+    private static final int MAX_GAPS = 10000;
+
+    private final ReshardingProperties properties;
+
+    private final PhysicalDataSources physicalDataSources;
+
+    private final RoutingTableHolder routingTableHolder;
+
+    private final RoutingTableStore routingTableStore;
+
+    private final ReshardableDataSource shardingDataSource;
+
+    private final ReshardDialect dialect;
+
+    /** 分库字段 */
+    private final String databaseColumn;
+
+    /** 分表字段 */
+    private final String tableColumn;
+
+    private final RateLimiter rateLimiter;
+
+    /** 逻辑表 -> 最近一次重新分片的进度 */
+    private final Map<String , ReshardingProgress> progresses = new ConcurrentHashMap<>();
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable , "reshard-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReshardingJob(ReshardingProperties properties , PhysicalDataSources physicalDataSources ,
+                         RoutingTableHolder routingTableHolder , RoutingTableStore routingTableStore ,
+                         @Qualifier("shardingDataSource") ReshardableDataSource shardingDataSource ,
+                         ReshardDialect dialect , DataSourceConfigBase dataSourceConfigBase) {
+        this.properties = properties;
+        this.physicalDataSources = physicalDataSources;
+        this.routingTableHolder = routingTableHolder;
+        this.routingTableStore = routingTableStore;
+        this.shardingDataSource = shardingDataSource;
+        this.dialect = dialect;
+        this.databaseColumn = dataSourceConfigBase.getDatabaseShardingColumnDefault();
+        this.tableColumn = dataSourceConfigBase.getTableSpShardingColumn();
+        this.rateLimiter = RateLimiter.create(properties.getRowsPerSecond());
+    }
+
+    /**
+     * 登记后在后台执行完整的重新分片
+     * @param logicTable
+     * @param dataSources 新版本的数据源, 顺序即下标
+     * @param tableCount 新版本每个库的分表个数
+     * @return
+     */
+    public ReshardingProgress submit(String logicTable , List<String> dataSources , int tableCount) {
+        ReshardingProgress progress = start(logicTable , dataSources , tableCount);
+        jobExecutor.execute(() -> {
+            try {
+                run(progress);
+            } catch (RuntimeException e) {
+                log.error("重新分片失败,{}" , progress , e);
+            }
+        });
+        return progress;
+    }
+
+    /**
+     * 完整的重新分片: 准备、复制、追平、校验修复、切换、收尾
+     * @param logicTable
+     * @param dataSources
+     * @param tableCount
+     * @return
+     */
+    public ReshardingProgress reshard(String logicTable , List<String> dataSources , int tableCount) {
+        ReshardingProgress progress = start(logicTable , dataSources , tableCount);
+        run(progress);
+        return progress;
+    }
+
+    private void run(ReshardingProgress progress) {
+        try {
+            prepare(progress);
+            copy(progress);
+            catchUp(progress);
+            if(!verify(progress)) {
+                throw new IllegalStateException(progress.getTarget() + " still inconsistent after " + properties.getVerifyRounds() + " verify rounds");
+            }
+            cutover(progress);
+            finish(progress);
+        } catch (RuntimeException e) {
+            abort(progress , e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * 登记重新分片, 新版本为当前版本+1, 同一逻辑表同时只能有一个
+     * @param logicTable
+     * @param dataSources
+     * @param tableCount
+     * @return
+     */
+    public ReshardingProgress start(String logicTable , List<String> dataSources , int tableCount) {
+        RoutingTable source = routingTableHolder.get(logicTable);
+        for (String dataSource : dataSources) {
+            physicalDataSources.get(dataSource);
+        }
+        RoutingTable target = source.next(dataSources , tableCount);
+        checkIdentifiers(source , target);
+        //绑定表需在同一组数据源上, 否则切换时才会失败
+        Map<String , RoutingTable> routingTables = new HashMap<>(routingTableHolder.getRoutingTables());
+        routingTables.put(target.getLogicTable() , target);
+        routingTableHolder.checkBindingTableGroups(routingTables);
+        ReshardingProgress progress = new ReshardingProgress(source , target);
+        ReshardingProgress running = progresses.putIfAbsent(source.getLogicTable() , progress);
+        if(running != null) {
+            if(running.isRunning()) {
+                throw new IllegalStateException("Resharding of " + source.getLogicTable() + " is running : " + running);
+            }
+            progresses.put(source.getLogicTable() , progress);
+        }
+        log.info("重新分片开始,{} -> {}" , source , target);
+        return progress;
+    }
+
+    /**
+     * 建新表(清空上次失败遗留的数据)、变更表和触发器. 触发器在复制前加上, 复制期间的变更都会被回放
+     * @param progress
+     */
+    public void prepare(ReshardingProgress progress) {
+        progress.phase(Phase.PREPARING);
+        RoutingTable source = progress.getSource();
+        RoutingTable target = progress.getTarget();
+        String createTableTemplate;
+        try (Connection connection = physicalDataSources.get(source.getDataSourceNames().get(0)).getConnection()) {
+            createTableTemplate = dialect.createTableSql(connection , source.getTables().get(0) , "${table}");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Read table definition of " + source.getTables().get(0) + " failed" , e);
+        }
+        for (String dataSource : target.getDataSourceNames()) {
+            List<String> sqls = new ArrayList<>();
+            for (String table : target.getTables()) {
+                sqls.add(createTableTemplate.replace("${table}" , table));
+                //新版本的表尚未提供服务
+                sqls.add("TRUNCATE TABLE " + table);
+            }
+            execute(dataSource , sqls);
+        }
+        for (String dataSource : source.getDataSourceNames()) {
+            List<String> sqls = new ArrayList<>();
+            sqls.add(dialect.createChangeLogSql(properties.getChangeLogTable()));
+            sqls.add("DELETE FROM " + properties.getChangeLogTable());
+            for (String table : source.getTables()) {
+                //上次失败遗留的写入拦截, 旧表仍在提供服务
+                sqls.addAll(dialect.dropFenceSqls(table));
+                sqls.addAll(dialect.dropTriggerSqls(table));
+                sqls.addAll(dialect.createTriggerSqls(table , properties.getChangeLogTable() , properties.getPrimaryKey() , databaseColumn , tableColumn));
+            }
+            execute(dataSource , sqls);
+            progress.changeLogPositions.put(dataSource , 0L);
+        }
+        log.info("重新分片准备完成,{}" , progress);
+    }
+
+    /**
+     * 各旧物理表并行复制
+     * @param progress
+     */
+    public void copy(ReshardingProgress progress) {
+        progress.phase(Phase.COPYING);
+        forEachSourceTable(progress , (dataSource , table) -> {
+            Object lastKey = null;
+            while (true) {
+                Rows rows = select(dataSource , table , lastKey , properties.getBatchSize());
+                if(rows.isEmpty()) {
+                    break;
+                }
+                write(progress.getTarget() , rows , rows.getValues() , groupKeys(progress.getTarget() , rows , rows.getValues()));
+                progress.copiedRows.add(rows.size());
+                if(rows.size() < properties.getBatchSize()) {
+                    break;
+                }
+                lastKey = rows.lastKey();
+            }
+            log.info("重新分片表复制完成,table={}.{},copiedRows={}" , dataSource , table , progress.getCopiedRows());
+        });
+    }
+
+    /**
+     * 回放变更, 直到一轮的变更数不超过cutoverLagRows
+     * @param progress
+     * @return 是否在catchUpRounds轮内追平
+     */
+    public boolean catchUp(ReshardingProgress progress) {
+        progress.phase(Phase.CATCHING_UP);
+        for (int round = 0; round < properties.getCatchUpRounds(); round++) {
+            long replayed = replay(progress);
+            log.info("重新分片追平,round={},replayed={}" , round , replayed);
+            if(replayed <= properties.getCutoverLagRows()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 分块校验并修复, 每轮之前先回放变更, 直到某一轮全部一致
+     * @param progress
+     * @return 是否在verifyRounds轮内达到一致
+     */
+    public boolean verify(ReshardingProgress progress) {
+        progress.phase(Phase.VERIFYING);
+        for (int round = 0; round < properties.getVerifyRounds(); round++) {
+            replay(progress);
+            long mismatched = verifyAndRepair(progress);
+            log.info("重新分片校验,round={},mismatchedChunks={},{}" , round , mismatched , progress);
+            if(mismatched == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 切换: 暂停借出连接后拦截旧表写入, 回放剩余变更并保存新版本, 再替换路由表.
+     * 拦截后旧表上的事务都已结束, 变更表不会再增加, 剩余的空洞都是已回滚的事务
+     * @param progress
+     */
+    public void cutover(ReshardingProgress progress) {
+        progress.phase(Phase.CUTOVER);
+        boolean switched = shardingDataSource.switchTo(progress.getTarget() , properties.getPauseTimeoutMillis() , () -> {
+            fence(progress);
+            replay(progress , true);
+            routingTableStore.save(progress.getTarget());
+        });
+        if(!switched) {
+            throw new IllegalStateException(progress.getTarget().getLogicTable() + " already switched to "
+                    + routingTableHolder.get(progress.getTarget().getLogicTable()));
+        }
+        log.info("重新分片已切换,{}" , progress);
+    }
+
+    /**
+     * 切换后删除变更触发器. 旧表已拦截写入, 不需要再回放
+     * @param progress
+     */
+    public void finish(ReshardingProgress progress) {
+        progress.phase(Phase.FINISHING);
+        dropTriggers(progress);
+        progress.phase(Phase.DONE);
+        log.info("重新分片完成,{}" , progress);
+    }
+
+    /**
+     * 放弃: 删除变更触发器. 未切换时同时删除写入拦截, 路由不变, 新表已写入的数据保留;
+     * 已切换时旧表保持拦截, 未切换的节点仍不能写旧表
+     * @param progress
+     * @param message
+     */
+    public void abort(ReshardingProgress progress , String message) {
+        boolean switched = routingTableHolder.get(progress.getSource().getLogicTable()).getVersion() >= progress.getTarget().getVersion();
+        try {
+            dropTriggers(progress);
+            if(!switched) {
+                unfence(progress);
+            }
+        } catch (RuntimeException e) {
+            log.warn("重新分片触发器删除失败,switched={},message={}" , switched , e.getMessage());
+        }
+        if(progress.isRunning()) {
+            progress.fail(message);
+            log.warn("重新分片终止,{}" , progress);
+        }
+    }
+
+    public ReshardingProgress getProgress(String logicTable) {
+        return progresses.get(logicTable.toLowerCase());
+    }
+
+    public Map<String , ReshardingProgress> getProgresses() {
+        return progresses;
+    }
+
+    @Override
+    public void destroy() {
+        jobExecutor.shutdownNow();
+    }
+
+    /**
+     * 按ID顺序回放各旧库变更表中未回放的记录. 并发事务提交顺序与自增ID顺序不一定一致,
+     * 跳过的ID记为空洞, 之后每次回放时重新查询. 空洞超过MAX_GAPS时停在第一个记不下的空洞之前, 下次从这里继续;
+     * 切换时旧表已拦截写入, 所有事务都已结束, 仍不存在的空洞即为已回滚
+     * @return 回放的变更数
+     */
+    long replay(ReshardingProgress progress) {
+        return replay(progress , false);
+    }
+
+    /**
+     * @param fenced 旧表是否已拦截写入
+     */
+    private long replay(ReshardingProgress progress , boolean fenced) {
+        long replayed = 0;
+        for (String dataSource : progress.getSource().getDataSourceNames()) {
+            Set<Long> gaps = progress.changeLogGaps.computeIfAbsent(dataSource , key -> new TreeSet<>());
+            if(!gaps.isEmpty()) {
+                List<Object[]> late = selectChanges(dataSource , " WHERE ID IN (" + ids(gaps) + ") ORDER BY ID" , null);
+                if(!late.isEmpty()) {
+                    apply(progress , dataSource , late);
+                    for (Object[] change : late) {
+                        gaps.remove((Long) change[0]);
+                    }
+                    progress.replayedChanges.add(late.size());
+                    replayed += late.size();
+                }
+            }
+            while (true) {
+                long position = progress.changeLogPositions.getOrDefault(dataSource , 0L);
+                List<Object[]> changes = selectChanges(dataSource , " WHERE ID > ? ORDER BY ID LIMIT " + properties.getBatchSize() , position);
+                if(changes.isEmpty()) {
+                    break;
+                }
+                long last = position;
+                int accepted = 0;
+                for (Object[] change : changes) {
+                    long id = (Long) change[0];
+                    if(!fenced) {
+                        if(gaps.size() + (id - last - 1) > MAX_GAPS) {
+                            break;
+                        }
+                        for (long gap = last + 1; gap < id; gap++) {
+                            gaps.add(gap);
+                        }
+                    }
+                    last = id;
+                    accepted++;
+                }
+                if(accepted == 0) {
+                    log.warn("重新分片变更表空洞过多,暂停推进回放位置,dataSource={},position={},gaps={}" , dataSource , position , gaps.size());
+                    break;
+                }
+                apply(progress , dataSource , changes.subList(0 , accepted));
+                progress.changeLogPositions.put(dataSource , last);
+                progress.replayedChanges.add(accepted);
+                replayed += accepted;
+                if(accepted < changes.size() || changes.size() < properties.getBatchSize()) {
+                    break;
+                }
+            }
+            if(fenced) {
+                gaps.clear();
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * 一批变更: 变更记录的分片字段对应的新位置先删除该主键, 旧表中仍存在的行再按当前值写入新位置
+     */
+    private void apply(ReshardingProgress progress , String dataSource , List<Object[]> changes) {
+        RoutingTable target = progress.getTarget();
+        Map<String , Set<Object>> deleteKeys = new LinkedHashMap<>();
+        Map<String , Set<Object>> reloadKeys = new LinkedHashMap<>();
+        for (Object[] change : changes) {
+            deleteKeys.computeIfAbsent(location(target , change[3] , change[4]) , key -> new LinkedHashSet<>()).add(change[2]);
+            reloadKeys.computeIfAbsent((String) change[1] , key -> new LinkedHashSet<>()).add(change[2]);
+        }
+        Map<String , List<Object[]>> inserts = new LinkedHashMap<>();
+        Rows columns = null;
+        for (Map.Entry<String , Set<Object>> entry : reloadKeys.entrySet()) {
+            Rows rows = selectByKeys(dataSource , entry.getKey() , entry.getValue());
+            columns = rows;
+            for (Object[] row : rows.getValues()) {
+                String location = location(target , rows , row);
+                inserts.computeIfAbsent(location , key -> new ArrayList<>()).add(row);
+                deleteKeys.computeIfAbsent(location , key -> new LinkedHashSet<>()).add(rows.key(row));
+            }
+        }
+        for (Map.Entry<String , Set<Object>> entry : deleteKeys.entrySet()) {
+            List<Object[]> rows = inserts.getOrDefault(entry.getKey() , Collections.emptyList());
+            write(entry.getKey() , columns , rows , entry.getValue());
+        }
+    }
+
+    /**
+     * 校验一轮, 各旧表并行
+     * @return 不一致的块数
+     */
+    private long verifyAndRepair(ReshardingProgress progress) {
+        RoutingTable target = progress.getTarget();
+        AtomicInteger mismatched = new AtomicInteger();
+        forEachSourceTable(progress , (dataSource , table) -> {
+            Object lowerKey = null;
+            while (true) {
+                Rows sourceRows = select(dataSource , table , lowerKey , properties.getBatchSize());
+                if(sourceRows.isEmpty()) {
+                    break;
+                }
+                progress.verifiedChunks.increment();
+                Map<String , Long> targetChecksums = new HashMap<>();
+                for (Map.Entry<String , Set<Object>> entry : groupKeys(target , sourceRows , sourceRows.getValues()).entrySet()) {
+                    String[] location = entry.getKey().split("\\." , 2);
+                    Rows targetRows = selectByKeys(location[0] , location[1] , entry.getValue());
+                    for (Object[] row : targetRows.getValues()) {
+                        targetChecksums.put(String.valueOf(targetRows.key(row)) , RowSyncHelper.checksum(row));
+                    }
+                }
+                CRC32 sourceChunk = new CRC32();
+                CRC32 targetChunk = new CRC32();
+                List<Object[]> changed = new ArrayList<>();
+                for (Object[] row : sourceRows.getValues()) {
+                    long sourceChecksum = RowSyncHelper.checksum(row);
+                    Long targetChecksum = targetChecksums.get(String.valueOf(sourceRows.key(row)));
+                    RowSyncHelper.update(sourceChunk , sourceChecksum);
+                    RowSyncHelper.update(targetChunk , targetChecksum == null ? -1L : targetChecksum);
+                    if(targetChecksum == null || targetChecksum != sourceChecksum) {
+                        changed.add(row);
+                    }
+                }
+                if(sourceChunk.getValue() != targetChunk.getValue()) {
+                    mismatched.incrementAndGet();
+                    progress.mismatchedChunks.increment();
+                    write(target , sourceRows , changed , groupKeys(target , sourceRows , changed));
+                    progress.repairedRows.add(changed.size());
+                    log.info("重新分片修复,table={}.{},rewrite={}" , dataSource , table , changed.size());
+                }
+                if(sourceRows.size() < properties.getBatchSize()) {
+                    break;
+                }
+                lowerKey = sourceRows.lastKey();
+            }
+        });
+        //总行数不同可能是尚未回放的新增, 只有确实删除了多余行才算不一致
+        if(count(progress.getSource()) != count(target) && removeOrphans(progress) > 0) {
+            mismatched.incrementAndGet();
+            progress.mismatchedChunks.increment();
+        }
+        return mismatched.get();
+    }
+
+    /**
+     * 新旧总行数不同时, 按新表分页检查旧路由下对应的行, 删除旧表已没有的行
+     * @return 删除的行数
+     */
+    private long removeOrphans(ReshardingProgress progress) {
+        RoutingTable source = progress.getSource();
+        long removed = 0;
+        for (String dataSource : progress.getTarget().getDataSourceNames()) {
+            for (String table : progress.getTarget().getTables()) {
+                Object lowerKey = null;
+                while (true) {
+                    Rows targetRows = select(dataSource , table , lowerKey , properties.getBatchSize());
+                    if(targetRows.isEmpty()) {
+                        break;
+                    }
+                    Map<String , Set<Object>> sourceKeys = groupKeys(source , targetRows , targetRows.getValues());
+                    Set<Object> orphans = new LinkedHashSet<>(targetRows.keys());
+                    for (Map.Entry<String , Set<Object>> entry : sourceKeys.entrySet()) {
+                        String[] location = entry.getKey().split("\\." , 2);
+                        orphans.removeAll(selectByKeys(location[0] , location[1] , entry.getValue()).keys());
+                    }
+                    if(!orphans.isEmpty()) {
+                        write(dataSource + "." + table , targetRows , Collections.emptyList() , orphans);
+                        progress.repairedRows.add(orphans.size());
+                        removed += orphans.size();
+                        log.info("重新分片删除多余行,table={}.{},delete={}" , dataSource , table , orphans.size());
+                    }
+                    if(targetRows.size() < properties.getBatchSize()) {
+                        break;
+                    }
+                    lowerKey = targetRows.lastKey();
+                }
+            }
+        }
+        return removed;
+    }
+
+    private long count(RoutingTable routingTable) {
+        long count = 0;
+        for (String dataSource : routingTable.getDataSourceNames()) {
+            try (Connection connection = physicalDataSources.get(dataSource).getConnection();
+                 Statement statement = connection.createStatement()) {
+                for (String table : routingTable.getTables()) {
+                    try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                        resultSet.next();
+                        count += resultSet.getLong(1);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Count " + routingTable + " failed , dataSource = " + dataSource , e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 各旧库的旧表加写入拦截, 在切换的暂停期间执行, 最多等待pauseTimeoutMillis
+     */
+    private void fence(ReshardingProgress progress) {
+        long lockWaitSeconds = TimeUnit.MILLISECONDS.toSeconds(properties.getPauseTimeoutMillis() + 999L);
+        for (String dataSource : progress.getSource().getDataSourceNames()) {
+            List<String> sqls = new ArrayList<>();
+            for (String table : progress.getSource().getTables()) {
+                sqls.addAll(dialect.createFenceSqls(table , lockWaitSeconds));
+            }
+            execute(dataSource , sqls);
+        }
+        log.info("重新分片旧表已拦截写入,{}" , progress.getSource());
+    }
+
+    private void unfence(ReshardingProgress progress) {
+        for (String dataSource : progress.getSource().getDataSourceNames()) {
+            List<String> sqls = new ArrayList<>();
+            for (String table : progress.getSource().getTables()) {
+                sqls.addAll(dialect.dropFenceSqls(table));
+            }
+            execute(dataSource , sqls);
+        }
+    }
+
+    private void dropTriggers(ReshardingProgress progress) {
+        for (String dataSource : progress.getSource().getDataSourceNames()) {
+            List<String> sqls = new ArrayList<>();
+            for (String table : progress.getSource().getTables()) {
+                sqls.addAll(dialect.dropTriggerSqls(table));
+            }
+            execute(dataSource , sqls);
+        }
+    }
+
+    /**
+     * 各旧物理表并行执行, 任一失败时抛出异常
+     */
+    private void forEachSourceTable(ReshardingProgress progress , TableTask task) {
+        RoutingTable source = progress.getSource();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(properties.getParallelism() , 1) , new ThreadFactory() {
+
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable , "reshard-worker-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String dataSource : source.getDataSourceNames()) {
+                for (String table : source.getTables()) {
+                    futures.add(executor.submit(() -> task.run(dataSource , table)));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Resharding interrupted" , e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 行按新位置(数据源.物理表)分组的主键
+     */
+    private Map<String , Set<Object>> groupKeys(RoutingTable routingTable , Rows rows , List<Object[]> values) {
+        Map<String , Set<Object>> result = new LinkedHashMap<>();
+        for (Object[] row : values) {
+            result.computeIfAbsent(location(routingTable , rows , row) ,
+                    key -> new LinkedHashSet<>()).add(rows.key(row));
+        }
+        return result;
+    }
+
+    /**
+     * 行按新位置写入: 先删除各位置的主键再插入
+     */
+    private void write(RoutingTable routingTable , Rows rows , List<Object[]> values , Map<String , Set<Object>> deleteKeys) {
+        Map<String , List<Object[]>> inserts = new LinkedHashMap<>();
+        for (Object[] row : values) {
+            inserts.computeIfAbsent(location(routingTable , rows , row) ,
+                    key -> new ArrayList<>()).add(row);
+        }
+        for (Map.Entry<String , Set<Object>> entry : deleteKeys.entrySet()) {
+            write(entry.getKey() , rows , inserts.getOrDefault(entry.getKey() , Collections.emptyList()) , entry.getValue());
+        }
+    }
+
+    /**
+     * 在一个事务中删除指定主键并插入新行
+     * @param location 数据源.物理表
+     */
+    private void write(String location , Rows rows , List<Object[]> values , Collection<Object> deleteKeys) {
+        if(values.isEmpty() && deleteKeys.isEmpty()) {
+            return;
+        }
+        String[] dataSourceAndTable = location.split("\\." , 2);
+        String table = dataSourceAndTable[1];
+        String deleteSql = "DELETE FROM " + table + " WHERE " + properties.getPrimaryKey() + " = ?";
+        List<Object[]> deleteParams = new ArrayList<>(deleteKeys.size());
+        for (Object key : deleteKeys) {
+            deleteParams.add(new Object[]{key});
+        }
+        try (Connection connection = physicalDataSources.get(dataSourceAndTable[0]).getConnection()) {
+            RowSyncHelper.deleteAndInsert(connection , deleteSql , deleteParams ,
+                    values.isEmpty() ? null : RowSyncHelper.insertSql(table , rows.getColumns()) , values);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Write " + location + " failed" , e);
+        }
+    }
+
+    /**
+     * 按主键顺序查询 fromKey 之后的limit行, 并按读取行数限流
+     */
+    private Rows select(String dataSource , String table , Object fromKey , int limit) {
+        String sql = "SELECT * FROM " + table + (fromKey == null ? "" : " WHERE " + properties.getPrimaryKey() + " > ?")
+                + " ORDER BY " + properties.getPrimaryKey() + " LIMIT " + limit;
+        return query(dataSource , table , sql , fromKey == null ? Collections.emptyList() : Collections.singletonList(fromKey));
+    }
+
+    private Rows selectByKeys(String dataSource , String table , Collection<Object> keys) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(table).append(" WHERE ")
+                .append(properties.getPrimaryKey()).append(" IN (");
+        for (int i = 0; i < keys.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ORDER BY ").append(properties.getPrimaryKey());
+        return query(dataSource , table , sql.toString() , keys);
+    }
+
+    private Rows query(String dataSource , String table , String sql , Collection<Object> params) {
+        Rows rows;
+        try (Connection connection = physicalDataSources.get(dataSource).getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (Object param : params) {
+                statement.setObject(index ++ , param);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                rows = Rows.read(resultSet , table , properties.getPrimaryKey());
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Select " + dataSource + "." + table + " failed" , e);
+        }
+        if(rows.indexOf(databaseColumn) < 0 || rows.indexOf(tableColumn) < 0) {
+            throw new IllegalStateException("Column " + databaseColumn + "/" + tableColumn + " not found in " + table);
+        }
+        rateLimiter.acquire(Math.max(rows.size() , 1));
+        return rows;
+    }
+
+    /**
+     * @param condition 查询条件和排序
+     * @param position 条件中的参数, 没有时为null
+     * @return ID, TABLE_NAME, PK_VALUE, DB_KEY, TABLE_KEY
+     */
+    private List<Object[]> selectChanges(String dataSource , String condition , Long position) {
+        String sql = "SELECT ID, TABLE_NAME, PK_VALUE, DB_KEY, TABLE_KEY FROM " + properties.getChangeLogTable() + condition;
+        List<Object[]> changes = new ArrayList<>();
+        try (Connection connection = physicalDataSources.get(dataSource).getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            if(position != null) {
+                statement.setLong(1 , position);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    changes.add(new Object[]{resultSet.getLong(1) , resultSet.getString(2) , resultSet.getObject(3) ,
+                            resultSet.getString(4) , resultSet.getString(5)});
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Select " + dataSource + "." + properties.getChangeLogTable() + " failed" , e);
+        }
+        return changes;
+    }
+
+    private static String ids(Set<Long> ids) {
+        StringBuilder result = new StringBuilder();
+        for (Long id : ids) {
+            result.append(result.length() == 0 ? "" : ", ").append(id);
+        }
+        return result.toString();
+    }
+
+    private void execute(String dataSource , List<String> sqls) {
+        try (Connection connection = physicalDataSources.get(dataSource).getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : sqls) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Execute ddl on " + dataSource + " failed" , e);
+        }
+    }
+
+    private static String location(RoutingTable routingTable , Object databaseValue , Object tableValue) {
+        return routingTable.dataSource(databaseValue) + "." + routingTable.table(tableValue);
+    }
+
+    private String location(RoutingTable routingTable , Rows rows , Object[] row) {
+        return location(routingTable , row[rows.indexOf(databaseColumn)] , row[rows.indexOf(tableColumn)]);
+    }
+
+    private void checkIdentifiers(RoutingTable source , RoutingTable target) {
+        //表名、列名会拼接进sql
+        List<String> identifiers = new ArrayList<>(target.getTables());
+        identifiers.addAll(source.getTables());
+        identifiers.add(properties.getPrimaryKey());
+        identifiers.add(properties.getChangeLogTable());
+        identifiers.add(databaseColumn);
+        identifiers.add(tableColumn);
+        for (String identifier : identifiers) {
+            if(!RowSyncHelper.isIdentifier(identifier)) {
+                throw new IllegalStateException("Invalid resharding identifier : " + identifier);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface TableTask {
+
+        void run(String dataSource , String table);
+    }
+}
@@ -0,0 +1,142 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import com.cloudtravel.shardingsphere.db.RoutingTable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一次重新分片的进度: 所处阶段、复制行数、回放变更数、校验/修复情况
+ */
+public class ReshardingProgress {
+
+    /**
+     * 重新分片阶段
+     */
+    public enum Phase {
+
+        /** 建新表、变更表和触发器 */
+        PREPARING,
+
+        /** 并行按主键分页复制旧表数据, 旧表的变更由触发器记录 */
+        COPYING,
+
+        /** 回放变更表, 直到一轮的变更数足够少 */
+        CATCHING_UP,
+
+        /** 分块比较新旧表的CRC32并修复 */
+        VERIFYING,
+
+        /** 暂停借出连接, 拦截旧表写入并回放剩余变更后切换路由表 */
+        CUTOVER,
+
+        /** 已切换, 删除旧表的变更触发器 */
+        FINISHING,
+
+        DONE,
+
+        FAILED
+    }
+
+    private final RoutingTable source;
+
+    private final RoutingTable target;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile Phase phase = Phase.PREPARING;
+
+    private volatile long endTime;
+
+    private volatile String message;
+
+    /** 旧库 -> 已回放的变更表ID */
+    final Map<String , Long> changeLogPositions = new ConcurrentHashMap<>();
+
+    /** 旧库 -> 回放时跳过的变更表ID, 只在执行重新分片的线程中访问 */
+    final Map<String , Set<Long>> changeLogGaps = new ConcurrentHashMap<>();
+
+    final LongAdder copiedRows = new LongAdder();
+
+    final LongAdder replayedChanges = new LongAdder();
+
+    final LongAdder verifiedChunks = new LongAdder();
+
+    final LongAdder mismatchedChunks = new LongAdder();
+
+    final LongAdder repairedRows = new LongAdder();
+
+    ReshardingProgress(RoutingTable source , RoutingTable target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    void phase(Phase phase) {
+        this.phase = phase;
+        if(phase == Phase.DONE || phase == Phase.FAILED) {
+            this.endTime = System.currentTimeMillis();
+        }
+    }
+
+    void fail(String message) {
+        this.message = message;
+        phase(Phase.FAILED);
+    }
+
+    public RoutingTable getSource() {
+        return source;
+    }
+
+    public RoutingTable getTarget() {
+        return target;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public boolean isRunning() {
+        return phase != Phase.DONE && phase != Phase.FAILED;
+    }
+
+    /** 失败原因 */
+    public String getMessage() {
+        return message;
+    }
+
+    public long getCopiedRows() {
+        return copiedRows.sum();
+    }
+
+    public long getReplayedChanges() {
+        return replayedChanges.sum();
+    }
+
+    public long getVerifiedChunks() {
+        return verifiedChunks.sum();
+    }
+
+    public long getMismatchedChunks() {
+        return mismatchedChunks.sum();
+    }
+
+    public long getRepairedRows() {
+        return repairedRows.sum();
+    }
+
+    /** 已用时间(毫秒) */
+    public long getElapsedMillis() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    @Override
+    public String toString() {
+        return "source=" + source + ",target=" + target + ",phase=" + phase
+                + ",copiedRows=" + getCopiedRows() + ",replayedChanges=" + getReplayedChanges()
+                + ",verifiedChunks=" + getVerifiedChunks() + ",mismatchedChunks=" + getMismatchedChunks()
+                + ",repairedRows=" + getRepairedRows() + ",changeLogPositions=" + changeLogPositions
+                + ",elapsedMillis=" + getElapsedMillis() + (message == null ? "" : ",message=" + message);
+    }
+}
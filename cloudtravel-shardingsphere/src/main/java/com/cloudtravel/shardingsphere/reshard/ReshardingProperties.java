@@ -0,0 +1,46 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 重新分片配置
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cloudtravel.reshard")
+public class ReshardingProperties {
+
+    /** 每批复制/校验/回放的行数 */
+    private int batchSize = 500;
+
+    /** 并行复制、校验的旧物理表个数 */
+    private int parallelism = 4;
+
+    /** 复制、校验合计每秒最多读取的行数 */
+    private double rowsPerSecond = 5000D;
+
+    /** 分片表的主键列, 按其分页 */
+    private String primaryKey = "SP_ID";
+
+    /** 旧库中记录增量的变更表, 由触发器写入 */
+    private String changeLogTable = "t_reshard_changelog";
+
+    /** 追平阶段最多回放的轮数 */
+    private int catchUpRounds = 20;
+
+    /** 一轮回放的变更数不超过该值时开始校验和切换 */
+    private long cutoverLagRows = 100L;
+
+    /** 校验不一致时最多回放、修复并重新校验的轮数 */
+    private int verifyRounds = 3;
+
+    /** 切换时等待已借出的连接归还、以及给旧表加写入拦截时等待旧表上的事务结束的最长时间(毫秒) */
+    private long pauseTimeoutMillis = 3000L;
+
+    /** 检查t_sharding_routing新版本的间隔(毫秒), 0为不检查 */
+    private long refreshMillis = 5000L;
+}
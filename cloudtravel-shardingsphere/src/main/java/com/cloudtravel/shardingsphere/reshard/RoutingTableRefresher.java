@@ -0,0 +1,74 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import com.cloudtravel.shardingsphere.db.ReshardableDataSource;
+import com.cloudtravel.shardingsphere.db.RoutingTable;
+import com.cloudtravel.shardingsphere.db.RoutingTableHolder;
+import com.cloudtravel.shardingsphere.db.RoutingTableStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时检查t_sharding_routing, 其他节点完成重新分片后本节点在refreshMillis内切换到新版本
+ */
+@Slf4j
+@Component
+public class RoutingTableRefresher implements InitializingBean, DisposableBean {
+
+    private final ReshardingProperties properties;
+
+    private final RoutingTableHolder routingTableHolder;
+
+    private final RoutingTableStore routingTableStore;
+
+    private final ReshardableDataSource shardingDataSource;
+
+    private ScheduledExecutorService refreshExecutor;
+
+    public RoutingTableRefresher(ReshardingProperties properties , RoutingTableHolder routingTableHolder ,
+                                 RoutingTableStore routingTableStore , @Qualifier("shardingDataSource") ReshardableDataSource shardingDataSource) {
+        this.properties = properties;
+        this.routingTableHolder = routingTableHolder;
+        this.routingTableStore = routingTableStore;
+        this.shardingDataSource = shardingDataSource;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if(properties.getRefreshMillis() <= 0) {
+            return;
+        }
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable , "routing-table-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(this::refresh , properties.getRefreshMillis() , properties.getRefreshMillis() , TimeUnit.MILLISECONDS);
+    }
+
+    void refresh() {
+        for (RoutingTable current : routingTableHolder.getRoutingTables().values()) {
+            try {
+                RoutingTable latest = routingTableStore.load(current.getLogicTable());
+                if(latest != null && latest.getVersion() > current.getVersion()) {
+                    shardingDataSource.switchTo(latest , properties.getPauseTimeoutMillis() , null);
+                }
+            } catch (RuntimeException e) {
+                log.warn("分表路由刷新失败,current={},message={}" , current , e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if(refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.cloudtravel.shardingsphere.service;
+
+import com.cloudtravel.shardingsphere.model.SpPage;
+import com.cloudtravel.shardingsphere.model.SpPageOrder;
+
+/**
+ * t_sp跨分片分页: 按上一页最后一行的排序键续读, 每个物理表只读一页, 翻到多深代价都与第一页相同
+ */
+public interface ISpPageService {
+
+    /**
+     * @param tenantId 为null时查询全部库
+     * @param bizId 为null时查询库中全部分表
+     * @param order 排序
+     * @param size 每页行数
+     * @param token 上一页返回的nextToken, 第一页为null; 须与上一页的tenantId、bizId、order相同
+     * @return
+     */
+    SpPage page(Long tenantId , Long bizId , SpPageOrder order , int size , String token);
+}
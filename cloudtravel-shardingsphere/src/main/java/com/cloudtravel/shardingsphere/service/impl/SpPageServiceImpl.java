@@ -0,0 +1,178 @@
+package com.cloudtravel.shardingsphere.service.impl;
+
+import com.cloudtravel.shardingsphere.db.PhysicalDataSources;
+import com.cloudtravel.shardingsphere.db.PhysicalSqls;
+import com.cloudtravel.shardingsphere.db.RoutingTable;
+import com.cloudtravel.shardingsphere.db.RoutingTableHolder;
+import com.cloudtravel.shardingsphere.model.BSpModel;
+import com.cloudtravel.shardingsphere.model.SpPage;
+import com.cloudtravel.shardingsphere.model.SpPageOrder;
+import com.cloudtravel.shardingsphere.model.SpPageQuery;
+import com.cloudtravel.shardingsphere.service.ISpPageService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 在t_sp当前路由表的每个物理表上执行BSpModelMapper.selectPage(排序键条件和LIMIT size+1都下推),
+ * 再按排序做k路归并: 各物理表的结果先读入内存, 取够size行即停止. 每页读取的行数不超过 物理表数 x (size+1), 与页码无关.
+ * 每个数据源只占用连接池的一个连接, 依次查询其上的各物理表. 直接从各库的连接池取连接, 不经过ShardingSphere; 重新分片切换期间可能读到旧版本的物理表
+ */
+@Slf4j
+@Service
+public class SpPageServiceImpl implements ISpPageService {
+
+    private static final String SELECT_PAGE = "com.cloudtravel.shardingsphere.dao.BSpModelMapper.selectPage";
+
+    private static final String LOGIC_TABLE = "t_sp";
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    private final PhysicalDataSources physicalDataSources;
+
+    private final RoutingTableHolder routingTableHolder;
+
+    private final int maxPageSize;
+
+    public SpPageServiceImpl(@Qualifier("sqlSessionFactory") SqlSessionFactory sqlSessionFactory ,
+                             PhysicalDataSources physicalDataSources , RoutingTableHolder routingTableHolder ,
+                             @Value("${cloudtravel.sp-page.max-size:500}") int maxPageSize) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.physicalDataSources = physicalDataSources;
+        this.routingTableHolder = routingTableHolder;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Override
+    public SpPage page(Long tenantId , Long bizId , SpPageOrder order , int size , String token) {
+        if(size < 1 || size > maxPageSize) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + maxPageSize + " : " + size);
+        }
+        SpPageQuery query = new SpPageQuery();
+        query.setTenantId(tenantId);
+        query.setBizId(bizId);
+        query.setOrder(order);
+        //多取一行, 判断是否还有下一页
+        query.setLimit(size + 1);
+        if(token != null && !token.isEmpty()) {
+            SpPageToken.decode(token).applyTo(query);
+        }
+
+        Configuration configuration = sqlSessionFactory.getConfiguration();
+        MappedStatement statement = configuration.getMappedStatement(SELECT_PAGE);
+        BoundSql boundSql = statement.getBoundSql(query);
+        RoutingTable routingTable = routingTableHolder.get(LOGIC_TABLE);
+        List<String> dataSourceNames = tenantId != null ? Collections.singletonList(routingTable.dataSource(tenantId)) : routingTable.getDataSourceNames();
+        List<String> tables = bizId != null ? Collections.singletonList(routingTable.table(bizId)) : routingTable.getTables();
+
+        //每个数据源只取一个连接, 依次查询其上的各物理表; 每个物理表最多size+1行, 先读入内存再归并
+        List<ShardRows> shards = new ArrayList<>(dataSourceNames.size() * tables.size());
+        for (String dataSourceName : dataSourceNames) {
+            String shard = null;
+            try (Connection connection = physicalDataSources.get(dataSourceName).getConnection()) {
+                for (String table : tables) {
+                    shard = dataSourceName + "." + table;
+                    shards.add(new ShardRows(shards.size() , query(connection , statement , boundSql , query , table)));
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Query page of " + LOGIC_TABLE + " failed on " + (shard != null ? shard : dataSourceName) , e);
+            }
+        }
+
+        Comparator<BSpModel> comparator = order.comparator();
+        //相同时物理表下标小的在前
+        PriorityQueue<ShardRows> heap = new PriorityQueue<>(Math.max(1 , shards.size()) , (a , b) -> {
+            int result = comparator.compare(a.current() , b.current());
+            return result != 0 ? result : Integer.compare(a.index , b.index);
+        });
+        for (ShardRows shard : shards) {
+            if(shard.current() != null) {
+                heap.add(shard);
+            }
+        }
+        List<BSpModel> rows = new ArrayList<>(size);
+        while (rows.size() < size && !heap.isEmpty()) {
+            ShardRows shard = heap.poll();
+            rows.add(shard.current());
+            shard.position ++;
+            if(shard.current() != null) {
+                heap.add(shard);
+            }
+        }
+
+        String nextToken = null;
+        if(!heap.isEmpty()) {
+            BSpModel last = rows.get(rows.size() - 1);
+            nextToken = new SpPageToken(order , tenantId , bizId , order.sortValue(last) , last.getSpId()).encode();
+        }
+        log.debug("sp分页,tenantId={},bizId={},order={},shards={},rows={},hasNext={}" ,
+                tenantId , bizId , order , shards.size() , rows.size() , nextToken != null);
+        return new SpPage(rows , nextToken);
+    }
+
+    /**
+     * 在物理表上执行分页查询, 读出全部结果(不超过LIMIT)
+     */
+    private static List<BSpModel> query(Connection connection , MappedStatement statement , BoundSql boundSql ,
+                                        SpPageQuery query , String table) throws SQLException {
+        String sql = PhysicalSqls.rewrite(boundSql.getSql() , SqlCommandType.SELECT , LOGIC_TABLE , table , null);
+        Configuration configuration = statement.getConfiguration();
+        ResultMap resultMap = statement.getResultMaps().get(0);
+        List<BSpModel> rows = new ArrayList<>(query.getLimit());
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            new DefaultParameterHandler(statement , query , boundSql).setParameters(preparedStatement);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    Object row = configuration.getObjectFactory().create(resultMap.getType());
+                    MetaObject metaObject = configuration.newMetaObject(row);
+                    for (ResultMapping mapping : resultMap.getResultMappings()) {
+                        metaObject.setValue(mapping.getProperty() , mapping.getTypeHandler().getResult(resultSet , mapping.getColumn()));
+                    }
+                    rows.add((BSpModel) row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 单个物理表已排序的结果和归并位置
+     */
+    private static final class ShardRows {
+
+        private final int index;
+
+        private final List<BSpModel> rows;
+
+        private int position;
+
+        private ShardRows(int index , List<BSpModel> rows) {
+            this.index = index;
+            this.rows = rows;
+        }
+
+        private BSpModel current() {
+            return position < rows.size() ? rows.get(position) : null;
+        }
+    }
+}
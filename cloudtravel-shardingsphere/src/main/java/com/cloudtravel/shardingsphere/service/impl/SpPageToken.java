@@ -0,0 +1,102 @@
+package com.cloudtravel.shardingsphere.service.impl;
+
+import com.cloudtravel.shardingsphere.model.SpPageOrder;
+import com.cloudtravel.shardingsphere.model.SpPageQuery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * 分页续传token: 查询条件和上一页最后一行的排序键, 二进制后base64url编码.
+ * 只记录全局的排序键, 不记录各分片的位置, 重新分片后仍然有效
+ */
+final class SpPageToken {
+
+    private static final byte VERSION = 1;
+
+    private final SpPageOrder order;
+
+    private final Long tenantId;
+
+    private final Long bizId;
+
+    private final Long afterSortValue;
+
+    private final long afterId;
+
+    SpPageToken(SpPageOrder order , Long tenantId , Long bizId , Long afterSortValue , long afterId) {
+        this.order = order;
+        this.tenantId = tenantId;
+        this.bizId = bizId;
+        this.afterSortValue = afterSortValue;
+        this.afterId = afterId;
+    }
+
+    /**
+     * 设置查询的续读位置, 查询条件与token不一致时抛出异常
+     * @param query
+     */
+    void applyTo(SpPageQuery query) {
+        if(order != query.getOrder() || !Objects.equals(tenantId , query.getTenantId()) || !Objects.equals(bizId , query.getBizId())) {
+            throw new IllegalArgumentException("Page token does not match the query");
+        }
+        query.setAfterSortValue(afterSortValue);
+        query.setAfterId(afterId);
+    }
+
+    String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(40);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(VERSION);
+            output.writeByte(order.ordinal());
+            writeNullable(output , tenantId);
+            writeNullable(output , bizId);
+            writeNullable(output , afterSortValue);
+            output.writeLong(afterId);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @param token
+     * @return
+     * @throws IllegalArgumentException token无法解析
+     */
+    static SpPageToken decode(String token) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+            if(input.readByte() != VERSION) {
+                throw new IllegalArgumentException("Unsupported page token version");
+            }
+            int ordinal = input.readByte();
+            if(ordinal < 0 || ordinal >= SpPageOrder.values().length) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+            SpPageToken result = new SpPageToken(SpPageOrder.values()[ordinal] , readNullable(input) , readNullable(input) ,
+                    readNullable(input) , input.readLong());
+            if(input.read() >= 0) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid page token" , e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream output , Long value) throws IOException {
+        output.writeBoolean(value != null);
+        if(value != null) {
+            output.writeLong(value);
+        }
+    }
+
+    private static Long readNullable(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readLong() : null;
+    }
+}
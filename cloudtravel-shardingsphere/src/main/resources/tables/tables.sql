@@ -1,5 +1,5 @@
 CREATE TABLE `b_user` (
-  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '自增id',
+  `id` bigint(20) NOT NULL COMMENT '分布式id',
   `biz_id` varchar(20) NOT NULL COMMENT '业务id',
   `tenant_id` varchar(20) NOT NULL COMMENT '租户id',
   `user_type` smallint(4) NOT NULL DEFAULT '0' COMMENT '用户类型:0:游客;1:注册用户',
@@ -9,10 +9,10 @@ CREATE TABLE `b_user` (
   `gmt_create` timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '数据生成时间',
   `gmt_update` timestamp NULL DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`id`)
-) ENGINE=InnoDB AUTO_INCREMENT=62 DEFAULT CHARSET=utf8mb4;
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 CREATE TABLE `t_sp_0` (
-  `SP_ID` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '运营商ID',
+  `SP_ID` bigint(20) NOT NULL COMMENT '运营商ID, 分布式id, 低6位为BIZ_ID的低6位',
   `TENANT_ID` bigint(20) NOT NULL COMMENT '分库标识',
   `BIZ_ID` bigint(20) NOT NULL COMMENT '分表标识',
   `SP_NAME` varchar(50) NOT NULL COMMENT '运营商名称',
@@ -27,5 +27,56 @@ CREATE TABLE `t_sp_0` (
   `UPD_ACCOUNT_ID` bigint(20) DEFAULT NULL COMMENT '修改账户',
   `UPD_TERM_IP` varchar(50) DEFAULT NULL COMMENT '修改终端IP',
   `UPD_DT` bigint(20) DEFAULT NULL COMMENT '修改日期',
-  PRIMARY KEY (`SP_ID`)
-) ENGINE=InnoDB AUTO_INCREMENT=65 DEFAULT CHARSET=utf8 COMMENT='运营商';
+  PRIMARY KEY (`SP_ID`),
+  KEY `IDX_REGISTER_DATE` (`REGISTER_DATE`) COMMENT '按注册日期分页, 二级索引隐含SP_ID'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='运营商';
+
+-- 分表路由表版本, 每个逻辑表以最大版本为准, 没有记录时按配置生成第1版; 放在默认数据源
+CREATE TABLE `t_sharding_routing` (
+  `LOGIC_TABLE` varchar(64) NOT NULL COMMENT '逻辑表',
+  `VERSION` int(11) NOT NULL COMMENT '版本, 第1版物理表为 逻辑表_下标, 之后为 逻辑表_v版本_下标',
+  `DATA_SOURCES` varchar(1000) NOT NULL COMMENT '数据源, 逗号分隔, 顺序即下标',
+  `TABLE_COUNT` int(11) NOT NULL COMMENT '每个库的分表个数',
+  `GMT_CREATE` timestamp NULL DEFAULT CURRENT_TIMESTAMP COMMENT '切换时间',
+  PRIMARY KEY (`LOGIC_TABLE`,`VERSION`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='分表路由';
+
+-- 广播表, 每个库都建, 数据一致
+CREATE TABLE `t_base_area` (
+  `AREA_ID` bigint(20) NOT NULL COMMENT '区域ID',
+  `PARENT_AREA_ID` bigint(20) DEFAULT NULL COMMENT '上级区域ID',
+  `AREA_NAME` varchar(50) NOT NULL COMMENT '区域名称',
+  `FULL_AREA_NAME` varchar(200) DEFAULT NULL COMMENT '区域全称',
+  `SHORT_NAME` varchar(50) DEFAULT NULL COMMENT '简称',
+  `FULL_SHORT_NAME` varchar(200) DEFAULT NULL COMMENT '简称全称',
+  `AREA_LEVEL` smallint(4) DEFAULT NULL COMMENT '区域级别',
+  `CITY_CODE` varchar(20) DEFAULT NULL COMMENT '城市编码',
+  `ZIP_CODE` varchar(20) DEFAULT NULL COMMENT '邮编',
+  `PINYIN` varchar(100) DEFAULT NULL COMMENT '拼音',
+  `JIANPIN` varchar(50) DEFAULT NULL COMMENT '简拼',
+  `FIRST_CHAR` varchar(10) DEFAULT NULL COMMENT '首字母',
+  `LNG` decimal(10,6) DEFAULT NULL COMMENT '经度',
+  `LAT` decimal(10,6) DEFAULT NULL COMMENT '纬度',
+  `HOT_PIROR` bigint(20) DEFAULT NULL COMMENT '热门排序',
+  `REMARK` varchar(200) DEFAULT NULL COMMENT '备注',
+  `VERSION` bigint(20) DEFAULT '1' COMMENT '数据版本',
+  `DEL_FLG` bit(1) DEFAULT b'0' COMMENT '删除标志',
+  PRIMARY KEY (`AREA_ID`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='区域';
+
+CREATE TABLE `t_role` (
+  `ROLE_ID` bigint(20) NOT NULL COMMENT '角色ID',
+  `SP_ID` bigint(20) DEFAULT NULL COMMENT '运营商ID',
+  `ROLE_NAME` varchar(50) NOT NULL COMMENT '角色名称',
+  `VERSION` bigint(20) DEFAULT '1' COMMENT '数据版本',
+  `DEL_FLG` bit(1) DEFAULT b'0' COMMENT '删除标志',
+  `ADD_ACTION` varchar(50) DEFAULT NULL COMMENT '插入请求',
+  `ADD_ACCOUNT_ID` bigint(20) DEFAULT NULL COMMENT '插入账户',
+  `ADD_TERM_IP` varchar(50) DEFAULT NULL COMMENT '插入终端IP',
+  `ADD_DT` bigint(20) DEFAULT NULL COMMENT '插入日期',
+  `UPD_ACTION` varchar(50) DEFAULT NULL COMMENT '修改请求',
+  `UPD_ACCOUNT_ID` bigint(20) DEFAULT NULL COMMENT '修改账户',
+  `UPD_TERM_IP` varchar(50) DEFAULT NULL COMMENT '修改终端IP',
+  `UPD_DT` bigint(20) DEFAULT NULL COMMENT '修改日期',
+  PRIMARY KEY (`ROLE_ID`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='角色';
@@ -0,0 +1,348 @@
+package com.cloudtravel.shardingsphere.db;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 两个MySQL模式的H2内存库上比较join的路由:
+ * 广播表与分片表在分片所在的库join / 不配置广播表时在应用中分两次查询再关联;
+ * 只有主键条件时按ShardingHints指定的库执行 / 在全部库执行.
+ * 耗时比较标记为benchmark, 只在 -Pbenchmark 时执行
+ */
+class JoinRoutingTest {
+
+    private static final Logger log = LoggerFactory.getLogger(JoinRoutingTest.class);
+
+    private static final List<String> DATA_SOURCES = Arrays.asList("jb_0" , "jb_1");
+
+    private static final int TENANTS = 10;
+
+    private static final int SPS_PER_TENANT = 20;
+
+    private static final int WARM_UP = 200;
+
+    private static final int ROUNDS = 2000;
+
+    private static final String BROADCAST_JOIN = "SELECT s.SP_ID , s.SP_NAME , r.ROLE_NAME FROM t_sp s JOIN t_role r ON r.SP_ID = s.SP_ID "
+            + "WHERE s.TENANT_ID = ? AND s.BIZ_ID = ? ORDER BY s.SP_ID";
+
+    private static final String KEY_JOIN = "SELECT s.SP_NAME , u.user_name FROM t_sp s JOIN b_user u ON u.tenant_id = s.TENANT_ID WHERE s.SP_ID = ?";
+
+    private Map<String , DataSource> physicalDataSources;
+
+    /** 物理库上执行的sql数 */
+    private final AtomicInteger statements = new AtomicInteger();
+
+    private DataSourceConfigBase configBase;
+
+    private DataSourceConfig dataSourceConfig;
+
+    private RoutingTableHolder routingTableHolder;
+
+    @BeforeEach
+    void init() throws Exception {
+        physicalDataSources = new LinkedHashMap<>();
+        for (String name : DATA_SOURCES) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+            execute(dataSource , "CREATE TABLE b_user (id BIGINT PRIMARY KEY , tenant_id VARCHAR(20) NOT NULL , user_name VARCHAR(150) NOT NULL)");
+            for (int i = 0; i < 2; i++) {
+                execute(dataSource , "CREATE TABLE t_sp_" + i + " (SP_ID BIGINT PRIMARY KEY , TENANT_ID BIGINT NOT NULL , "
+                        + "BIZ_ID BIGINT NOT NULL , SP_NAME VARCHAR(50) NOT NULL)");
+            }
+            execute(dataSource , "CREATE TABLE t_role (ROLE_ID BIGINT PRIMARY KEY , SP_ID BIGINT , ROLE_NAME VARCHAR(50) NOT NULL)");
+            physicalDataSources.put(name , counting(dataSource));
+        }
+        for (int tenant = 0; tenant < TENANTS; tenant++) {
+            DataSource dataSource = physicalDataSources.get(DATA_SOURCES.get(tenant % 2));
+            execute(dataSource , "INSERT INTO b_user VALUES (" + tenant + " , '" + tenant + "' , 'user" + tenant + "')");
+            for (int i = 0; i < SPS_PER_TENANT; i++) {
+                long bizId = i % 4;
+                long spId = spId(tenant , i);
+                execute(dataSource , "INSERT INTO t_sp_" + (bizId % 2) + " VALUES (" + spId + " , " + tenant + " , " + bizId + " , 'sp" + spId + "')");
+                //广播表每个库一份
+                for (DataSource each : physicalDataSources.values()) {
+                    execute(each , "INSERT INTO t_role VALUES (" + spId + " , " + spId + " , 'role" + spId + "')");
+                }
+            }
+        }
+
+        configBase = new DataSourceConfigBase();
+        ReflectionTestUtils.setField(configBase , "datasourceName1" , DATA_SOURCES.get(0));
+        ReflectionTestUtils.setField(configBase , "datasourceNames" , String.join("," , DATA_SOURCES));
+        ReflectionTestUtils.setField(configBase , "databaseShardingColumnDefault" , "TENANT_ID");
+        ReflectionTestUtils.setField(configBase , "shardingDatabaseTableNames" , "B_USER,T_SP");
+        ReflectionTestUtils.setField(configBase , "shardingTableNames" , "T_SP");
+        ReflectionTestUtils.setField(configBase , "userActualDataNodes" , "jb_$->{0..1}.b_user");
+        ReflectionTestUtils.setField(configBase , "tableSpShardingColumn" , "BIZ_ID");
+        ReflectionTestUtils.setField(configBase , "tableSpKeyColumn" , "SP_ID");
+        ReflectionTestUtils.setField(configBase , "tableSpShardingCount" , 2);
+        ReflectionTestUtils.setField(configBase , "bindingTables" , "b_user,t_sp");
+        ReflectionTestUtils.setField(configBase , "broadcastTables" , "");
+        routingTableHolder = new RoutingTableHolder(configBase , Mockito.mock(RoutingTableStore.class));
+        routingTableHolder.afterPropertiesSet();
+        DatabaseShardingAlgorithm databaseShardingAlgorithm = new DatabaseShardingAlgorithm();
+        ReflectionTestUtils.setField(databaseShardingAlgorithm , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(databaseShardingAlgorithm , "routingTableHolder" , routingTableHolder);
+        databaseShardingAlgorithm.afterPropertiesSet();
+        TableShardingAlgorithm tableShardingAlgorithm = new TableShardingAlgorithm();
+        ReflectionTestUtils.setField(tableShardingAlgorithm , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(tableShardingAlgorithm , "routingTableHolder" , routingTableHolder);
+        tableShardingAlgorithm.afterPropertiesSet();
+        dataSourceConfig = new DataSourceConfig();
+        ReflectionTestUtils.setField(dataSourceConfig , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(dataSourceConfig , "databaseShardingAlgorithm" , databaseShardingAlgorithm);
+        ReflectionTestUtils.setField(dataSourceConfig , "tableShardingAlgorithmCom" , tableShardingAlgorithm);
+        ReflectionTestUtils.setField(dataSourceConfig , "routingTableHolder" , routingTableHolder);
+        ReflectionTestUtils.setField(dataSourceConfig , "physicalDataSources" , new PhysicalDataSources(physicalDataSources , DATA_SOURCES.get(0)));
+    }
+
+    @AfterEach
+    void destroy() throws Exception {
+        for (DataSource dataSource : physicalDataSources.values()) {
+            execute(dataSource , "DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    void testBroadcastJoin() throws Exception {
+        DataSource withoutRules = dataSourceConfig.createShardingDataSource(routingTableHolder.getRoutingTables() , false);
+        ReflectionTestUtils.setField(configBase , "broadcastTables" , "T_ROLE");
+        DataSource withRules = dataSourceConfig.createShardingDataSource(routingTableHolder.getRoutingTables() , false);
+
+        for (int tenant = 0; tenant < TENANTS; tenant++) {
+            assertEquals(applicationJoin(withoutRules , tenant , 1L) , broadcastJoin(withRules , tenant , 1L));
+        }
+        statements.set(0);
+        broadcastJoin(withRules , 3 , 2L);
+        assertEquals(1 , statements.get());
+        statements.set(0);
+        applicationJoin(withoutRules , 3 , 2L);
+        assertEquals(2 , statements.get());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void testBroadcastJoinLatency() throws Exception {
+        DataSource withoutRules = dataSourceConfig.createShardingDataSource(routingTableHolder.getRoutingTables() , false);
+        ReflectionTestUtils.setField(configBase , "broadcastTables" , "T_ROLE");
+        DataSource withRules = dataSourceConfig.createShardingDataSource(routingTableHolder.getRoutingTables() , false);
+
+        double broadcast = measure(() -> broadcastJoin(withRules , 5 , 3L));
+        double application = measure(() -> applicationJoin(withoutRules , 5 , 3L));
+        log.info("join耗时,broadcastTable={}us,applicationJoin={}us" , format(broadcast) , format(application));
+        //一次查询少一次往返
+        assertTrue(broadcast < application , "broadcast " + broadcast + "us , application " + application + "us");
+    }
+
+    @Test
+    void testHintJoin() throws Exception {
+        ShardingHints shardingHints = new ShardingHints(configBase);
+        ReshardableDataSource shardingDataSource = new ReshardableDataSource(dataSourceConfig::createShardingDataSource , routingTableHolder);
+
+        long spId = spId(7 , 5);
+        List<String> expected = Arrays.asList("sp" + spId + ",user7");
+        statements.set(0);
+        assertEquals(expected , keyJoin(shardingDataSource , spId));
+        assertEquals(DATA_SOURCES.size() , statements.get());
+        statements.set(0);
+        try (ShardingHints.Hint hint = shardingHints.database(7L)) {
+            assertEquals(expected , keyJoin(shardingDataSource , spId));
+            assertThrows(IllegalStateException.class , () -> shardingHints.database(7L));
+        }
+        assertEquals(1 , statements.get());
+        //hint关闭后恢复按条件路由
+        statements.set(0);
+        keyJoin(shardingDataSource , spId);
+        assertEquals(DATA_SOURCES.size() , statements.get());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void testHintJoinLatency() throws Exception {
+        ShardingHints shardingHints = new ShardingHints(configBase);
+        ReshardableDataSource shardingDataSource = new ReshardableDataSource(dataSourceConfig::createShardingDataSource , routingTableHolder);
+        long spId = spId(7 , 5);
+
+        double fanOut = measure(() -> keyJoin(shardingDataSource , spId));
+        double hinted;
+        try (ShardingHints.Hint hint = shardingHints.database(7L)) {
+            hinted = measure(() -> keyJoin(shardingDataSource , spId));
+        }
+        log.info("按主键join耗时,hint={}us,fanOut={}us" , format(hinted) , format(fanOut));
+        //只在一个库执行
+        assertTrue(hinted < fanOut , "hinted " + hinted + "us , fan-out " + fanOut + "us");
+    }
+
+    @Test
+    void testBindingTablesColocated() {
+        //b_user只分库, t_sp每库两张表, 只校验同库, 不注册为ShardingSphere绑定表
+        assertEquals(0 , routingTableHolder.checkBindingTableGroups(routingTableHolder.getRoutingTables()).size());
+        Map<String , RoutingTable> resharded = new LinkedHashMap<>(routingTableHolder.getRoutingTables());
+        resharded.put("t_sp" , new RoutingTable("t_sp" , 1 , Arrays.asList("jb_0" , "jb_1") , 1));
+        assertEquals(Arrays.asList(Arrays.asList("b_user" , "t_sp")) , routingTableHolder.checkBindingTableGroups(resharded));
+        resharded.put("t_sp" , new RoutingTable("t_sp" , 2 , Arrays.asList("jb_0" , "jb_1" , "jb_2") , 2));
+        assertThrows(IllegalStateException.class , () -> routingTableHolder.checkBindingTableGroups(resharded));
+    }
+
+    private List<String> broadcastJoin(DataSource dataSource , long tenantId , long bizId) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(BROADCAST_JOIN)) {
+            statement.setLong(1 , tenantId);
+            statement.setLong(2 , bizId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(resultSet.getLong(1) + "," + resultSet.getString(2) + "," + resultSet.getString(3));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 先查分片表, 再按SP_ID到默认库查角色, 在内存中关联
+     */
+    private List<String> applicationJoin(DataSource dataSource , long tenantId , long bizId) throws SQLException {
+        Map<Long , String> sps = new LinkedHashMap<>();
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT SP_ID , SP_NAME FROM t_sp WHERE TENANT_ID = ? AND BIZ_ID = ? ORDER BY SP_ID")) {
+                statement.setLong(1 , tenantId);
+                statement.setLong(2 , bizId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        sps.put(resultSet.getLong(1) , resultSet.getString(2));
+                    }
+                }
+            }
+            StringBuilder sql = new StringBuilder("SELECT SP_ID , ROLE_NAME FROM t_role WHERE SP_ID IN (");
+            for (int i = 0; i < sps.size(); i++) {
+                sql.append(i == 0 ? "?" : " , ?");
+            }
+            Map<Long , String> roles = new LinkedHashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(sql.append(')').toString())) {
+                int index = 1;
+                for (Long spId : sps.keySet()) {
+                    statement.setLong(index ++ , spId);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        roles.put(resultSet.getLong(1) , resultSet.getString(2));
+                    }
+                }
+            }
+            for (Map.Entry<Long , String> entry : sps.entrySet()) {
+                if(roles.containsKey(entry.getKey())) {
+                    rows.add(entry.getKey() + "," + entry.getValue() + "," + roles.get(entry.getKey()));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private List<String> keyJoin(DataSource dataSource , long spId) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(KEY_JOIN)) {
+            statement.setLong(1 , spId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(resultSet.getString(1) + "," + resultSet.getString(2));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return 平均耗时(微秒)
+     */
+    private static double measure(Query query) throws SQLException {
+        for (int i = 0; i < WARM_UP; i++) {
+            query.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            query.run();
+        }
+        return (System.nanoTime() - start) / 1000D / ROUNDS;
+    }
+
+    private static String format(double micros) {
+        return String.format("%.1f" , micros);
+    }
+
+    /**
+     * SP_ID的低6位为BIZ_ID(i % 4)
+     */
+    private static long spId(int tenant , int i) {
+        return (tenant * 100L + i) * 64 + i % 4;
+    }
+
+    /**
+     * 记录在物理库上创建的语句数
+     */
+    private DataSource counting(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader() , new Class<?>[]{DataSource.class} ,
+                (proxy , method , args) -> {
+                    Object result = invoke(dataSource , method , args);
+                    if(!(result instanceof Connection)) {
+                        return result;
+                    }
+                    Connection connection = (Connection) result;
+                    return Proxy.newProxyInstance(Connection.class.getClassLoader() , new Class<?>[]{Connection.class} ,
+                            (connectionProxy , connectionMethod , connectionArgs) -> {
+                                if("prepareStatement".equals(connectionMethod.getName()) || "createStatement".equals(connectionMethod.getName())) {
+                                    statements.incrementAndGet();
+                                }
+                                return invoke(connection , connectionMethod , connectionArgs);
+                            });
+                });
+    }
+
+    private static Object invoke(Object target , Method method , Object[] args) throws Throwable {
+        try {
+            return method.invoke(target , args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static void execute(DataSource dataSource , String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Query {
+
+        void run() throws SQLException;
+    }
+}
@@ -0,0 +1,139 @@
+package com.cloudtravel.shardingsphere.db;
+
+import com.cloudtravel.shardingsphere.keygen.SnowflakeIdGenerator;
+import com.google.common.collect.Range;
+import org.apache.shardingsphere.api.sharding.complex.ComplexKeysShardingValue;
+import org.apache.shardingsphere.api.sharding.hint.HintShardingValue;
+import org.apache.shardingsphere.api.sharding.standard.PreciseShardingValue;
+import org.apache.shardingsphere.api.sharding.standard.RangeShardingValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 三个数据源、四张分表时的等值、IN、范围路由
+ */
+class ShardingAlgorithmTest {
+
+    private static final List<String> DATA_SOURCES = Arrays.asList("ds_0" , "ds_1" , "ds_2");
+
+    private static final List<String> TABLES = Arrays.asList("t_sp_0" , "t_sp_1" , "t_sp_2" , "t_sp_3");
+
+    private DatabaseShardingAlgorithm databaseShardingAlgorithm;
+
+    private TableShardingAlgorithm tableShardingAlgorithm;
+
+    @BeforeEach
+    void init() {
+        DataSourceConfigBase configBase = new DataSourceConfigBase();
+        ReflectionTestUtils.setField(configBase , "datasourceNames" , "ds_0, ds_1 ,ds_2");
+        ReflectionTestUtils.setField(configBase , "shardingTableNames" , "T_SP");
+        ReflectionTestUtils.setField(configBase , "tableSpShardingColumn" , "BIZ_ID");
+        ReflectionTestUtils.setField(configBase , "tableSpKeyColumn" , "SP_ID");
+        ReflectionTestUtils.setField(configBase , "tableSpShardingCount" , 4);
+        //t_sharding_routing中没有记录, 按配置生成第1版路由表
+        RoutingTableHolder routingTableHolder = new RoutingTableHolder(configBase , Mockito.mock(RoutingTableStore.class));
+        routingTableHolder.afterPropertiesSet();
+        databaseShardingAlgorithm = new DatabaseShardingAlgorithm();
+        ReflectionTestUtils.setField(databaseShardingAlgorithm , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(databaseShardingAlgorithm , "routingTableHolder" , routingTableHolder);
+        databaseShardingAlgorithm.afterPropertiesSet();
+        tableShardingAlgorithm = new TableShardingAlgorithm();
+        ReflectionTestUtils.setField(tableShardingAlgorithm , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(tableShardingAlgorithm , "routingTableHolder" , routingTableHolder);
+        tableShardingAlgorithm.afterPropertiesSet();
+    }
+
+    @Test
+    void testDatabasePrecise() {
+        assertEquals("ds_0" , databaseShardingAlgorithm.doSharding(DATA_SOURCES , precise(3L)));
+        assertEquals("ds_2" , databaseShardingAlgorithm.doSharding(DATA_SOURCES , precise(5)));
+        //b_user的tenant_id为varchar
+        assertEquals("ds_1" , databaseShardingAlgorithm.doSharding(DATA_SOURCES , precise("7")));
+        assertEquals("ds_0" , databaseShardingAlgorithm.doSharding(DATA_SOURCES , precise("")));
+        assertEquals("ds_2" , databaseShardingAlgorithm.doSharding(DATA_SOURCES , precise(-1L)));
+        //同一个值每次返回同一个预先生成的名称
+        assertSame(databaseShardingAlgorithm.doSharding(DATA_SOURCES , precise(4L)) , databaseShardingAlgorithm.doSharding(DATA_SOURCES , precise(7L)));
+    }
+
+    @Test
+    void testDatabaseRange() {
+        assertEquals(Arrays.asList("ds_1" , "ds_2") , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.closed(4L , 5L))));
+        assertEquals(Arrays.asList("ds_0" , "ds_2") , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.closed(5L , 6L))));
+        assertEquals(Collections.singletonList("ds_2") , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.open(4L , 6L))));
+        assertEquals(DATA_SOURCES , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.closed(4L , 6L))));
+        assertEquals(DATA_SOURCES , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.atLeast(4L))));
+        assertEquals(DATA_SOURCES , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.closed(Long.MIN_VALUE , Long.MAX_VALUE))));
+        //字符串按字典序比较, 不裁剪
+        assertEquals(DATA_SOURCES , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.closed("1" , "2"))));
+        assertEquals(1 , databaseShardingAlgorithm.doSharding(DATA_SOURCES , range(Range.open(4L , 5L))).size());
+    }
+
+    @Test
+    void testDatabaseHint() {
+        assertEquals(Collections.singletonList("ds_1") , databaseShardingAlgorithm.doSharding(DATA_SOURCES ,
+                new HintShardingValue<Comparable<?>>("t_sp" , "" , Collections.singletonList(4L))));
+        assertEquals(Arrays.asList("ds_0" , "ds_2") , databaseShardingAlgorithm.doSharding(DATA_SOURCES ,
+                new HintShardingValue<Comparable<?>>("b_user" , "" , Arrays.asList("5" , 3L , 6L))));
+    }
+
+    @Test
+    void testTable() {
+        assertEquals(Collections.singletonList("t_sp_1") , tableShardingAlgorithm.doSharding(TABLES , complex("BIZ_ID" , Collections.singletonList(9L) , null)));
+        //sql中的列名为小写
+        assertEquals(Collections.singletonList("t_sp_2") , tableShardingAlgorithm.doSharding(TABLES , complex("biz_id" , Collections.singletonList(6L) , null)));
+        //IN: 每个值所在的表
+        assertEquals(Arrays.asList("t_sp_0" , "t_sp_1" , "t_sp_3") ,
+                tableShardingAlgorithm.doSharding(TABLES , complex("BIZ_ID" , Arrays.asList(3L , 8L , 9L , 12L) , null)));
+        assertEquals(Arrays.asList("t_sp_1" , "t_sp_2") , tableShardingAlgorithm.doSharding(TABLES , complex("BIZ_ID" , null , Range.closed(5L , 6L))));
+        assertEquals(TABLES , tableShardingAlgorithm.doSharding(TABLES , complex("BIZ_ID" , null , Range.closed(5L , 8L))));
+        //没有分表条件
+        assertSame(TABLES , tableShardingAlgorithm.doSharding(TABLES , complex("TENANT_ID" , Collections.singletonList(1L) , null)));
+    }
+
+    @Test
+    void testTableByKey() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0 , 10L , () -> true);
+        //只有SP_ID时按其中BIZ_ID的基因路由
+        assertEquals(Collections.singletonList("t_sp_1") ,
+                tableShardingAlgorithm.doSharding(TABLES , complex("sp_id" , Collections.singletonList(generator.nextId(9L)) , null)));
+        assertEquals(Arrays.asList("t_sp_2" , "t_sp_3") , tableShardingAlgorithm.doSharding(TABLES ,
+                complex("SP_ID" , Arrays.asList(generator.nextId(6L) , generator.nextId(7L) , generator.nextId(10L)) , null)));
+        //同时有BIZ_ID时以BIZ_ID为准
+        Map<String , Collection<Comparable<?>>> values = new HashMap<>();
+        values.put("BIZ_ID" , Collections.singletonList(5L));
+        values.put("SP_ID" , Collections.singletonList(generator.nextId(6L)));
+        assertEquals(Collections.singletonList("t_sp_1") ,
+                tableShardingAlgorithm.doSharding(TABLES , new ComplexKeysShardingValue<>("t_sp" , values , Collections.emptyMap())));
+    }
+
+    private static PreciseShardingValue<Comparable<?>> precise(Comparable<?> value) {
+        return new PreciseShardingValue<>("b_user" , "TENANT_ID" , value);
+    }
+
+    private static RangeShardingValue<Comparable<?>> range(Range<? extends Comparable<?>> range) {
+        @SuppressWarnings("unchecked")
+        Range<Comparable<?>> valueRange = (Range<Comparable<?>>) range;
+        return new RangeShardingValue<>("b_user" , "TENANT_ID" , valueRange);
+    }
+
+    private static ComplexKeysShardingValue<Comparable<?>> complex(String column , Collection<Comparable<?>> values ,
+                                                                   Range<? extends Comparable<?>> range) {
+        @SuppressWarnings("unchecked")
+        Map<String , Range<Comparable<?>>> ranges = range == null ? Collections.emptyMap()
+                : Collections.singletonMap(column , (Range<Comparable<?>>) range);
+        Map<String , Collection<Comparable<?>>> valuesMap = values == null ? Collections.emptyMap() : Collections.singletonMap(column , values);
+        return new ComplexKeysShardingValue<>("t_sp" , valuesMap , ranges);
+    }
+}
@@ -0,0 +1,270 @@
+package com.cloudtravel.shardingsphere.db;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.cloudtravel.shardingsphere.dao.BSpModelMapper;
+import com.cloudtravel.shardingsphere.dao.TUserModelMapper;
+import com.cloudtravel.shardingsphere.keygen.SnowflakeIdGenerator;
+import com.cloudtravel.shardingsphere.keygen.SnowflakeShardingKeyGenerator;
+import com.cloudtravel.shardingsphere.model.BSpModel;
+import com.cloudtravel.shardingsphere.model.TUserModel;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 连接池按数据源绑定配置并在创建时初始化; 预热预编译的物理sql覆盖经ShardingSphere执行mapper语句时预编译的sql
+ */
+class ShardingWarmUpTest {
+
+    private static final List<String> DATA_SOURCES = Arrays.asList("wu_0" , "wu_1");
+
+    private Map<String , DataSource> physicalDataSources;
+
+    /** 物理库上预编译的语句: 数据源|参数 */
+    private final Set<String> prepared = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    private DataSourceConfigBase configBase;
+
+    private RoutingTableHolder routingTableHolder;
+
+    private SqlSessionFactory sqlSessionFactory;
+
+    @BeforeEach
+    void init() throws Exception {
+        physicalDataSources = new LinkedHashMap<>();
+        for (String name : DATA_SOURCES) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+            execute(dataSource , "CREATE TABLE b_user (id BIGINT PRIMARY KEY , biz_id VARCHAR(20) , tenant_id VARCHAR(20) , "
+                    + "user_type SMALLINT , user_name VARCHAR(150) , id_number VARCHAR(255) , id_num_type SMALLINT , "
+                    + "gmt_create TIMESTAMP , gmt_update TIMESTAMP)");
+            for (int i = 0; i < 2; i++) {
+                execute(dataSource , "CREATE TABLE t_sp_" + i + " (SP_ID BIGINT AUTO_INCREMENT PRIMARY KEY , TENANT_ID BIGINT , "
+                        + "BIZ_ID BIGINT , SP_NAME VARCHAR(50) , REGISTER_DATE BIGINT , VERSION BIGINT , DEL_FLG BIT , "
+                        + "ADD_ACTION VARCHAR(50) , ADD_ACCOUNT_ID BIGINT , ADD_TERM_IP VARCHAR(50) , ADD_DT BIGINT , "
+                        + "UPD_ACTION VARCHAR(50) , UPD_ACCOUNT_ID BIGINT , UPD_TERM_IP VARCHAR(50) , UPD_DT BIGINT)");
+            }
+            physicalDataSources.put(name , recording(name , dataSource));
+        }
+
+        configBase = new DataSourceConfigBase();
+        ReflectionTestUtils.setField(configBase , "datasourceName1" , DATA_SOURCES.get(0));
+        ReflectionTestUtils.setField(configBase , "datasourceNames" , String.join("," , DATA_SOURCES));
+        ReflectionTestUtils.setField(configBase , "databaseShardingColumnDefault" , "TENANT_ID");
+        ReflectionTestUtils.setField(configBase , "shardingDatabaseTableNames" , "B_USER,T_SP");
+        ReflectionTestUtils.setField(configBase , "shardingTableNames" , "T_SP");
+        ReflectionTestUtils.setField(configBase , "userActualDataNodes" , "wu_$->{0..1}.b_user");
+        ReflectionTestUtils.setField(configBase , "tableSpShardingColumn" , "BIZ_ID");
+        ReflectionTestUtils.setField(configBase , "tableSpKeyColumn" , "SP_ID");
+        ReflectionTestUtils.setField(configBase , "tableSpShardingCount" , 2);
+        ReflectionTestUtils.setField(configBase , "bindingTables" , "");
+        ReflectionTestUtils.setField(configBase , "broadcastTables" , "");
+        routingTableHolder = new RoutingTableHolder(configBase , Mockito.mock(RoutingTableStore.class));
+        routingTableHolder.afterPropertiesSet();
+        DatabaseShardingAlgorithm databaseShardingAlgorithm = new DatabaseShardingAlgorithm();
+        ReflectionTestUtils.setField(databaseShardingAlgorithm , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(databaseShardingAlgorithm , "routingTableHolder" , routingTableHolder);
+        databaseShardingAlgorithm.afterPropertiesSet();
+        TableShardingAlgorithm tableShardingAlgorithm = new TableShardingAlgorithm();
+        ReflectionTestUtils.setField(tableShardingAlgorithm , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(tableShardingAlgorithm , "routingTableHolder" , routingTableHolder);
+        tableShardingAlgorithm.afterPropertiesSet();
+        DataSourceConfig dataSourceConfig = new DataSourceConfig();
+        ReflectionTestUtils.setField(dataSourceConfig , "dataSourceConfigBase" , configBase);
+        ReflectionTestUtils.setField(dataSourceConfig , "databaseShardingAlgorithm" , databaseShardingAlgorithm);
+        ReflectionTestUtils.setField(dataSourceConfig , "tableShardingAlgorithmCom" , tableShardingAlgorithm);
+        ReflectionTestUtils.setField(dataSourceConfig , "routingTableHolder" , routingTableHolder);
+        ReflectionTestUtils.setField(dataSourceConfig , "physicalDataSources" , new PhysicalDataSources(physicalDataSources , DATA_SOURCES.get(0)));
+        SnowflakeShardingKeyGenerator.setIdGenerator(new SnowflakeIdGenerator(1 , 10L , () -> true));
+
+        SqlSessionFactoryBean bean = new SqlSessionFactoryBean();
+        bean.setDataSource(new ReshardableDataSource(dataSourceConfig::createShardingDataSource , routingTableHolder));
+        bean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources("classpath:mapper/*.xml"));
+        //mapper接口按xml的namespace注册
+        sqlSessionFactory = bean.getObject();
+    }
+
+    @AfterEach
+    void destroy() throws Exception {
+        for (DataSource dataSource : physicalDataSources.values()) {
+            execute(dataSource , "DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    void testPoolBoundPerDataSource() throws Exception {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("datasource.pool.min-idle" , "3")
+                .withProperty("datasource.pool.max-active" , "8")
+                .withProperty("datasource.wu-0.url" , "jdbc:h2:mem:wu_0;MODE=MySQL;DB_CLOSE_DELAY=-1")
+                .withProperty("datasource.wu-1.url" , "jdbc:h2:mem:wu_1;MODE=MySQL;DB_CLOSE_DELAY=-1")
+                .withProperty("datasource.wu-1.pool.min-idle" , "1")
+                .withProperty("datasource.wu-1.pool.initial-size" , "2")
+                .withProperty("datasource.wu-1.pool.pool-prepared-statements" , "false");
+        DruidDataSource first = PhysicalDataSources.druidDataSource(environment , "wu_0");
+        DruidDataSource second = PhysicalDataSources.druidDataSource(environment , "wu_1");
+        try {
+            assertEquals(3 , first.getInitialSize());
+            assertEquals(3 , first.getMinIdle());
+            assertEquals(8 , first.getMaxActive());
+            assertTrue(first.isPoolPreparedStatements());
+            assertEquals(2 , second.getInitialSize());
+            assertEquals(1 , second.getMinIdle());
+            assertEquals(8 , second.getMaxActive());
+            assertFalse(second.isPoolPreparedStatements());
+
+            first.init();
+            assertEquals(3 , first.getPoolingCount());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    void testPhysicalSql() {
+        assertEquals("select * from t_sp_1 s where s.SP_ID = ?" ,
+                PhysicalSqls.rewrite("select * from t_sp s where s.SP_ID = ?" , SqlCommandType.SELECT , "t_sp" , "t_sp_1" , null));
+        //列名、其他表名中的逻辑表名不替换
+        assertEquals("update `t_sp_0` set t_sp_name = ? where SP_ID = ?" ,
+                PhysicalSqls.rewrite("update `t_sp` set t_sp_name = ? where SP_ID = ?" , SqlCommandType.UPDATE , "t_sp" , "t_sp_0" , null));
+        assertEquals("insert into b_user\n ( biz_id,\n user_name , id) values (?, ?, ?)" ,
+                PhysicalSqls.rewrite("insert into b_user\n ( biz_id,\n user_name ) values ( ?,\n ? )" ,
+                        SqlCommandType.INSERT , "b_user" , "b_user" , "id"));
+        assertEquals("insert into b_user (id, user_name) values (?, ?)" ,
+                PhysicalSqls.rewrite("insert into b_user (id, user_name) values (?,\n ?\n )" ,
+                        SqlCommandType.INSERT , "b_user" , "b_user" , "id"));
+    }
+
+    @Test
+    void testWarmUpCoversMapperStatements() {
+        ShardingWarmUp warmUp = new ShardingWarmUp(sqlSessionFactory , new PhysicalDataSources(physicalDataSources , DATA_SOURCES.get(0)) ,
+                routingTableHolder , configBase , Collections.singletonMap("b_user" , DataSourceConfig.USER_KEY_COLUMN) , true);
+        assertTrue(warmUp.warmUp() > 0);
+        Set<String> warmed = new LinkedHashSet<>(prepared);
+
+        prepared.clear();
+        try (SqlSession session = sqlSessionFactory.openSession(true)) {
+            TUserModelMapper userMapper = session.getMapper(TUserModelMapper.class);
+            BSpModelMapper spMapper = session.getMapper(BSpModelMapper.class);
+            for (long tenantId = 0; tenantId < 2; tenantId++) {
+                userMapper.insertSelective(user(null , tenantId));
+                userMapper.insert(user(100 + tenantId , tenantId));
+                userMapper.selectByPrimaryKey(100 + tenantId);
+                userMapper.deleteByPrimaryKey(100 + tenantId);
+                for (long bizId = 0; bizId < 2; bizId++) {
+                    spMapper.insertSelective(sp(null , tenantId , bizId));
+                    long spId = 1000 + tenantId * 64 + bizId;
+                    spMapper.insert(sp(spId , tenantId , bizId));
+                    spMapper.selectByPrimaryKey(spId);
+                    spMapper.deleteByPrimaryKey(spId);
+                }
+            }
+        }
+        assertFalse(prepared.isEmpty());
+        for (String statement : prepared) {
+            assertTrue(warmed.contains(statement) , statement);
+        }
+    }
+
+    /**
+     * 除主键外的属性都有值, 与预热使用的参数形式相同
+     */
+    private static TUserModel user(Long id , long tenantId) {
+        TUserModel model = new TUserModel();
+        model.setId(id);
+        model.setBizId("1");
+        model.setTenantId(String.valueOf(tenantId));
+        model.setUserType(1);
+        model.setUserName("user" + tenantId);
+        model.setIdNumber("231");
+        model.setIdNumType(0);
+        model.setGmtCreate(new Date());
+        model.setGmtUpdate(new Date());
+        return model;
+    }
+
+    private static BSpModel sp(Long spId , long tenantId , long bizId) {
+        BSpModel model = new BSpModel();
+        model.setSpId(spId);
+        model.setTenantId(tenantId);
+        model.setBizId(bizId);
+        model.setSpName("sp" + bizId);
+        model.setRegisterDate(0L);
+        model.setVersion(1L);
+        model.setDelFlg(false);
+        model.setAddAction("test");
+        model.setAddAccountId(0L);
+        model.setAddTermIp("127.0.0.1");
+        model.setAddDt(0L);
+        model.setUpdAction("test");
+        model.setUpdAccountId(0L);
+        model.setUpdTermIp("127.0.0.1");
+        model.setUpdDt(0L);
+        return model;
+    }
+
+    /**
+     * 记录在物理库上预编译的语句
+     */
+    private DataSource recording(String name , DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader() , new Class<?>[]{DataSource.class} ,
+                (proxy , method , args) -> {
+                    Object result = invoke(dataSource , method , args);
+                    if(!(result instanceof Connection)) {
+                        return result;
+                    }
+                    Connection connection = (Connection) result;
+                    return Proxy.newProxyInstance(Connection.class.getClassLoader() , new Class<?>[]{Connection.class} ,
+                            (connectionProxy , connectionMethod , connectionArgs) -> {
+                                if("prepareStatement".equals(connectionMethod.getName())) {
+                                    prepared.add(name + "|" + Arrays.toString(connectionArgs));
+                                }
+                                return invoke(connection , connectionMethod , connectionArgs);
+                            });
+                });
+    }
+
+    private static Object invoke(Object target , Method method , Object[] args) throws Throwable {
+        try {
+            return method.invoke(target , args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static void execute(DataSource dataSource , String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
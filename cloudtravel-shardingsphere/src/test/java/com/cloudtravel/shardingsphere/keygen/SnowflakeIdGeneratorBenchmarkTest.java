@@ -0,0 +1,34 @@
+package com.cloudtravel.shardingsphere.keygen;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多线程生成id的吞吐, 受机器负载影响, 只在 -Pbenchmark 时执行.
+ * 每毫秒2048个序列号, 上限约2.048M/s
+ */
+@Tag("benchmark")
+class SnowflakeIdGeneratorBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(SnowflakeIdGeneratorBenchmarkTest.class);
+
+    @Test
+    void testThroughput() throws InterruptedException {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1 , 10L , () -> true);
+        //预热
+        SnowflakeIdGeneratorTest.generate(generator , 2 , 100000);
+
+        int threads = 4;
+        int perThread = 500000;
+        long start = System.nanoTime();
+        long[] ids = SnowflakeIdGeneratorTest.generate(generator , threads , perThread);
+        long elapsed = System.nanoTime() - start;
+        double idsPerSecond = ids.length * 1000000000D / elapsed;
+        log.info("snowflake吞吐,threads={},ids={},idsPerSecond={}" , threads , ids.length , String.format("%.0f" , idsPerSecond));
+        assertTrue(idsPerSecond >= 1000000D , "ids/s : " + idsPerSecond);
+    }
+}
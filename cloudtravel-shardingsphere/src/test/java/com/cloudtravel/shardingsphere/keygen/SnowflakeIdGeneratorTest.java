@@ -0,0 +1,122 @@
+package com.cloudtravel.shardingsphere.keygen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * id布局、分片基因、序列号用完、时钟回拨、租约失效, 以及多线程下的唯一性和递增; 吞吐见SnowflakeIdGeneratorBenchmarkTest
+ */
+class SnowflakeIdGeneratorTest {
+
+    private static final long NOW = 1700000000000L;
+
+    @Test
+    void testLayout() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7 , 10L , () -> true , () -> NOW);
+        long first = generator.nextId(13L);
+        long second = generator.nextId(13L);
+        assertEquals(13L , SnowflakeIdGenerator.gene(first));
+        assertEquals(7 , SnowflakeIdGenerator.workerId(first));
+        assertEquals(NOW , SnowflakeIdGenerator.timestamp(first));
+        assertTrue(second > first);
+        //基因只取低6位, 负数按floorMod
+        assertEquals(1L , SnowflakeIdGenerator.gene(generator.nextId(65L)));
+        assertEquals(63L , SnowflakeIdGenerator.gene(generator.nextId(-1L)));
+        assertThrows(IllegalArgumentException.class , () -> new SnowflakeIdGenerator(32 , 10L , () -> true));
+    }
+
+    @Test
+    void testGeneRouting() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3 , 10L , () -> true);
+        for (long bizId = -70L; bizId < 200L; bizId++) {
+            long id = generator.nextId(bizId);
+            for (int tableCount : new int[]{1 , 2 , 4 , 8 , 16 , 32 , 64}) {
+                assertEquals(Math.floorMod(bizId , tableCount) , Math.floorMod(id , tableCount));
+            }
+        }
+    }
+
+    @Test
+    void testSequenceExhausted() {
+        //同一毫秒内分配2048个后时钟才前进
+        AtomicLong calls = new AtomicLong();
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0 , 10L , () -> true ,
+                () -> calls.incrementAndGet() > 2048 ? NOW + 1 : NOW);
+        long last = 0L;
+        for (int i = 0; i < 2048; i++) {
+            long id = generator.nextId();
+            assertEquals(NOW , SnowflakeIdGenerator.timestamp(id));
+            assertTrue(id > last);
+            last = id;
+        }
+        long next = generator.nextId();
+        assertEquals(NOW + 1 , SnowflakeIdGenerator.timestamp(next));
+        assertTrue(next > last);
+    }
+
+    @Test
+    void testClockBackward() {
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0 , 10L , () -> true , clock::get);
+        long before = generator.nextId();
+        //回拨在容忍范围内, 沿用上次的时间戳
+        clock.set(NOW - 10L);
+        long after = generator.nextId();
+        assertTrue(after > before);
+        assertEquals(NOW , SnowflakeIdGenerator.timestamp(after));
+        clock.set(NOW - 11L);
+        assertThrows(IllegalStateException.class , generator::nextId);
+        clock.set(NOW + 1L);
+        assertTrue(generator.nextId() > after);
+    }
+
+    @Test
+    void testLeaseLost() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0 , 10L , () -> false);
+        assertThrows(IllegalStateException.class , generator::nextId);
+    }
+
+    @Test
+    void testConcurrentUniqueness() throws InterruptedException {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1 , 10L , () -> true);
+        int threads = 4;
+        int perThread = 100000;
+        long[] ids = generate(generator , threads , perThread);
+        //同一线程内递增
+        for (int t = 0; t < threads; t++) {
+            for (int i = t * perThread + 1; i < (t + 1) * perThread; i++) {
+                assertTrue(ids[i] > ids[i - 1] , "not increasing at " + i);
+            }
+        }
+        Arrays.sort(ids);
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(ids[i] != ids[i - 1] , "duplicate id " + ids[i]);
+        }
+    }
+
+    /**
+     * 多个线程各生成perThread个id, 第t个线程的结果在[t * perThread, (t + 1) * perThread)
+     */
+    static long[] generate(SnowflakeIdGenerator generator , int threads , int perThread) throws InterruptedException {
+        long[] ids = new long[threads * perThread];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int offset = t * perThread;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ids[offset + i] = generator.nextId(i);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return ids;
+    }
+}
@@ -0,0 +1,81 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * H2中代替MySqlReshardDialect触发器的Java触发器: 与其相同, update时记录修改前的行, 主键或分片字段变化时再记录修改后的行.
+ * H2的触发器只能指定类名, 列名和变更表按ReshardingJobTest固定
+ */
+public class H2ChangeLogTrigger implements Trigger {
+
+    static final String CHANGE_LOG_TABLE = "t_reshard_changelog";
+
+    static final String PRIMARY_KEY = "SP_ID";
+
+    static final String DATABASE_COLUMN = "TENANT_ID";
+
+    static final String TABLE_COLUMN = "BIZ_ID";
+
+    private String tableName;
+
+    private int keyIndex = -1;
+
+    private int databaseIndex = -1;
+
+    private int tableIndex = -1;
+
+    @Override
+    public void init(Connection conn , String schemaName , String triggerName , String tableName , boolean before , int type) throws SQLException {
+        this.tableName = tableName;
+        try (ResultSet resultSet = conn.getMetaData().getColumns(null , schemaName , tableName , null)) {
+            while (resultSet.next()) {
+                String column = resultSet.getString("COLUMN_NAME");
+                int index = resultSet.getInt("ORDINAL_POSITION") - 1;
+                if(PRIMARY_KEY.equalsIgnoreCase(column)) {
+                    keyIndex = index;
+                } else if(DATABASE_COLUMN.equalsIgnoreCase(column)) {
+                    databaseIndex = index;
+                } else if(TABLE_COLUMN.equalsIgnoreCase(column)) {
+                    tableIndex = index;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fire(Connection conn , Object[] oldRow , Object[] newRow) throws SQLException {
+        if(oldRow != null) {
+            log(conn , oldRow);
+        }
+        if(newRow != null && (oldRow == null || !Objects.equals(oldRow[keyIndex] , newRow[keyIndex])
+                || !Objects.equals(oldRow[databaseIndex] , newRow[databaseIndex])
+                || !Objects.equals(oldRow[tableIndex] , newRow[tableIndex]))) {
+            log(conn , newRow);
+        }
+    }
+
+    private void log(Connection conn , Object[] row) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement("INSERT INTO " + CHANGE_LOG_TABLE
+                + " (TABLE_NAME, PK_VALUE, DB_KEY, TABLE_KEY) VALUES (?, ?, ?, ?)")) {
+            statement.setString(1 , tableName);
+            statement.setObject(2 , row[keyIndex]);
+            statement.setString(3 , Objects.toString(row[databaseIndex] , null));
+            statement.setString(4 , Objects.toString(row[tableIndex] , null));
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
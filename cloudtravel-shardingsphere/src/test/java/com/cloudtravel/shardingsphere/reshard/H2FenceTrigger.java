@@ -0,0 +1,32 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * H2中代替MySqlReshardDialect写入拦截的Java触发器: BEFORE触发器中抛出异常, 写入失败
+ */
+public class H2FenceTrigger implements Trigger {
+
+    private String tableName;
+
+    @Override
+    public void init(Connection conn , String schemaName , String triggerName , String tableName , boolean before , int type) {
+        this.tableName = tableName;
+    }
+
+    @Override
+    public void fire(Connection conn , Object[] oldRow , Object[] newRow) throws SQLException {
+        throw new SQLException(tableName + " has been resharded, routing version is outdated" , "45000");
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
@@ -0,0 +1,363 @@
+package com.cloudtravel.shardingsphere.reshard;
+
+import com.cloudtravel.shardingsphere.db.DataSourceConfigBase;
+import com.cloudtravel.shardingsphere.db.PhysicalDataSources;
+import com.cloudtravel.shardingsphere.db.ReshardableDataSource;
+import com.cloudtravel.shardingsphere.db.RoutingTable;
+import com.cloudtravel.shardingsphere.db.RoutingTableHolder;
+import com.cloudtravel.shardingsphere.db.RoutingTableStore;
+import com.cloudtravel.shardingsphere.reshard.ReshardingProgress.Phase;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 三个MySQL模式的H2内存库: t_sp从2库x2表重新分片到3库x4表, 复制、回放变更、校验修复、切换以及切换时等待借出的连接,
+ * 切换时旧表的写入拦截
+ */
+class ReshardingJobTest {
+
+    private static final List<String> SOURCE_DATA_SOURCES = Arrays.asList("rs_0" , "rs_1");
+
+    private static final List<String> TARGET_DATA_SOURCES = Arrays.asList("rs_0" , "rs_1" , "rs_2");
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS ${table} (SP_ID BIGINT PRIMARY KEY , "
+            + "TENANT_ID BIGINT NOT NULL , BIZ_ID BIGINT NOT NULL , SP_NAME VARCHAR(64))";
+
+    private Map<String , DataSource> dataSources;
+
+    private DataSourceConfigBase configBase;
+
+    private RoutingTableHolder routingTableHolder;
+
+    private RoutingTableStore routingTableStore;
+
+    private ReshardableDataSource shardingDataSource;
+
+    /** ShardingSphere数据源每次重建时的路由表 */
+    private List<Map<String , RoutingTable>> createdWith;
+
+    private ReshardingJob job;
+
+    @BeforeEach
+    void init() throws Exception {
+        dataSources = new LinkedHashMap<>();
+        for (String name : TARGET_DATA_SOURCES) {
+            dataSources.put(name , createDataSource(name));
+        }
+        for (String name : SOURCE_DATA_SOURCES) {
+            execute(dataSources.get(name) , CREATE_TABLE.replace("${table}" , "t_sp_0"));
+            execute(dataSources.get(name) , CREATE_TABLE.replace("${table}" , "t_sp_1"));
+        }
+        execute(dataSources.get("rs_0") , "CREATE TABLE t_sharding_routing (LOGIC_TABLE VARCHAR(64) NOT NULL , VERSION INT NOT NULL , "
+                + "DATA_SOURCES VARCHAR(1000) NOT NULL , TABLE_COUNT INT NOT NULL , PRIMARY KEY (LOGIC_TABLE , VERSION))");
+        PhysicalDataSources physicalDataSources = new PhysicalDataSources(dataSources , "rs_0");
+
+        configBase = new DataSourceConfigBase();
+        ReflectionTestUtils.setField(configBase , "datasourceNames" , String.join("," , SOURCE_DATA_SOURCES));
+        ReflectionTestUtils.setField(configBase , "shardingTableNames" , "T_SP");
+        ReflectionTestUtils.setField(configBase , "databaseShardingColumnDefault" , H2ChangeLogTrigger.DATABASE_COLUMN);
+        ReflectionTestUtils.setField(configBase , "tableSpShardingColumn" , H2ChangeLogTrigger.TABLE_COLUMN);
+        ReflectionTestUtils.setField(configBase , "tableSpShardingCount" , 2);
+        ReflectionTestUtils.setField(configBase , "bindingTables" , "");
+        routingTableStore = new RoutingTableStore(physicalDataSources);
+        routingTableHolder = new RoutingTableHolder(configBase , routingTableStore);
+        routingTableHolder.afterPropertiesSet();
+        createdWith = new ArrayList<>();
+        shardingDataSource = new ReshardableDataSource((routingTables , hintRouting) -> {
+            if(!hintRouting) {
+                createdWith.add(new LinkedHashMap<>(routingTables));
+            }
+            return dataSources.get("rs_0");
+        } , routingTableHolder);
+
+        ReshardingProperties properties = new ReshardingProperties();
+        properties.setBatchSize(7);
+        properties.setParallelism(2);
+        properties.setRowsPerSecond(1000000D);
+        properties.setPauseTimeoutMillis(200L);
+        job = new ReshardingJob(properties , physicalDataSources , routingTableHolder , routingTableStore ,
+                shardingDataSource , new H2ReshardDialect() , configBase);
+
+        for (long spId = 1; spId <= 40; spId++) {
+            insert(spId , spId % 5 , spId * 3 , "sp" + spId);
+        }
+    }
+
+    @AfterEach
+    void destroy() throws Exception {
+        for (DataSource dataSource : dataSources.values()) {
+            execute(dataSource , "DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    void testReshard() throws Exception {
+        RoutingTable source = routingTableHolder.get("t_sp");
+        assertEquals(1 , source.getVersion());
+        ReshardingProgress progress = job.start("t_sp" , TARGET_DATA_SOURCES , 4);
+        assertEquals(Arrays.asList("t_sp_v2_0" , "t_sp_v2_1" , "t_sp_v2_2" , "t_sp_v2_3") , progress.getTarget().getTables());
+        job.prepare(progress);
+        job.copy(progress);
+        assertEquals(40 , progress.getCopiedRows());
+        assertEquals(rows(source) , rows(progress.getTarget()));
+
+        //复制后旧表的修改由变更表回放, 分表字段12改为14后在旧路由下位置不变, 在新路由下换到另一张物理表
+        execute(locate(source , 3L) , "UPDATE " + source.table(9L) + " SET SP_NAME = 'changed' WHERE SP_ID = 3");
+        execute(locate(source , 4L) , "UPDATE " + source.table(12L) + " SET BIZ_ID = 14 WHERE SP_ID = 4");
+        execute(locate(source , 5L) , "DELETE FROM " + source.table(15L) + " WHERE SP_ID = 5");
+        insert(41L , 1L , 6L , "sp41");
+        assertTrue(job.catchUp(progress));
+        assertEquals(5 , progress.getReplayedChanges());
+        assertTrue(job.verify(progress));
+        assertEquals(0 , progress.getMismatchedChunks());
+        assertEquals(rows(source) , rows(progress.getTarget()));
+
+        //绕过触发器的修改和新表中多余的行由校验修复
+        RoutingTable target = progress.getTarget();
+        execute(dataSources.get(target.dataSource(1L)) , "UPDATE " + target.table(3L) + " SET SP_NAME = 'lost' WHERE SP_ID = 1");
+        execute(dataSources.get(target.dataSource(2L)) , "INSERT INTO " + target.table(7L) + " VALUES (100 , 2 , 7 , 'orphan')");
+        assertTrue(job.verify(progress));
+        assertEquals(2 , progress.getMismatchedChunks());
+        assertEquals(2 , progress.getRepairedRows());
+        assertEquals(rows(source) , rows(target));
+
+        job.cutover(progress);
+        assertEquals(target.toString() , routingTableHolder.get("t_sp").toString());
+        assertEquals(target.toString() , routingTableStore.load("t_sp").toString());
+        assertEquals(2 , createdWith.size());
+        assertEquals(2 , createdWith.get(1).get("t_sp").getVersion());
+
+        job.finish(progress);
+        assertEquals(Phase.DONE , progress.getPhase());
+        //旧表已拦截写入, 尚未切换的节点写旧表失败, 不会有切换后才回放到新表的旧数据
+        assertThrows(SQLException.class , () -> execute(dataSources.get(source.dataSource(1L)) ,
+                "INSERT INTO " + source.table(6L) + " VALUES (42 , 1 , 6 , 'sp42')"));
+        assertThrows(SQLException.class , () -> execute(locate(source , 1L) ,
+                "UPDATE " + source.table(3L) + " SET SP_NAME = 'stale' WHERE SP_ID = 1"));
+        assertEquals(0 , job.replay(progress));
+        assertEquals(rows(source) , rows(target));
+        assertEquals(progress , job.getProgress("T_SP"));
+    }
+
+    @Test
+    void testAbortAfterFenceReopensOldTables() throws Exception {
+        ReshardingProgress progress = job.start("t_sp" , TARGET_DATA_SOURCES , 4);
+        RoutingTable source = progress.getSource();
+        job.prepare(progress);
+        job.copy(progress);
+        assertTrue(job.verify(progress));
+
+        //拦截旧表后保存新版本失败(版本已存在), 放弃切换
+        routingTableStore.save(progress.getTarget());
+        assertThrows(IllegalStateException.class , () -> job.cutover(progress));
+        assertEquals(1 , routingTableHolder.get("t_sp").getVersion());
+        assertThrows(SQLException.class , () -> execute(locate(source , 1L) ,
+                "UPDATE " + source.table(3L) + " SET SP_NAME = 'fenced' WHERE SP_ID = 1"));
+
+        //未切换时放弃会删除写入拦截和变更触发器
+        job.abort(progress , "save failed");
+        assertEquals(Phase.FAILED , progress.getPhase());
+        insert(41L , 1L , 6L , "sp41");
+        assertEquals(0 , job.replay(progress));
+    }
+
+    @Test
+    void testReplayKeepsPositionWhenGapsOverflow() throws Exception {
+        ReshardingProgress progress = job.start("t_sp" , TARGET_DATA_SOURCES , 4);
+        RoutingTable source = progress.getSource();
+        RoutingTable target = progress.getTarget();
+        job.prepare(progress);
+        job.copy(progress);
+
+        DataSource dataSource = locate(source , 3L);
+        execute(dataSource , "UPDATE " + source.table(9L) + " SET SP_NAME = 'before' WHERE SP_ID = 3");
+        //ID 2~20000 的空洞超过上限, 回放停在空洞之前, 之后的变更不会被丢弃
+        execute(dataSource , "ALTER TABLE " + H2ChangeLogTrigger.CHANGE_LOG_TABLE + " ALTER COLUMN ID RESTART WITH 20001");
+        execute(dataSource , "UPDATE " + source.table(9L) + " SET SP_NAME = 'late' WHERE SP_ID = 3");
+        assertEquals(1 , job.replay(progress));
+        assertEquals(0 , job.replay(progress));
+        assertEquals("3,9,before" , rows(target).get(3L));
+
+        //切换时旧表已拦截写入, 剩余变更全部回放
+        job.cutover(progress);
+        assertEquals("3,9,late" , rows(target).get(3L));
+        assertEquals(rows(source) , rows(target));
+    }
+
+    @Test
+    void testCutoverWaitsForConnection() throws Exception {
+        ReshardingProgress progress = job.start("t_sp" , TARGET_DATA_SOURCES , 4);
+        job.prepare(progress);
+        job.copy(progress);
+        assertTrue(job.verify(progress));
+
+        //借出的连接归还前不能切换
+        try (Connection connection = shardingDataSource.getConnection()) {
+            assertFalse(connection.isClosed());
+            ExecutionException e = assertThrows(ExecutionException.class ,
+                    () -> CompletableFuture.runAsync(() -> job.cutover(progress)).get(5 , TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals(1 , routingTableHolder.get("t_sp").getVersion());
+            assertNull(routingTableStore.load("t_sp"));
+        }
+        assertEquals(0 , shardingDataSource.getActiveConnections());
+
+        //归还后可以切换, 之后的连接来自按新版本重建的数据源
+        job.cutover(progress);
+        assertEquals(2 , routingTableHolder.get("t_sp").getVersion());
+        try (Connection connection = shardingDataSource.getConnection()) {
+            assertEquals(1 , shardingDataSource.getActiveConnections());
+        }
+        assertThrows(IllegalStateException.class , () -> job.cutover(progress));
+    }
+
+    @Test
+    void testStartAndAbort() {
+        assertThrows(IllegalStateException.class , () -> job.start("t_sp" , Arrays.asList("rs_0" , "unknown") , 4));
+        assertThrows(IllegalStateException.class , () -> job.start("b_user" , TARGET_DATA_SOURCES , 4));
+        //与b_user绑定时只能在b_user的数据源上重新分片
+        ReflectionTestUtils.setField(configBase , "bindingTables" , "B_USER,T_SP");
+        assertThrows(IllegalStateException.class , () -> job.start("t_sp" , TARGET_DATA_SOURCES , 4));
+        assertEquals(4 , job.start("t_sp" , SOURCE_DATA_SOURCES , 4).getTarget().getTables().size());
+        job.abort(job.getProgress("t_sp") , "canceled");
+        ReflectionTestUtils.setField(configBase , "bindingTables" , "");
+        ReshardingProgress progress = job.start("t_sp" , TARGET_DATA_SOURCES , 4);
+        assertThrows(IllegalStateException.class , () -> job.start("t_sp" , TARGET_DATA_SOURCES , 3));
+
+        job.prepare(progress);
+        job.abort(progress , "canceled");
+        assertEquals(Phase.FAILED , progress.getPhase());
+        assertEquals("canceled" , progress.getMessage());
+        assertEquals(1 , routingTableHolder.get("t_sp").getVersion());
+        //触发器已删除, 可以重新开始
+        insert(41L , 1L , 6L , "sp41");
+        assertEquals(0 , job.replay(progress));
+        assertEquals(2 , job.start("t_sp" , TARGET_DATA_SOURCES , 3).getTarget().getVersion());
+    }
+
+    private void insert(long spId , long tenantId , long bizId , String spName) {
+        RoutingTable routingTable = routingTableHolder.get("t_sp");
+        try {
+            execute(dataSources.get(routingTable.dataSource(tenantId)) , "INSERT INTO " + routingTable.table(bizId)
+                    + " VALUES (" + spId + " , " + tenantId + " , " + bizId + " , '" + spName + "')");
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private DataSource locate(RoutingTable routingTable , long spId) {
+        //初始数据中 TENANT_ID = SP_ID % 5
+        return dataSources.get(routingTable.dataSource(spId % 5));
+    }
+
+    /**
+     * 路由表下全部物理表的行, 并检查每行都在其分片字段对应的位置
+     * @return SP_ID -> 行
+     */
+    private Map<Long , String> rows(RoutingTable routingTable) throws SQLException {
+        Map<Long , String> rows = new TreeMap<>();
+        for (String dataSource : routingTable.getDataSourceNames()) {
+            for (String table : routingTable.getTables()) {
+                try (Connection connection = dataSources.get(dataSource).getConnection(); Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT SP_ID , TENANT_ID , BIZ_ID , SP_NAME FROM " + table)) {
+                    while (resultSet.next()) {
+                        assertEquals(dataSource + "." + table , routingTable.dataSource(resultSet.getLong(2)) + "." + routingTable.table(resultSet.getLong(3)));
+                        rows.put(resultSet.getLong(1) , resultSet.getLong(2) + "," + resultSet.getLong(3) + "," + resultSet.getString(4));
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static DataSource createDataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    private static void execute(DataSource dataSource , String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * H2没有SHOW CREATE TABLE和SQL触发器, 建表语句固定, 触发器为H2ChangeLogTrigger和H2FenceTrigger
+     */
+    private static final class H2ReshardDialect implements ReshardDialect {
+
+        @Override
+        public String createTableSql(Connection source , String sourceTable , String targetTable) {
+            return CREATE_TABLE.replace("${table}" , targetTable);
+        }
+
+        @Override
+        public String createChangeLogSql(String changeLogTable) {
+            return "CREATE TABLE IF NOT EXISTS " + changeLogTable + " (ID BIGINT AUTO_INCREMENT PRIMARY KEY , "
+                    + "TABLE_NAME VARCHAR(64) NOT NULL , PK_VALUE BIGINT NOT NULL , DB_KEY VARCHAR(64) , TABLE_KEY VARCHAR(64))";
+        }
+
+        @Override
+        public List<String> createTriggerSqls(String table , String changeLogTable , String primaryKey , String databaseColumn , String tableColumn) {
+            List<String> sqls = new ArrayList<>();
+            for (String event : Arrays.asList("INSERT" , "UPDATE" , "DELETE")) {
+                sqls.add("CREATE TRIGGER " + table + "_rs_" + event.toLowerCase() + " AFTER " + event + " ON " + table
+                        + " FOR EACH ROW CALL \"" + H2ChangeLogTrigger.class.getName() + "\"");
+            }
+            return sqls;
+        }
+
+        @Override
+        public List<String> dropTriggerSqls(String table) {
+            List<String> sqls = new ArrayList<>();
+            for (String event : Arrays.asList("insert" , "update" , "delete")) {
+                sqls.add("DROP TRIGGER IF EXISTS " + table + "_rs_" + event);
+            }
+            return sqls;
+        }
+
+        @Override
+        public List<String> createFenceSqls(String table , long lockWaitSeconds) {
+            List<String> sqls = new ArrayList<>();
+            for (String event : Arrays.asList("INSERT" , "UPDATE" , "DELETE")) {
+                sqls.add("CREATE TRIGGER " + table + "_rs_before_" + event.toLowerCase() + " BEFORE " + event + " ON " + table
+                        + " FOR EACH ROW CALL \"" + H2FenceTrigger.class.getName() + "\"");
+            }
+            return sqls;
+        }
+
+        @Override
+        public List<String> dropFenceSqls(String table) {
+            List<String> sqls = new ArrayList<>();
+            for (String event : Arrays.asList("insert" , "update" , "delete")) {
+                sqls.add("DROP TRIGGER IF EXISTS " + table + "_rs_before_" + event);
+            }
+            return sqls;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.cloudtravel.shardingsphere.service.impl;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.cloudtravel.shardingsphere.db.DataSourceConfigBase;
+import com.cloudtravel.shardingsphere.db.PhysicalDataSources;
+import com.cloudtravel.shardingsphere.db.RoutingTableHolder;
+import com.cloudtravel.shardingsphere.db.RoutingTableStore;
+import com.cloudtravel.shardingsphere.model.BSpModel;
+import com.cloudtravel.shardingsphere.model.SpPage;
+import com.cloudtravel.shardingsphere.model.SpPageOrder;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 两个H2库各两张t_sp分表上的键集分页: 逐页翻完与整体排序的结果一致, 每页从各物理表读取的行数与页码无关
+ */
+class SpPageServiceTest {
+
+    private static final List<String> DATA_SOURCES = Arrays.asList("pg_0" , "pg_1");
+
+    private static final int ROWS = 200;
+
+    private static final int PAGE_SIZE = 7;
+
+    private final List<BSpModel> all = new ArrayList<>();
+
+    private Map<String , DataSource> physicalDataSources;
+
+    /** 从物理表读取的行数 */
+    private final AtomicInteger fetchedRows = new AtomicInteger();
+
+    /** 当前未关闭的连接数和最大值 */
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private final AtomicInteger maxOpenConnections = new AtomicInteger();
+
+    private SqlSessionFactory sqlSessionFactory;
+
+    private RoutingTableHolder routingTableHolder;
+
+    private SpPageServiceImpl spPageService;
+
+    @BeforeEach
+    void init() throws Exception {
+        physicalDataSources = new LinkedHashMap<>();
+        for (String name : DATA_SOURCES) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+            for (int i = 0; i < 2; i++) {
+                execute(dataSource , "CREATE TABLE t_sp_" + i + " (SP_ID BIGINT PRIMARY KEY , TENANT_ID BIGINT NOT NULL , "
+                        + "BIZ_ID BIGINT NOT NULL , SP_NAME VARCHAR(50) NOT NULL , REGISTER_DATE BIGINT , VERSION BIGINT , DEL_FLG BIT , "
+                        + "ADD_ACTION VARCHAR(50) , ADD_ACCOUNT_ID BIGINT , ADD_TERM_IP VARCHAR(50) , ADD_DT BIGINT , "
+                        + "UPD_ACTION VARCHAR(50) , UPD_ACCOUNT_ID BIGINT , UPD_TERM_IP VARCHAR(50) , UPD_DT BIGINT)");
+                execute(dataSource , "CREATE INDEX IDX_REGISTER_DATE_" + i + " ON t_sp_" + i + " (REGISTER_DATE)");
+            }
+            physicalDataSources.put(name , counting(dataSource));
+        }
+        for (int i = 0; i < ROWS; i++) {
+            BSpModel model = new BSpModel();
+            model.setSpId(1000L + i * 7 % ROWS);
+            model.setTenantId((long) (i % 4));
+            model.setBizId((long) (i / 4 % 4));
+            model.setSpName("sp" + i);
+            //有重复值和NULL
+            model.setRegisterDate(i % 9 == 0 ? null : (long) (i * 13 % 17));
+            all.add(model);
+            try (Connection connection = physicalDataSources.get(DATA_SOURCES.get((int) (model.getTenantId() % 2))).getConnection();
+                 PreparedStatement statement = connection.prepareStatement("INSERT INTO t_sp_" + model.getBizId() % 2
+                         + " (SP_ID , TENANT_ID , BIZ_ID , SP_NAME , REGISTER_DATE) VALUES (? , ? , ? , ? , ?)")) {
+                statement.setLong(1 , model.getSpId());
+                statement.setLong(2 , model.getTenantId());
+                statement.setLong(3 , model.getBizId());
+                statement.setString(4 , model.getSpName());
+                statement.setObject(5 , model.getRegisterDate());
+                statement.executeUpdate();
+            }
+        }
+
+        DataSourceConfigBase configBase = new DataSourceConfigBase();
+        ReflectionTestUtils.setField(configBase , "datasourceNames" , String.join("," , DATA_SOURCES));
+        ReflectionTestUtils.setField(configBase , "shardingTableNames" , "T_SP");
+        ReflectionTestUtils.setField(configBase , "tableSpShardingCount" , 2);
+        routingTableHolder = new RoutingTableHolder(configBase , Mockito.mock(RoutingTableStore.class));
+        routingTableHolder.afterPropertiesSet();
+        SqlSessionFactoryBean bean = new SqlSessionFactoryBean();
+        bean.setDataSource(physicalDataSources.get(DATA_SOURCES.get(0)));
+        bean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources("classpath:mapper/*.xml"));
+        sqlSessionFactory = bean.getObject();
+        spPageService = new SpPageServiceImpl(sqlSessionFactory , new PhysicalDataSources(physicalDataSources , DATA_SOURCES.get(0)) ,
+                routingTableHolder , 50);
+    }
+
+    @AfterEach
+    void destroy() throws Exception {
+        for (DataSource dataSource : physicalDataSources.values()) {
+            execute(dataSource , "DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    void testPageThroughAllShards() {
+        for (SpPageOrder order : SpPageOrder.values()) {
+            assertEquals(expected(order , null , null) , pageThrough(order , null , null) , order.name());
+            assertEquals(expected(order , 1L , null) , pageThrough(order , 1L , null) , order.name());
+            assertEquals(expected(order , null , 2L) , pageThrough(order , null , 2L) , order.name());
+            assertEquals(expected(order , 3L , 1L) , pageThrough(order , 3L , 1L) , order.name());
+        }
+    }
+
+    @Test
+    void testDeepPageReadsSameRows() {
+        int shards = DATA_SOURCES.size() * 2;
+        String token = null;
+        int pages = 0;
+        do {
+            fetchedRows.set(0);
+            maxOpenConnections.set(0);
+            SpPage page = spPageService.page(null , null , SpPageOrder.REGISTER_DATE_DESC , PAGE_SIZE , token);
+            //每个物理表最多读取size+1行, 不随页码增加
+            assertTrue(fetchedRows.get() <= shards * (PAGE_SIZE + 1) , "page " + pages + " fetched " + fetchedRows.get());
+            //各数据源依次查询, 每个数据源的多个物理表共用一个连接, 同时最多占用一个连接
+            assertEquals(1 , maxOpenConnections.get() , "page " + pages);
+            assertEquals(0 , openConnections.get());
+            token = page.getNextToken();
+            pages ++;
+        } while (token != null);
+        assertEquals((ROWS + PAGE_SIZE - 1) / PAGE_SIZE , pages);
+    }
+
+    @Test
+    void testOnePooledConnectionPerDataSource() throws Exception {
+        //每个库的连接池只有一个连接, 少于每个库的物理表数
+        Map<String , DataSource> pools = new LinkedHashMap<>();
+        for (String name : DATA_SOURCES) {
+            DruidDataSource pool = new DruidDataSource();
+            pool.setUrl("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+            pool.setInitialSize(0);
+            pool.setMinIdle(0);
+            pool.setMaxActive(1);
+            pool.setMaxWait(500L);
+            pools.put(name , pool);
+        }
+        PhysicalDataSources pooled = new PhysicalDataSources(pools , DATA_SOURCES.get(0));
+        try {
+            spPageService = new SpPageServiceImpl(sqlSessionFactory , pooled , routingTableHolder , 50);
+            assertEquals(expected(SpPageOrder.REGISTER_DATE_ASC , null , null) , pageThrough(SpPageOrder.REGISTER_DATE_ASC , null , null));
+            assertEquals(expected(SpPageOrder.SP_ID_DESC , 2L , null) , pageThrough(SpPageOrder.SP_ID_DESC , 2L , null));
+        } finally {
+            pooled.destroy();
+        }
+    }
+
+    @Test
+    void testInvalidToken() {
+        SpPage first = spPageService.page(1L , null , SpPageOrder.SP_ID_ASC , PAGE_SIZE , null);
+        assertNotNull(first.getNextToken());
+        assertThrows(IllegalArgumentException.class , () -> spPageService.page(1L , null , SpPageOrder.SP_ID_DESC , PAGE_SIZE , first.getNextToken()));
+        assertThrows(IllegalArgumentException.class , () -> spPageService.page(2L , null , SpPageOrder.SP_ID_ASC , PAGE_SIZE , first.getNextToken()));
+        assertThrows(IllegalArgumentException.class , () -> spPageService.page(1L , null , SpPageOrder.SP_ID_ASC , PAGE_SIZE , "not-a-token"));
+        assertThrows(IllegalArgumentException.class , () -> spPageService.page(1L , null , SpPageOrder.SP_ID_ASC , 51 , null));
+        //最后一页没有token
+        assertNull(spPageService.page(1L , 1L , SpPageOrder.SP_ID_ASC , 50 , null).getNextToken());
+    }
+
+    private List<Long> pageThrough(SpPageOrder order , Long tenantId , Long bizId) {
+        List<Long> result = new ArrayList<>();
+        String token = null;
+        do {
+            SpPage page = spPageService.page(tenantId , bizId , order , PAGE_SIZE , token);
+            assertTrue(page.getRows().size() <= PAGE_SIZE);
+            page.getRows().forEach(row -> result.add(row.getSpId()));
+            token = page.getNextToken();
+        } while (token != null);
+        return result;
+    }
+
+    /**
+     * 与MySQL一致: 升序NULL在最前, 降序NULL在最后
+     */
+    private List<Long> expected(SpPageOrder order , Long tenantId , Long bizId) {
+        Comparator<BSpModel> comparator;
+        if(order.getSortColumn() == null) {
+            comparator = Comparator.comparing(BSpModel::getSpId);
+        }else {
+            comparator = Comparator.comparing(BSpModel::getRegisterDate , Comparator.nullsFirst(Comparator.<Long>naturalOrder()))
+                    .thenComparing(BSpModel::getSpId);
+        }
+        return all.stream()
+                .filter(row -> tenantId == null || tenantId.equals(row.getTenantId()))
+                .filter(row -> bizId == null || bizId.equals(row.getBizId()))
+                .sorted(order.isAsc() ? comparator : comparator.reversed())
+                .map(BSpModel::getSpId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 记录从物理表读取的行数和同时打开的连接数
+     */
+    private DataSource counting(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader() , new Class<?>[]{DataSource.class} ,
+                (proxy , method , args) -> {
+                    Object result = invoke(dataSource , method , args);
+                    if(result instanceof Connection) {
+                        maxOpenConnections.accumulateAndGet(openConnections.incrementAndGet() , Math::max);
+                    }
+                    return wrap(result);
+                });
+    }
+
+    private Object wrap(Object target) {
+        Class<?> type = target instanceof Connection ? Connection.class
+                : target instanceof PreparedStatement ? PreparedStatement.class
+                : target instanceof ResultSet ? ResultSet.class : null;
+        if(type == null) {
+            return target;
+        }
+        return Proxy.newProxyInstance(type.getClassLoader() , new Class<?>[]{type} , (proxy , method , args) -> {
+            Object result = invoke(target , method , args);
+            if(type == ResultSet.class && "next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                fetchedRows.incrementAndGet();
+            }
+            if(type == Connection.class && "close".equals(method.getName())) {
+                openConnections.decrementAndGet();
+            }
+            return wrap(result);
+        });
+    }
+
+    private static Object invoke(Object target , Method method , Object[] args) throws Throwable {
+        try {
+            return method.invoke(target , args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static void execute(DataSource dataSource , String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}